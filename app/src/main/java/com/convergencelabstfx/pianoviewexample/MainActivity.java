@@ -243,34 +243,35 @@ public class MainActivity extends AppCompatActivity {
 
                 final float scaleMin = Float.parseFloat(getResources().getString(R.string.blackKeyScale_min));
                 final float scaleMax = Float.parseFloat(getResources().getString(R.string.blackKeyScale_max));
-                mBinding.blackKeyWidthSlider.setValue(scaleMin + r.nextFloat() * (scaleMax - scaleMin));
-                mBinding.blackKeyHeightSlider.setValue(scaleMin + r.nextFloat() * (scaleMax - scaleMin));
-
-                final Button temp = mCurSelectedButton;
-                mBinding.piano.setWhiteKeyColor(Color.argb(
-                        255,
-                        r.nextInt(256),
-                        r.nextInt(256),
-                        r.nextInt(256)
-                ));
-                mBinding.piano.setBlackKeyColor(Color.argb(
-                        255,
-                        r.nextInt(256),
-                        r.nextInt(256),
-                        r.nextInt(256)
-                ));
-                mBinding.piano.setPressedKeyColor(Color.argb(
-                        255,
-                        r.nextInt(256),
-                        r.nextInt(256),
-                        r.nextInt(256)
-                ));
-                mBinding.piano.setKeyStrokeColor(Color.argb(
-                        255,
-                        r.nextInt(256),
-                        r.nextInt(256),
-                        r.nextInt(256)
-                ));
+                final float blackKeyWidthScale = scaleMin + r.nextFloat() * (scaleMax - scaleMin);
+                final float blackKeyHeightScale = scaleMin + r.nextFloat() * (scaleMax - scaleMin);
+
+                final int minStrokeWidth = Integer.parseInt(getResources().getString(R.string.strokeWidth_min));
+                final int maxStrokeWidth = Integer.parseInt(getResources().getString(R.string.strokeWidth_max));
+                final int strokeWidth = r.nextInt(maxStrokeWidth - minStrokeWidth) + minStrokeWidth;
+
+                final int minCornerRadius = Integer.parseInt(getResources().getString(R.string.cornerRadius_min));
+                final int maxCornerRadius = Integer.parseInt(getResources().getString(R.string.cornerRadius_max));
+                final int cornerRadius = r.nextInt(maxCornerRadius - minCornerRadius) + minCornerRadius;
+
+                // Apply everything in one batch, so the piano is only laid out and redrawn once.
+                mBinding.piano.edit()
+                        .blackKeyWidthScale(blackKeyWidthScale)
+                        .blackKeyHeightScale(blackKeyHeightScale)
+                        .keyStrokeWidth((int) convertDpToPixel(strokeWidth, getApplicationContext()))
+                        .keyCornerRadius((int) convertDpToPixel(cornerRadius, getApplicationContext()))
+                        .whiteKeyColor(randomColor(r))
+                        .blackKeyColor(randomColor(r))
+                        .pressedKeyColor(randomColor(r))
+                        .keyStrokeColor(randomColor(r))
+                        .apply();
+
+                // The piano already has these values, so the slider listeners won't change anything.
+                mBinding.blackKeyWidthSlider.setValue(blackKeyWidthScale);
+                mBinding.blackKeyHeightSlider.setValue(blackKeyHeightScale);
+                mBinding.strokeWidthSlider.setValue(strokeWidth);
+                mBinding.cornerRadiusSlider.setValue(cornerRadius);
+
                 if (mCurSelectedButton == mBinding.whiteKeyColorToggle) {
                     loadColorIntoSliders(mBinding.piano.getWhiteKeyColor());
                 }
@@ -286,14 +287,6 @@ public class MainActivity extends AppCompatActivity {
                 else {
                     throw new IllegalArgumentException("Illegal button passed as parameter");
                 }
-
-                final int minStrokeWidth = Integer.parseInt(getResources().getString(R.string.strokeWidth_min));
-                final int maxStrokeWidth = Integer.parseInt(getResources().getString(R.string.strokeWidth_max));
-                mBinding.strokeWidthSlider.setValue(r.nextInt(maxStrokeWidth - minStrokeWidth) + minStrokeWidth);
-
-                final int minCornerRadius = Integer.parseInt(getResources().getString(R.string.cornerRadius_min));
-                final int maxCornerRadius = Integer.parseInt(getResources().getString(R.string.cornerRadius_max));
-                mBinding.strokeWidthSlider.setValue(r.nextInt(maxCornerRadius - minCornerRadius) + minCornerRadius);
             }
         });
     }
@@ -361,6 +354,18 @@ public class MainActivity extends AppCompatActivity {
         mBinding.blueSlider.setValue(colorVal & 255);
     }
 
+    /*
+     * Returns a random opaque color.
+     */
+    private static int randomColor(Random r) {
+        return Color.argb(
+                255,
+                r.nextInt(256),
+                r.nextInt(256),
+                r.nextInt(256)
+        );
+    }
+
     /*
      * Converts the RGB values from the sliders
      * into an int color value.
@@ -0,0 +1,103 @@
+package com.convergencelabstfx.pianoview;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for highlight updates that are coalesced per frame.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PianoViewHighlightTest {
+
+    private static final long UPDATE_MILLIS = 500;
+
+    @Test
+    public void coalescesProgrammaticUpdatesPerFrame() throws InterruptedException {
+        final PianoView[] piano = new PianoView[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                piano[0] = createPiano();
+                piano[0].setFrameCoalescingEnabled(true);
+                piano[0].setMetricsEnabled(true);
+            }
+        });
+
+        // About 1000 updates per second on the UI thread
+        final Handler handler = new Handler(Looper.getMainLooper());
+        final CountDownLatch done = new CountDownLatch(1);
+        final int[] updates = new int[1];
+        final long end = SystemClock.uptimeMillis() + UPDATE_MILLIS;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                final int key = updates[0]++ % 2;
+                if (piano[0].keyIsPressed(key)) {
+                    piano[0].showKeyNotPressed(key);
+                }
+                else {
+                    piano[0].showKeyPressed(key);
+                }
+                if (SystemClock.uptimeMillis() < end) {
+                    handler.postDelayed(this, 1);
+                }
+                else {
+                    done.countDown();
+                }
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final PianoViewStats stats = piano[0].getStats();
+                assertTrue(stats.getHighlightFrameCount() > 0);
+                assertTrue(stats.getInvalidateCount() <= stats.getHighlightFrameCount());
+                assertTrue(stats.getKeyColorUpdateCount() < updates[0]);
+            }
+        });
+    }
+
+    @Test
+    public void keyPressedAndReleasedWithinFrameIsNotRecolored() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final PianoView piano = createPiano();
+                piano.setFrameCoalescingEnabled(true);
+                piano.setMetricsEnabled(true);
+                piano.showKeyPressed(5);
+                piano.showKeyNotPressed(5);
+                assertFalse(piano.keyIsPressed(5));
+                // Nothing is recolored until the frame
+                assertEquals(0, piano.getStats().getKeyColorUpdateCount());
+
+                piano.setFrameCoalescingEnabled(false);
+                assertEquals(0, piano.getStats().getKeyColorUpdateCount());
+            }
+        });
+    }
+
+    private static PianoView createPiano() {
+        final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        final PianoView piano = new PianoView(context, null);
+        piano.setNumberOfKeys(61);
+        piano.layout(0, 0, 1080, 300);
+        return piano;
+    }
+
+}
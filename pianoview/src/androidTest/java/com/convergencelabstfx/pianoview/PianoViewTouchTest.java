@@ -0,0 +1,216 @@
+package com.convergencelabstfx.pianoview;
+
+import android.content.Context;
+import android.os.Debug;
+import android.view.MotionEvent;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests that drive synthetic gestures through {@link PianoView#onTouchEvent(MotionEvent)}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PianoViewTouchTest {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 300;
+    private static final int POINTERS = 10;
+
+    @Test
+    public void touchHandlingDoesNotAllocate() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final PianoView piano = createPiano();
+                piano.addPianoTouchListener(new CountingListener());
+                piano.addPianoBatchListener(new PianoBatchListener() {
+                    @Override
+                    public void onKeyEvents(@NonNull PianoView piano, @NonNull KeyEventBatch batch) {
+                    }
+                });
+                final List<MotionEvent> gesture = createGesture(true);
+                final List<MotionEvent> cancelledGesture = createGesture(false);
+
+                // Warm up, so the key event batch has grown to its final size
+                replay(piano, gesture);
+                replay(piano, cancelledGesture);
+
+                final int allocations = countAllocations(piano, gesture, cancelledGesture);
+                recycle(gesture);
+                recycle(cancelledGesture);
+                assertEquals(0, allocations);
+            }
+        });
+    }
+
+    @Test
+    public void listenerCanRemoveItselfWhileDispatching() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final PianoView piano = createPiano();
+                final CountingListener other = new CountingListener();
+                piano.addPianoTouchListener(new CountingListener() {
+                    @Override
+                    public void onKeyUp(@NonNull PianoView piano, int key) {
+                        piano.removePianoTouchListener(this);
+                    }
+                });
+                piano.addPianoTouchListener(other);
+                final List<MotionEvent> gesture = createGesture(true);
+                replay(piano, gesture);
+                recycle(gesture);
+                assertTrue(other.mKeyUps > 0);
+                assertEquals(other.mKeyDowns, other.mKeyUps);
+            }
+        });
+    }
+
+    @Test
+    public void cancelReleasesEveryKey() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final PianoView piano = createPiano();
+                final CountingListener listener = new CountingListener();
+                piano.addPianoTouchListener(listener);
+                final List<MotionEvent> gesture = createGesture(false);
+                replay(piano, gesture);
+                recycle(gesture);
+                assertEquals(listener.mKeyDowns, listener.mKeyUps);
+                assertEquals(0, listener.mKeyClicks);
+                assertEquals(0, piano.getPressedKeyCount());
+            }
+        });
+    }
+
+    @SuppressWarnings("deprecation")
+    private static int countAllocations(PianoView piano, List<MotionEvent> gesture, List<MotionEvent> cancelledGesture) {
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        for (int i = 0; i < 20; i++) {
+            replay(piano, gesture);
+            replay(piano, cancelledGesture);
+        }
+        final int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+        return allocations;
+    }
+
+    private static PianoView createPiano() {
+        final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        final PianoView piano = new PianoView(context, null);
+        piano.setNumberOfKeys(61);
+        piano.layout(0, 0, WIDTH, HEIGHT);
+        return piano;
+    }
+
+    private static void replay(PianoView piano, List<MotionEvent> events) {
+        for (int i = 0; i < events.size(); i++) {
+            piano.onTouchEvent(events.get(i));
+        }
+    }
+
+    private static void recycle(List<MotionEvent> events) {
+        for (MotionEvent event : events) {
+            event.recycle();
+        }
+    }
+
+    /**
+     * Ten fingers go down one after another, glide to the right in batched move events,
+     * then either lift one after another, or get cancelled.
+     */
+    private static List<MotionEvent> createGesture(boolean lift) {
+        final List<MotionEvent> events = new ArrayList<>();
+        final MotionEvent.PointerProperties[] properties = new MotionEvent.PointerProperties[POINTERS];
+        final MotionEvent.PointerCoords[] coords = new MotionEvent.PointerCoords[POINTERS];
+        for (int i = 0; i < POINTERS; i++) {
+            properties[i] = new MotionEvent.PointerProperties();
+            properties[i].id = i;
+            properties[i].toolType = MotionEvent.TOOL_TYPE_FINGER;
+            coords[i] = new MotionEvent.PointerCoords();
+            coords[i].x = 20 + i * 50;
+            coords[i].y = (i % 2 == 0) ? HEIGHT * 0.8f : HEIGHT * 0.2f;
+        }
+        long time = 0;
+        for (int i = 1; i <= POINTERS; i++) {
+            final int action = i == 1
+                    ? MotionEvent.ACTION_DOWN
+                    : MotionEvent.ACTION_POINTER_DOWN | ((i - 1) << MotionEvent.ACTION_POINTER_INDEX_SHIFT);
+            events.add(obtain(time++, action, i, properties, coords));
+        }
+        for (int move = 0; move < 10; move++) {
+            MotionEvent event = null;
+            for (int sample = 0; sample < 5; sample++) {
+                for (int i = 0; i < POINTERS; i++) {
+                    coords[i].x += 7;
+                }
+                if (event == null) {
+                    event = obtain(time, MotionEvent.ACTION_MOVE, POINTERS, properties, coords);
+                }
+                else {
+                    event.addBatch(time, coords, 0);
+                }
+                time += 3;
+            }
+            events.add(event);
+        }
+        if (lift) {
+            for (int i = POINTERS; i >= 1; i--) {
+                final int action = i == 1
+                        ? MotionEvent.ACTION_UP
+                        : MotionEvent.ACTION_POINTER_UP | ((i - 1) << MotionEvent.ACTION_POINTER_INDEX_SHIFT);
+                events.add(obtain(time++, action, i, properties, coords));
+            }
+        }
+        else {
+            events.add(obtain(time, MotionEvent.ACTION_CANCEL, POINTERS, properties, coords));
+        }
+        return events;
+    }
+
+    private static MotionEvent obtain(
+            long time,
+            int action,
+            int pointerCount,
+            MotionEvent.PointerProperties[] properties,
+            MotionEvent.PointerCoords[] coords) {
+        return MotionEvent.obtain(0, time, action, pointerCount, properties, coords,
+                0, 0, 1, 1, 0, 0, 0, 0);
+    }
+
+    private static class CountingListener implements PianoTouchListener {
+
+        int mKeyDowns;
+        int mKeyUps;
+        int mKeyClicks;
+
+        @Override
+        public void onKeyDown(@NonNull PianoView piano, int key) {
+            mKeyDowns++;
+        }
+
+        @Override
+        public void onKeyUp(@NonNull PianoView piano, int key) {
+            mKeyUps++;
+        }
+
+        @Override
+        public void onKeyClick(@NonNull PianoView piano, int key) {
+            mKeyClicks++;
+        }
+
+    }
+
+}
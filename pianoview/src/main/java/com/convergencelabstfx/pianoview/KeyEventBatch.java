@@ -0,0 +1,127 @@
+package com.convergencelabstfx.pianoview;
+
+import java.util.Arrays;
+
+/**
+ * A reusable batch of key events, delivered to a {@link PianoBatchListener}.
+ * <p>
+ * Events are stored in parallel primitive arrays, and are read by index:
+ * <pre>
+ * for (int i = 0; i < batch.size(); i++) {
+ *     if (batch.getType(i) == KeyEventBatch.TYPE_KEY_DOWN) {
+ *         noteOn(batch.getKey(i), batch.getTime(i));
+ *     }
+ * }
+ * </pre>
+ */
+public final class KeyEventBatch {
+
+    public static final int TYPE_KEY_DOWN = PianoKeyEventQueue.TYPE_KEY_DOWN;
+    public static final int TYPE_KEY_UP = PianoKeyEventQueue.TYPE_KEY_UP;
+    public static final int TYPE_KEY_CLICK = PianoKeyEventQueue.TYPE_KEY_CLICK;
+
+    /**
+     * The events came from a touch event.
+     */
+    public static final int SOURCE_TOUCH = 0;
+
+    /**
+     * The events came from a bulk update of the pressed keys, e.g. {@link PianoView#setPressedKeys(int[])}.
+     * Key down and key up mean the key started or stopped being shown as pressed.
+     */
+    public static final int SOURCE_PRESSED_KEYS_UPDATE = 1;
+
+    /**
+     * Pointer id of events that weren't caused by a pointer.
+     */
+    public static final int NO_POINTER = -1;
+
+    private static final int INITIAL_CAPACITY = 32;
+
+    private int[] mTypes = new int[INITIAL_CAPACITY];
+    private int[] mKeys = new int[INITIAL_CAPACITY];
+    private int[] mPointerIds = new int[INITIAL_CAPACITY];
+    private long[] mTimes = new long[INITIAL_CAPACITY];
+    private int mSize;
+    private int mSource;
+
+    KeyEventBatch() {
+    }
+
+    void clear(int source) {
+        mSize = 0;
+        mSource = source;
+    }
+
+    void add(int type, int key, int pointerId, long time) {
+        if (mSize == mTypes.length) {
+            grow();
+        }
+        mTypes[mSize] = type;
+        mKeys[mSize] = key;
+        mPointerIds[mSize] = pointerId;
+        mTimes[mSize] = time;
+        mSize++;
+    }
+
+    /**
+     * Returns where the events came from; {@link #SOURCE_TOUCH} or {@link #SOURCE_PRESSED_KEYS_UPDATE}.
+     */
+    public int getSource() {
+        return mSource;
+    }
+
+    /**
+     * Returns the number of events in the batch.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the type of an event; {@link #TYPE_KEY_DOWN}, {@link #TYPE_KEY_UP} or {@link #TYPE_KEY_CLICK}.
+     */
+    public int getType(int i) {
+        checkIndex(i);
+        return mTypes[i];
+    }
+
+    /**
+     * Returns the key index of an event.
+     */
+    public int getKey(int i) {
+        checkIndex(i);
+        return mKeys[i];
+    }
+
+    /**
+     * Returns the id of the pointer that caused an event, or {@link #NO_POINTER}.
+     */
+    public int getPointerId(int i) {
+        checkIndex(i);
+        return mPointerIds[i];
+    }
+
+    /**
+     * Returns the time of an event, in the {@link android.os.SystemClock#uptimeMillis()} time base.
+     */
+    public long getTime(int i) {
+        checkIndex(i);
+        return mTimes[i];
+    }
+
+    private void grow() {
+        final int capacity = mTypes.length * 2;
+        mTypes = Arrays.copyOf(mTypes, capacity);
+        mKeys = Arrays.copyOf(mKeys, capacity);
+        mPointerIds = Arrays.copyOf(mPointerIds, capacity);
+        mTimes = Arrays.copyOf(mTimes, capacity);
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= mSize) {
+            throw new IndexOutOfBoundsException("i must be between 0 and " + (mSize - 1) + ". Actual i: " + i);
+        }
+    }
+
+}
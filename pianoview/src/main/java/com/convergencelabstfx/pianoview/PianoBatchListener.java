@@ -0,0 +1,21 @@
+package com.convergencelabstfx.pianoview;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Batched listener interface for PianoView.
+ * Instead of one call per key event, {@link #onKeyEvents(PianoView, KeyEventBatch)} is called once
+ * with every key event from a single touch event, or from a single bulk update of the pressed keys
+ * (e.g. {@link PianoView#setPressedKeys(int[])}).
+ */
+public interface PianoBatchListener {
+
+    /**
+     * Called with the key events of one touch event or bulk update, in the order they happened.
+     * The batch is reused afterwards, so it is only valid during this call.
+     * @param piano The PianoView the events came from.
+     * @param batch The key events.
+     */
+    void onKeyEvents(@NonNull PianoView piano, @NonNull KeyEventBatch batch);
+
+}
@@ -0,0 +1,104 @@
+package com.convergencelabstfx.pianoview;
+
+/**
+ * Decides which keys {@link PianoView} shows pressed when highlight changes are coalesced per frame.
+ * <p>
+ * The pressed keys may change any number of times between two frames; only the state at the frame
+ * is shown. A key that was pressed since the last frame is shown for at least the minimum number of
+ * frames, even if it was released again before the frame.
+ */
+final class PianoHighlightCoalescer {
+
+    // Keys currently shown pressed
+    private final PianoKeyBitSet mShownKeys = new PianoKeyBitSet();
+    // Keys pressed since the last frame
+    private final PianoKeyBitSet mPressedSinceFrame = new PianoKeyBitSet();
+    // Keys that are shown for more frames whether or not they're still pressed
+    private final PianoKeyBitSet mHeldKeys = new PianoKeyBitSet();
+    private final int[] mHeldFrames = new int[PianoKeyBitSet.CAPACITY];
+    private int mMinFrames;
+
+    /**
+     * @param shownLo Mask of the keys shown when coalescing starts, for keys 0 - 63.
+     * @param shownHi Mask of the keys shown when coalescing starts, for keys 64 - 127.
+     */
+    PianoHighlightCoalescer(long shownLo, long shownHi, int minFrames) {
+        mShownKeys.set(shownLo, shownHi);
+        mMinFrames = minFrames;
+    }
+
+    /**
+     * Returns the keys currently shown pressed. Only changed by {@link #onFrame} and {@link #flush}.
+     */
+    PianoKeyBitSet getShownKeys() {
+        return mShownKeys;
+    }
+
+    void setMinFrames(int minFrames) {
+        mMinFrames = minFrames;
+    }
+
+    /**
+     * Records keys that went from not pressed to pressed.
+     */
+    void keysPressed(long lo, long hi) {
+        mPressedSinceFrame.lo |= lo;
+        mPressedSinceFrame.hi |= hi;
+    }
+
+    void keyPressed(int key) {
+        mPressedSinceFrame.add(key);
+    }
+
+    /**
+     * Forgets every key greater than or equal to numberOfKeys.
+     */
+    void retainBelow(int numberOfKeys) {
+        mShownKeys.retainBelow(numberOfKeys);
+        mPressedSinceFrame.retainBelow(numberOfKeys);
+        mHeldKeys.retainBelow(numberOfKeys);
+    }
+
+    /**
+     * Updates the shown keys to the pressed keys at a frame, plus the keys still held for their
+     * minimum number of frames.
+     *
+     * @param changed Receives the keys whose shown state changed.
+     * @return True if keys are still held, or keys are shown that aren't pressed, so another frame
+     * is needed to release them.
+     */
+    boolean onFrame(long pressedLo, long pressedHi, PianoKeyBitSet changed) {
+        if (mMinFrames > 0) {
+            for (int key = mPressedSinceFrame.first(); key != -1; key = mPressedSinceFrame.next(key + 1)) {
+                mHeldKeys.add(key);
+                mHeldFrames[key] = mMinFrames;
+            }
+        }
+        mPressedSinceFrame.clear();
+        final long shownLo = pressedLo | mHeldKeys.lo;
+        final long shownHi = pressedHi | mHeldKeys.hi;
+        changed.set(mShownKeys.lo ^ shownLo, mShownKeys.hi ^ shownHi);
+        mShownKeys.set(shownLo, shownHi);
+
+        // This frame counts towards the minimum of every held key
+        for (int key = mHeldKeys.first(); key != -1; key = mHeldKeys.next(key + 1)) {
+            if (--mHeldFrames[key] == 0) {
+                mHeldKeys.remove(key);
+            }
+        }
+        return !mHeldKeys.isEmpty() || shownLo != pressedLo || shownHi != pressedHi;
+    }
+
+    /**
+     * Shows exactly the pressed keys, dropping pending changes and held keys.
+     *
+     * @param changed Receives the keys whose shown state changed.
+     */
+    void flush(long pressedLo, long pressedHi, PianoKeyBitSet changed) {
+        mPressedSinceFrame.clear();
+        mHeldKeys.clear();
+        changed.set(mShownKeys.lo ^ pressedLo, mShownKeys.hi ^ pressedHi);
+        mShownKeys.set(pressedLo, pressedHi);
+    }
+
+}
@@ -0,0 +1,151 @@
+package com.convergencelabstfx.pianoview;
+
+/**
+ * A 128-bit set of key indices, stored in two longs.
+ * <p>
+ * Bit i of {@link #lo} is key i, and bit i of {@link #hi} is key 64 + i.
+ * Key indices outside of [0, 128) are never contained in the set.
+ */
+final class PianoKeyBitSet {
+
+    static final int CAPACITY = 128;
+
+    long lo;
+    long hi;
+
+    boolean contains(int key) {
+        if (key < 0 || key >= CAPACITY) {
+            return false;
+        }
+        if (key < 64) {
+            return (lo & (1L << key)) != 0;
+        }
+        return (hi & (1L << (key - 64))) != 0;
+    }
+
+    void add(int key) {
+        checkKey(key);
+        if (key < 64) {
+            lo |= 1L << key;
+        }
+        else {
+            hi |= 1L << (key - 64);
+        }
+    }
+
+    void remove(int key) {
+        checkKey(key);
+        if (key < 64) {
+            lo &= ~(1L << key);
+        }
+        else {
+            hi &= ~(1L << (key - 64));
+        }
+    }
+
+    /**
+     * Removes every key greater than or equal to numberOfKeys.
+     */
+    void retainBelow(int numberOfKeys) {
+        if (numberOfKeys <= 0) {
+            clear();
+        }
+        else if (numberOfKeys < 64) {
+            lo &= (1L << numberOfKeys) - 1;
+            hi = 0;
+        }
+        else if (numberOfKeys < CAPACITY) {
+            hi &= (1L << (numberOfKeys - 64)) - 1;
+        }
+    }
+
+    /**
+     * Removes every key but one: the lowest key that isn't in the given mask,
+     * or else the lowest key.
+     *
+     * @param olderLo Mask of keys 0 - 63 to keep only if no other key is left, e.g. the keys already shown.
+     * @param olderHi Same as olderLo, for keys 64 - 127.
+     */
+    void retainSingle(long olderLo, long olderHi) {
+        long newerLo = lo & ~olderLo;
+        long newerHi = hi & ~olderHi;
+        if (newerLo == 0 && newerHi == 0) {
+            newerLo = lo;
+            newerHi = hi;
+        }
+        if (newerLo != 0) {
+            lo = Long.lowestOneBit(newerLo);
+            hi = 0;
+        }
+        else {
+            lo = 0;
+            hi = Long.lowestOneBit(newerHi);
+        }
+    }
+
+    void set(long lo, long hi) {
+        this.lo = lo;
+        this.hi = hi;
+    }
+
+    void clear() {
+        lo = 0;
+        hi = 0;
+    }
+
+    boolean isEmpty() {
+        return lo == 0 && hi == 0;
+    }
+
+    int size() {
+        return Long.bitCount(lo) + Long.bitCount(hi);
+    }
+
+    /**
+     * Returns the lowest key in the set, or -1 if the set is empty.
+     */
+    int first() {
+        return next(0);
+    }
+
+    /**
+     * Returns the lowest key in the set that is greater than or equal to from,
+     * or -1 if there is none.
+     * Removing keys lower than from while iterating is safe.
+     */
+    int next(int from) {
+        if (from < 0) {
+            from = 0;
+        }
+        if (from < 64) {
+            final long bits = lo & (-1L << from);
+            if (bits != 0) {
+                return Long.numberOfTrailingZeros(bits);
+            }
+            from = 64;
+        }
+        if (from < CAPACITY) {
+            final long bits = hi & (-1L << (from - 64));
+            if (bits != 0) {
+                return 64 + Long.numberOfTrailingZeros(bits);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Copies the set into out[0] (keys 0 - 63) and out[1] (keys 64 - 127).
+     */
+    void copyInto(long[] out) {
+        out[0] = lo;
+        out[1] = hi;
+    }
+
+    private static void checkKey(int key) {
+        if (key < 0 || key >= CAPACITY) {
+            throw new IndexOutOfBoundsException(
+                    "key must be between 0 and " + (CAPACITY - 1) + ". Actual key: " + key);
+        }
+    }
+
+}
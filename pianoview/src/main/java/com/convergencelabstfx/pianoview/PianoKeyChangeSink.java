@@ -0,0 +1,17 @@
+package com.convergencelabstfx.pianoview;
+
+/**
+ * Receives bulk changes of the pressed keys, e.g. from a MIDI parser or a replayed recording;
+ * for a view, see {@link PianoView#getKeyChangeSink()}.
+ */
+interface PianoKeyChangeSink {
+
+    /**
+     * @param changedLo Keys 0 - 63 whose state changed.
+     * @param changedHi Keys 64 - 127 whose state changed.
+     * @param pressedLo New state of the changed keys 0 - 63.
+     * @param pressedHi New state of the changed keys 64 - 127.
+     */
+    void onKeysChanged(long changedLo, long changedHi, long pressedLo, long pressedHi);
+
+}
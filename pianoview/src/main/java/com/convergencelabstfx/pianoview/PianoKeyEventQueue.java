@@ -0,0 +1,241 @@
+package com.convergencelabstfx.pianoview;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A lock-free, single producer / single consumer ring buffer of key events,
+ * for handing key events from the UI thread to another thread (e.g. an audio thread).
+ * See {@link PianoView#setKeyEventQueue(PianoKeyEventQueue)}.
+ * <p>
+ * Each event is packed into a single long; use {@link #getType(long)}, {@link #getKey(long)},
+ * {@link #getPointerId(long)} and {@link #getTime(long)} to unpack it.
+ * Offering and draining events never locks or allocates.
+ * <p>
+ * Only one thread may offer events, and only one thread may drain them.
+ */
+public final class PianoKeyEventQueue {
+
+    public static final int TYPE_KEY_DOWN = 0;
+    public static final int TYPE_KEY_UP = 1;
+    public static final int TYPE_KEY_CLICK = 2;
+
+    /**
+     * When the queue is full, new events are dropped.
+     */
+    public static final int OVERFLOW_DROP_NEWEST = 0;
+
+    /**
+     * When the queue is full, the oldest event is dropped to make room for the new one.
+     */
+    public static final int OVERFLOW_DROP_OLDEST = 1;
+
+    private static final int TYPE_BITS = 2;
+    private static final int KEY_BITS = 7;
+    private static final int POINTER_BITS = 5;
+    private static final int KEY_SHIFT = TYPE_BITS;
+    private static final int POINTER_SHIFT = KEY_SHIFT + KEY_BITS;
+    private static final int TIME_SHIFT = POINTER_SHIFT + POINTER_BITS;
+
+    // Spins this many times before parking the consumer
+    private static final int SPINS_BEFORE_PARK = 100;
+
+    private final long[] mBuffer;
+    private final int mMask;
+    private final int mOverflowPolicy;
+
+    // Index of the next event to read; only moved forward by the consumer,
+    // or by the producer when it drops the oldest event
+    private final AtomicLong mHead = new AtomicLong();
+    // Index of the next event to write; only moved forward by the producer
+    private final AtomicLong mTail = new AtomicLong();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+
+    private volatile Thread mWaitingConsumer;
+
+    /**
+     * @param capacity       Maximum number of queued events; rounded up to a power of two.
+     * @param overflowPolicy {@link #OVERFLOW_DROP_NEWEST} or {@link #OVERFLOW_DROP_OLDEST}.
+     */
+    public PianoKeyEventQueue(int capacity, int overflowPolicy) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException(
+                    "capacity must be between 1 and " + (1 << 30) +
+                            " (both inclusive). Actual capacity: " + capacity);
+        }
+        if (overflowPolicy != OVERFLOW_DROP_NEWEST && overflowPolicy != OVERFLOW_DROP_OLDEST) {
+            throw new IllegalArgumentException("Invalid overflow policy: " + overflowPolicy);
+        }
+        final int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        mBuffer = new long[size];
+        mMask = size - 1;
+        mOverflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Packs a key event into a long.
+     *
+     * @param type      {@link #TYPE_KEY_DOWN}, {@link #TYPE_KEY_UP} or {@link #TYPE_KEY_CLICK}.
+     * @param key       Key index, between 0 and 127.
+     * @param pointerId Pointer id, between 0 and 31.
+     * @param time      Event time in milliseconds; must not be negative.
+     */
+    public static long pack(int type, int key, int pointerId, long time) {
+        return ((long) type)
+                | ((long) key << KEY_SHIFT)
+                | ((long) pointerId << POINTER_SHIFT)
+                | (time << TIME_SHIFT);
+    }
+
+    public static int getType(long event) {
+        return (int) (event & ((1 << TYPE_BITS) - 1));
+    }
+
+    public static int getKey(long event) {
+        return (int) ((event >>> KEY_SHIFT) & ((1 << KEY_BITS) - 1));
+    }
+
+    public static int getPointerId(long event) {
+        return (int) ((event >>> POINTER_SHIFT) & ((1 << POINTER_BITS) - 1));
+    }
+
+    public static long getTime(long event) {
+        return event >>> TIME_SHIFT;
+    }
+
+    /**
+     * Returns the maximum number of queued events.
+     */
+    public int getCapacity() {
+        return mBuffer.length;
+    }
+
+    public int getOverflowPolicy() {
+        return mOverflowPolicy;
+    }
+
+    /**
+     * Returns the number of events dropped because the queue was full.
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /**
+     * Returns the number of queued events. Only a snapshot, if the other thread is active.
+     */
+    public int size() {
+        return (int) (mTail.get() - mHead.get());
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Adds an event to the queue. Producer thread only.
+     *
+     * @return false if the event was dropped because the queue was full.
+     */
+    public boolean offer(long event) {
+        final long tail = mTail.get();
+        while (true) {
+            final long head = mHead.get();
+            if (tail - head < mBuffer.length) {
+                break;
+            }
+            if (mOverflowPolicy == OVERFLOW_DROP_NEWEST) {
+                mDroppedCount.incrementAndGet();
+                return false;
+            }
+            // Fails if the consumer just read the oldest event, in which case there is room now
+            if (mHead.compareAndSet(head, head + 1)) {
+                mDroppedCount.incrementAndGet();
+                break;
+            }
+        }
+        mBuffer[(int) tail & mMask] = event;
+        // Publishes the event to the consumer. A full volatile write, so it can't be reordered with
+        // the read of the waiting consumer below (which could miss a wake up)
+        mTail.set(tail + 1);
+        final Thread consumer = mWaitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * Moves every queued event (up to out.length) into out. Consumer thread only.
+     *
+     * @return Number of events written to out.
+     */
+    public int drain(long[] out) {
+        return drain(out, 0, out.length);
+    }
+
+    /**
+     * Moves up to length queued events into out, starting at offset. Consumer thread only.
+     *
+     * @return Number of events written to out.
+     */
+    public int drain(long[] out, int offset, int length) {
+        while (true) {
+            final long head = mHead.get();
+            final int count = (int) Math.min(length, mTail.get() - head);
+            if (count <= 0) {
+                return 0;
+            }
+            for (int i = 0; i < count; i++) {
+                out[offset + i] = mBuffer[(int) (head + i) & mMask];
+            }
+            // Fails if the producer dropped the oldest event while it was being copied
+            if (mHead.compareAndSet(head, head + count)) {
+                return count;
+            }
+        }
+    }
+
+    /**
+     * Waits until there is at least one queued event, then drains like {@link #drain(long[])}.
+     * Consumer thread only. Spins briefly before parking the thread; the producer wakes it up.
+     *
+     * @param timeoutNanos Maximum time to wait.
+     * @return Number of events written to out; 0 if the timeout passed first.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    public int drainAwait(long[] out, long timeoutNanos) throws InterruptedException {
+        int count = drain(out);
+        if (count > 0) {
+            return count;
+        }
+        for (int i = 0; i < SPINS_BEFORE_PARK; i++) {
+            if (!isEmpty()) {
+                return drain(out);
+            }
+        }
+        final long deadline = System.nanoTime() + timeoutNanos;
+        mWaitingConsumer = Thread.currentThread();
+        try {
+            while (true) {
+                // Checked after publishing the waiting thread, so a wake up can't be missed
+                count = drain(out);
+                if (count > 0) {
+                    return count;
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return 0;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+        }
+        finally {
+            mWaitingConsumer = null;
+        }
+    }
+
+}
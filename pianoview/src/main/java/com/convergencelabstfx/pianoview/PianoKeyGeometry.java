@@ -0,0 +1,510 @@
+package com.convergencelabstfx.pianoview;
+
+/**
+ * Packed key geometry for {@link PianoView}.
+ * <p>
+ * Key bounds are stored as parallel primitive arrays indexed by key index, along with
+ * lookup tables from white / black key ordinals (counted from the left) to key indices.
+ * Everything is allocated up front for {@link #MAX_NUMBER_OF_KEYS} keys and refilled by
+ * {@link #layout(int, int, int, int, int, int, int)}, so a relayout never allocates.
+ */
+class PianoKeyGeometry {
+
+    static final int MAX_NUMBER_OF_KEYS = 88;
+
+    static final int NOTES_PER_OCTAVE = 12;
+
+    /**
+     * Upper limit for the number of keys reported by
+     * {@link #findCrossedKeys(float, float, float, float, int[], float[])}.
+     */
+    static final int MAX_CROSSED_KEYS = 4 * MAX_NUMBER_OF_KEYS + 4;
+
+    private static final boolean[] IS_WHITE_KEY = new boolean[]{
+            true, false, true, false, true, true,
+            false, true, false, true, false, true,
+    };
+
+    final int[] left = new int[MAX_NUMBER_OF_KEYS];
+    final int[] top = new int[MAX_NUMBER_OF_KEYS];
+    final int[] right = new int[MAX_NUMBER_OF_KEYS];
+    final int[] bottom = new int[MAX_NUMBER_OF_KEYS];
+
+    /**
+     * Maps the i'th white key (from the left) to its key index.
+     */
+    final int[] whiteKeys = new int[MAX_NUMBER_OF_KEYS];
+
+    /**
+     * Maps the i'th black key (from the left) to its key index.
+     */
+    final int[] blackKeys = new int[MAX_NUMBER_OF_KEYS];
+
+    /**
+     * Whether the key at a given key index is white.
+     */
+    final boolean[] isWhite = new boolean[MAX_NUMBER_OF_KEYS];
+
+    /**
+     * The rightmost x coordinate that resolves to the i'th white key.
+     */
+    final int[] whiteKeyHitRight = new int[MAX_NUMBER_OF_KEYS];
+
+    int numberOfKeys;
+    int numberOfWhiteKeys;
+    int numberOfBlackKeys;
+
+    // Reciprocal of the distance between the left edges of neighbouring white keys;
+    // multiplying by it is much cheaper than dividing on every touch sample
+    private float mWhiteKeyHitPitchInverse = 1;
+
+    private final float[] mCrossings = new float[MAX_CROSSED_KEYS];
+
+    PianoKeyGeometry() {
+        int whiteCount = 0;
+        int blackCount = 0;
+        for (int i = 0; i < MAX_NUMBER_OF_KEYS; i++) {
+            isWhite[i] = isWhiteKey(i);
+            if (isWhite[i]) {
+                whiteKeys[whiteCount++] = i;
+            }
+            else {
+                blackKeys[blackCount++] = i;
+            }
+        }
+    }
+
+    /**
+     * Checks if the key is white, given its index.
+     *
+     * @param ix Index of the key to check.
+     */
+    static boolean isWhiteKey(int ix) {
+        return IS_WHITE_KEY[ix % NOTES_PER_OCTAVE];
+    }
+
+    /**
+     * Sets the number of keys and counts the white and black keys.
+     */
+    void setNumberOfKeys(int numberOfKeys) {
+        this.numberOfKeys = numberOfKeys;
+        numberOfWhiteKeys = 0;
+        numberOfBlackKeys = 0;
+        for (int i = 0; i < numberOfKeys; i++) {
+            if (isWhite[i]) {
+                numberOfWhiteKeys++;
+            }
+            else {
+                numberOfBlackKeys++;
+            }
+        }
+    }
+
+    /**
+     * Lays out the keys from the calculated key dimensions.
+     * {@link #setNumberOfKeys(int)} has to be called first.
+     *
+     * @param viewWidth          Width of the whole piano.
+     * @param whiteKeyWidth      Width of a white key, not counting the remainder pixel.
+     * @param whiteKeyHeight     Height of a white key.
+     * @param blackKeyWidth      Width of a black key.
+     * @param blackKeyHeight     Height of a black key.
+     * @param strokeWidth        Width of the key stroke; neighbouring keys overlap by this much.
+     * @param viewWidthRemainder Number of leftmost white keys that get 1 extra pixel of width.
+     */
+    void layout(
+            int viewWidth,
+            int whiteKeyWidth,
+            int whiteKeyHeight,
+            int blackKeyWidth,
+            int blackKeyHeight,
+            int strokeWidth,
+            int viewWidthRemainder) {
+        int x = 0;
+        // This view divides it's width by the number of white keys. So if the width isn't divisible
+        // there would be unused space in the view.
+        // For this reason, the leftmost white keys get 1 extra pixel of width until
+        // the remainder has been used up.
+        int width = whiteKeyWidth + 1;
+        for (int i = 0; i < numberOfWhiteKeys; i++) {
+            if (i == viewWidthRemainder) {
+                width--;
+            }
+            final int keyIx = whiteKeys[i];
+            left[keyIx] = x;
+            top[keyIx] = 0;
+            right[keyIx] = x + width;
+            bottom[keyIx] = whiteKeyHeight;
+            x += width - strokeWidth;
+        }
+
+        for (int i = 0; i < numberOfBlackKeys; i++) {
+            final int keyIx = blackKeys[i];
+            x = right[keyIx - 1] - (blackKeyWidth / 2) - (strokeWidth / 2);
+            left[keyIx] = x;
+            top[keyIx] = 0;
+            right[keyIx] = x + blackKeyWidth;
+            bottom[keyIx] = blackKeyHeight;
+        }
+        // Sometimes there is 1 extra pixel on the end, and I have no idea why.
+        // This will clip the rightmost keys it doesn't go over the bounds
+        right[numberOfKeys - 1] = Math.min(right[numberOfKeys - 1], viewWidth);
+
+        for (int i = 0; i < numberOfWhiteKeys; i++) {
+            if (i == numberOfWhiteKeys - 1) {
+                whiteKeyHitRight[i] = right[whiteKeys[i]];
+            }
+            else {
+                whiteKeyHitRight[i] = right[whiteKeys[i]] - (strokeWidth / 2);
+            }
+        }
+        // Distance between the left edges of neighbouring white keys
+        mWhiteKeyHitPitchInverse = 1f / Math.max(1, right[0] - strokeWidth);
+    }
+
+    /**
+     * Updates only the heights of the keys; the horizontal layout stays the same.
+     */
+    void setKeyHeights(int whiteKeyHeight, int blackKeyHeight) {
+        for (int keyIx = 0; keyIx < numberOfKeys; keyIx++) {
+            bottom[keyIx] = isWhite[keyIx] ? whiteKeyHeight : blackKeyHeight;
+        }
+    }
+
+    /**
+     * Returns the index of the key that the x and y coordinates
+     * are located in, or -1 if they are not inside any key.
+     * <p>
+     * The x coordinate is resolved to a white key column first,
+     * so only the black keys on either side of that column need to be checked.
+     */
+    int getTouchedKey(int x, int y) {
+        if (numberOfWhiteKeys == 0) {
+            return -1;
+        }
+        return getTouchedKeyInColumn(findWhiteKeyColumn(x), x, y);
+    }
+
+    /**
+     * Same as {@link #getTouchedKey(int, int)}, once x is known to be in the given white key column.
+     */
+    private int getTouchedKeyInColumn(int col, int x, int y) {
+        final int whiteIx = whiteKeys[col];
+
+        // Check black keys first; lower index first, same as a left to right scan
+        final int leftBlackIx = whiteIx - 1;
+        if (leftBlackIx >= 0 && !isWhite[leftBlackIx] && keyContains(leftBlackIx, x, y)) {
+            return leftBlackIx;
+        }
+        final int rightBlackIx = whiteIx + 1;
+        if (rightBlackIx < numberOfKeys && !isWhite[rightBlackIx] && keyContains(rightBlackIx, x, y)) {
+            return rightBlackIx;
+        }
+
+        // Check white key
+        if (x >= left[whiteIx] && x <= whiteKeyHitRight[col] && y >= top[whiteIx] && y <= bottom[whiteIx]) {
+            return whiteIx;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the key under the rounded coordinates (x, y), and finds a rectangle around them in which
+     * every point resolves to that same key. A straight line between two points of the rectangle can't
+     * cross any other key, so a pointer moving inside it needs no hit testing at all.
+     * <p>
+     * The rectangle stays within the white key column of (x, y), so the same keys are checked in the same
+     * order anywhere in it, and is cut down until it misses every other key checked in that column.
+     *
+     * @param bounds Filled with the left, top, right and bottom edges of the rectangle (all inclusive),
+     *               unless (x, y) isn't on a key.
+     * @return The key under (x, y), or -1 if it isn't on a key.
+     */
+    int getKeyPartBounds(int x, int y, int[] bounds) {
+        if (numberOfWhiteKeys == 0) {
+            return -1;
+        }
+        final int col = findWhiteKeyColumn(x);
+        final int key = getTouchedKeyInColumn(col, x, y);
+        if (key == -1) {
+            return -1;
+        }
+        final int whiteIx = whiteKeys[col];
+        final int leftBlackIx = whiteIx - 1;
+        final int rightBlackIx = whiteIx + 1;
+        bounds[0] = col == 0 ? left[whiteIx] : whiteKeyHitRight[col - 1] + 1;
+        bounds[1] = top[key];
+        bounds[2] = whiteKeyHitRight[col];
+        bounds[3] = bottom[key];
+        if (col == numberOfWhiteKeys - 1) {
+            bounds[2] = Math.max(bounds[2], right[key]);
+        }
+        if (key == whiteIx) {
+            bounds[0] = Math.max(bounds[0], left[whiteIx]);
+            if (leftBlackIx >= 0 && !isWhite[leftBlackIx]) {
+                excludeKey(leftBlackIx, x, y, bounds);
+            }
+            if (rightBlackIx < numberOfKeys && !isWhite[rightBlackIx]) {
+                excludeKey(rightBlackIx, x, y, bounds);
+            }
+        }
+        else {
+            bounds[0] = Math.max(bounds[0], left[key]);
+            bounds[2] = Math.min(bounds[2], right[key]);
+            // The black key to the left of the column is checked first
+            if (key == rightBlackIx && leftBlackIx >= 0 && !isWhite[leftBlackIx]) {
+                excludeKey(leftBlackIx, x, y, bounds);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Cuts the rectangle in bounds down so it misses a key that (x, y) is not on, keeping (x, y) inside.
+     * Cutting off the rows above or below the key is preferred, since it keeps the rectangle wide.
+     */
+    private void excludeKey(int keyIx, int x, int y, int[] bounds) {
+        if (bounds[0] > right[keyIx] || bounds[2] < left[keyIx]
+                || bounds[1] > bottom[keyIx] || bounds[3] < top[keyIx]) {
+            return;
+        }
+        if (y > bottom[keyIx]) {
+            bounds[1] = bottom[keyIx] + 1;
+        }
+        else if (y < top[keyIx]) {
+            bounds[3] = top[keyIx] - 1;
+        }
+        else if (x > right[keyIx]) {
+            bounds[0] = right[keyIx] + 1;
+        }
+        else {
+            bounds[2] = left[keyIx] - 1;
+        }
+    }
+
+    /**
+     * Returns the leftmost white key column whose hit area extends to x,
+     * clamped to the range of white keys.
+     * <p>
+     * The white keys overlap by the stroke width, so a column only extends to its right edge
+     * minus half the stroke width (the rightmost white key extends all the way to its right edge).
+     * The column is first estimated from the key pitch; since keys differ in width by at most 1 pixel,
+     * the estimate is only ever a step or two off.
+     */
+    int findWhiteKeyColumn(int x) {
+        return findWhiteKeyColumn(x, (int) (x * mWhiteKeyHitPitchInverse));
+    }
+
+    /**
+     * Same as {@link #findWhiteKeyColumn(int)}, starting the search from a nearby column.
+     */
+    private int findWhiteKeyColumn(int x, int nearCol) {
+        final int last = numberOfWhiteKeys - 1;
+        int col = Math.max(0, Math.min(last, nearCol));
+        while (col < last && x > whiteKeyHitRight[col]) {
+            col++;
+        }
+        while (col > 0 && x <= whiteKeyHitRight[col - 1]) {
+            col--;
+        }
+        return col;
+    }
+
+    /**
+     * Finds the keys crossed by the straight line from (x0, y0) to (x1, y1), in the order they are crossed.
+     * keys[i] is entered at fractions[i] (0 - 1) of the way along the line, and -1 means the line left
+     * the keys. The key under (x0, y0) is not reported.
+     * <p>
+     * The line can only change keys where it crosses a key edge, so only the edges of the white key
+     * columns between x0 and x1 (and their black neighbours), plus the top and bottom edges of the keys
+     * are looked at. Between two neighbouring crossings the key is found with {@link #getTouchedKey(int, int)}.
+     * Coordinates are rounded the same way a touch event is, so the last reported key is always the key
+     * under (x1, y1).
+     *
+     * @param keys      Filled with the crossed keys; must have room for {@link #MAX_CROSSED_KEYS} keys.
+     * @param fractions Filled with where each key was entered; same size as keys.
+     * @return Number of keys written.
+     */
+    int findCrossedKeys(float x0, float y0, float x1, float y1, int[] keys, float[] fractions) {
+        if (numberOfWhiteKeys == 0) {
+            return 0;
+        }
+        return findCrossedKeys(x0, y0, getTouchedKey(Math.round(x0), Math.round(y0)), x1, y1, keys, fractions);
+    }
+
+    /**
+     * Same as {@link #findCrossedKeys(float, float, float, float, int[], float[])}, when the key the line
+     * starts on is already known; keys are reported as they differ from startKey.
+     */
+    int findCrossedKeys(float x0, float y0, int startKey, float x1, float y1, int[] keys, float[] fractions) {
+        if (numberOfWhiteKeys == 0) {
+            return 0;
+        }
+        final int roundedX1 = Math.round(x1);
+        final int roundedY1 = Math.round(y1);
+        final int endCol = findWhiteKeyColumn(roundedX1);
+        final int endKey = getTouchedKeyInColumn(endCol, roundedX1, roundedY1);
+        if (startKey == endKey && startKey != -1 && staysOnKey(startKey, y0, y1)) {
+            return 0;
+        }
+        final int roundedX0 = Math.round(x0);
+        final int startCol = findWhiteKeyColumn(roundedX0);
+        if (isInWhiteKeyBand(roundedX0, Math.round(y0)) && isInWhiteKeyBand(roundedX1, roundedY1)) {
+            return findCrossedWhiteKeys(x0, startKey, x1 - x0, startCol, endCol, keys, fractions);
+        }
+        final float dx = x1 - x0;
+        final float dy = y1 - y0;
+        int n = 0;
+
+        // Rounded coordinates switch keys half a pixel past an edge
+        if (dx != 0) {
+            // Below the black keys, only the white key edges matter
+            final boolean crossesBlackKeys = numberOfBlackKeys > 0
+                    && Math.min(y0, y1) < bottom[blackKeys[0]] + 0.5f;
+            final int firstCol = Math.min(startCol, endCol);
+            final int lastCol = Math.max(startCol, endCol);
+            // Every other white key's left edge is inside the hit area of the column before it
+            if (firstCol == 0) {
+                n = addCrossing(n, (left[whiteKeys[0]] - 0.5f - x0) / dx);
+            }
+            for (int col = firstCol; col <= lastCol; col++) {
+                final int whiteIx = whiteKeys[col];
+                n = addCrossing(n, (whiteKeyHitRight[col] + 0.5f - x0) / dx);
+                if (!crossesBlackKeys) {
+                    continue;
+                }
+                final int leftBlackIx = whiteIx - 1;
+                if (col == firstCol && leftBlackIx >= 0 && !isWhite[leftBlackIx]) {
+                    n = addCrossing(n, (left[leftBlackIx] - 0.5f - x0) / dx);
+                    n = addCrossing(n, (right[leftBlackIx] + 0.5f - x0) / dx);
+                }
+                final int rightBlackIx = whiteIx + 1;
+                if (rightBlackIx < numberOfKeys && !isWhite[rightBlackIx]) {
+                    n = addCrossing(n, (left[rightBlackIx] - 0.5f - x0) / dx);
+                    n = addCrossing(n, (right[rightBlackIx] + 0.5f - x0) / dx);
+                }
+            }
+        }
+        if (dy != 0) {
+            n = addCrossing(n, (top[0] - 0.5f - y0) / dy);
+            n = addCrossing(n, (bottom[whiteKeys[0]] + 0.5f - y0) / dy);
+            if (numberOfBlackKeys > 0) {
+                n = addCrossing(n, (bottom[blackKeys[0]] + 0.5f - y0) / dy);
+            }
+        }
+
+        // Insertion sort; the x crossings are already close to sorted
+        for (int i = 1; i < n; i++) {
+            final float t = mCrossings[i];
+            int j = i - 1;
+            while (j >= 0 && mCrossings[j] > t) {
+                mCrossings[j + 1] = mCrossings[j];
+                j--;
+            }
+            mCrossings[j + 1] = t;
+        }
+
+        int count = 0;
+        int prevKey = startKey;
+        // The line moves steadily in one direction, so each column search starts from the last one
+        int col = startCol;
+        for (int i = 0; i < n; i++) {
+            final float start = mCrossings[i];
+            final float end = i + 1 < n ? mCrossings[i + 1] : 1f;
+            final float mid = (start + end) * 0.5f;
+            final int x = Math.round(x0 + dx * mid);
+            col = findWhiteKeyColumn(x, col);
+            final int key = getTouchedKeyInColumn(col, x, Math.round(y0 + dy * mid));
+            if (key != prevKey) {
+                keys[count] = key;
+                fractions[count] = start;
+                count++;
+                prevKey = key;
+            }
+        }
+        if (endKey != prevKey) {
+            keys[count] = endKey;
+            fractions[count] = 1f;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Checks if rounded coordinates are on a white key, below the black keys.
+     * A line between two such points only ever crosses white key columns.
+     */
+    private boolean isInWhiteKeyBand(int x, int y) {
+        final int whiteIx = whiteKeys[0];
+        return x >= left[whiteIx] && x <= whiteKeyHitRight[numberOfWhiteKeys - 1]
+                && y >= top[whiteIx] && y <= bottom[whiteIx]
+                && (numberOfBlackKeys == 0 || y > bottom[blackKeys[0]]);
+    }
+
+    /**
+     * Same as {@link #findCrossedKeys(float, float, int, float, float, int[], float[])}, for a line
+     * between two points of {@link #isInWhiteKeyBand(int, int)}: the crossings are just the column
+     * edges, in order, so nothing needs sorting or hit testing.
+     */
+    private int findCrossedWhiteKeys(
+            float x0, int startKey, float dx, int startCol, int endCol, int[] keys, float[] fractions) {
+        int count = 0;
+        int prevKey = startKey;
+        int col = startCol;
+        // Columns only ever step towards endCol, even if the layout is degenerate
+        while (col != endCol) {
+            final int edge;
+            if (col < endCol) {
+                // The column of the first pixel past the right edge of this column
+                edge = whiteKeyHitRight[col];
+                col = Math.min(endCol, Math.max(col + 1, findWhiteKeyColumn(edge + 1, col + 1)));
+            }
+            else {
+                edge = whiteKeyHitRight[col - 1];
+                col = Math.max(endCol, Math.min(col - 1, findWhiteKeyColumn(edge, col - 1)));
+            }
+            final int key = whiteKeys[col];
+            if (key != prevKey) {
+                keys[count] = key;
+                fractions[count] = (edge + 0.5f - x0) / dx;
+                count++;
+                prevKey = key;
+            }
+        }
+        final int endKey = whiteKeys[endCol];
+        if (endKey != prevKey) {
+            keys[count] = endKey;
+            fractions[count] = 1f;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Checks if a straight line between two points on the same key can't leave the key.
+     * Black keys are rectangles, and so are the parts of a white key above and below the black keys,
+     * so a line that stays within one of them can't cross any other key.
+     */
+    boolean staysOnKey(int key, float y0, float y1) {
+        if (!isWhite[key] || numberOfBlackKeys == 0) {
+            return true;
+        }
+        final float blackKeyBottom = bottom[blackKeys[0]] + 0.5f;
+        return (y0 < blackKeyBottom) == (y1 < blackKeyBottom);
+    }
+
+    private int addCrossing(int n, float t) {
+        if (t > 0 && t < 1 && n < mCrossings.length) {
+            mCrossings[n++] = t;
+        }
+        return n;
+    }
+
+    /**
+     * Checks if the x and y coordinates are inside the bounds of a key (edges inclusive).
+     */
+    boolean keyContains(int keyIx, int x, int y) {
+        return x >= left[keyIx] && x <= right[keyIx] && y >= top[keyIx] && y <= bottom[keyIx];
+    }
+
+}
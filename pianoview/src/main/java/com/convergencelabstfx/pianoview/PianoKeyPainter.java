@@ -0,0 +1,134 @@
+package com.convergencelabstfx.pianoview;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * Draws piano keys straight from a {@link PianoKeyGeometry} with a couple of shared paints,
+ * instead of one GradientDrawable per key.
+ * <p>
+ * Keys are drawn the same way GradientDrawable draws a stroked rectangle:
+ * the bounds are inset by half the stroke width, then filled and stroked as a round rect
+ * whose corner radius is at most half the shorter side.
+ * Keys are drawn in batches; every idle fill, then every pressed fill, then every stroke,
+ * so the paints only change color a couple of times per frame.
+ */
+class PianoKeyPainter {
+
+    private final Paint mFillPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mStrokePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final RectF mRect = new RectF();
+
+    private int mStrokeWidth;
+    private float mCornerRadius;
+
+    PianoKeyPainter() {
+        mFillPaint.setStyle(Paint.Style.FILL);
+        mStrokePaint.setStyle(Paint.Style.STROKE);
+    }
+
+    void setStroke(int width, int color) {
+        mStrokeWidth = width;
+        mStrokePaint.setStrokeWidth(width);
+        mStrokePaint.setColor(color);
+    }
+
+    void setCornerRadius(int radius) {
+        mCornerRadius = radius;
+    }
+
+    /**
+     * Draws a set of keys; idle keys in idleColor and pressed keys in pressedColor.
+     * Keys outside the clip bounds are skipped.
+     *
+     * @param keys    Key indices to draw.
+     * @param count   Number of key indices to use from keys.
+     * @param pressed Keys to draw in pressedColor, or null to draw every key in idleColor.
+     * @param clip    Clip bounds of the canvas, or null to draw every key.
+     */
+    void drawKeys(
+            Canvas canvas,
+            PianoKeyGeometry geometry,
+            int[] keys,
+            int count,
+            PianoKeyBitSet pressed,
+            int idleColor,
+            int pressedColor,
+            Rect clip) {
+        mFillPaint.setColor(idleColor);
+        boolean hasPressed = false;
+        for (int i = 0; i < count; i++) {
+            final int keyIx = keys[i];
+            if (pressed != null && pressed.contains(keyIx)) {
+                hasPressed = true;
+            }
+            else if (intersects(clip, geometry, keyIx)) {
+                setKeyRect(geometry, keyIx);
+                drawRoundRect(canvas, mFillPaint);
+            }
+        }
+        if (hasPressed) {
+            mFillPaint.setColor(pressedColor);
+            for (int i = 0; i < count; i++) {
+                final int keyIx = keys[i];
+                if (pressed.contains(keyIx) && intersects(clip, geometry, keyIx)) {
+                    setKeyRect(geometry, keyIx);
+                    drawRoundRect(canvas, mFillPaint);
+                }
+            }
+        }
+        if (mStrokeWidth > 0) {
+            for (int i = 0; i < count; i++) {
+                final int keyIx = keys[i];
+                if (intersects(clip, geometry, keyIx)) {
+                    setKeyRect(geometry, keyIx);
+                    drawRoundRect(canvas, mStrokePaint);
+                }
+            }
+        }
+    }
+
+    /**
+     * Draws a single key.
+     */
+    void drawKey(Canvas canvas, PianoKeyGeometry geometry, int keyIx, int color) {
+        mFillPaint.setColor(color);
+        setKeyRect(geometry, keyIx);
+        drawRoundRect(canvas, mFillPaint);
+        if (mStrokeWidth > 0) {
+            drawRoundRect(canvas, mStrokePaint);
+        }
+    }
+
+    private void setKeyRect(PianoKeyGeometry geometry, int keyIx) {
+        final float inset = mStrokeWidth * 0.5f;
+        mRect.set(
+                geometry.left[keyIx] + inset,
+                geometry.top[keyIx] + inset,
+                geometry.right[keyIx] - inset,
+                geometry.bottom[keyIx] - inset);
+    }
+
+    private void drawRoundRect(Canvas canvas, Paint paint) {
+        if (mCornerRadius > 0) {
+            final float radius = Math.min(
+                    mCornerRadius,
+                    Math.min(mRect.right - mRect.left, mRect.bottom - mRect.top) * 0.5f);
+            canvas.drawRoundRect(mRect, radius, radius, paint);
+        }
+        else {
+            canvas.drawRect(mRect, paint);
+        }
+    }
+
+    private static boolean intersects(Rect clip, PianoKeyGeometry geometry, int keyIx) {
+        return clip == null || clip.intersects(
+                geometry.left[keyIx],
+                geometry.top[keyIx],
+                geometry.right[keyIx],
+                geometry.bottom[keyIx]);
+    }
+
+}
@@ -0,0 +1,214 @@
+package com.convergencelabstfx.pianoview;
+
+/**
+ * Predicts which key a moving pointer is about to enter, for {@link PianoTouchTracker}.
+ * <p>
+ * The velocity of each pointer is estimated from its last few samples, and its path is extrapolated
+ * over the prediction horizon. If that path enters another key, that key is predicted.
+ * The prediction is confirmed once the pointer actually enters the key, and retracted if it
+ * hasn't by the end of the horizon, if a different key gets predicted, or if the pointer goes up.
+ * Every pointer has at most one open prediction.
+ * <p>
+ * All state lives in preallocated per pointer arrays, so predicting never allocates.
+ */
+final class PianoKeyPredictor {
+
+    /**
+     * Receives the predictions of a {@link PianoKeyPredictor}.
+     */
+    interface Callback {
+
+        /**
+         * A pointer is expected to enter key at predictedTime.
+         */
+        void onKeyPredicted(int key, int pointerId, long time, long predictedTime);
+
+        void onPredictionConfirmed(int key, int pointerId, long time);
+
+        void onPredictionRetracted(int key, int pointerId, long time);
+
+    }
+
+    // Number of recent samples used to estimate the velocity of a pointer
+    static final int VELOCITY_SAMPLES = 4;
+
+    // Samples older than this are not used for the velocity
+    static final long VELOCITY_WINDOW_MILLIS = 50;
+
+    // Pointers slower than this (in pixels per millisecond) aren't predicted
+    static final float MIN_SPEED = 0.1f;
+
+    private static final int MAX_POINTERS = PianoTouchTracker.MAX_POINTER_ID + 1;
+
+    private final PianoKeyGeometry mGeometry;
+    private final Callback mCallback;
+    private int mHorizonMillis;
+
+    // Ring of recent samples per pointer; pointer p uses [p * VELOCITY_SAMPLES, (p + 1) * VELOCITY_SAMPLES)
+    private final float[] mSampleX = new float[MAX_POINTERS * VELOCITY_SAMPLES];
+    private final float[] mSampleY = new float[MAX_POINTERS * VELOCITY_SAMPLES];
+    private final long[] mSampleTime = new long[MAX_POINTERS * VELOCITY_SAMPLES];
+    private final int[] mSampleCount = new int[MAX_POINTERS];
+    private final int[] mSampleNext = new int[MAX_POINTERS];
+
+    // Open prediction per pointer
+    private final int[] mPredictedKey = new int[MAX_POINTERS];
+    private final long[] mPredictionDeadline = new long[MAX_POINTERS];
+    // Bit i is set while pointer i has an open prediction
+    private int mOpenPredictions;
+
+    private final int[] mCrossedKeys = new int[PianoKeyGeometry.MAX_CROSSED_KEYS];
+    private final float[] mCrossedKeyFractions = new float[PianoKeyGeometry.MAX_CROSSED_KEYS];
+
+    PianoKeyPredictor(PianoKeyGeometry geometry, Callback callback, int horizonMillis) {
+        mGeometry = geometry;
+        mCallback = callback;
+        mHorizonMillis = horizonMillis;
+        for (int i = 0; i < MAX_POINTERS; i++) {
+            mPredictedKey[i] = -1;
+        }
+    }
+
+    int getHorizonMillis() {
+        return mHorizonMillis;
+    }
+
+    void setHorizonMillis(int horizonMillis) {
+        mHorizonMillis = horizonMillis;
+    }
+
+    /**
+     * Returns the open prediction of a pointer, or -1 if there is none.
+     */
+    int getPredictedKey(int pointerId) {
+        return mPredictedKey[pointerId];
+    }
+
+    /**
+     * Starts tracking a pointer from its first sample.
+     */
+    void pointerDown(int pointerId, float x, float y, long time) {
+        mSampleCount[pointerId] = 0;
+        mSampleNext[pointerId] = 0;
+        mPredictedKey[pointerId] = -1;
+        addSample(pointerId, x, y, time);
+    }
+
+    /**
+     * Confirms the open prediction of a pointer, if the pointer just entered the predicted key.
+     */
+    void keyEntered(int pointerId, int key, long time) {
+        if (key != -1 && key == mPredictedKey[pointerId]) {
+            mPredictedKey[pointerId] = -1;
+            mOpenPredictions &= ~(1 << pointerId);
+            mCallback.onPredictionConfirmed(key, pointerId, time);
+        }
+    }
+
+    /**
+     * Adds a sample of a moving pointer, after the pointer has moved onto curKey.
+     * Retracts an expired prediction, then predicts the next key along the extrapolated path.
+     */
+    void pointerMoved(int pointerId, float x, float y, long time, int curKey) {
+        addSample(pointerId, x, y, time);
+        if (mPredictedKey[pointerId] != -1 && time >= mPredictionDeadline[pointerId]) {
+            retract(pointerId, time);
+        }
+
+        final int count = mSampleCount[pointerId];
+        if (count < 2) {
+            return;
+        }
+        // Oldest usable sample within the velocity window
+        final int base = pointerId * VELOCITY_SAMPLES;
+        final int newest = base + (mSampleNext[pointerId] + VELOCITY_SAMPLES - 1) % VELOCITY_SAMPLES;
+        int oldest = newest;
+        for (int i = 1; i < count; i++) {
+            final int ix = base + (mSampleNext[pointerId] + VELOCITY_SAMPLES - 1 - i) % VELOCITY_SAMPLES;
+            if (time - mSampleTime[ix] > VELOCITY_WINDOW_MILLIS) {
+                break;
+            }
+            oldest = ix;
+        }
+        final long dt = mSampleTime[newest] - mSampleTime[oldest];
+        if (dt <= 0) {
+            return;
+        }
+        final float vx = (mSampleX[newest] - mSampleX[oldest]) / dt;
+        final float vy = (mSampleY[newest] - mSampleY[oldest]) / dt;
+        if (vx * vx + vy * vy < MIN_SPEED * MIN_SPEED) {
+            return;
+        }
+
+        // The next key along the extrapolated path
+        final int crossed = mGeometry.findCrossedKeys(
+                x,
+                y,
+                curKey,
+                x + vx * mHorizonMillis,
+                y + vy * mHorizonMillis,
+                mCrossedKeys,
+                mCrossedKeyFractions);
+        if (crossed == 0) {
+            return;
+        }
+        final int nextKey = mCrossedKeys[0];
+        if (nextKey == -1 || nextKey == curKey || nextKey == mPredictedKey[pointerId]) {
+            return;
+        }
+        if (mPredictedKey[pointerId] != -1) {
+            retract(pointerId, time);
+        }
+        mPredictedKey[pointerId] = nextKey;
+        mOpenPredictions |= 1 << pointerId;
+        mPredictionDeadline[pointerId] = time + mHorizonMillis;
+        mCallback.onKeyPredicted(
+                nextKey,
+                pointerId,
+                time,
+                time + Math.round(mCrossedKeyFractions[0] * mHorizonMillis));
+    }
+
+    /**
+     * Retracts the open prediction of a pointer that went up or was cancelled.
+     */
+    void pointerUp(int pointerId, long time) {
+        if (mPredictedKey[pointerId] != -1) {
+            retract(pointerId, time);
+        }
+    }
+
+    /**
+     * Retracts every open prediction whose horizon has passed, including those of pointers
+     * that stopped moving and get no more samples.
+     */
+    void expire(long time) {
+        int open = mOpenPredictions;
+        while (open != 0) {
+            final int pointerId = Integer.numberOfTrailingZeros(open);
+            open &= open - 1;
+            if (time >= mPredictionDeadline[pointerId]) {
+                retract(pointerId, time);
+            }
+        }
+    }
+
+    private void retract(int pointerId, long time) {
+        final int key = mPredictedKey[pointerId];
+        mPredictedKey[pointerId] = -1;
+        mOpenPredictions &= ~(1 << pointerId);
+        mCallback.onPredictionRetracted(key, pointerId, time);
+    }
+
+    private void addSample(int pointerId, float x, float y, long time) {
+        final int ix = pointerId * VELOCITY_SAMPLES + mSampleNext[pointerId];
+        mSampleX[ix] = x;
+        mSampleY[ix] = y;
+        mSampleTime[ix] = time;
+        mSampleNext[pointerId] = (mSampleNext[pointerId] + 1) % VELOCITY_SAMPLES;
+        if (mSampleCount[pointerId] < VELOCITY_SAMPLES) {
+            mSampleCount[pointerId]++;
+        }
+    }
+
+}
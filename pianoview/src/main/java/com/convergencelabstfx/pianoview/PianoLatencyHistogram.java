@@ -0,0 +1,134 @@
+package com.convergencelabstfx.pianoview;
+
+/**
+ * Histogram of durations with fixed, power of two buckets.
+ * <p>
+ * Bucket 0 holds durations under 1 microsecond, and bucket i holds durations from
+ * 2^(i-1) up to (but not including) 2^i microseconds. The last bucket also holds anything longer.
+ * Recording a duration never allocates.
+ */
+public final class PianoLatencyHistogram {
+
+    /**
+     * The number of buckets in every histogram.
+     */
+    public static final int NUMBER_OF_BUCKETS = 32;
+
+    private final long[] mBuckets = new long[NUMBER_OF_BUCKETS];
+    private long mCount;
+    private long mTotalNanos;
+    private long mMaxNanos;
+
+    PianoLatencyHistogram() {
+    }
+
+    /**
+     * Adds a duration to the histogram. Negative durations are counted as 0.
+     */
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        mBuckets[getBucketIndex(nanos)]++;
+        mCount++;
+        mTotalNanos += nanos;
+        if (nanos > mMaxNanos) {
+            mMaxNanos = nanos;
+        }
+    }
+
+    void copyFrom(PianoLatencyHistogram other) {
+        System.arraycopy(other.mBuckets, 0, mBuckets, 0, NUMBER_OF_BUCKETS);
+        mCount = other.mCount;
+        mTotalNanos = other.mTotalNanos;
+        mMaxNanos = other.mMaxNanos;
+    }
+
+    void reset() {
+        for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+            mBuckets[i] = 0;
+        }
+        mCount = 0;
+        mTotalNanos = 0;
+        mMaxNanos = 0;
+    }
+
+    /**
+     * Returns the bucket a duration falls into.
+     */
+    static int getBucketIndex(long nanos) {
+        final long micros = nanos / 1000;
+        return Math.min(NUMBER_OF_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * Returns the exclusive upper bound of a bucket, in microseconds.
+     * The last bucket has no upper bound, and returns Long.MAX_VALUE.
+     */
+    public static long getBucketUpperBoundMicros(int bucket) {
+        if (bucket < 0 || bucket >= NUMBER_OF_BUCKETS) {
+            throw new IllegalArgumentException(
+                    "bucket must be between 0 and " + (NUMBER_OF_BUCKETS - 1) +
+                            " (both inclusive). Actual bucket: " + bucket);
+        }
+        if (bucket == NUMBER_OF_BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        return 1L << bucket;
+    }
+
+    /**
+     * Returns the number of durations in a bucket.
+     */
+    public long getBucketCount(int bucket) {
+        return mBuckets[bucket];
+    }
+
+    /**
+     * Returns the number of recorded durations.
+     */
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the mean of the recorded durations in nanoseconds, or 0 if there are none.
+     */
+    public long getMeanNanos() {
+        return mCount == 0 ? 0 : mTotalNanos / mCount;
+    }
+
+    /**
+     * Returns the longest recorded duration in nanoseconds.
+     */
+    public long getMaxNanos() {
+        return mMaxNanos;
+    }
+
+    /**
+     * Returns an upper bound for the given percentile of the recorded durations, in microseconds;
+     * i.e. the upper bound of the bucket the percentile falls into.
+     * Returns 0 if nothing was recorded.
+     *
+     * @param percentile Between 0 and 100 (both inclusive).
+     */
+    public long getPercentileMicros(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException(
+                    "percentile must be between 0 and 100 (both inclusive). Actual percentile: " + percentile);
+        }
+        if (mCount == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(mCount * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+            seen += mBuckets[i];
+            if (seen >= rank) {
+                return getBucketUpperBoundMicros(i);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+}
@@ -0,0 +1,144 @@
+package com.convergencelabstfx.pianoview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.RenderNode;
+import android.os.Build;
+
+/**
+ * Holds a pre-rendered copy of the idle keyboard (every key in its unpressed color)
+ * for {@link PianoView}.
+ * <p>
+ * On hardware accelerated canvases (API 29+) the layer is recorded once into a {@link RenderNode},
+ * whose display list is drawn as is on every frame. On software canvases it is rasterized into
+ * a {@link Bitmap}, as long as the bitmap fits within the memory cap. Older hardware accelerated
+ * canvases get no cache: anything drawn onto them, a picture or a bitmap just as much as the keys
+ * themselves, is recorded into the view's display list again on every draw, so caching saves nothing.
+ */
+class PianoLayerCache {
+
+    /**
+     * Default upper limit for the size of the cached bitmap, in bytes.
+     */
+    static final int DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private Bitmap mBitmap;
+    private Canvas mBitmapCanvas;
+    private RenderNode mRenderNode;
+    private int mMaxBytes = DEFAULT_MAX_BYTES;
+    private boolean mValid;
+
+    int getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    void setMaxBytes(int maxBytes) {
+        mMaxBytes = maxBytes;
+        invalidate();
+    }
+
+    /**
+     * Returns true if the cached layer can be drawn as is.
+     */
+    boolean isValid() {
+        return mValid;
+    }
+
+    /**
+     * Marks the cached layer as out of date; it is rebuilt the next time it is drawn.
+     */
+    void invalidate() {
+        mValid = false;
+    }
+
+    /**
+     * Checks if a layer of the given size can be cached when drawing onto the given canvas.
+     */
+    boolean canCache(Canvas target, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return false;
+        }
+        if (target.isHardwareAccelerated()) {
+            return useRenderNode(target);
+        }
+        return (long) width * height * BYTES_PER_PIXEL <= mMaxBytes;
+    }
+
+    /**
+     * Returns a canvas to draw the idle keyboard into.
+     * Has to be followed by {@link #endBuild()}.
+     */
+    Canvas beginBuild(Canvas target, int width, int height) {
+        if (useRenderNode(target)) {
+            releaseBitmap();
+            if (mRenderNode == null) {
+                mRenderNode = new RenderNode("PianoLayerCache");
+            }
+            mRenderNode.setPosition(0, 0, width, height);
+            return mRenderNode.beginRecording(width, height);
+        }
+        releaseRenderNode();
+        if (mBitmap == null || mBitmap.getWidth() != width || mBitmap.getHeight() != height) {
+            releaseBitmap();
+            mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mBitmapCanvas = new Canvas(mBitmap);
+        }
+        else {
+            mBitmap.eraseColor(0);
+        }
+        return mBitmapCanvas;
+    }
+
+    void endBuild() {
+        if (mRenderNode != null) {
+            mRenderNode.endRecording();
+        }
+        mValid = true;
+    }
+
+    /**
+     * Draws the cached layer.
+     */
+    void draw(Canvas canvas) {
+        if (mRenderNode != null) {
+            canvas.drawRenderNode(mRenderNode);
+        }
+        else if (mBitmap != null) {
+            canvas.drawBitmap(mBitmap, 0, 0, null);
+        }
+    }
+
+    /**
+     * Frees the cached layer.
+     */
+    void release() {
+        releaseBitmap();
+        releaseRenderNode();
+        mValid = false;
+    }
+
+    private void releaseBitmap() {
+        if (mBitmap != null) {
+            mBitmap.recycle();
+            mBitmap = null;
+            mBitmapCanvas = null;
+        }
+    }
+
+    private void releaseRenderNode() {
+        if (mRenderNode != null) {
+            mRenderNode.discardDisplayList();
+            mRenderNode = null;
+        }
+    }
+
+    /**
+     * Hardware accelerated canvases can only draw render nodes as of API 29.
+     */
+    private static boolean useRenderNode(Canvas target) {
+        return target.isHardwareAccelerated() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
+    }
+
+}
@@ -0,0 +1,224 @@
+package com.convergencelabstfx.pianoview;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Plays a Standard MIDI File on a {@link PianoView}, highlighting the notes as they sound.
+ * <p>
+ * The file is streamed with a {@link PianoMidiFileReader}, so memory use doesn't depend on its length.
+ * A lookahead scheduler wakes up shortly before the next note, and applies every note on and
+ * note off due within the lookahead as one bulk highlight update. Events are scheduled against
+ * the System.nanoTime() clock from the start of playback (see {@link PianoPlaybackScheduler}),
+ * so timing errors never add up. A key stays highlighted while any track holds its note.
+ * <p>
+ * MIDI note {@link #getLowestNote()} + i highlights key i; notes outside the keys are ignored.
+ */
+public final class PianoMidiFilePlayer {
+
+    public static final int DEFAULT_LOOKAHEAD_MILLIS = 4;
+    public static final int MAX_LOOKAHEAD_MILLIS = 100;
+
+    private final PianoKeyChangeSink mSink;
+    private volatile int mChannel = PianoMidiInput.CHANNEL_OMNI;
+    private volatile int mLowestNote = PianoMidiInput.DEFAULT_LOWEST_NOTE;
+    private volatile long mLookaheadNanos = DEFAULT_LOOKAHEAD_MILLIS * 1000000L;
+
+    // Number of held notes per key, from every track and channel
+    private final int[] mNoteCounts = new int[PianoKeyBitSet.CAPACITY];
+    private volatile long mUpdateCount;
+    // Parks all the way; the lookahead already covers the wake up latency
+    private final PianoPlaybackScheduler mScheduler = new PianoPlaybackScheduler(0);
+
+    /**
+     * Creates a player that highlights the keys of piano, with the same thread-safe mechanism
+     * as {@link PianoView#postKeyPressed(int)}.
+     */
+    public PianoMidiFilePlayer(PianoView piano) {
+        this(piano.getKeyChangeSink());
+    }
+
+    PianoMidiFilePlayer(PianoKeyChangeSink sink) {
+        mSink = sink;
+    }
+
+    /**
+     * Only play the notes of one channel.
+     *
+     * @param channel Channel between 0 and 15, or {@link PianoMidiInput#CHANNEL_OMNI} for every channel (the default).
+     */
+    public void setChannel(int channel) {
+        if (channel < PianoMidiInput.CHANNEL_OMNI || channel > 15) {
+            throw new IllegalArgumentException(
+                    "channel must be between -1 and 15 (both inclusive). Actual channel: " + channel);
+        }
+        mChannel = channel;
+    }
+
+    public int getChannel() {
+        return mChannel;
+    }
+
+    /**
+     * Sets the note of key 0.
+     *
+     * @param note MIDI note number between 0 and 127.
+     */
+    public void setLowestNote(int note) {
+        if (note < 0 || note > 127) {
+            throw new IllegalArgumentException(
+                    "note must be between 0 and 127 (both inclusive). Actual note: " + note);
+        }
+        mLowestNote = note;
+    }
+
+    public int getLowestNote() {
+        return mLowestNote;
+    }
+
+    /**
+     * Sets how far ahead of time notes may be applied, so nearby notes are applied in one update.
+     *
+     * @param millis Lookahead between 0 and {@link #MAX_LOOKAHEAD_MILLIS} (both inclusive).
+     */
+    public void setLookahead(int millis) {
+        if (millis < 0 || millis > MAX_LOOKAHEAD_MILLIS) {
+            throw new IllegalArgumentException(
+                    "millis must be between 0 and " + MAX_LOOKAHEAD_MILLIS + " (both inclusive). Actual millis: " + millis);
+        }
+        mLookaheadNanos = millis * 1000000L;
+    }
+
+    public int getLookahead() {
+        return (int) (mLookaheadNanos / 1000000L);
+    }
+
+    /**
+     * Returns the number of bulk highlight updates of the latest playback.
+     */
+    public long getUpdateCount() {
+        return mUpdateCount;
+    }
+
+    /**
+     * Starts playing a file on a background thread, stopping any earlier playback.
+     *
+     * @throws IOException If the file can't be read, or isn't a Standard MIDI File.
+     */
+    public synchronized void start(File file) throws IOException {
+        stop();
+        final PianoMidiFileReader reader = PianoMidiFileReader.open(file);
+        mScheduler.startThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    play(reader);
+                }
+                catch (IOException e) {
+                    // The rest of the file is malformed; everything before it was played
+                }
+            }
+        }, "PianoMidiFilePlayer");
+    }
+
+    /**
+     * Stops playback, and waits for it to release its keys.
+     */
+    public synchronized void stop() {
+        mScheduler.stop();
+    }
+
+    /**
+     * Returns true while a file is being played.
+     */
+    public boolean isPlaying() {
+        return mScheduler.isPlaying();
+    }
+
+    /**
+     * Plays a file on the calling thread, returning when it ends or {@link #stop()} is called.
+     * The reader is closed at the end.
+     *
+     * @throws IOException If the file is malformed; its keys are released first.
+     */
+    public void play(PianoMidiFileReader reader) throws IOException {
+        mScheduler.clearStopRequest();
+        playReader(reader);
+    }
+
+    private void playReader(PianoMidiFileReader reader) throws IOException {
+        mScheduler.beginPlaying();
+        mUpdateCount = 0;
+        for (int key = 0; key < mNoteCounts.length; key++) {
+            mNoteCounts[key] = 0;
+        }
+        long pressedLo = 0;
+        long pressedHi = 0;
+        try {
+            boolean hasEvent = reader.next();
+            while (hasEvent) {
+                final long lookahead = mLookaheadNanos;
+                if (!mScheduler.waitUntil(mScheduler.dueTime(reader.getTimeMicros() * 1000) - lookahead)) {
+                    break;
+                }
+                // Shifts the rest of the file if playback fell too far behind
+                mScheduler.lateness(reader.getTimeMicros() * 1000, System.nanoTime());
+                final long horizon = System.nanoTime() + lookahead;
+                final int channel = mChannel;
+                final int lowestNote = mLowestNote;
+                long changedLo = 0;
+                long changedHi = 0;
+                do {
+                    final int key = reader.getNote() - lowestNote;
+                    if (key >= 0 && (channel == PianoMidiInput.CHANNEL_OMNI || channel == reader.getChannel())) {
+                        if (reader.isNoteOn()) {
+                            mNoteCounts[key]++;
+                        }
+                        else if (mNoteCounts[key] > 0) {
+                            mNoteCounts[key]--;
+                        }
+                        if (key < 64) {
+                            changedLo |= 1L << key;
+                        }
+                        else {
+                            changedHi |= 1L << key;
+                        }
+                    }
+                    hasEvent = reader.next();
+                }
+                while (hasEvent && mScheduler.dueTime(reader.getTimeMicros() * 1000) <= horizon);
+                if ((changedLo | changedHi) != 0) {
+                    pressedLo = applyCounts(pressedLo, changedLo, 0);
+                    pressedHi = applyCounts(pressedHi, changedHi, 64);
+                    mSink.onKeysChanged(changedLo, changedHi, pressedLo, pressedHi);
+                    mUpdateCount++;
+                }
+            }
+        }
+        finally {
+            if ((pressedLo | pressedHi) != 0) {
+                mSink.onKeysChanged(pressedLo, pressedHi, 0, 0);
+            }
+            mScheduler.endPlaying();
+            reader.close();
+        }
+    }
+
+    /**
+     * Updates the pressed bits of the changed keys of one word from the note counts.
+     */
+    private long applyCounts(long pressed, long changed, int firstKey) {
+        while (changed != 0) {
+            final int bit = Long.numberOfTrailingZeros(changed);
+            changed &= changed - 1;
+            if (mNoteCounts[firstKey + bit] > 0) {
+                pressed |= 1L << bit;
+            }
+            else {
+                pressed &= ~(1L << bit);
+            }
+        }
+        return pressed;
+    }
+
+}
@@ -0,0 +1,474 @@
+package com.convergencelabstfx.pianoview;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the notes of a Standard MIDI File one event at a time, for {@link PianoMidiFilePlayer}.
+ * <p>
+ * Opening only reads the chunk headers. Every track then gets its own cursor, and the tracks are
+ * merged in time order with a k-way merge: a min-heap of tracks, keyed on the time of each
+ * track's next event. Ticks are converted to microseconds along the way, following the tempo
+ * changes of every track. Only note on and note off events are returned; note on with velocity 0
+ * counts as note off.
+ * <p>
+ * A track cursor reads either straight from a memory mapped file ({@link #open(File)}), or through
+ * a small buffer of positional reads ({@link #open(FileChannel)}). Either way, the memory taken
+ * doesn't grow with the length of the file, and reading never allocates. Not thread safe.
+ */
+public final class PianoMidiFileReader implements Closeable {
+
+    private static final int MTHD = 0x4D546864;
+    private static final int MTRK = 0x4D54726B;
+    private static final int TRACK_BUFFER_SIZE = 4096;
+    // Microseconds per quarter note until the first tempo change; 120 beats per minute
+    private static final int DEFAULT_TEMPO = 500000;
+
+    private static final int META = 0xFF;
+    private static final int META_END_OF_TRACK = 0x2F;
+    private static final int META_TEMPO = 0x51;
+    private static final int SYSEX = 0xF0;
+    private static final int SYSEX_ESCAPE = 0xF7;
+    private static final int NOTE_OFF = 0x80;
+    private static final int NOTE_ON = 0x90;
+    private static final int PROGRAM_CHANGE = 0xC0;
+    private static final int CHANNEL_PRESSURE = 0xD0;
+
+    private final FileChannel mChannel;
+    private final int mFormat;
+    private final int mDivision;
+
+    // Per track state, indexed by track
+    private final ByteBuffer[] mTrackBuffer;
+    // File position of the first byte after the buffered bytes, and of the end of the track
+    private final long[] mTrackPosition;
+    private final long[] mTrackEnd;
+    private final int[] mTrackRunningStatus;
+    private final long[] mTrackNextTick;
+
+    // Min-heap of the tracks with events left, ordered by next tick, then by track
+    private final int[] mHeap;
+    private int mHeapSize;
+
+    private int mTempo = DEFAULT_TEMPO;
+    private long mTempoTick;
+    private long mTempoMicros;
+
+    private long mTick;
+    private long mTimeMicros;
+    private int mTrack;
+    private int mEventChannel;
+    private int mNote;
+    private int mVelocity;
+    private boolean mNoteOn;
+
+    private PianoMidiFileReader(FileChannel channel, ByteBuffer mapped) throws IOException {
+        mChannel = channel;
+        final long size = mapped != null ? mapped.limit() : channel.size();
+        final ByteBuffer header = ByteBuffer.allocate(14);
+        read(channel, mapped, header, 0);
+        if (header.position() < 14 || header.getInt(0) != MTHD || header.getInt(4) < 6) {
+            throw new IOException("Not a Standard MIDI File");
+        }
+        mFormat = header.getShort(8) & 0xFFFF;
+        final int declaredTracks = header.getShort(10) & 0xFFFF;
+        mDivision = header.getShort(12);
+        if (mDivision == 0 || (mDivision < 0 && (mDivision & 0xFF) == 0)) {
+            throw new IOException("Invalid MIDI file division: " + mDivision);
+        }
+
+        // Finds the tracks, reading only the chunk headers
+        final long[] starts = new long[declaredTracks];
+        final long[] ends = new long[declaredTracks];
+        int tracks = 0;
+        long position = 8 + (header.getInt(4) & 0xFFFFFFFFL);
+        final ByteBuffer chunk = ByteBuffer.allocate(8);
+        while (tracks < declaredTracks && position + 8 <= size) {
+            chunk.clear();
+            read(channel, mapped, chunk, position);
+            final long length = chunk.getInt(4) & 0xFFFFFFFFL;
+            if (chunk.getInt(0) == MTRK) {
+                starts[tracks] = position + 8;
+                ends[tracks] = Math.min(size, position + 8 + length);
+                tracks++;
+            }
+            position += 8 + length;
+        }
+
+        mTrackBuffer = new ByteBuffer[tracks];
+        mTrackPosition = new long[tracks];
+        mTrackEnd = new long[tracks];
+        mTrackRunningStatus = new int[tracks];
+        mTrackNextTick = new long[tracks];
+        mHeap = new int[tracks];
+        for (int track = 0; track < tracks; track++) {
+            if (mapped != null) {
+                final ByteBuffer view = mapped.duplicate();
+                view.limit((int) ends[track]).position((int) starts[track]);
+                mTrackBuffer[track] = view.slice();
+                mTrackPosition[track] = ends[track];
+            }
+            else {
+                mTrackBuffer[track] = ByteBuffer.allocate(TRACK_BUFFER_SIZE);
+                mTrackBuffer[track].flip();
+                mTrackPosition[track] = starts[track];
+            }
+            mTrackEnd[track] = ends[track];
+            final long delta = readVarLen(track);
+            if (delta >= 0) {
+                mTrackNextTick[track] = delta;
+                heapAdd(track);
+            }
+        }
+    }
+
+    /**
+     * Opens a file by memory mapping it.
+     *
+     * @throws IOException If the file can't be read, or isn't a Standard MIDI File.
+     */
+    public static PianoMidiFileReader open(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // The mapping stays valid after the file is closed
+            final ByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            return new PianoMidiFileReader(null, mapped);
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Opens a file through positional reads of a channel, buffering a few KB per track.
+     * The channel is closed by {@link #close()}.
+     *
+     * @throws IOException If the channel can't be read, or doesn't hold a Standard MIDI File.
+     */
+    public static PianoMidiFileReader open(FileChannel channel) throws IOException {
+        return new PianoMidiFileReader(channel, null);
+    }
+
+    /**
+     * Returns the file format; 0 (one track), 1 (simultaneous tracks) or 2 (independent tracks,
+     * which are merged all the same).
+     */
+    public int getFormat() {
+        return mFormat;
+    }
+
+    public int getTrackCount() {
+        return mTrackBuffer.length;
+    }
+
+    /**
+     * Returns the division field of the header; ticks per quarter note if positive,
+     * otherwise the SMPTE frame rate and ticks per frame.
+     */
+    public int getDivision() {
+        return mDivision;
+    }
+
+    /**
+     * Reads the next note event of any track.
+     *
+     * @return False after the last event.
+     * @throws IOException If the file can't be read, or a track is malformed.
+     */
+    public boolean next() throws IOException {
+        while (mHeapSize > 0) {
+            final int track = mHeap[0];
+            final long tick = mTrackNextTick[track];
+            advanceTo(tick);
+            final boolean isNote = readEvent(track);
+            final long delta = mTrackBuffer[track] != null ? readVarLen(track) : -1;
+            if (delta >= 0) {
+                mTrackNextTick[track] = tick + delta;
+                heapSiftDown(0);
+            }
+            else {
+                heapRemoveFirst();
+            }
+            if (isNote) {
+                mTrack = track;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the time of the current event in ticks.
+     */
+    public long getTick() {
+        return mTick;
+    }
+
+    /**
+     * Returns the time of the current event in microseconds, from the start of the file.
+     */
+    public long getTimeMicros() {
+        return mTimeMicros;
+    }
+
+    public int getTrack() {
+        return mTrack;
+    }
+
+    /**
+     * Returns the MIDI channel of the current event, between 0 and 15.
+     */
+    public int getChannel() {
+        return mEventChannel;
+    }
+
+    /**
+     * Returns the MIDI note number of the current event, between 0 and 127.
+     */
+    public int getNote() {
+        return mNote;
+    }
+
+    public int getVelocity() {
+        return mVelocity;
+    }
+
+    /**
+     * Returns true for note on, and false for note off.
+     */
+    public boolean isNoteOn() {
+        return mNoteOn;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mChannel != null) {
+            mChannel.close();
+        }
+    }
+
+    /**
+     * Moves the clock to a tick no earlier than the current one.
+     */
+    private void advanceTo(long tick) {
+        mTick = tick;
+        if (mDivision > 0) {
+            mTimeMicros = mTempoMicros + (tick - mTempoTick) * mTempo / mDivision;
+        }
+        else {
+            // SMPTE: the high byte is minus the frames per second (29 means 29.97), the low byte ticks per frame
+            final int fps = -(mDivision >> 8);
+            final double ticksPerSecond = (fps == 29 ? 29.97 : fps) * (mDivision & 0xFF);
+            mTimeMicros = (long) (tick * 1000000 / ticksPerSecond);
+        }
+    }
+
+    /**
+     * Reads one event of a track.
+     *
+     * @return True if it was a note event; its details are then in the current event fields.
+     */
+    private boolean readEvent(int track) throws IOException {
+        int status = readByte(track);
+        int data1;
+        if (status < 0) {
+            endTrack(track);
+            return false;
+        }
+        if (status < 0x80) {
+            // Running status; the byte is the first data byte
+            data1 = status;
+            status = mTrackRunningStatus[track];
+            if (status == 0) {
+                throw new IOException("Malformed MIDI file: data byte without status in track " + track);
+            }
+        }
+        else if (status >= SYSEX) {
+            if (status == META) {
+                final int type = readByte(track);
+                final long length = readVarLen(track);
+                if (type < 0 || length < 0) {
+                    endTrack(track);
+                }
+                else if (type == META_END_OF_TRACK) {
+                    endTrack(track);
+                }
+                else if (type == META_TEMPO && length == 3) {
+                    final int tempo = readByte(track) << 16 | readByte(track) << 8 | readByte(track);
+                    if (tempo > 0) {
+                        mTempoMicros = mTimeMicros;
+                        mTempoTick = mTick;
+                        mTempo = tempo;
+                    }
+                }
+                else {
+                    skip(track, length);
+                }
+            }
+            else if (status == SYSEX || status == SYSEX_ESCAPE) {
+                skip(track, readVarLen(track));
+            }
+            else {
+                throw new IOException("Malformed MIDI file: unexpected status " + status + " in track " + track);
+            }
+            return false;
+        }
+        else {
+            mTrackRunningStatus[track] = status;
+            data1 = readByte(track);
+        }
+
+        final int type = status & 0xF0;
+        if (type == PROGRAM_CHANGE || type == CHANNEL_PRESSURE) {
+            return false;
+        }
+        final int data2 = readByte(track);
+        if (data1 < 0 || data2 < 0) {
+            endTrack(track);
+            return false;
+        }
+        if (type != NOTE_ON && type != NOTE_OFF) {
+            return false;
+        }
+        mEventChannel = status & 0x0F;
+        mNote = data1 & 0x7F;
+        mVelocity = data2 & 0x7F;
+        mNoteOn = type == NOTE_ON && mVelocity > 0;
+        return true;
+    }
+
+    /**
+     * Returns the next byte of a track, or -1 at its end.
+     */
+    private int readByte(int track) throws IOException {
+        final ByteBuffer buffer = mTrackBuffer[track];
+        if (buffer == null) {
+            return -1;
+        }
+        if (!buffer.hasRemaining() && !refill(track)) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    /**
+     * Returns the next variable length quantity of a track, or -1 at its end.
+     */
+    private long readVarLen(int track) throws IOException {
+        long value = 0;
+        for (int i = 0; i < 4; i++) {
+            final int b = readByte(track);
+            if (b < 0) {
+                return -1;
+            }
+            value = value << 7 | (b & 0x7F);
+            if (b < 0x80) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed MIDI file: variable length quantity too long in track " + track);
+    }
+
+    private void skip(int track, long count) throws IOException {
+        final ByteBuffer buffer = mTrackBuffer[track];
+        if (buffer == null || count < 0) {
+            return;
+        }
+        final int buffered = (int) Math.min(count, buffer.remaining());
+        buffer.position(buffer.position() + buffered);
+        mTrackPosition[track] = Math.min(mTrackEnd[track], mTrackPosition[track] + count - buffered);
+    }
+
+    /**
+     * Reads the next bytes of a track into its buffer.
+     *
+     * @return False at the end of the track.
+     */
+    private boolean refill(int track) throws IOException {
+        final long position = mTrackPosition[track];
+        final long end = mTrackEnd[track];
+        if (position >= end) {
+            return false;
+        }
+        final ByteBuffer buffer = mTrackBuffer[track];
+        buffer.clear();
+        buffer.limit((int) Math.min(buffer.capacity(), end - position));
+        final int count = mChannel.read(buffer, position);
+        buffer.flip();
+        if (count <= 0) {
+            return false;
+        }
+        mTrackPosition[track] = position + count;
+        return true;
+    }
+
+    private void endTrack(int track) {
+        mTrackBuffer[track] = null;
+    }
+
+    private static void read(FileChannel channel, ByteBuffer mapped, ByteBuffer dst, long position) throws IOException {
+        if (mapped != null) {
+            final int count = (int) Math.max(0, Math.min(dst.remaining(), mapped.limit() - position));
+            for (int i = 0; i < count; i++) {
+                dst.put(mapped.get((int) position + i));
+            }
+        }
+        else {
+            while (dst.hasRemaining()) {
+                final int count = channel.read(dst, position + dst.position());
+                if (count <= 0) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private boolean heapLess(int a, int b) {
+        final long tickA = mTrackNextTick[a];
+        final long tickB = mTrackNextTick[b];
+        return tickA < tickB || (tickA == tickB && a < b);
+    }
+
+    private void heapAdd(int track) {
+        int ix = mHeapSize++;
+        mHeap[ix] = track;
+        while (ix > 0) {
+            final int parent = (ix - 1) / 2;
+            if (!heapLess(mHeap[ix], mHeap[parent])) {
+                break;
+            }
+            final int tmp = mHeap[ix];
+            mHeap[ix] = mHeap[parent];
+            mHeap[parent] = tmp;
+            ix = parent;
+        }
+    }
+
+    private void heapRemoveFirst() {
+        mHeap[0] = mHeap[--mHeapSize];
+        heapSiftDown(0);
+    }
+
+    private void heapSiftDown(int ix) {
+        while (true) {
+            final int left = 2 * ix + 1;
+            if (left >= mHeapSize) {
+                return;
+            }
+            final int right = left + 1;
+            final int child = right < mHeapSize && heapLess(mHeap[right], mHeap[left]) ? right : left;
+            if (!heapLess(mHeap[child], mHeap[ix])) {
+                return;
+            }
+            final int tmp = mHeap[ix];
+            mHeap[ix] = mHeap[child];
+            mHeap[child] = tmp;
+            ix = child;
+        }
+    }
+
+}
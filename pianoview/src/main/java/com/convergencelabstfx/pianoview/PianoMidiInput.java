@@ -0,0 +1,223 @@
+package com.convergencelabstfx.pianoview;
+
+/**
+ * Highlights the keys of a {@link PianoView} from a raw MIDI byte stream,
+ * e.g. the bytes an external controller sends to a MidiReceiver.
+ * <p>
+ * Note on and note off messages are mapped to keys, with note {@link #getLowestNote()} as key 0.
+ * Running status is supported, a note on with velocity 0 is a note off, and "all sound off" and
+ * "all notes off" release every key. Every other message (including system exclusive) is skipped.
+ * <p>
+ * All key changes of one {@link #parse(byte[], int, int)} call are merged and posted to the view
+ * in bulk with the same thread-safe mechanism as {@link PianoView#postKeyPressed(int)}, so the
+ * parser may run on any thread, and the view applies the changes once per frame.
+ * Parsing never allocates. A parser must only be used by one thread at a time.
+ */
+public final class PianoMidiInput {
+
+    /**
+     * Accept messages on every channel.
+     */
+    public static final int CHANNEL_OMNI = -1;
+
+    /**
+     * The default lowest note; C2, the lowest key of a 61 key controller.
+     */
+    public static final int DEFAULT_LOWEST_NOTE = 36;
+
+    private static final int NOTE_OFF = 0x80;
+    private static final int NOTE_ON = 0x90;
+    private static final int CONTROL_CHANGE = 0xB0;
+    private static final int PROGRAM_CHANGE = 0xC0;
+    private static final int CHANNEL_PRESSURE = 0xD0;
+    private static final int SYSEX_START = 0xF0;
+    private static final int SYSEX_END = 0xF7;
+    private static final int ALL_SOUND_OFF = 120;
+    private static final int ALL_NOTES_OFF = 123;
+
+    // Number of data bytes of the system common messages 0xF0 - 0xF7
+    private static final int[] SYSTEM_COMMON_LENGTH = {0, 1, 2, 1, 0, 0, 0, 0};
+
+    private final PianoKeyChangeSink mSink;
+    private int mChannel = CHANNEL_OMNI;
+    private int mLowestNote = DEFAULT_LOWEST_NOTE;
+
+    // Status of the message being read; kept between messages for running status (channel messages only)
+    private int mStatus;
+    private int mDataLength;
+    private int mDataCount;
+    private int mData1;
+    private boolean mInSysex;
+
+    // Key changes of the current parse call
+    private long mChangedLo;
+    private long mChangedHi;
+    private long mPressedLo;
+    private long mPressedHi;
+
+    /**
+     * Creates a parser that highlights the keys of piano.
+     */
+    public PianoMidiInput(PianoView piano) {
+        this(piano.getKeyChangeSink());
+    }
+
+    /**
+     * Creates a parser that sends the key changes of each parsed chunk of bytes to sink.
+     */
+    PianoMidiInput(PianoKeyChangeSink sink) {
+        mSink = sink;
+    }
+
+    /**
+     * Only accept messages on one channel.
+     *
+     * @param channel Channel between 0 and 15, or {@link #CHANNEL_OMNI} for every channel (the default).
+     */
+    public void setChannel(int channel) {
+        if (channel != CHANNEL_OMNI && (channel < 0 || channel > 15)) {
+            throw new IllegalArgumentException(
+                    "channel must be between 0 and 15 (both inclusive), or CHANNEL_OMNI. Actual channel: " + channel);
+        }
+        mChannel = channel;
+    }
+
+    public int getChannel() {
+        return mChannel;
+    }
+
+    /**
+     * Sets the note of key 0. Notes below it, or past the last key, are ignored.
+     * Key 0 of a PianoView is a C, so this should usually be a C as well (a multiple of 12).
+     *
+     * @param note MIDI note number between 0 and 127.
+     */
+    public void setLowestNote(int note) {
+        if (note < 0 || note > 127) {
+            throw new IllegalArgumentException(
+                    "note must be between 0 and 127 (both inclusive). Actual note: " + note);
+        }
+        mLowestNote = note;
+    }
+
+    public int getLowestNote() {
+        return mLowestNote;
+    }
+
+    /**
+     * Forgets the running status and any partially read message, e.g. after reconnecting.
+     */
+    public void reset() {
+        mStatus = 0;
+        mDataCount = 0;
+        mInSysex = false;
+    }
+
+    public void parse(byte[] data) {
+        parse(data, 0, data.length);
+    }
+
+    /**
+     * Parses a chunk of MIDI bytes. Messages may be split across chunks.
+     *
+     * @param data   Buffer holding the bytes.
+     * @param offset Index of the first byte.
+     * @param count  Number of bytes.
+     */
+    public void parse(byte[] data, int offset, int count) {
+        mChangedLo = 0;
+        mChangedHi = 0;
+        mPressedLo = 0;
+        mPressedHi = 0;
+        final int end = offset + count;
+        for (int i = offset; i < end; i++) {
+            final int b = data[i] & 0xFF;
+            if (b >= 0x80) {
+                readStatus(b);
+            }
+            else if (mStatus != 0 && !mInSysex) {
+                readData(b);
+            }
+        }
+        if ((mChangedLo | mChangedHi) != 0) {
+            mSink.onKeysChanged(mChangedLo, mChangedHi, mPressedLo, mPressedHi);
+        }
+    }
+
+    private void readStatus(int status) {
+        if (status >= 0xF8) {
+            // Real time messages may appear anywhere, even within other messages, and don't affect the status
+            return;
+        }
+        mDataCount = 0;
+        mInSysex = status == SYSEX_START;
+        if (status == SYSEX_START || status == SYSEX_END) {
+            mStatus = 0;
+        }
+        else if (status >= 0xF0) {
+            mStatus = status;
+            mDataLength = SYSTEM_COMMON_LENGTH[status - 0xF0];
+            if (mDataLength == 0) {
+                mStatus = 0;
+            }
+        }
+        else {
+            mStatus = status;
+            final int type = status & 0xF0;
+            mDataLength = type == PROGRAM_CHANGE || type == CHANNEL_PRESSURE ? 1 : 2;
+        }
+    }
+
+    private void readData(int data) {
+        if (mDataCount == 0) {
+            mData1 = data;
+        }
+        if (++mDataCount < mDataLength) {
+            return;
+        }
+        mDataCount = 0;
+        if (mStatus >= 0xF0) {
+            // System common messages don't have running status
+            mStatus = 0;
+            return;
+        }
+        if (mChannel != CHANNEL_OMNI && (mStatus & 0x0F) != mChannel) {
+            return;
+        }
+        switch (mStatus & 0xF0) {
+            case NOTE_ON:
+                setKey(mData1, data != 0);
+                break;
+            case NOTE_OFF:
+                setKey(mData1, false);
+                break;
+            case CONTROL_CHANGE:
+                if (mData1 == ALL_SOUND_OFF || mData1 == ALL_NOTES_OFF) {
+                    mChangedLo = -1L;
+                    mChangedHi = -1L;
+                    mPressedLo = 0;
+                    mPressedHi = 0;
+                }
+                break;
+        }
+    }
+
+    private void setKey(int note, boolean pressed) {
+        final int key = note - mLowestNote;
+        if (key < 0) {
+            return;
+        }
+        // Notes are below 128, so every key fits in the mask
+        if (key < 64) {
+            final long bit = 1L << key;
+            mChangedLo |= bit;
+            mPressedLo = pressed ? mPressedLo | bit : mPressedLo & ~bit;
+        }
+        else {
+            final long bit = 1L << (key - 64);
+            mChangedHi |= bit;
+            mPressedHi = pressed ? mPressedHi | bit : mPressedHi & ~bit;
+        }
+    }
+
+}
@@ -0,0 +1,211 @@
+package com.convergencelabstfx.pianoview;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes the touch key events of a {@link PianoView} as MIDI note on and note off messages;
+ * see {@link PianoView#setMidiOutput(PianoMidiOutput)}.
+ * <p>
+ * Key i is sent as note {@link #getBaseNote()} + i, on {@link #getChannel()}. Keys past note 127
+ * are not sent. The note on velocity is either fixed, or derived from where the key was touched:
+ * the closer to the bottom of the key, the louder.
+ * <p>
+ * Messages are encoded into a reusable buffer and the messages of one touch event that share a time
+ * are handed to the {@link Sink} in a single call, so encoding never allocates. Messages at different
+ * times, e.g. keys crossed by the historical samples of a move, go out in separate calls, each with
+ * its own timestamp.
+ */
+public final class PianoMidiOutput {
+
+    /**
+     * Receives encoded MIDI messages, e.g. an OutputStream, a ByteBuffer, or a MidiInputPort
+     * (see {@link #toOutputStream(OutputStream)}, {@link #toByteBuffer(ByteBuffer)}
+     * and {@link PianoMidiReceiverSink}).
+     */
+    public interface Sink {
+
+        /**
+         * @param data           Buffer holding one or more complete messages;
+         *                       only valid during this call.
+         * @param offset         Index of the first byte.
+         * @param count          Number of bytes.
+         * @param timestampNanos Time of the messages, in the {@link System#nanoTime()} time base.
+         */
+        void send(byte[] data, int offset, int count, long timestampNanos) throws IOException;
+
+    }
+
+    public static final int DEFAULT_VELOCITY = 100;
+
+    // Release velocity of note off messages, for receivers that don't sense it
+    private static final int RELEASE_VELOCITY = 64;
+    private static final int MESSAGE_LENGTH = 3;
+    private static final int MAX_BUFFERED_MESSAGES = 64;
+
+    private final Sink mSink;
+    private int mChannel = 0;
+    private int mBaseNote = PianoMidiInput.DEFAULT_LOWEST_NOTE;
+    private int mVelocity = DEFAULT_VELOCITY;
+    private boolean mTouchVelocity = false;
+
+    private final byte[] mBuffer = new byte[MAX_BUFFERED_MESSAGES * MESSAGE_LENGTH];
+    private int mBufferLength;
+    private long mBufferTimeNanos;
+    private long mSendErrorCount;
+
+    public PianoMidiOutput(Sink sink) {
+        mSink = sink;
+    }
+
+    /**
+     * Returns a sink that writes to an OutputStream.
+     */
+    public static Sink toOutputStream(final OutputStream out) {
+        return new Sink() {
+            @Override
+            public void send(byte[] data, int offset, int count, long timestampNanos) throws IOException {
+                out.write(data, offset, count);
+            }
+        };
+    }
+
+    /**
+     * Returns a sink that puts the messages into a ByteBuffer.
+     * Messages that don't fit are not sent, and count as send errors.
+     */
+    public static Sink toByteBuffer(final ByteBuffer buffer) {
+        return new Sink() {
+            @Override
+            public void send(byte[] data, int offset, int count, long timestampNanos) throws IOException {
+                if (buffer.remaining() < count) {
+                    throw new IOException("ByteBuffer is full");
+                }
+                buffer.put(data, offset, count);
+            }
+        };
+    }
+
+    /**
+     * @param channel MIDI channel between 0 and 15.
+     */
+    public void setChannel(int channel) {
+        if (channel < 0 || channel > 15) {
+            throw new IllegalArgumentException(
+                    "channel must be between 0 and 15 (both inclusive). Actual channel: " + channel);
+        }
+        mChannel = channel;
+    }
+
+    public int getChannel() {
+        return mChannel;
+    }
+
+    /**
+     * Sets the note of key 0.
+     *
+     * @param note MIDI note number between 0 and 127.
+     */
+    public void setBaseNote(int note) {
+        if (note < 0 || note > 127) {
+            throw new IllegalArgumentException(
+                    "note must be between 0 and 127 (both inclusive). Actual note: " + note);
+        }
+        mBaseNote = note;
+    }
+
+    public int getBaseNote() {
+        return mBaseNote;
+    }
+
+    /**
+     * Sets the fixed note on velocity, used unless touch velocity is enabled.
+     *
+     * @param velocity Velocity between 1 and 127.
+     */
+    public void setVelocity(int velocity) {
+        if (velocity < 1 || velocity > 127) {
+            throw new IllegalArgumentException(
+                    "velocity must be between 1 and 127 (both inclusive). Actual velocity: " + velocity);
+        }
+        mVelocity = velocity;
+    }
+
+    public int getVelocity() {
+        return mVelocity;
+    }
+
+    /**
+     * If enabled, the note on velocity comes from where the key was touched; 1 at the top of the key
+     * and 127 at the bottom. Keys without a touch position use the fixed velocity.
+     */
+    public void setTouchVelocityEnabled(boolean enabled) {
+        mTouchVelocity = enabled;
+    }
+
+    public boolean isTouchVelocityEnabled() {
+        return mTouchVelocity;
+    }
+
+    /**
+     * Returns the number of sends that failed, i.e. the sink threw an IOException.
+     */
+    public long getSendErrorCount() {
+        return mSendErrorCount;
+    }
+
+    /**
+     * Buffers a note on message for a key.
+     *
+     * @param touchPosition Where the key was touched, from 0 (top) to 1 (bottom), or NaN if unknown.
+     * @param time          Time of the key event in milliseconds, in the uptimeMillis time base.
+     */
+    void keyDown(int key, float touchPosition, long time) {
+        int velocity = mVelocity;
+        if (mTouchVelocity && !Float.isNaN(touchPosition)) {
+            velocity = 1 + Math.round(126 * Math.max(0, Math.min(1, touchPosition)));
+        }
+        append(0x90 | mChannel, key, velocity, time);
+    }
+
+    /**
+     * Buffers a note off message for a key.
+     */
+    void keyUp(int key, long time) {
+        append(0x80 | mChannel, key, RELEASE_VELOCITY, time);
+    }
+
+    /**
+     * Sends every buffered message to the sink.
+     */
+    void flush() {
+        if (mBufferLength == 0) {
+            return;
+        }
+        final int length = mBufferLength;
+        mBufferLength = 0;
+        try {
+            mSink.send(mBuffer, 0, length, mBufferTimeNanos);
+        }
+        catch (IOException e) {
+            mSendErrorCount++;
+        }
+    }
+
+    private void append(int status, int key, int velocity, long time) {
+        final int note = mBaseNote + key;
+        if (note > 127) {
+            return;
+        }
+        final long timeNanos = time * 1000000;
+        if (mBufferLength == mBuffer.length || (mBufferLength > 0 && timeNanos != mBufferTimeNanos)) {
+            flush();
+        }
+        mBufferTimeNanos = timeNanos;
+        mBuffer[mBufferLength++] = (byte) status;
+        mBuffer[mBufferLength++] = (byte) note;
+        mBuffer[mBufferLength++] = (byte) velocity;
+    }
+
+}
@@ -0,0 +1,28 @@
+package com.convergencelabstfx.pianoview;
+
+import android.media.midi.MidiReceiver;
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.IOException;
+
+/**
+ * A {@link PianoMidiOutput.Sink} that sends to a MidiReceiver, e.g. the MidiInputPort of a
+ * connected MIDI device. Kept in its own class, since android.media.midi only exists from API 23.
+ */
+@RequiresApi(Build.VERSION_CODES.M)
+public final class PianoMidiReceiverSink implements PianoMidiOutput.Sink {
+
+    private final MidiReceiver mReceiver;
+
+    public PianoMidiReceiverSink(MidiReceiver receiver) {
+        mReceiver = receiver;
+    }
+
+    @Override
+    public void send(byte[] data, int offset, int count, long timestampNanos) throws IOException {
+        mReceiver.send(data, offset, count, timestampNanos);
+    }
+
+}
@@ -0,0 +1,184 @@
+package com.convergencelabstfx.pianoview;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Pressed state requested for keys from any thread, waiting to be applied on the UI thread.
+ * <p>
+ * Every key has two bits: whether a state is pending, and the requested state.
+ * The two bits of a key live in the same word, so posting a key is a single lock-free CAS
+ * and the last request for a key wins. Draining takes every pending request at once.
+ * <p>
+ * Posts that write more than one word (masks and bulk changes) count themselves as in progress,
+ * and a drain that overlaps one takes nothing and reports {@link #DRAIN_DEFERRED}, so a chord is
+ * never drained half written.
+ * <p>
+ * Posting never blocks or allocates, and any number of threads may post.
+ * Only one thread may drain.
+ */
+final class PianoPendingKeys {
+
+    static final int CAPACITY = PianoKeyBitSet.CAPACITY;
+
+    /**
+     * Returned by {@link #drain} when nothing was pending.
+     */
+    static final int DRAIN_EMPTY = 0;
+    /**
+     * Returned by {@link #drain} when pending requests were taken.
+     */
+    static final int DRAIN_TAKEN = 1;
+    /**
+     * Returned by {@link #drain} when a post of more than one word was in progress;
+     * nothing was taken, and draining should be tried again later.
+     */
+    static final int DRAIN_DEFERRED = 2;
+
+    // 32 keys per word; key i of a word uses bit 2i (pending) and bit 2i + 1 (pressed)
+    private static final int KEYS_PER_WORD = 32;
+    private static final long PENDING_BITS = 0x5555555555555555L;
+
+    private final AtomicLongArray mWords = new AtomicLongArray(CAPACITY / KEYS_PER_WORD);
+    // Posts of more than one word that started and that finished; they differ while one is in progress
+    private final AtomicInteger mMultiWordPostsStarted = new AtomicInteger();
+    private final AtomicInteger mMultiWordPostsFinished = new AtomicInteger();
+
+    /**
+     * Requests a key to be shown pressed or not pressed.
+     */
+    void post(int key, boolean pressed) {
+        final int word = key / KEYS_PER_WORD;
+        final int shift = 2 * (key % KEYS_PER_WORD);
+        final long clear = ~(3L << shift);
+        final long set = (pressed ? 3L : 1L) << shift;
+        while (true) {
+            final long current = mWords.get(word);
+            if (mWords.compareAndSet(word, current, (current & clear) | set)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Requests the changed keys to be shown pressed if they are in the pressed mask,
+     * or not pressed otherwise. Costs at most one CAS per word of 32 keys, and is drained as a whole.
+     */
+    void postChanges(long changedLo, long changedHi, long pressedLo, long pressedHi) {
+        mMultiWordPostsStarted.incrementAndGet();
+        postWordChanges(0, (int) changedLo, (int) pressedLo);
+        postWordChanges(1, (int) (changedLo >>> 32), (int) (pressedLo >>> 32));
+        postWordChanges(2, (int) changedHi, (int) pressedHi);
+        postWordChanges(3, (int) (changedHi >>> 32), (int) (pressedHi >>> 32));
+        mMultiWordPostsFinished.incrementAndGet();
+    }
+
+    /**
+     * Requests every key to be shown pressed if it is in the mask, or not pressed otherwise.
+     * Drained as a whole.
+     */
+    void postMask(long lo, long hi) {
+        mMultiWordPostsStarted.incrementAndGet();
+        // Replaces whole words, so there is nothing to merge
+        mWords.set(0, PENDING_BITS | (spread((int) lo) << 1));
+        mWords.set(1, PENDING_BITS | (spread((int) (lo >>> 32)) << 1));
+        mWords.set(2, PENDING_BITS | (spread((int) hi) << 1));
+        mWords.set(3, PENDING_BITS | (spread((int) (hi >>> 32)) << 1));
+        mMultiWordPostsFinished.incrementAndGet();
+    }
+
+    private void postWordChanges(int word, int changed, int pressed) {
+        if (changed == 0) {
+            return;
+        }
+        final long pending = spread(changed);
+        final long clear = ~(pending | (pending << 1));
+        final long set = pending | (spread(changed & pressed) << 1);
+        while (true) {
+            final long current = mWords.get(word);
+            if (mWords.compareAndSet(word, current, (current & clear) | set)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes every pending request, unless a post of more than one word is in progress.
+     *
+     * @param pending Receives the keys with a pending request.
+     * @param pressed Receives the pending keys that were requested to be pressed.
+     * @return {@link #DRAIN_TAKEN}, {@link #DRAIN_EMPTY} if nothing was pending,
+     * or {@link #DRAIN_DEFERRED} if a post was in progress; then pending and pressed aren't changed.
+     */
+    int drain(PianoKeyBitSet pending, PianoKeyBitSet pressed) {
+        // Finished is read first: a post that finishes in between makes started differ too
+        final int finished = mMultiWordPostsFinished.get();
+        final int started = mMultiWordPostsStarted.get();
+        if (started != finished) {
+            return DRAIN_DEFERRED;
+        }
+        final long w0 = mWords.getAndSet(0, 0);
+        final long w1 = mWords.getAndSet(1, 0);
+        final long w2 = mWords.getAndSet(2, 0);
+        final long w3 = mWords.getAndSet(3, 0);
+        if (mMultiWordPostsStarted.get() != started) {
+            // A post started while the words were taken, and may be partly in them
+            restore(0, w0);
+            restore(1, w1);
+            restore(2, w2);
+            restore(3, w3);
+            return DRAIN_DEFERRED;
+        }
+        pending.set(
+                compact(w0) | compact(w1) << 32,
+                compact(w2) | compact(w3) << 32);
+        pressed.set(
+                compact(w0 >>> 1) | compact(w1 >>> 1) << 32,
+                compact(w2 >>> 1) | compact(w3 >>> 1) << 32);
+        return pending.isEmpty() ? DRAIN_EMPTY : DRAIN_TAKEN;
+    }
+
+    /**
+     * Puts taken requests back into a word, under any request posted since they were taken.
+     */
+    private void restore(int word, long taken) {
+        if (taken == 0) {
+            return;
+        }
+        while (true) {
+            final long current = mWords.get(word);
+            // Both bits of every key pending in current
+            final long newer = (current & PENDING_BITS) * 3;
+            if (mWords.compareAndSet(word, current, current | (taken & ~newer))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Moves bit i of bits to bit 2i.
+     */
+    static long spread(int bits) {
+        long x = bits & 0xFFFFFFFFL;
+        x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x;
+    }
+
+    /**
+     * Moves bit 2i of bits to bit i; the inverse of {@link #spread(int)}.
+     */
+    static long compact(long bits) {
+        long x = bits & 0x5555555555555555L;
+        x = (x | (x >>> 1)) & 0x3333333333333333L;
+        x = (x | (x >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x >>> 4)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x >>> 8)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x >>> 16)) & 0x00000000FFFFFFFFL;
+        return x;
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.convergencelabstfx.pianoview;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The clock and playing thread shared by {@link PianoReplayer} and {@link PianoMidiFilePlayer}.
+ * <p>
+ * Events are scheduled at their offset from the start of playback on the System.nanoTime() clock,
+ * rather than after the previous event, so waiting errors never add up. If playback falls more
+ * than {@link #MAX_LATENESS_NANOS} behind (e.g. the process was paused), the rest of it is shifted
+ * later rather than rushed.
+ */
+final class PianoPlaybackScheduler {
+
+    // Falling further behind than this shifts the rest of the playback
+    static final long MAX_LATENESS_NANOS = 50000000L;
+
+    private final long mSpinNanos;
+    private long mStart;
+    private volatile boolean mStopRequested;
+    private volatile Thread mPlayingThread;
+    private Thread mThread;
+
+    /**
+     * @param spinNanos How long before a due time waiting stops parking and spins instead;
+     *                  0 to park all the way.
+     */
+    PianoPlaybackScheduler(long spinNanos) {
+        mSpinNanos = spinNanos;
+    }
+
+    /**
+     * Runs playback on a new thread. Any earlier thread has to be stopped first.
+     */
+    synchronized void startThread(Runnable playback, String name) {
+        mStopRequested = false;
+        mThread = new Thread(playback, name);
+        mThread.start();
+    }
+
+    /**
+     * Stops playback, and waits for the playing thread started by
+     * {@link #startThread(Runnable, String)} to finish.
+     */
+    synchronized void stop() {
+        mStopRequested = true;
+        final Thread playing = mPlayingThread;
+        if (playing != null) {
+            LockSupport.unpark(playing);
+        }
+        if (mThread == null) {
+            return;
+        }
+        LockSupport.unpark(mThread);
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mThread.join();
+                break;
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        mThread = null;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Forgets an earlier {@link #stop()}, before playing on the calling thread.
+     */
+    void clearStopRequest() {
+        mStopRequested = false;
+    }
+
+    boolean isPlaying() {
+        return mPlayingThread != null;
+    }
+
+    /**
+     * Marks the calling thread as playing, and starts the clock.
+     * Has to be followed by {@link #endPlaying()}.
+     */
+    void beginPlaying() {
+        mPlayingThread = Thread.currentThread();
+        mStart = System.nanoTime();
+    }
+
+    void endPlaying() {
+        mPlayingThread = null;
+    }
+
+    /**
+     * Returns the System.nanoTime() time an event at offsetNanos from the start of playback is due.
+     */
+    long dueTime(long offsetNanos) {
+        return mStart + offsetNanos;
+    }
+
+    /**
+     * Returns how late an event at offsetNanos is at time now. Falling too far behind shifts
+     * the rest of the playback, so later events are due that much later.
+     */
+    long lateness(long offsetNanos, long now) {
+        final long lateness = now - (mStart + offsetNanos);
+        if (lateness > MAX_LATENESS_NANOS) {
+            mStart += lateness;
+        }
+        return lateness;
+    }
+
+    /**
+     * Waits until the System.nanoTime() clock reaches target.
+     *
+     * @return False if playback was stopped first.
+     */
+    boolean waitUntil(long target) {
+        while (!mStopRequested) {
+            final long remaining = target - System.nanoTime();
+            if (remaining <= 0) {
+                return true;
+            }
+            if (remaining > mSpinNanos) {
+                LockSupport.parkNanos(remaining - mSpinNanos);
+            }
+            else {
+                Thread.yield();
+            }
+        }
+        return false;
+    }
+
+}
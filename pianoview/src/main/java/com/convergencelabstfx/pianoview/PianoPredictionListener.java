@@ -0,0 +1,43 @@
+package com.convergencelabstfx.pianoview;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Listener interface for the key predictions of a PianoView,
+ * see {@link PianoView#setPredictionHorizon(int)}.
+ * <p>
+ * While a finger slides across the keys, the key it is about to enter may be predicted ahead of time,
+ * e.g. to start preparing a sound early. Every prediction is later either confirmed or retracted.
+ */
+public interface PianoPredictionListener {
+
+    /**
+     * Called when a pointer is expected to enter a key soon.
+     * @param piano The PianoView currently touched.
+     * @param key Index of the predicted key.
+     * @param pointerId Id of the pointer that is expected to enter the key.
+     * @param predictedTime Expected time of entering the key,
+     *                      in the {@link android.os.SystemClock#uptimeMillis()} time base.
+     */
+    void onKeyPredicted(@NonNull PianoView piano, int key, int pointerId, long predictedTime);
+
+    /**
+     * Called when the pointer entered the predicted key,
+     * right before the key's {@link PianoTouchListener#onKeyDown(PianoView, int)}
+     * (if the key wasn't already down).
+     * @param piano The PianoView currently touched.
+     * @param key Index of the predicted key.
+     * @param pointerId Id of the pointer that entered the key.
+     */
+    void onPredictionConfirmed(@NonNull PianoView piano, int key, int pointerId);
+
+    /**
+     * Called when the pointer didn't enter the predicted key within the prediction horizon,
+     * changed course towards another key, or went up.
+     * @param piano The PianoView currently touched.
+     * @param key Index of the predicted key.
+     * @param pointerId Id of the pointer the key was predicted for.
+     */
+    void onPredictionRetracted(@NonNull PianoView piano, int key, int pointerId);
+
+}
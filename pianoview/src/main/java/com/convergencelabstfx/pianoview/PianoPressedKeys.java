@@ -0,0 +1,85 @@
+package com.convergencelabstfx.pianoview;
+
+/**
+ * The pressed keys of a {@link PianoView}, readable from any thread (e.g. an audio thread);
+ * see {@link PianoView#getPressedKeysSnapshot()}.
+ * <p>
+ * The UI thread publishes the 128-bit mask of pressed keys under a sequence lock, and every
+ * publication increments the version. Readers always get a consistent mask, without locks or
+ * allocation; a read that overlaps a publication simply retries. The UI thread never waits for readers.
+ */
+public final class PianoPressedKeys {
+
+    // Odd while a publication is in progress; the version is half of it
+    private volatile long mSequence;
+    private volatile long mLo;
+    private volatile long mHi;
+
+    PianoPressedKeys() {
+    }
+
+    /**
+     * Publishes a new mask if it differs from the current one. UI thread only.
+     */
+    void publish(long lo, long hi) {
+        if (lo == mLo && hi == mHi) {
+            return;
+        }
+        final long sequence = mSequence;
+        mSequence = sequence + 1;
+        mLo = lo;
+        mHi = hi;
+        mSequence = sequence + 2;
+    }
+
+    /**
+     * Returns the version of the current mask; it increases every time the pressed keys change.
+     */
+    public long getVersion() {
+        return mSequence >>> 1;
+    }
+
+    /**
+     * Returns true if the pressed keys changed since the given version was read.
+     */
+    public boolean hasChangedSince(long version) {
+        return getVersion() != version;
+    }
+
+    /**
+     * Copies a consistent mask of the pressed keys into out.
+     * Bit i of out[0] is key i, and bit i of out[1] is key 64 + i.
+     *
+     * @param out Array of at least 2 elements that receives the mask.
+     * @return The version of the copied mask.
+     */
+    public long read(long[] out) {
+        while (true) {
+            final long sequence = mSequence;
+            if ((sequence & 1) != 0) {
+                continue;
+            }
+            final long lo = mLo;
+            final long hi = mHi;
+            if (mSequence == sequence) {
+                out[0] = lo;
+                out[1] = hi;
+                return sequence >>> 1;
+            }
+        }
+    }
+
+    /**
+     * Returns if a key is pressed in the current mask.
+     *
+     * @param key Index of the key.
+     */
+    public boolean isPressed(int key) {
+        if (key < 0 || key >= PianoKeyBitSet.CAPACITY) {
+            return false;
+        }
+        // A single word; no need for the sequence
+        return key < 64 ? (mLo & (1L << key)) != 0 : (mHi & (1L << (key - 64))) != 0;
+    }
+
+}
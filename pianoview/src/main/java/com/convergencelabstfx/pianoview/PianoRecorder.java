@@ -0,0 +1,162 @@
+package com.convergencelabstfx.pianoview;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Records the keys played on a {@link PianoView} into a compact binary stream, for
+ * {@link PianoReplayer}. Add it with {@link PianoView#addPianoBatchListener(PianoBatchListener)};
+ * it records the key down and key up events of touch events.
+ * <p>
+ * The stream starts with the 4 byte magic "PVKR" and a version byte. Every event follows as one
+ * unsigned LEB128 varint holding (deltaMillis &lt;&lt; 8) | (key &lt;&lt; 1) | (keyUp ? 1 : 0), where
+ * deltaMillis is the time since the previous event (0 for the first). Most events take 2 bytes.
+ * <p>
+ * Events are encoded into a fixed size buffer that is written to the channel whenever it fills up,
+ * so recording takes constant memory however long it runs, and never allocates.
+ * <p>
+ * That write happens inside {@link #onKeyEvents(PianoView, KeyEventBatch)}, on the UI thread, and
+ * blocks for as long as the channel does. With the 8 KB buffer it comes once every few thousand
+ * events, and writing to a local FileChannel only copies into the page cache; a channel that may
+ * block for longer (e.g. a socket) should be written from a background thread instead, such as the
+ * sink end of a {@link java.nio.channels.Pipe} drained by a thread of its own.
+ */
+public final class PianoRecorder implements PianoBatchListener {
+
+    static final int MAGIC = 0x504B5650; // "PVKR", little endian
+    static final int VERSION = 1;
+    static final int HEADER_LENGTH = 5;
+
+    private static final int BUFFER_SIZE = 8192;
+    // Longest varint of a 64 bit value
+    private static final int MAX_EVENT_LENGTH = 10;
+
+    private final WritableByteChannel mChannel;
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private boolean mStarted = false;
+    private long mLastTime;
+    private long mEventCount;
+    private long mByteCount;
+    private long mWriteErrorCount;
+    private boolean mClosed = false;
+
+    /**
+     * @param channel Channel the recording is written to, e.g. a FileChannel; closed by {@link #close()}.
+     */
+    public PianoRecorder(WritableByteChannel channel) {
+        mChannel = channel;
+        mBuffer.put((byte) (MAGIC & 0xFF));
+        mBuffer.put((byte) (MAGIC >>> 8 & 0xFF));
+        mBuffer.put((byte) (MAGIC >>> 16 & 0xFF));
+        mBuffer.put((byte) (MAGIC >>> 24));
+        mBuffer.put((byte) VERSION);
+    }
+
+    @Override
+    public void onKeyEvents(@NonNull PianoView piano, @NonNull KeyEventBatch batch) {
+        if (batch.getSource() != KeyEventBatch.SOURCE_TOUCH) {
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            final int type = batch.getType(i);
+            if (type == KeyEventBatch.TYPE_KEY_DOWN || type == KeyEventBatch.TYPE_KEY_UP) {
+                record(batch.getKey(i), type == KeyEventBatch.TYPE_KEY_DOWN, batch.getTime(i));
+            }
+        }
+    }
+
+    /**
+     * Returns the number of recorded events.
+     */
+    public long getEventCount() {
+        return mEventCount;
+    }
+
+    /**
+     * Returns the length of the recording so far, header included, in bytes.
+     */
+    public long getByteCount() {
+        return mByteCount + mBuffer.position();
+    }
+
+    /**
+     * Returns the number of writes that failed; the events of a failed write are lost.
+     */
+    public long getWriteErrorCount() {
+        return mWriteErrorCount;
+    }
+
+    /**
+     * Records one event. Writes the buffer to the channel first if it is full; see the class comment.
+     *
+     * @param time Time of the event in milliseconds, in the uptimeMillis time base.
+     */
+    void record(int key, boolean down, long time) {
+        if (mClosed) {
+            return;
+        }
+        if (mBuffer.remaining() < MAX_EVENT_LENGTH) {
+            try {
+                writeBuffer();
+            }
+            catch (IOException e) {
+                mWriteErrorCount++;
+                mBuffer.clear();
+            }
+        }
+        final long delta = mStarted ? Math.max(0, time - mLastTime) : 0;
+        mStarted = true;
+        mLastTime = time;
+        putVarint(mBuffer, delta << 8 | (long) (key & 0x7F) << 1 | (down ? 0 : 1));
+        mEventCount++;
+    }
+
+    /**
+     * Writes every buffered event to the channel.
+     */
+    public void flush() throws IOException {
+        if (!mClosed) {
+            writeBuffer();
+        }
+    }
+
+    /**
+     * Flushes, and closes the channel. Events recorded afterwards are ignored.
+     */
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        try {
+            writeBuffer();
+        }
+        finally {
+            mClosed = true;
+            mChannel.close();
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        mBuffer.flip();
+        try {
+            while (mBuffer.hasRemaining()) {
+                mByteCount += mChannel.write(mBuffer);
+            }
+        }
+        finally {
+            mBuffer.compact();
+        }
+    }
+
+    static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+}
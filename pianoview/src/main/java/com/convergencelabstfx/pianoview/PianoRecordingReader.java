@@ -0,0 +1,114 @@
+package com.convergencelabstfx.pianoview;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads the events of a {@link PianoRecorder} recording one at a time, through a fixed size buffer,
+ * so reading takes constant memory however long the recording is. Not thread safe.
+ */
+final class PianoRecordingReader {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final ReadableByteChannel mChannel;
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private boolean mEndOfStream = false;
+
+    private long mTime;
+    private int mKey;
+    private boolean mDown;
+
+    /**
+     * @throws IOException If the channel doesn't start with a recording header.
+     */
+    PianoRecordingReader(ReadableByteChannel channel) throws IOException {
+        mChannel = channel;
+        mBuffer.flip();
+        if (!fill(PianoRecorder.HEADER_LENGTH)) {
+            throw new IOException("Not a PianoView recording");
+        }
+        final int magic = (mBuffer.get() & 0xFF) | (mBuffer.get() & 0xFF) << 8
+                | (mBuffer.get() & 0xFF) << 16 | (mBuffer.get() & 0xFF) << 24;
+        if (magic != PianoRecorder.MAGIC) {
+            throw new IOException("Not a PianoView recording");
+        }
+        final int version = mBuffer.get();
+        if (version != PianoRecorder.VERSION) {
+            throw new IOException("Unsupported recording version: " + version);
+        }
+    }
+
+    /**
+     * Reads the next event.
+     *
+     * @return False at the end of the recording.
+     * @throws EOFException If the recording ends in the middle of an event.
+     */
+    boolean next() throws IOException {
+        if (!mBuffer.hasRemaining() && !fill(1)) {
+            return false;
+        }
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            if (!mBuffer.hasRemaining() && !fill(1)) {
+                throw new EOFException("Recording ends in the middle of an event");
+            }
+            final byte b = mBuffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                break;
+            }
+            shift += 7;
+            if (shift > 63) {
+                throw new IOException("Malformed event in recording");
+            }
+        }
+        mTime += value >>> 8;
+        mKey = (int) (value >>> 1 & 0x7F);
+        mDown = (value & 1) == 0;
+        return true;
+    }
+
+    /**
+     * Returns the time of the current event in milliseconds, relative to the first event.
+     */
+    long getTime() {
+        return mTime;
+    }
+
+    int getKey() {
+        return mKey;
+    }
+
+    boolean isDown() {
+        return mDown;
+    }
+
+    /**
+     * Reads from the channel until at least count bytes are buffered.
+     *
+     * @return False if the channel ended first.
+     */
+    private boolean fill(int count) throws IOException {
+        if (mBuffer.remaining() >= count) {
+            return true;
+        }
+        mBuffer.compact();
+        try {
+            while (mBuffer.position() < count && !mEndOfStream) {
+                if (mChannel.read(mBuffer) == -1) {
+                    mEndOfStream = true;
+                }
+            }
+        }
+        finally {
+            mBuffer.flip();
+        }
+        return mBuffer.remaining() >= count;
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.convergencelabstfx.pianoview;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Replays a {@link PianoRecorder} recording on a {@link PianoView}, highlighting the keys as they
+ * were played.
+ * <p>
+ * Every event is scheduled at its offset from the start of the replay on the System.nanoTime()
+ * clock (see {@link PianoPlaybackScheduler}), so waiting errors never add up over a long recording.
+ * The scheduler parks until shortly before an event and spins the rest of the way, which keeps it
+ * well within a millisecond of the recorded timing. Events that are due together are applied in
+ * one bulk update.
+ * <p>
+ * The recording is read through a fixed size buffer, so replaying takes constant memory.
+ */
+public final class PianoReplayer {
+
+    // Parks until this long before an event, then spins
+    private static final long SPIN_NANOS = 1000000L;
+
+    private final PianoKeyChangeSink mSink;
+    private final PianoLatencyHistogram mSchedulingError = new PianoLatencyHistogram();
+    private final PianoPlaybackScheduler mScheduler = new PianoPlaybackScheduler(SPIN_NANOS);
+
+    /**
+     * Creates a replayer that highlights the keys of piano, with the same thread-safe mechanism
+     * as {@link PianoView#postKeyPressed(int)}.
+     */
+    public PianoReplayer(PianoView piano) {
+        this(piano.getKeyChangeSink());
+    }
+
+    PianoReplayer(PianoKeyChangeSink sink) {
+        mSink = sink;
+    }
+
+    /**
+     * Starts replaying a recording on a background thread, stopping any earlier replay.
+     * The channel is closed when the replay ends.
+     *
+     * @throws IOException If the channel doesn't start with a recording header.
+     */
+    public synchronized void start(final ReadableByteChannel channel) throws IOException {
+        stop();
+        final PianoRecordingReader reader = new PianoRecordingReader(channel);
+        mScheduler.startThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    play(reader);
+                }
+                catch (IOException e) {
+                    // The recording is cut short; everything before the error was replayed
+                }
+                finally {
+                    try {
+                        channel.close();
+                    }
+                    catch (IOException e) {
+                        // Nothing left to do
+                    }
+                }
+            }
+        }, "PianoReplayer");
+    }
+
+    /**
+     * Stops the replay, and waits for it to release its keys.
+     */
+    public synchronized void stop() {
+        mScheduler.stop();
+    }
+
+    /**
+     * Returns true while a recording is being replayed.
+     */
+    public boolean isPlaying() {
+        return mScheduler.isPlaying();
+    }
+
+    /**
+     * Replays a recording on the calling thread, returning when it ends or {@link #stop()} is called.
+     * Doesn't close the channel.
+     *
+     * @throws IOException If the recording can't be read; its keys are released first.
+     */
+    public void play(ReadableByteChannel channel) throws IOException {
+        final PianoRecordingReader reader = new PianoRecordingReader(channel);
+        mScheduler.clearStopRequest();
+        play(reader);
+    }
+
+    /**
+     * Returns a copy of the histogram of how late the events of the latest replay were applied.
+     */
+    public PianoLatencyHistogram getSchedulingError() {
+        final PianoLatencyHistogram copy = new PianoLatencyHistogram();
+        synchronized (mSchedulingError) {
+            copy.copyFrom(mSchedulingError);
+        }
+        return copy;
+    }
+
+    private void play(PianoRecordingReader reader) throws IOException {
+        synchronized (mSchedulingError) {
+            mSchedulingError.reset();
+        }
+        mScheduler.beginPlaying();
+        long pressedLo = 0;
+        long pressedHi = 0;
+        try {
+            boolean hasEvent = reader.next();
+            while (hasEvent && mScheduler.waitUntil(mScheduler.dueTime(reader.getTime() * 1000000L))) {
+                long changedLo = 0;
+                long changedHi = 0;
+                // Applies every event that is due
+                long now = System.nanoTime();
+                do {
+                    final long lateness = mScheduler.lateness(reader.getTime() * 1000000L, now);
+                    synchronized (mSchedulingError) {
+                        mSchedulingError.record(lateness);
+                    }
+                    final int key = reader.getKey();
+                    final long bit = 1L << key;
+                    if (key < 64) {
+                        changedLo |= bit;
+                        pressedLo = reader.isDown() ? pressedLo | bit : pressedLo & ~bit;
+                    }
+                    else {
+                        changedHi |= bit;
+                        pressedHi = reader.isDown() ? pressedHi | bit : pressedHi & ~bit;
+                    }
+                    hasEvent = reader.next();
+                    now = System.nanoTime();
+                }
+                while (hasEvent && mScheduler.dueTime(reader.getTime() * 1000000L) <= now);
+                mSink.onKeysChanged(changedLo, changedHi, pressedLo, pressedHi);
+            }
+        }
+        finally {
+            if ((pressedLo | pressedHi) != 0) {
+                mSink.onKeysChanged(pressedLo, pressedHi, 0, 0);
+            }
+            mScheduler.endPlaying();
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.convergencelabstfx.pianoview;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * One 16 bit PCM WAV file, memory mapped; see {@link PianoSampleLibrary}.
+ * <p>
+ * Only the header is read when mapping, so mapping costs the same regardless of the file's length.
+ * The sample data is paged in by the OS as it is played, and can be paged out again under
+ * memory pressure, so it never counts against the heap.
+ */
+final class PianoSample {
+
+    private static final int RIFF = 0x46464952;
+    private static final int WAVE = 0x45564157;
+    private static final int FMT = 0x20746d66;
+    private static final int DATA = 0x61746164;
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_EXTENSIBLE = 0xFFFE;
+
+    private final ByteBuffer mData;
+    private final int mDataOffset;
+    private final int mFrameCount;
+    private final int mChannels;
+    private final int mSampleRate;
+    private final int mRootKey;
+
+    private PianoSample(ByteBuffer data, int dataOffset, int frameCount, int channels, int sampleRate, int rootKey) {
+        mData = data;
+        mDataOffset = dataOffset;
+        mFrameCount = frameCount;
+        mChannels = channels;
+        mSampleRate = sampleRate;
+        mRootKey = rootKey;
+    }
+
+    /**
+     * Maps a WAV file.
+     *
+     * @param rootKey Key index whose pitch the recording has.
+     * @throws IOException If the file can't be read, or isn't a mono or stereo 16 bit PCM WAV file.
+     */
+    static PianoSample map(File file, int rootKey) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        final ByteBuffer buffer;
+        try {
+            // The mapping stays valid after the channel is closed
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+        finally {
+            raf.close();
+        }
+        return parse(buffer, rootKey, file.getPath());
+    }
+
+    /**
+     * Reads the header of WAV data held in a buffer.
+     */
+    static PianoSample parse(ByteBuffer buffer, int rootKey, String name) throws IOException {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        final int length = buffer.limit();
+        if (length < 12 || buffer.getInt(0) != RIFF || buffer.getInt(8) != WAVE) {
+            throw new IOException("Not a WAV file: " + name);
+        }
+        int channels = 0;
+        int sampleRate = 0;
+        int position = 12;
+        while (position + 8 <= length) {
+            final int id = buffer.getInt(position);
+            final int size = buffer.getInt(position + 4);
+            final int body = position + 8;
+            if (size < 0 || (size > length - body && id != DATA)) {
+                break;
+            }
+            if (id == FMT && size >= 16) {
+                final int format = buffer.getShort(body) & 0xFFFF;
+                channels = buffer.getShort(body + 2);
+                sampleRate = buffer.getInt(body + 4);
+                final int bits = buffer.getShort(body + 14);
+                if ((format != FORMAT_PCM && format != FORMAT_EXTENSIBLE) || bits != 16
+                        || channels < 1 || channels > 2 || sampleRate <= 0) {
+                    throw new IOException("Unsupported WAV format, only mono or stereo 16 bit PCM is supported: " + name);
+                }
+            }
+            else if (id == DATA) {
+                if (channels == 0) {
+                    break;
+                }
+                // Some writers leave the data size unset when streaming; the data then runs to the end
+                final int dataSize = Math.min(size, length - body);
+                return new PianoSample(buffer, body, dataSize / (2 * channels), channels, sampleRate, rootKey);
+            }
+            // Chunks are padded to an even size
+            position = body + size + (size & 1);
+        }
+        throw new IOException("Malformed WAV file: " + name);
+    }
+
+    int getFrameCount() {
+        return mFrameCount;
+    }
+
+    int getChannels() {
+        return mChannels;
+    }
+
+    int getSampleRate() {
+        return mSampleRate;
+    }
+
+    int getRootKey() {
+        return mRootKey;
+    }
+
+    /**
+     * Returns a frame as a float between -1 and 1, with stereo mixed down to mono.
+     * Reads straight from the mapped file.
+     */
+    float getFrame(int frame) {
+        if (mChannels == 1) {
+            return mData.getShort(mDataOffset + 2 * frame) * (1f / 32768);
+        }
+        final int offset = mDataOffset + 4 * frame;
+        return (mData.getShort(offset) + mData.getShort(offset + 2)) * (0.5f / 32768);
+    }
+
+    /**
+     * Decodes consecutive frames into a float array; frames past the end are 0.
+     */
+    void decode(int firstFrame, float[] out, int count) {
+        final int available = Math.max(0, Math.min(count, mFrameCount - firstFrame));
+        for (int i = 0; i < available; i++) {
+            out[i] = getFrame(firstFrame + i);
+        }
+        for (int i = available; i < count; i++) {
+            out[i] = 0;
+        }
+    }
+
+}
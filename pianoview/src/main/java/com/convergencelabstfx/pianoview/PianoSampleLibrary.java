@@ -0,0 +1,111 @@
+package com.convergencelabstfx.pianoview;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A set of recorded piano notes, for {@link PianoSamplePlayer}.
+ * <p>
+ * Every sample is a memory mapped 16 bit PCM WAV file (mono or stereo), recorded at the pitch of
+ * its root key. A key plays the sample whose root key is nearest, shifted to the key's pitch.
+ * Adding a sample only reads its header, so a library loads in about the same time however
+ * many or long its files are.
+ * <p>
+ * Samples may be added while a player is running.
+ */
+public final class PianoSampleLibrary {
+
+    private final Object mLock = new Object();
+    private PianoSample[] mSamples = new PianoSample[0];
+    // Sample played by each key; replaced, never modified, so the render thread can read it
+    private volatile PianoSample[] mKeySamples = new PianoSample[PianoKeyBitSet.CAPACITY];
+    private volatile float mPrefetchSum;
+
+    /**
+     * Maps a WAV file and adds it to the library, replacing any sample with the same root key.
+     *
+     * @param rootKey Key index whose pitch the recording has, between 0 and 127.
+     * @throws IOException If the file can't be read, or isn't a mono or stereo 16 bit PCM WAV file.
+     */
+    public void addSample(int rootKey, File file) throws IOException {
+        if (rootKey < 0 || rootKey >= PianoKeyBitSet.CAPACITY) {
+            throw new IllegalArgumentException(
+                    "rootKey must be between 0 and " + (PianoKeyBitSet.CAPACITY - 1) +
+                            " (both inclusive). Actual rootKey: " + rootKey);
+        }
+        addSample(PianoSample.map(file, rootKey));
+    }
+
+    void addSample(PianoSample sample) {
+        synchronized (mLock) {
+            int ix = 0;
+            while (ix < mSamples.length && mSamples[ix].getRootKey() != sample.getRootKey()) {
+                ix++;
+            }
+            final PianoSample[] samples = new PianoSample[Math.max(mSamples.length, ix + 1)];
+            System.arraycopy(mSamples, 0, samples, 0, mSamples.length);
+            samples[ix] = sample;
+            mSamples = samples;
+
+            final PianoSample[] keySamples = new PianoSample[PianoKeyBitSet.CAPACITY];
+            for (int key = 0; key < keySamples.length; key++) {
+                for (PianoSample candidate : samples) {
+                    if (keySamples[key] == null || Math.abs(candidate.getRootKey() - key)
+                            < Math.abs(keySamples[key].getRootKey() - key)) {
+                        keySamples[key] = candidate;
+                    }
+                }
+            }
+            mKeySamples = keySamples;
+        }
+    }
+
+    public int getSampleCount() {
+        synchronized (mLock) {
+            return mSamples.length;
+        }
+    }
+
+    /**
+     * Returns the root key of the sample a key plays, or -1 if the library is empty.
+     */
+    public int getRootKeyForKey(int key) {
+        final PianoSample sample = getSampleForKey(key);
+        return sample != null ? sample.getRootKey() : -1;
+    }
+
+    /**
+     * Reads the start of every sample, so the OS pages it in before the first key is played.
+     * Touches the file system; call it off the UI and audio threads.
+     *
+     * @param frames Number of frames to read from the start of each sample.
+     */
+    public void prefetch(int frames) {
+        final PianoSample[] samples;
+        synchronized (mLock) {
+            samples = mSamples;
+        }
+        float sum = 0;
+        for (PianoSample sample : samples) {
+            final int end = Math.min(frames, sample.getFrameCount());
+            // One read per 4 KB page is enough
+            final int step = 4096 / (2 * sample.getChannels());
+            for (int frame = 0; frame < end; frame += step) {
+                sum += sample.getFrame(frame);
+            }
+        }
+        // Keeps the reads from being optimized away
+        mPrefetchSum = sum;
+    }
+
+    /**
+     * Returns the sample a key plays, or null if there is none; safe on any thread.
+     */
+    PianoSample getSampleForKey(int key) {
+        if (key < 0 || key >= PianoKeyBitSet.CAPACITY) {
+            return null;
+        }
+        return mKeySamples[key];
+    }
+
+}
@@ -0,0 +1,333 @@
+package com.convergencelabstfx.pianoview;
+
+/**
+ * Plays the recorded notes of a {@link PianoSampleLibrary} for {@link PianoView} key indices.
+ * <p>
+ * Every voice resamples its key's sample to the key's pitch and the output sample rate, with
+ * linear interpolation. The attack of a note, its first {@link #ATTACK_FRAMES} frames, is read
+ * straight from the memory mapped file, so a key starts sounding without decoding anything.
+ * The rest is decoded in regions into a fixed size least recently used cache, which bounds the
+ * memory taken by decoded audio however large the library is.
+ * <p>
+ * Like {@link PianoSynth}, the voices are preallocated and stolen when all are busy, key events
+ * come from direct calls or a {@link PianoKeyEventQueue}, and rendering never locks or allocates.
+ * Everything but {@link #setEventQueue(PianoKeyEventQueue)} must be called from the render thread.
+ */
+public final class PianoSamplePlayer implements PianoSynthOutput.Renderer {
+
+    /**
+     * Number of frames at the start of each sample that are read straight from the mapped file.
+     */
+    public static final int ATTACK_FRAMES = 8192;
+
+    static final int REGION_FRAMES = 4096;
+
+    private static final int REGION_SHIFT = 12;
+    private static final int EVENT_BUFFER_SIZE = 64;
+    private static final float SILENCE = 0.0001f;
+
+    private static final int STAGE_IDLE = 0;
+    private static final int STAGE_PLAYING = 1;
+    private static final int STAGE_RELEASE = 2;
+
+    private final PianoSampleLibrary mLibrary;
+    private final int mSampleRate;
+    private final int mMaxVoices;
+    private final PianoSampleRegionCache mCache;
+
+    private float mReleaseCoefficient;
+    private float mGain = 0.5f;
+
+    // Per voice state, indexed by voice
+    private final int[] mVoiceKey;
+    private final int[] mVoiceStage;
+    private final PianoSample[] mVoiceSample;
+    private final double[] mVoicePosition;
+    private final double[] mVoiceStep;
+    private final float[] mVoiceLevel;
+    private final float[] mVoiceAmplitude;
+    private final long[] mVoiceStartOrder;
+    // Region cache slot the voice read from last, and its region
+    private final int[] mVoiceSlot;
+    private final int[] mVoiceRegion;
+    private long mNextStartOrder;
+    private int mActiveVoiceCount;
+    private long mStolenVoiceCount;
+
+    private volatile PianoKeyEventQueue mEventQueue;
+    private final long[] mEventBuffer = new long[EVENT_BUFFER_SIZE];
+
+    /**
+     * @param sampleRate       Sample rate of the rendered audio, in Hz.
+     * @param maxVoices        Maximum number of notes playing at once.
+     * @param maxCachedRegions Number of decoded regions kept in memory, each {@link #REGION_FRAMES}
+     *                         floats; at least twice maxVoices, so playing voices never evict
+     *                         each other's regions.
+     */
+    public PianoSamplePlayer(PianoSampleLibrary library, int sampleRate, int maxVoices, int maxCachedRegions) {
+        if (sampleRate < 8000 || sampleRate > 192000) {
+            throw new IllegalArgumentException(
+                    "sampleRate must be between 8000 and 192000 (both inclusive). Actual sampleRate: " + sampleRate);
+        }
+        if (maxVoices < 1 || maxVoices > PianoKeyBitSet.CAPACITY) {
+            throw new IllegalArgumentException(
+                    "maxVoices must be between 1 and " + PianoKeyBitSet.CAPACITY +
+                            " (both inclusive). Actual maxVoices: " + maxVoices);
+        }
+        if (maxCachedRegions < 2 * maxVoices) {
+            throw new IllegalArgumentException(
+                    "maxCachedRegions must be at least 2 * maxVoices. Actual maxCachedRegions: " + maxCachedRegions);
+        }
+        mLibrary = library;
+        mSampleRate = sampleRate;
+        mMaxVoices = maxVoices;
+        mCache = new PianoSampleRegionCache(maxCachedRegions, REGION_FRAMES);
+        mVoiceKey = new int[maxVoices];
+        mVoiceStage = new int[maxVoices];
+        mVoiceSample = new PianoSample[maxVoices];
+        mVoicePosition = new double[maxVoices];
+        mVoiceStep = new double[maxVoices];
+        mVoiceLevel = new float[maxVoices];
+        mVoiceAmplitude = new float[maxVoices];
+        mVoiceStartOrder = new long[maxVoices];
+        mVoiceSlot = new int[maxVoices];
+        mVoiceRegion = new int[maxVoices];
+        setReleaseTime(0.15f);
+    }
+
+    public PianoSampleLibrary getLibrary() {
+        return mLibrary;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getMaxVoices() {
+        return mMaxVoices;
+    }
+
+    /**
+     * Returns the number of voices currently playing, including releasing voices.
+     */
+    public int getActiveVoiceCount() {
+        return mActiveVoiceCount;
+    }
+
+    /**
+     * Returns the number of notes that had to take a voice from another note.
+     */
+    public long getStolenVoiceCount() {
+        return mStolenVoiceCount;
+    }
+
+    /**
+     * Returns the number of regions that were decoded because they weren't cached.
+     */
+    public long getCacheMissCount() {
+        return mCache.getMissCount();
+    }
+
+    /**
+     * Returns the number of decoded regions currently in memory.
+     */
+    public int getCachedRegionCount() {
+        return mCache.getUsedSlotCount();
+    }
+
+    /**
+     * Sets the queue whose key events are played; may be called from any thread.
+     *
+     * @param queue The queue, or null to stop draining events.
+     */
+    public void setEventQueue(PianoKeyEventQueue queue) {
+        mEventQueue = queue;
+    }
+
+    /**
+     * Sets the time constant of the exponential fade after a key is released.
+     */
+    public void setReleaseTime(float seconds) {
+        mReleaseCoefficient = seconds > 0 ? (float) Math.exp(-1.0 / (seconds * mSampleRate)) : 0;
+    }
+
+    /**
+     * Sets the gain applied to the sum of all voices.
+     */
+    public void setGain(float gain) {
+        mGain = gain;
+    }
+
+    public float getGain() {
+        return mGain;
+    }
+
+    /**
+     * Starts a note from the beginning of its sample. A key that is still held is released first,
+     * so its previous note rings out on its own voice.
+     *
+     * @param key      Key index, between 0 and 127.
+     * @param velocity Velocity between 1 and 127.
+     */
+    public void noteOn(int key, int velocity) {
+        final PianoSample sample = mLibrary.getSampleForKey(key);
+        if (sample == null) {
+            return;
+        }
+        noteOff(key);
+        final int voice = allocateVoice();
+        if (mVoiceStage[voice] == STAGE_IDLE) {
+            mActiveVoiceCount++;
+        }
+        final float v = velocity / 127f;
+        mVoiceKey[voice] = key;
+        mVoiceStage[voice] = STAGE_PLAYING;
+        mVoiceSample[voice] = sample;
+        mVoicePosition[voice] = 0;
+        mVoiceStep[voice] = Math.pow(2, (key - sample.getRootKey()) / 12.0) * sample.getSampleRate() / mSampleRate;
+        mVoiceLevel[voice] = 1;
+        mVoiceAmplitude[voice] = v * v;
+        mVoiceStartOrder[voice] = mNextStartOrder++;
+        mVoiceSlot[voice] = -1;
+    }
+
+    /**
+     * Releases the note of a key, if it is playing.
+     */
+    public void noteOff(int key) {
+        for (int voice = 0; voice < mMaxVoices; voice++) {
+            if (mVoiceKey[voice] == key && mVoiceStage[voice] == STAGE_PLAYING) {
+                mVoiceStage[voice] = STAGE_RELEASE;
+            }
+        }
+    }
+
+    /**
+     * Releases every note.
+     */
+    public void allNotesOff() {
+        for (int voice = 0; voice < mMaxVoices; voice++) {
+            if (mVoiceStage[voice] == STAGE_PLAYING) {
+                mVoiceStage[voice] = STAGE_RELEASE;
+            }
+        }
+    }
+
+    /**
+     * Applies the queued key events, then renders mono audio, overwriting out.
+     */
+    @Override
+    public void render(float[] out, int offset, int frames) {
+        drainEvents();
+        final int end = offset + frames;
+        for (int i = offset; i < end; i++) {
+            out[i] = 0;
+        }
+        for (int voice = 0; voice < mMaxVoices; voice++) {
+            if (mVoiceStage[voice] != STAGE_IDLE) {
+                renderVoice(voice, out, offset, end);
+            }
+        }
+    }
+
+    private void renderVoice(int voice, float[] out, int offset, int end) {
+        final PianoSample sample = mVoiceSample[voice];
+        final int frameCount = sample.getFrameCount();
+        final double step = mVoiceStep[voice];
+        final float amplitude = mVoiceAmplitude[voice] * mGain;
+        int stage = mVoiceStage[voice];
+        double position = mVoicePosition[voice];
+        float level = mVoiceLevel[voice];
+        if (mCache.holds(mVoiceSlot[voice], sample, mVoiceRegion[voice])) {
+            mCache.touch(mVoiceSlot[voice]);
+        }
+        for (int i = offset; i < end; i++) {
+            final int ix = (int) position;
+            if (ix >= frameCount) {
+                stage = STAGE_IDLE;
+                break;
+            }
+            final float a = getFrame(voice, sample, ix);
+            final float b = ix + 1 < frameCount ? getFrame(voice, sample, ix + 1) : 0;
+            out[i] += (a + (b - a) * (float) (position - ix)) * level * amplitude;
+            position += step;
+            if (stage == STAGE_RELEASE) {
+                level *= mReleaseCoefficient;
+                if (level < SILENCE) {
+                    stage = STAGE_IDLE;
+                    break;
+                }
+            }
+        }
+        if (stage == STAGE_IDLE) {
+            mActiveVoiceCount--;
+            mVoiceSample[voice] = null;
+        }
+        mVoiceStage[voice] = stage;
+        mVoicePosition[voice] = position;
+        mVoiceLevel[voice] = level;
+    }
+
+    /**
+     * Returns a frame of a voice's sample: from the mapped file during the attack,
+     * and from the region cache after it.
+     */
+    private float getFrame(int voice, PianoSample sample, int frame) {
+        if (frame < ATTACK_FRAMES) {
+            return sample.getFrame(frame);
+        }
+        final int region = frame >> REGION_SHIFT;
+        int slot = mVoiceSlot[voice];
+        if (mVoiceRegion[voice] != region || !mCache.holds(slot, sample, region)) {
+            slot = mCache.find(sample, region);
+            mVoiceSlot[voice] = slot;
+            mVoiceRegion[voice] = region;
+        }
+        return mCache.getData(slot)[frame & (REGION_FRAMES - 1)];
+    }
+
+    private void drainEvents() {
+        final PianoKeyEventQueue queue = mEventQueue;
+        if (queue == null) {
+            return;
+        }
+        int count;
+        while ((count = queue.drain(mEventBuffer)) > 0) {
+            for (int i = 0; i < count; i++) {
+                final long event = mEventBuffer[i];
+                final int type = PianoKeyEventQueue.getType(event);
+                if (type == PianoKeyEventQueue.TYPE_KEY_DOWN) {
+                    noteOn(PianoKeyEventQueue.getKey(event), PianoSynth.DEFAULT_VELOCITY);
+                }
+                else if (type == PianoKeyEventQueue.TYPE_KEY_UP) {
+                    noteOff(PianoKeyEventQueue.getKey(event));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns an idle voice, or steals the quietest releasing voice, or else the oldest voice.
+     */
+    private int allocateVoice() {
+        int quietestReleasing = -1;
+        int oldest = 0;
+        for (int voice = 0; voice < mMaxVoices; voice++) {
+            final int stage = mVoiceStage[voice];
+            if (stage == STAGE_IDLE) {
+                return voice;
+            }
+            if (stage == STAGE_RELEASE
+                    && (quietestReleasing == -1 || mVoiceLevel[voice] < mVoiceLevel[quietestReleasing])) {
+                quietestReleasing = voice;
+            }
+            if (mVoiceStartOrder[voice] < mVoiceStartOrder[oldest]) {
+                oldest = voice;
+            }
+        }
+        mStolenVoiceCount++;
+        return quietestReleasing != -1 ? quietestReleasing : oldest;
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.convergencelabstfx.pianoview;
+
+/**
+ * A fixed number of decoded sample regions, evicted least recently used first.
+ * <p>
+ * Region r of a sample holds its frames r * regionFrames up to (r + 1) * regionFrames, decoded to
+ * floats. All slots are allocated up front, so the decoded audio never takes more than
+ * slots * regionFrames floats, and lookups never allocate. Not thread safe.
+ */
+final class PianoSampleRegionCache {
+
+    private final int mRegionFrames;
+    private final PianoSample[] mSlotSample;
+    private final int[] mSlotRegion;
+    private final long[] mSlotLastUse;
+    private final float[][] mSlotData;
+    private long mClock;
+    private long mMissCount;
+
+    PianoSampleRegionCache(int slots, int regionFrames) {
+        mRegionFrames = regionFrames;
+        mSlotSample = new PianoSample[slots];
+        mSlotRegion = new int[slots];
+        mSlotLastUse = new long[slots];
+        mSlotData = new float[slots][regionFrames];
+    }
+
+    int getSlotCount() {
+        return mSlotSample.length;
+    }
+
+    int getRegionFrames() {
+        return mRegionFrames;
+    }
+
+    /**
+     * Returns the number of lookups that had to decode a region.
+     */
+    long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Returns the number of slots holding a region.
+     */
+    int getUsedSlotCount() {
+        int count = 0;
+        for (PianoSample sample : mSlotSample) {
+            if (sample != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns true if a slot still holds the given region.
+     */
+    boolean holds(int slot, PianoSample sample, int region) {
+        return slot >= 0 && mSlotSample[slot] == sample && mSlotRegion[slot] == region;
+    }
+
+    /**
+     * Returns the slot holding a region, decoding it into the least recently used slot if needed.
+     */
+    int find(PianoSample sample, int region) {
+        int lru = 0;
+        for (int slot = 0; slot < mSlotSample.length; slot++) {
+            if (mSlotSample[slot] == sample && mSlotRegion[slot] == region) {
+                touch(slot);
+                return slot;
+            }
+            if (mSlotLastUse[slot] < mSlotLastUse[lru]) {
+                lru = slot;
+            }
+        }
+        mMissCount++;
+        sample.decode(region * mRegionFrames, mSlotData[lru], mRegionFrames);
+        mSlotSample[lru] = sample;
+        mSlotRegion[lru] = region;
+        touch(lru);
+        return lru;
+    }
+
+    /**
+     * Marks a slot as used now.
+     */
+    void touch(int slot) {
+        mSlotLastUse[slot] = ++mClock;
+    }
+
+    float[] getData(int slot) {
+        return mSlotData[slot];
+    }
+
+}
@@ -0,0 +1,374 @@
+package com.convergencelabstfx.pianoview;
+
+/**
+ * A small polyphonic synthesizer for {@link PianoView} key indices, written in plain Java.
+ * <p>
+ * Every voice plays a wavetable with a few decaying harmonics, shaped by its own
+ * attack / decay / sustain / release envelope. The voices are preallocated; when all of them
+ * are busy, a new note steals the quietest releasing voice, or else the oldest voice.
+ * <p>
+ * Key events come either from direct {@link #noteOn(int, int)} / {@link #noteOff(int)} calls,
+ * or from a {@link PianoKeyEventQueue} (see {@link PianoView#setKeyEventQueue(PianoKeyEventQueue)}),
+ * which is drained at the start of every rendered block. Rendering never locks or allocates.
+ * <p>
+ * Everything but {@link #setEventQueue(PianoKeyEventQueue)} must be called from the render thread,
+ * e.g. the thread of a {@link PianoSynthOutput}.
+ */
+public final class PianoSynth implements PianoSynthOutput.Renderer {
+
+    public static final int DEFAULT_VELOCITY = 100;
+
+    private static final int TABLE_SIZE = 2048;
+    // Relative amplitudes of the harmonics in the wavetable
+    private static final float[] HARMONICS = {1f, 0.5f, 0.3f, 0.2f, 0.12f, 0.08f, 0.05f, 0.03f};
+    // Below this level, a decaying or releasing voice is done
+    private static final float SILENCE = 0.0001f;
+    private static final int EVENT_BUFFER_SIZE = 64;
+
+    private static final int STAGE_IDLE = 0;
+    private static final int STAGE_ATTACK = 1;
+    // Decays towards the sustain level, and stays there while the key is held
+    private static final int STAGE_DECAY = 2;
+    private static final int STAGE_RELEASE = 3;
+
+    // Shared by every synth; read only after class initialization
+    private static final float[] TABLE = createTable();
+
+    private final int mSampleRate;
+    private final int mMaxVoices;
+    private final float[] mKeyPhaseIncrement = new float[PianoKeyBitSet.CAPACITY];
+    private int mBaseNote = PianoMidiInput.DEFAULT_LOWEST_NOTE;
+
+    private float mAttackIncrement;
+    private float mDecayCoefficient;
+    private float mSustainLevel;
+    private float mReleaseCoefficient;
+    private float mGain = 0.25f;
+
+    // Per voice state, indexed by voice
+    private final int[] mVoiceKey;
+    private final int[] mVoiceStage;
+    private final float[] mVoicePhase;
+    private final float[] mVoicePhaseIncrement;
+    private final float[] mVoiceLevel;
+    private final float[] mVoiceAmplitude;
+    private final long[] mVoiceStartOrder;
+    private long mNextStartOrder;
+    private int mActiveVoiceCount;
+    private long mStolenVoiceCount;
+
+    private volatile PianoKeyEventQueue mEventQueue;
+    private final long[] mEventBuffer = new long[EVENT_BUFFER_SIZE];
+
+    /**
+     * @param sampleRate Sample rate of the rendered audio, in Hz.
+     * @param maxVoices  Maximum number of notes playing at once.
+     */
+    public PianoSynth(int sampleRate, int maxVoices) {
+        if (sampleRate < 8000 || sampleRate > 192000) {
+            throw new IllegalArgumentException(
+                    "sampleRate must be between 8000 and 192000 (both inclusive). Actual sampleRate: " + sampleRate);
+        }
+        if (maxVoices < 1 || maxVoices > PianoKeyBitSet.CAPACITY) {
+            throw new IllegalArgumentException(
+                    "maxVoices must be between 1 and " + PianoKeyBitSet.CAPACITY +
+                            " (both inclusive). Actual maxVoices: " + maxVoices);
+        }
+        mSampleRate = sampleRate;
+        mMaxVoices = maxVoices;
+        mVoiceKey = new int[maxVoices];
+        mVoiceStage = new int[maxVoices];
+        mVoicePhase = new float[maxVoices];
+        mVoicePhaseIncrement = new float[maxVoices];
+        mVoiceLevel = new float[maxVoices];
+        mVoiceAmplitude = new float[maxVoices];
+        mVoiceStartOrder = new long[maxVoices];
+        setBaseNote(mBaseNote);
+        setEnvelope(0.002f, 1.5f, 0.2f, 0.3f);
+    }
+
+    @Override
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getMaxVoices() {
+        return mMaxVoices;
+    }
+
+    /**
+     * Returns the number of voices currently playing, including releasing voices.
+     */
+    public int getActiveVoiceCount() {
+        return mActiveVoiceCount;
+    }
+
+    /**
+     * Returns the number of notes that had to take a voice from another note.
+     */
+    public long getStolenVoiceCount() {
+        return mStolenVoiceCount;
+    }
+
+    /**
+     * Sets the queue whose key events are played; may be called from any thread.
+     *
+     * @param queue The queue, or null to stop draining events.
+     */
+    public void setEventQueue(PianoKeyEventQueue queue) {
+        mEventQueue = queue;
+    }
+
+    /**
+     * Sets the MIDI note of key 0; the pitch of every key follows from it.
+     * Keys whose pitch is at or above half the sample rate can't be rendered, and stay silent.
+     *
+     * @param note MIDI note number between 0 and 127.
+     */
+    public void setBaseNote(int note) {
+        if (note < 0 || note > 127) {
+            throw new IllegalArgumentException(
+                    "note must be between 0 and 127 (both inclusive). Actual note: " + note);
+        }
+        mBaseNote = note;
+        for (int key = 0; key < mKeyPhaseIncrement.length; key++) {
+            final double frequency = 440 * Math.pow(2, (note + key - 69) / 12.0);
+            // 0 marks a key that can't be rendered
+            mKeyPhaseIncrement[key] = frequency < mSampleRate / 2.0 ? (float) (frequency * TABLE_SIZE / mSampleRate) : 0;
+        }
+    }
+
+    public int getBaseNote() {
+        return mBaseNote;
+    }
+
+    /**
+     * Sets the envelope of every note.
+     *
+     * @param attackSeconds  Time to rise to full level.
+     * @param decaySeconds   Time constant of the exponential decay towards the sustain level.
+     * @param sustainLevel   Level while the key is held after the decay, between 0 and 1.
+     *                       At 0 a held note fades out on its own, like a piano.
+     * @param releaseSeconds Time constant of the exponential fade after the key is released.
+     */
+    public void setEnvelope(float attackSeconds, float decaySeconds, float sustainLevel, float releaseSeconds) {
+        if (sustainLevel < 0 || sustainLevel > 1) {
+            throw new IllegalArgumentException(
+                    "sustainLevel must be between 0 and 1 (both inclusive). Actual sustainLevel: " + sustainLevel);
+        }
+        mAttackIncrement = attackSeconds > 0 ? 1f / (attackSeconds * mSampleRate) : 1f;
+        mDecayCoefficient = timeConstantCoefficient(decaySeconds);
+        mSustainLevel = sustainLevel;
+        mReleaseCoefficient = timeConstantCoefficient(releaseSeconds);
+    }
+
+    /**
+     * Sets the gain applied to the sum of all voices.
+     */
+    public void setGain(float gain) {
+        mGain = gain;
+    }
+
+    public float getGain() {
+        return mGain;
+    }
+
+    /**
+     * Starts a note, retriggering the key's voice if it is already playing.
+     * Does nothing if the pitch of the key is at or above half the sample rate.
+     *
+     * @param key      Key index, between 0 and 127.
+     * @param velocity Velocity between 1 and 127.
+     */
+    public void noteOn(int key, int velocity) {
+        if (key < 0 || key >= PianoKeyBitSet.CAPACITY || mKeyPhaseIncrement[key] == 0) {
+            return;
+        }
+        int voice = findVoice(key);
+        if (voice == -1) {
+            voice = allocateVoice();
+        }
+        if (mVoiceStage[voice] == STAGE_IDLE) {
+            mActiveVoiceCount++;
+            mVoicePhase[voice] = 0;
+            mVoiceLevel[voice] = 0;
+        }
+        // A retriggered or stolen voice attacks from its current level, so it doesn't click
+        final float v = velocity / 127f;
+        mVoiceKey[voice] = key;
+        mVoiceStage[voice] = STAGE_ATTACK;
+        mVoicePhaseIncrement[voice] = mKeyPhaseIncrement[key];
+        mVoiceAmplitude[voice] = v * v;
+        mVoiceStartOrder[voice] = mNextStartOrder++;
+    }
+
+    /**
+     * Releases the note of a key, if it is playing.
+     */
+    public void noteOff(int key) {
+        final int voice = findVoice(key);
+        if (voice != -1 && mVoiceStage[voice] != STAGE_RELEASE) {
+            mVoiceStage[voice] = STAGE_RELEASE;
+        }
+    }
+
+    /**
+     * Releases every note.
+     */
+    public void allNotesOff() {
+        for (int voice = 0; voice < mMaxVoices; voice++) {
+            if (mVoiceStage[voice] != STAGE_IDLE) {
+                mVoiceStage[voice] = STAGE_RELEASE;
+            }
+        }
+    }
+
+    /**
+     * Applies the queued key events, then renders mono audio, overwriting out.
+     *
+     * @param out    Buffer that receives the samples, nominally between -1 and 1.
+     * @param offset Index of the first sample.
+     * @param frames Number of samples.
+     */
+    @Override
+    public void render(float[] out, int offset, int frames) {
+        drainEvents();
+        final int end = offset + frames;
+        for (int i = offset; i < end; i++) {
+            out[i] = 0;
+        }
+        for (int voice = 0; voice < mMaxVoices; voice++) {
+            if (mVoiceStage[voice] != STAGE_IDLE) {
+                renderVoice(voice, out, offset, end);
+            }
+        }
+    }
+
+    private void renderVoice(int voice, float[] out, int offset, int end) {
+        int stage = mVoiceStage[voice];
+        float phase = mVoicePhase[voice];
+        float level = mVoiceLevel[voice];
+        final float increment = mVoicePhaseIncrement[voice];
+        final float amplitude = mVoiceAmplitude[voice] * mGain;
+        final float sustain = mSustainLevel;
+        for (int i = offset; i < end; i++) {
+            if (stage == STAGE_ATTACK) {
+                level += mAttackIncrement;
+                if (level >= 1) {
+                    level = 1;
+                    stage = STAGE_DECAY;
+                }
+            }
+            else if (stage == STAGE_DECAY) {
+                level = sustain + (level - sustain) * mDecayCoefficient;
+                if (sustain == 0 && level < SILENCE) {
+                    stage = STAGE_IDLE;
+                    break;
+                }
+            }
+            else {
+                level *= mReleaseCoefficient;
+                if (level < SILENCE) {
+                    stage = STAGE_IDLE;
+                    break;
+                }
+            }
+            final int ix = (int) phase;
+            final float sample = TABLE[ix] + (TABLE[ix + 1] - TABLE[ix]) * (phase - ix);
+            out[i] += sample * level * amplitude;
+            phase += increment;
+            // The increment is below half the table size, but rounding may leave phase just below it
+            while (phase >= TABLE_SIZE) {
+                phase -= TABLE_SIZE;
+            }
+        }
+        if (stage == STAGE_IDLE) {
+            mActiveVoiceCount--;
+        }
+        mVoiceStage[voice] = stage;
+        mVoicePhase[voice] = phase;
+        mVoiceLevel[voice] = level;
+    }
+
+    private void drainEvents() {
+        final PianoKeyEventQueue queue = mEventQueue;
+        if (queue == null) {
+            return;
+        }
+        int count;
+        while ((count = queue.drain(mEventBuffer)) > 0) {
+            for (int i = 0; i < count; i++) {
+                final long event = mEventBuffer[i];
+                final int type = PianoKeyEventQueue.getType(event);
+                if (type == PianoKeyEventQueue.TYPE_KEY_DOWN) {
+                    noteOn(PianoKeyEventQueue.getKey(event), DEFAULT_VELOCITY);
+                }
+                else if (type == PianoKeyEventQueue.TYPE_KEY_UP) {
+                    noteOff(PianoKeyEventQueue.getKey(event));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the voice playing a key (and not releasing), or -1 if there is none.
+     */
+    private int findVoice(int key) {
+        for (int voice = 0; voice < mMaxVoices; voice++) {
+            if (mVoiceKey[voice] == key && mVoiceStage[voice] != STAGE_IDLE && mVoiceStage[voice] != STAGE_RELEASE) {
+                return voice;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns an idle voice, or steals the quietest releasing voice, or else the oldest voice.
+     */
+    private int allocateVoice() {
+        int quietestReleasing = -1;
+        int oldest = 0;
+        for (int voice = 0; voice < mMaxVoices; voice++) {
+            final int stage = mVoiceStage[voice];
+            if (stage == STAGE_IDLE) {
+                return voice;
+            }
+            if (stage == STAGE_RELEASE
+                    && (quietestReleasing == -1 || mVoiceLevel[voice] < mVoiceLevel[quietestReleasing])) {
+                quietestReleasing = voice;
+            }
+            if (mVoiceStartOrder[voice] < mVoiceStartOrder[oldest]) {
+                oldest = voice;
+            }
+        }
+        mStolenVoiceCount++;
+        return quietestReleasing != -1 ? quietestReleasing : oldest;
+    }
+
+    /**
+     * Returns the per sample multiplier of an exponential decay with the given time constant.
+     */
+    private float timeConstantCoefficient(float seconds) {
+        return seconds > 0 ? (float) Math.exp(-1.0 / (seconds * mSampleRate)) : 0;
+    }
+
+    private static float[] createTable() {
+        // One extra sample, so interpolation never wraps
+        final float[] table = new float[TABLE_SIZE + 1];
+        float peak = 0;
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            double sample = 0;
+            for (int h = 0; h < HARMONICS.length; h++) {
+                sample += HARMONICS[h] * Math.sin(2 * Math.PI * (h + 1) * i / TABLE_SIZE);
+            }
+            table[i] = (float) sample;
+            peak = Math.max(peak, Math.abs(table[i]));
+        }
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            table[i] /= peak;
+        }
+        table[TABLE_SIZE] = table[0];
+        return table;
+    }
+
+}
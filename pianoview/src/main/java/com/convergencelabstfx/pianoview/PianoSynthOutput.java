@@ -0,0 +1,164 @@
+package com.convergencelabstfx.pianoview;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Process;
+
+/**
+ * Plays a {@link PianoSynth} (or any other {@link Renderer}) through an AudioTrack,
+ * rendering on its own audio priority thread.
+ * <p>
+ * Typical use, with the key events of a PianoView:
+ * <pre>
+ * PianoKeyEventQueue queue = new PianoKeyEventQueue(256, PianoKeyEventQueue.OVERFLOW_DROP_OLDEST);
+ * piano.setKeyEventQueue(queue);
+ * PianoSynth synth = new PianoSynth(AudioTrack.getNativeOutputSampleRate(AudioManager.STREAM_MUSIC), 16);
+ * synth.setEventQueue(queue);
+ * PianoSynthOutput output = new PianoSynthOutput(synth, 256);
+ * output.start();
+ * </pre>
+ * The renderer must not be used from any other thread while the output is running.
+ */
+public final class PianoSynthOutput {
+
+    /**
+     * Renders mono audio; called on the render thread only.
+     */
+    public interface Renderer {
+
+        /**
+         * Returns the sample rate of the rendered audio, in Hz.
+         */
+        int getSampleRate();
+
+        /**
+         * Renders audio, overwriting out.
+         *
+         * @param out    Buffer that receives the samples, nominally between -1 and 1.
+         * @param offset Index of the first sample.
+         * @param frames Number of samples.
+         */
+        void render(float[] out, int offset, int frames);
+
+    }
+
+    private final Renderer mRenderer;
+    private final int mFramesPerBlock;
+
+    private volatile boolean mRunning;
+    private Thread mThread;
+
+    /**
+     * @param framesPerBlock Number of samples rendered at a time; smaller blocks lower the latency
+     *                       of key events, at the cost of more render calls.
+     */
+    public PianoSynthOutput(Renderer renderer, int framesPerBlock) {
+        if (framesPerBlock < 16 || framesPerBlock > 8192) {
+            throw new IllegalArgumentException(
+                    "framesPerBlock must be between 16 and 8192 (both inclusive). Actual framesPerBlock: " + framesPerBlock);
+        }
+        mRenderer = renderer;
+        mFramesPerBlock = framesPerBlock;
+    }
+
+    public Renderer getRenderer() {
+        return mRenderer;
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * Creates the AudioTrack and starts rendering into it. Does nothing if already running.
+     *
+     * @throws IllegalStateException If the AudioTrack can't be initialized, e.g. at an unsupported
+     *                               sample rate or when no more tracks are available.
+     */
+    public synchronized void start() {
+        if (mRunning) {
+            return;
+        }
+        final int sampleRate = mRenderer.getSampleRate();
+        final int minBufferBytes = AudioTrack.getMinBufferSize(
+                sampleRate, AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        final AudioTrack track = new AudioTrack(
+                AudioManager.STREAM_MUSIC,
+                sampleRate,
+                AudioFormat.CHANNEL_OUT_MONO,
+                AudioFormat.ENCODING_PCM_16BIT,
+                Math.max(minBufferBytes, 2 * 2 * mFramesPerBlock),
+                AudioTrack.MODE_STREAM
+        );
+        if (track.getState() != AudioTrack.STATE_INITIALIZED) {
+            track.release();
+            throw new IllegalStateException("AudioTrack could not be initialized at " + sampleRate + " Hz");
+        }
+        mRunning = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                renderLoop(track);
+            }
+        }, "PianoSynthOutput");
+        mThread.start();
+    }
+
+    /**
+     * Stops rendering and releases the AudioTrack, waiting for the render thread to finish.
+     */
+    public synchronized void stop() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mThread.join();
+                break;
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        mThread = null;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void renderLoop(AudioTrack track) {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        final float[] block = new float[mFramesPerBlock];
+        final short[] pcm = new short[mFramesPerBlock];
+        try {
+            track.play();
+            while (mRunning) {
+                mRenderer.render(block, 0, block.length);
+                toPcm16(block, pcm, block.length);
+                // Blocks until the track has room, which paces the loop
+                track.write(pcm, 0, pcm.length);
+            }
+            track.pause();
+            track.flush();
+        }
+        finally {
+            // Also if the track failed, so isRunning() doesn't stay true
+            mRunning = false;
+            track.release();
+        }
+    }
+
+    /**
+     * Converts float samples to 16 bit PCM, clipping anything past -1 and 1.
+     */
+    static void toPcm16(float[] in, short[] out, int count) {
+        for (int i = 0; i < count; i++) {
+            final float sample = Math.max(-1f, Math.min(1f, in[i]));
+            out[i] = (short) (sample * Short.MAX_VALUE);
+        }
+    }
+
+}
@@ -0,0 +1,298 @@
+package com.convergencelabstfx.pianoview;
+
+/**
+ * Turns pointer samples into key down, key up and key click events for {@link PianoView}.
+ * <p>
+ * Every pointer is tracked in fixed primitive arrays indexed by pointer id
+ * (MotionEvent pointer ids are always between 0 and {@link #MAX_POINTER_ID}), and every key keeps
+ * a count of the pointers on it. A key goes down when its first pointer arrives and up when
+ * its last pointer leaves, so tracking a touch never allocates or looks anything up in a map.
+ * <p>
+ * In single touch mode only the first pointer of a gesture is tracked; any other pointer is ignored.
+ */
+final class PianoTouchTracker {
+
+    /**
+     * Receives the key events of a {@link PianoTouchTracker}.
+     * The pointer is the pointer that caused the event,
+     * and the time is the time of the touch sample the event came from.
+     */
+    interface Callback {
+
+        void onTouchKeyDown(int key, int pointerId, long time);
+
+        void onTouchKeyUp(int key, int pointerId, long time);
+
+        void onTouchKeyClick(int key, int pointerId, long time);
+
+    }
+
+    static final int MAX_POINTER_ID = 31;
+
+    private static final int MAX_POINTERS = MAX_POINTER_ID + 1;
+
+    private final PianoKeyGeometry mGeometry;
+    private final Callback mCallback;
+    private PianoKeyPredictor mPredictor;
+
+    // Per pointer state, indexed by pointer id
+    private final int[] mPointerKey = new int[MAX_POINTERS];
+    private final boolean[] mPointerMovedOffInitKey = new boolean[MAX_POINTERS];
+    private final long[] mPointerDownTime = new long[MAX_POINTERS];
+    private final float[] mPointerLastX = new float[MAX_POINTERS];
+    private final float[] mPointerLastY = new float[MAX_POINTERS];
+    private final long[] mPointerLastTime = new long[MAX_POINTERS];
+
+    // Per pointer rectangle around its last sample that is all on its key (see
+    // PianoKeyGeometry.getKeyPartBounds), widened by half a pixel so unrounded samples can be
+    // tested against it; empty if the pointer isn't on a key
+    private final float[] mPointerKeyPartLeft = new float[MAX_POINTERS];
+    private final float[] mPointerKeyPartTop = new float[MAX_POINTERS];
+    private final float[] mPointerKeyPartRight = new float[MAX_POINTERS];
+    private final float[] mPointerKeyPartBottom = new float[MAX_POINTERS];
+    private final int[] mKeyPartBounds = new int[4];
+
+    // Bit i is set while pointer i is down
+    private int mActivePointers;
+    private boolean mSingleTouch;
+
+    // Number of pointers on each key
+    private final int[] mKeyTouchCount = new int[PianoKeyGeometry.MAX_NUMBER_OF_KEYS];
+
+    // Keys crossed between two touch samples, and where along the way each one was entered
+    private final int[] mCrossedKeys = new int[PianoKeyGeometry.MAX_CROSSED_KEYS];
+    private final float[] mCrossedKeyFractions = new float[PianoKeyGeometry.MAX_CROSSED_KEYS];
+
+    PianoTouchTracker(PianoKeyGeometry geometry, Callback callback) {
+        mGeometry = geometry;
+        mCallback = callback;
+    }
+
+    /**
+     * Sets the predictor fed with the samples of every tracked pointer, or null for no prediction.
+     */
+    void setPredictor(PianoKeyPredictor predictor) {
+        mPredictor = predictor;
+    }
+
+    PianoKeyPredictor getPredictor() {
+        return mPredictor;
+    }
+
+    /**
+     * Starts tracking a pointer.
+     *
+     * @param singleTouch If true and this is the first pointer of a gesture,
+     *                    every other pointer is ignored until it goes up.
+     */
+    void pointerDown(int pointerId, float x, float y, long time, boolean singleTouch) {
+        if (pointerId > MAX_POINTER_ID) {
+            return;
+        }
+        if (mActivePointers == 0) {
+            mSingleTouch = singleTouch;
+        }
+        else if (mSingleTouch || isActive(pointerId)) {
+            return;
+        }
+        mActivePointers |= 1 << pointerId;
+        mPointerMovedOffInitKey[pointerId] = false;
+        mPointerDownTime[pointerId] = time;
+        mPointerLastX[pointerId] = x;
+        mPointerLastY[pointerId] = y;
+        mPointerLastTime[pointerId] = time;
+        mPointerKey[pointerId] = -1;
+        if (mPredictor != null) {
+            mPredictor.pointerDown(pointerId, x, y, time);
+        }
+        enterKey(pointerId, findKeyPart(pointerId, x, y), time);
+    }
+
+    /**
+     * Starts a new gesture with its first pointer. Pointers left over from a gesture that never got
+     * its up or cancel are cancelled first, so their keys go up and their predictions are retracted.
+     */
+    void gestureDown(int pointerId, float x, float y, long time, boolean singleTouch) {
+        cancel(time);
+        pointerDown(pointerId, x, y, time, singleTouch);
+    }
+
+    /**
+     * Moves a pointer to a new touch sample,
+     * going through every key crossed since its last sample.
+     */
+    void pointerMove(int pointerId, float x, float y, long time) {
+        if (!isActive(pointerId)) {
+            return;
+        }
+        moveTo(pointerId, x, y, time);
+        if (mPredictor != null) {
+            mPredictor.pointerMoved(pointerId, x, y, time, mPointerKey[pointerId]);
+        }
+    }
+
+    /**
+     * Moves a pointer to its last sample, then stops tracking it.
+     * The key is clicked if the pointer never left the key it went down on.
+     */
+    void pointerUp(int pointerId, float x, float y, long time) {
+        if (!isActive(pointerId)) {
+            return;
+        }
+        moveTo(pointerId, x, y, time);
+        if (mPredictor != null) {
+            mPredictor.pointerUp(pointerId, time);
+        }
+        final int key = mPointerKey[pointerId];
+        leaveKey(pointerId, time);
+        mActivePointers &= ~(1 << pointerId);
+        if (key != -1 && !mPointerMovedOffInitKey[pointerId]) {
+            mCallback.onTouchKeyClick(key, pointerId, time);
+        }
+    }
+
+    /**
+     * Stops tracking every pointer; keys go up, but nothing is clicked.
+     */
+    void cancel(long time) {
+        while (mActivePointers != 0) {
+            final int pointerId = Integer.numberOfTrailingZeros(mActivePointers);
+            if (mPredictor != null) {
+                mPredictor.pointerUp(pointerId, time);
+            }
+            leaveKey(pointerId, time);
+            mActivePointers &= ~(1 << pointerId);
+        }
+    }
+
+    /**
+     * Retracts the expired predictions of every pointer; called once per touch event,
+     * so a pointer that stopped moving doesn't keep its prediction open.
+     */
+    void expirePredictions(long time) {
+        if (mPredictor != null) {
+            mPredictor.expire(time);
+        }
+    }
+
+    /**
+     * Forgets the key part of every pointer after the keys were laid out again, so each pointer's
+     * next sample is hit tested against the new layout.
+     */
+    void onLayoutChanged() {
+        for (int pointerId = 0; pointerId < MAX_POINTERS; pointerId++) {
+            clearKeyPart(pointerId);
+        }
+    }
+
+    private void moveTo(int pointerId, float x, float y, long time) {
+        // Most samples of a held finger don't leave the part of the key it is on;
+        // those cost four comparisons, and nothing is hit tested or walked
+        if (x >= mPointerKeyPartLeft[pointerId] && x < mPointerKeyPartRight[pointerId]
+                && y >= mPointerKeyPartTop[pointerId] && y < mPointerKeyPartBottom[pointerId]) {
+            mPointerLastX[pointerId] = x;
+            mPointerLastY[pointerId] = y;
+            mPointerLastTime[pointerId] = time;
+            return;
+        }
+        final int count = mGeometry.findCrossedKeys(
+                mPointerLastX[pointerId],
+                mPointerLastY[pointerId],
+                mPointerKey[pointerId],
+                x,
+                y,
+                mCrossedKeys,
+                mCrossedKeyFractions);
+        final long lastTime = mPointerLastTime[pointerId];
+        for (int c = 0; c < count; c++) {
+            final long keyTime = lastTime + Math.round((time - lastTime) * mCrossedKeyFractions[c]);
+            mPointerMovedOffInitKey[pointerId] = true;
+            leaveKey(pointerId, keyTime);
+            enterKey(pointerId, mCrossedKeys[c], keyTime);
+        }
+        // The last crossed key is always the key under (x, y)
+        if (findKeyPart(pointerId, x, y) != mPointerKey[pointerId]) {
+            clearKeyPart(pointerId);
+        }
+        mPointerLastX[pointerId] = x;
+        mPointerLastY[pointerId] = y;
+        mPointerLastTime[pointerId] = time;
+    }
+
+    /**
+     * Returns the key under a sample, and keeps the part of it around the sample as the pointer's
+     * key part. A rounded coordinate is within [first, last] exactly when the unrounded one is
+     * within [first - 0.5, last + 0.5).
+     */
+    private int findKeyPart(int pointerId, float x, float y) {
+        final int[] bounds = mKeyPartBounds;
+        final int key = mGeometry.getKeyPartBounds(Math.round(x), Math.round(y), bounds);
+        if (key == -1) {
+            clearKeyPart(pointerId);
+        }
+        else {
+            mPointerKeyPartLeft[pointerId] = bounds[0] - 0.5f;
+            mPointerKeyPartTop[pointerId] = bounds[1] - 0.5f;
+            mPointerKeyPartRight[pointerId] = bounds[2] + 0.5f;
+            mPointerKeyPartBottom[pointerId] = bounds[3] + 0.5f;
+        }
+        return key;
+    }
+
+    private void clearKeyPart(int pointerId) {
+        // No sample is ever at or right of +infinity
+        mPointerKeyPartLeft[pointerId] = Float.POSITIVE_INFINITY;
+    }
+
+    boolean isActive(int pointerId) {
+        return pointerId <= MAX_POINTER_ID && (mActivePointers & (1 << pointerId)) != 0;
+    }
+
+    /**
+     * Returns the key under a pointer, or -1 if the pointer isn't on a key or isn't down.
+     */
+    int getPointerKey(int pointerId) {
+        return isActive(pointerId) ? mPointerKey[pointerId] : -1;
+    }
+
+    /**
+     * Returns the y coordinate of a pointer's last sample. While keys crossed by a move are
+     * entered, this is still the sample before the move.
+     */
+    float getPointerY(int pointerId) {
+        return mPointerLastY[pointerId];
+    }
+
+    /**
+     * Returns the time a pointer went down.
+     */
+    long getPointerDownTime(int pointerId) {
+        return mPointerDownTime[pointerId];
+    }
+
+    /**
+     * Returns the number of pointers on a key.
+     */
+    int getKeyTouchCount(int key) {
+        return mKeyTouchCount[key];
+    }
+
+    private void enterKey(int pointerId, int key, long time) {
+        mPointerKey[pointerId] = key;
+        if (mPredictor != null) {
+            mPredictor.keyEntered(pointerId, key, time);
+        }
+        if (key != -1 && mKeyTouchCount[key]++ == 0) {
+            mCallback.onTouchKeyDown(key, pointerId, time);
+        }
+    }
+
+    private void leaveKey(int pointerId, long time) {
+        final int key = mPointerKey[pointerId];
+        mPointerKey[pointerId] = -1;
+        if (key != -1 && --mKeyTouchCount[key] == 0) {
+            mCallback.onTouchKeyUp(key, pointerId, time);
+        }
+    }
+
+}
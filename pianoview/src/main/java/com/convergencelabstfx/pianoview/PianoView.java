@@ -13,18 +13,18 @@ import android.graphics.Rect;
 import android.graphics.drawable.GradientDrawable;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import android.util.AttributeSet;
-import android.util.SparseBooleanArray;
-import android.util.SparseIntArray;
+import android.view.Choreographer;
 import android.view.MotionEvent;
 import android.view.View;
 
 import androidx.core.content.res.ResourcesCompat;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /*
@@ -74,6 +74,17 @@ public class PianoView extends View {
      */
     public final static int HIGHLIGHT_OFF = 2;
 
+    /**
+     * Draws each key with its own GradientDrawable.
+     */
+    public final static int RENDER_MODE_DRAWABLES = 0;
+
+    /**
+     * Draws the keys directly onto the canvas with a few shared Paints.
+     * Uses much less memory per view than {@link #RENDER_MODE_DRAWABLES}.
+     */
+    public final static int RENDER_MODE_CANVAS = 1;
+
     /**
      * The max scale for black key width and height.
      */
@@ -96,24 +107,123 @@ public class PianoView extends View {
 
     final public int NOTES_PER_OCTAVE = 12;
 
-    final private int[] whiteKeyIxs = new int[]{0, 2, 4, 5, 7, 9, 11};
-    final private int[] blackKeyIxs = new int[]{1, 3, 6, 8, 10};
-
-    private final boolean[] isWhiteKey = new boolean[]{
-            true, false, true, false, true, true,
-            false, true, false, true, false, true,
-    };
+    /**
+     * The max key prediction horizon, in milliseconds.
+     */
+    final public int MAX_PREDICTION_HORIZON = 200;
 
-    private List<PianoTouchListener> mListeners = new ArrayList<>();
+    /**
+     * The max number of frames a key is shown pressed for when highlight changes are coalesced.
+     */
+    final public int MAX_MIN_HIGHLIGHT_FRAMES = 60;
+
+    // Copy on write; replaced (never modified) when a listener is added or removed,
+    // so dispatch can loop over them even if a listener adds or removes listeners
+    private PianoTouchListener[] mListeners = new PianoTouchListener[0];
+    private PianoBatchListener[] mBatchListeners = new PianoBatchListener[0];
+    private PianoPredictionListener[] mPredictionListeners = new PianoPredictionListener[0];
+    // Key events of the current touch event, and of the current bulk update of the pressed keys
+    private final KeyEventBatch mTouchBatch = new KeyEventBatch();
+    private final KeyEventBatch mPressedKeysBatch = new KeyEventBatch();
+    private final PianoKeyBitSet mChangedKeys = new PianoKeyBitSet();
+    // The one key kept by a bulk update when multi key highlighting is off
+    private final PianoKeyBitSet mSingleKey = new PianoKeyBitSet();
+    // Key drawables are reused across layouts; keys past mNumberOfKeys are kept around for reuse
     private List<GradientDrawable> mPianoKeys = new ArrayList<>(MAX_NUMBER_OF_KEYS);
+    // The fill color last applied to each key drawable
+    private int[] mPianoKeyColors = new int[MAX_NUMBER_OF_KEYS];
     private GradientDrawable mPianoBackground = new GradientDrawable();
-    // todo: may change this later; although this is technically the max, it's unlikely it will get this high
-    private Set<Integer> mPressedKeys = new HashSet<>(MAX_NUMBER_OF_KEYS);
+    private PianoKeyPainter mKeyPainter = new PianoKeyPainter();
+    private PianoKeyGeometry mGeometry = new PianoKeyGeometry();
+    private PianoKeyBitSet mPressedKeys = new PianoKeyBitSet();
+    // mPressedKeys, published for other threads
+    private final PianoPressedKeys mPressedKeysSnapshot = new PianoPressedKeys();
+    // Keys drawn pressed; the same set as mPressedKeys, unless highlight changes are coalesced
+    private PianoKeyBitSet mShownKeys = mPressedKeys;
+
+    // Only set while highlight changes are coalesced per frame
+    private PianoHighlightCoalescer mHighlightCoalescer;
+    private int mMinHighlightFrames = 0;
+    private boolean mHighlightFrameScheduled = false;
+    private final PianoKeyBitSet mHighlightChangedKeys = new PianoKeyBitSet();
+
+    // Pressed state posted from any thread, applied on the UI thread at most once per frame
+    private final PianoPendingKeys mPostedKeys = new PianoPendingKeys();
+    private final AtomicBoolean mPostedKeysScheduled = new AtomicBoolean();
+    private final PianoKeyBitSet mDrainedKeys = new PianoKeyBitSet();
+    private final PianoKeyBitSet mDrainedPressedKeys = new PianoKeyBitSet();
+    private final Runnable mApplyPostedKeys = new Runnable() {
+        @Override
+        public void run() {
+            // Cleared first, so a key posted from now on schedules another apply
+            mPostedKeysScheduled.set(false);
+            applyPostedKeys();
+        }
+    };
+    private final PianoKeyChangeSink mKeyChangeSink = new PianoKeyChangeSink() {
+        @Override
+        public void onKeysChanged(long changedLo, long changedHi, long pressedLo, long pressedHi) {
+            postKeyChanges(changedLo, changedHi, pressedLo, pressedHi);
+        }
+    };
+    private final Choreographer.FrameCallback mHighlightFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mHighlightFrameScheduled = false;
+            applyHighlightFrame();
+        }
+    };
+
+    // Union of the bounds of every key that changed since the last draw
+    private final Rect mDirtyRegion = new Rect();
+    private final Rect mClipBounds = new Rect();
+
+    // Pre-rendered idle keyboard; only pressed keys are drawn on top of it
+    private PianoLayerCache mLayerCache = new PianoLayerCache();
+    private PianoKeyBitSet mOverlayBlackKeys = new PianoKeyBitSet();
+    private boolean mCacheKeyboardLayer = false;
+
+    // Per pointer and per key touch state, for both single and multi touch
+    private PianoTouchTracker mTouchTracker = new PianoTouchTracker(mGeometry, new PianoTouchTracker.Callback() {
+        @Override
+        public void onTouchKeyDown(int key, int pointerId, long time) {
+            final long start = beginTouchCallback();
+            dispatchKeyDown(key, pointerId, time);
+            endTouchCallback(start);
+        }
+
+        @Override
+        public void onTouchKeyUp(int key, int pointerId, long time) {
+            final long start = beginTouchCallback();
+            dispatchKeyUp(key, pointerId, time);
+            endTouchCallback(start);
+        }
+
+        @Override
+        public void onTouchKeyClick(int key, int pointerId, long time) {
+            final long start = beginTouchCallback();
+            dispatchKeyClick(key, pointerId, time);
+            endTouchCallback(start);
+        }
+    });
 
-    // todo: can change these sizes when the number of keys changes; using max num for now
-    private SparseIntArray mActivePointerKeys = new SparseIntArray(MAX_NUMBER_OF_KEYS);
-    private SparseBooleanArray mActivePointerHasMovedOffInitKey = new SparseBooleanArray(MAX_NUMBER_OF_KEYS);
-    private int[] mActivePointerKeyTouchCount = new int[MAX_NUMBER_OF_KEYS];
+    // Only set while key prediction is enabled
+    private PianoKeyPredictor mKeyPredictor;
+
+    // Time of the touch sample behind the key event being dispatched
+    private long mKeyEventTime;
+
+    // Receives touch key events for another thread, if set
+    private PianoKeyEventQueue mKeyEventQueue;
+
+    // Encodes touch key events as MIDI, if set
+    private PianoMidiOutput mMidiOutput;
+
+    // Only set while metrics are enabled
+    private PianoViewStats mStats;
+    private long mTouchEventTimeNanos;
+    // Time spent in the callbacks of the touch tracker during the current touch event
+    private long mTouchCallbackNanos;
 
     private int mWidth;
     private int mHeight;
@@ -128,9 +238,6 @@ public class PianoView extends View {
     private float mBlackKeyHeightScale;
 
     private int mNumberOfKeys;
-    private int mPrevNumberOfKeys;
-    private int mNumberOfBlackKeys;
-    private int mNumberOfWhiteKeys;
 
     private int mWhiteKeyColor;
     private int mBlackKeyColor;
@@ -140,13 +247,12 @@ public class PianoView extends View {
     private int mKeyStrokeWidth;
     private int mKeyCornerRadius;
 
-    private int mLastTouchedKey;
-
     // todo: can probably remove; these attrs will be parsed, and these are the default values there
     private int mShowPressMode = HIGHLIGHT_ON_KEY_DOWN;
     private boolean mEnableMultiKeyHighlighting = true;
 
-    private boolean mHasMovedOffInitKey = false;
+    private int mKeyRenderMode = RENDER_MODE_DRAWABLES;
+    private boolean mHasLayout = false;
 
     public PianoView(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -159,12 +265,19 @@ public class PianoView extends View {
         mPianoBackground.setShape(GradientDrawable.RECTANGLE);
         parseAttrs(a);
         a.recycle();
+        mPianoBackground.setCornerRadius(mKeyCornerRadius);
+        mPianoBackground.setColor(mKeyStrokeColor);
     }
 
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
-        mWidth = w;
         mHeight = h;
+        if (mHasLayout && w == mWidth) {
+            // The horizontal layout doesn't depend on the height
+            constructPianoKeyHeights();
+            return;
+        }
+        mWidth = w;
         findNumberOfWhiteAndBlackKeys(mNumberOfKeys);
         calculatePianoKeyDimensions();
         constructPianoKeyLayout();
@@ -172,42 +285,161 @@ public class PianoView extends View {
 
     @Override
     protected void onDraw(Canvas canvas) {
+        if (mStats != null) {
+            final long start = System.nanoTime();
+            drawPiano(canvas);
+            mStats.getDrawTime().record(System.nanoTime() - start);
+        }
+        else {
+            drawPiano(canvas);
+        }
+    }
+
+    private void drawPiano(Canvas canvas) {
+        mDirtyRegion.setEmpty();
+        if (!canvas.getClipBounds(mClipBounds)) {
+            return;
+        }
+        if (mCacheKeyboardLayer && prepareLayerCache(canvas)) {
+            mLayerCache.draw(canvas);
+            drawPressedKeys(canvas);
+            return;
+        }
         // Have to draw the black keys on top of the white keys
         if (mKeyStrokeWidth > 0) {
             drawBackground(canvas);
         }
-        drawWhiteKeys(canvas);
-        drawBlackKeys(canvas);
+        if (mKeyRenderMode == RENDER_MODE_CANVAS) {
+            drawKeysWithPainter(canvas, mShownKeys, mClipBounds);
+        }
+        else {
+            drawWhiteKeys(canvas);
+            drawBlackKeys(canvas);
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        // Before API 24, a runnable posted from another thread while detached is lost
+        if (mPostedKeysScheduled.get()) {
+            postOnAnimation(mApplyPostedKeys);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mLayerCache.release();
+        // No more frames; show the final state right away
+        if (mHighlightCoalescer != null) {
+            flushHighlightFrame();
+        }
     }
 
 
     // todo: override performClick?
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        if (mEnableMultiKeyHighlighting) {
-            handleTouchEventMulti(event);
-        }
-        else {
-            handleTouchEventSingle(event);
+        if (mStats != null) {
+            // Event times use the same monotonic clock as System.nanoTime(), in milliseconds
+            mTouchEventTimeNanos = event.getEventTime() * 1000000L;
         }
+        handleTouchEvent(event);
         return true;
     }
 
+    /**
+     * Feeds the pointers of a touch event to the touch tracker.
+     */
+    private void handleTouchEvent(MotionEvent event) {
+        final int pointerIndex;
+        mTouchBatch.clear(KeyEventBatch.SOURCE_TOUCH);
+        // Only the work of the touch tracker is timed as hit testing; whatever its callbacks do
+        // (dispatching, recoloring, invalidating) is subtracted
+        final long start = mStats != null ? System.nanoTime() : 0;
+        mTouchCallbackNanos = 0;
+
+        switch (event.getActionMasked()) {
+
+            case MotionEvent.ACTION_DOWN:
+                mTouchTracker.gestureDown(
+                        event.getPointerId(0),
+                        event.getX(0),
+                        event.getY(0),
+                        event.getEventTime(),
+                        !mEnableMultiKeyHighlighting);
+                break;
+
+            case MotionEvent.ACTION_POINTER_DOWN:
+                pointerIndex = event.getActionIndex();
+                mTouchTracker.pointerDown(
+                        event.getPointerId(pointerIndex),
+                        event.getX(pointerIndex),
+                        event.getY(pointerIndex),
+                        event.getEventTime(),
+                        !mEnableMultiKeyHighlighting);
+                break;
+
+            case MotionEvent.ACTION_MOVE:
+                // A move event batches every sample since the last one;
+                // go through them in order, so no key crossed along the way is skipped
+                final int historySize = event.getHistorySize();
+                final int pointerCount = event.getPointerCount();
+                for (int h = 0; h < historySize; h++) {
+                    final long time = event.getHistoricalEventTime(h);
+                    for (int i = 0; i < pointerCount; i++) {
+                        mTouchTracker.pointerMove(
+                                event.getPointerId(i),
+                                event.getHistoricalX(i, h),
+                                event.getHistoricalY(i, h),
+                                time);
+                    }
+                }
+                for (int i = 0; i < pointerCount; i++) {
+                    mTouchTracker.pointerMove(
+                            event.getPointerId(i),
+                            event.getX(i),
+                            event.getY(i),
+                            event.getEventTime());
+                }
+                break;
+
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_POINTER_UP:
+                pointerIndex = event.getActionIndex();
+                mTouchTracker.pointerUp(
+                        event.getPointerId(pointerIndex),
+                        event.getX(pointerIndex),
+                        event.getY(pointerIndex),
+                        event.getEventTime());
+                break;
+
+            case MotionEvent.ACTION_CANCEL:
+                mTouchTracker.cancel(event.getEventTime());
+                break;
+        }
+        // Also reaches the predictions of pointers that had no sample in this event
+        mTouchTracker.expirePredictions(event.getEventTime());
+        if (mStats != null) {
+            mStats.getHitTestTime().record(System.nanoTime() - start - mTouchCallbackNanos);
+        }
+        if (mTouchBatch.size() > 0) {
+            dispatchKeyEventBatch(mTouchBatch);
+        }
+        if (mMidiOutput != null) {
+            mMidiOutput.flush();
+        }
+    }
+
     @Override
     protected Parcelable onSaveInstanceState() {
         Parcelable superState = super.onSaveInstanceState();
         SavedState myState = new SavedState(superState);
 
-        if (mShowPressMode == HIGHLIGHT_ON_KEY_DOWN) {
-            myState.mPressedKeys = new int[0];
-        }
-        else {
-            myState.mPressedKeys = new int[this.mPressedKeys.size()];
-            int i = 0;
-            for (Integer pressedKey : mPressedKeys) {
-                myState.mPressedKeys[i] = pressedKey;
-                i++;
-            }
+        if (mShowPressMode != HIGHLIGHT_ON_KEY_DOWN) {
+            myState.mPressedKeysLo = mPressedKeys.lo;
+            myState.mPressedKeysHi = mPressedKeys.hi;
         }
 
         myState.mShowPressMode = this.mShowPressMode;
@@ -233,9 +465,8 @@ public class PianoView extends View {
         SavedState savedState = (SavedState) state;
         super.onRestoreInstanceState(savedState.getSuperState());
 
-        for (int i = 0; i < savedState.mPressedKeys.length; i++) {
-            this.mPressedKeys.add(savedState.mPressedKeys[i]);
-        }
+        this.mPressedKeys.lo |= savedState.mPressedKeysLo;
+        this.mPressedKeys.hi |= savedState.mPressedKeysHi;
 
         this.mShowPressMode = savedState.mShowPressMode;
         this.mEnableMultiKeyHighlighting = (savedState.mEnableMultiKeyHighlighting == 1);
@@ -251,11 +482,24 @@ public class PianoView extends View {
 
         this.mBlackKeyWidthScale = savedState.mBlackKeyWidthScale;
         this.mBlackKeyHeightScale = savedState.mBlackKeyHeightScale;
+        this.mPressedKeys.retainBelow(mNumberOfKeys);
+        mPressedKeysSnapshot.publish(mPressedKeys.lo, mPressedKeys.hi);
+        if (mHighlightCoalescer != null) {
+            mHighlightCoalescer.keysPressed(mPressedKeys.lo, mPressedKeys.hi);
+            scheduleHighlightFrame();
+        }
+        mKeyPainter.setStroke(mKeyStrokeWidth, mKeyStrokeColor);
+        mKeyPainter.setCornerRadius(mKeyCornerRadius);
+        mPianoBackground.setCornerRadius(mKeyCornerRadius);
+        mPianoBackground.setColor(mKeyStrokeColor);
+        // The colors and strokes baked into the idle keyboard layer may have changed;
+        // the restored keys themselves are drawn over it from the shown keys
+        mLayerCache.invalidate();
 
         // todo: i think not calling these is fine; just here in case weird stuff starts happening
 //        calculatePianoKeyDimensions();
 //        constructPianoKeyLayout();
-        invalidate();
+        invalidateView();
     }
 
     /**
@@ -275,10 +519,7 @@ public class PianoView extends View {
         // todo: coming back here later when bugs happen
         if (mShowPressMode != showPressMode) {
             if (mShowPressMode == HIGHLIGHT_ON_KEY_CLICK) {
-                // Avoid ConcurrentModificationError
-                final List<Integer> keyIxs = new ArrayList<>(mPressedKeys.size());
-                keyIxs.addAll(mPressedKeys);
-                for (Integer keyIx : keyIxs) {
+                for (int keyIx = mPressedKeys.first(); keyIx != -1; keyIx = mPressedKeys.next(keyIx + 1)) {
                     showKeyNotPressed(keyIx);
                 }
             }
@@ -306,12 +547,7 @@ public class PianoView extends View {
             mEnableMultiKeyHighlighting = enableMultiKeyHighlighting;
             if (!enableMultiKeyHighlighting && mPressedKeys.size() > 1) {
                 // Only going to show the min key ix
-                int minIx = MAX_NUMBER_OF_KEYS + 1;
-                for (Integer ix : mPressedKeys) {
-                    if (ix < minIx) {
-                        minIx = ix;
-                    }
-                }
+                final int minIx = mPressedKeys.first();
                 // Todo: kind of a hacky way of dealing with this; but it works
                 showKeyNotPressed(minIx);
                 showKeyPressed(minIx);
@@ -336,24 +572,16 @@ public class PianoView extends View {
      * the whole view.
      */
     public void setNumberOfKeys(int numberOfKeys) {
-        if (numberOfKeys < MIN_NUMBER_OF_KEYS || numberOfKeys > MAX_NUMBER_OF_KEYS) {
-            throw new IllegalArgumentException(
-                    "numberOfKeys must be between "
-                            + (MIN_NUMBER_OF_KEYS) +
-                            " and "
-                            + (MAX_NUMBER_OF_KEYS) +
-                            " (both inclusive). Actual numberOfKeys: " + numberOfKeys);
-        }
+        checkNumberOfKeys(numberOfKeys);
         if (numberOfKeys == this.mNumberOfKeys) {
             return;
         }
-        mPrevNumberOfKeys = this.mNumberOfKeys;
         this.mNumberOfKeys = numberOfKeys;
-        if (!mPianoKeys.isEmpty()) {
+        if (mHasLayout) {
             findNumberOfWhiteAndBlackKeys(numberOfKeys);
             calculatePianoKeyDimensions();
             constructPianoKeyLayout();
-            invalidate();
+            invalidateView();
         }
     }
 
@@ -361,14 +589,14 @@ public class PianoView extends View {
      * Returns the number of black keys.
      */
     public int getNumberOfBlackKeys() {
-        return mNumberOfBlackKeys;
+        return mGeometry.numberOfBlackKeys;
     }
 
     /**
      * Returns the number of white keys.
      */
     public int getNumberOfWhiteKeys() {
-        return mNumberOfWhiteKeys;
+        return mGeometry.numberOfWhiteKeys;
     }
 
     /**
@@ -385,19 +613,15 @@ public class PianoView extends View {
      * @param scale Width relative to white key width (i.e. 0.7f = 70% of white key width)
      */
     public void setBlackKeyWidthScale(float scale) {
-        if (scale > SCALE_MAX || scale < SCALE_MIN) {
-            throw new IllegalArgumentException(
-                    "blackKeyWidthScale must be between "
-                            + (SCALE_MIN) +
-                            " and "
-                            + (SCALE_MAX) +
-                            " (both inclusive). Actual blackKeyWidthScale: " + mBlackKeyWidthScale);
+        checkBlackKeyScale("blackKeyWidthScale", scale);
+        if (scale == mBlackKeyWidthScale) {
+            return;
         }
         mBlackKeyWidthScale = scale;
-        if (!mPianoKeys.isEmpty()) {
+        if (mHasLayout) {
             calculatePianoKeyDimensions();
             constructPianoKeyLayout();
-            invalidate();
+            invalidateView();
         }
     }
 
@@ -415,19 +639,14 @@ public class PianoView extends View {
      * @param scale Height relative to white key height (i.e. 0.7f = 70% of white key height)
      */
     public void setBlackKeyHeightScale(float scale) {
-        if (scale > SCALE_MAX || scale < SCALE_MIN) {
-            throw new IllegalArgumentException(
-                    "blackKeyHeightScale must be between "
-                            + (SCALE_MIN) +
-                            " and "
-                            + (SCALE_MAX) +
-                            " (both inclusive). Actual blackKeyHeightScale: " + mBlackKeyWidthScale);
+        checkBlackKeyScale("blackKeyHeightScale", scale);
+        if (scale == mBlackKeyHeightScale) {
+            return;
         }
         mBlackKeyHeightScale = scale;
-        if (!mPianoKeys.isEmpty()) {
-            calculatePianoKeyDimensions();
-            constructPianoKeyLayout();
-            invalidate();
+        if (mHasLayout) {
+            constructPianoKeyHeights();
+            invalidateView();
         }
     }
 
@@ -446,12 +665,14 @@ public class PianoView extends View {
             return;
         }
         mWhiteKeyColor = color;
-        if (!mPianoKeys.isEmpty()) {
-            for (int i = 0; i < mNumberOfWhiteKeys; i++) {
-                final int ix = whiteKeyIxs[i % whiteKeyIxs.length] + (i / whiteKeyIxs.length) * NOTES_PER_OCTAVE;
-                mPianoKeys.get(ix).setColor(color);
+        mLayerCache.invalidate();
+        if (mHasLayout) {
+            if (mKeyRenderMode == RENDER_MODE_DRAWABLES) {
+                for (int i = 0; i < mGeometry.numberOfWhiteKeys; i++) {
+                    updateKeyColor(mGeometry.whiteKeys[i]);
+                }
             }
-            invalidate();
+            invalidateView();
         }
     }
 
@@ -470,12 +691,14 @@ public class PianoView extends View {
             return;
         }
         mBlackKeyColor = color;
-        if (!mPianoKeys.isEmpty()) {
-            for (int i = 0; i < mNumberOfBlackKeys; i++) {
-                final int ix = blackKeyIxs[i % blackKeyIxs.length] + (i / blackKeyIxs.length) * NOTES_PER_OCTAVE;
-                mPianoKeys.get(ix).setColor(color);
+        mLayerCache.invalidate();
+        if (mHasLayout) {
+            if (mKeyRenderMode == RENDER_MODE_DRAWABLES) {
+                for (int i = 0; i < mGeometry.numberOfBlackKeys; i++) {
+                    updateKeyColor(mGeometry.blackKeys[i]);
+                }
             }
-            invalidate();
+            invalidateView();
         }
     }
 
@@ -494,13 +717,12 @@ public class PianoView extends View {
             return;
         }
         mPressedKeyColor = color;
-        if (!mPianoKeys.isEmpty()) {
-            for (int i = 0; i < mNumberOfKeys; i++) {
-                if (keyIsPressed(i)) {
-                    mPianoKeys.get(i).setColor(color);
-                }
+        if (mHasLayout) {
+            for (int i = mShownKeys.first(); i != -1; i = mShownKeys.next(i + 1)) {
+                updateKeyColor(i);
+                markKeyDirty(i);
             }
-            invalidate();
+            invalidateDirtyRegion();
         }
     }
 
@@ -519,12 +741,14 @@ public class PianoView extends View {
             return;
         }
         mKeyStrokeColor = color;
-        if (!mPianoKeys.isEmpty()) {
-            mPianoBackground.setColor(mKeyStrokeColor);
+        mLayerCache.invalidate();
+        mKeyPainter.setStroke(mKeyStrokeWidth, mKeyStrokeColor);
+        mPianoBackground.setColor(mKeyStrokeColor);
+        if (mHasLayout) {
             for (GradientDrawable pianoKey : mPianoKeys) {
                 pianoKey.setStroke(mKeyStrokeWidth, mKeyStrokeColor);
             }
-            invalidate();
+            invalidateView();
         }
     }
 
@@ -543,14 +767,15 @@ public class PianoView extends View {
             return;
         }
         mKeyStrokeWidth = width;
-        if (!mPianoKeys.isEmpty()) {
+        mKeyPainter.setStroke(mKeyStrokeWidth, mKeyStrokeColor);
+        if (mHasLayout) {
             for (GradientDrawable pianoKey : mPianoKeys) {
                 pianoKey.setStroke(mKeyStrokeWidth, mKeyStrokeColor);
             }
             // The stroke of the keys overlap, so it requires recalculation
             calculatePianoKeyDimensions();
             constructPianoKeyLayout();
-            invalidate();
+            invalidateView();
         }
     }
 
@@ -569,347 +794,1231 @@ public class PianoView extends View {
             return;
         }
         mKeyCornerRadius = radius;
-        if (!mPianoKeys.isEmpty()) {
-            mPianoBackground.setCornerRadius(mKeyCornerRadius);
+        mKeyPainter.setCornerRadius(mKeyCornerRadius);
+        mLayerCache.invalidate();
+        mPianoBackground.setCornerRadius(mKeyCornerRadius);
+        if (mHasLayout) {
             for (GradientDrawable pianoKey : mPianoKeys) {
                 pianoKey.setCornerRadius(mKeyCornerRadius);
             }
-            invalidate();
+            invalidateView();
         }
     }
 
     /**
-     * todo: comeback here
+     * Starts a batch of style changes.
+     * Nothing changes until {@link Editor#apply()} is called, which validates every value first,
+     * then runs at most one layout pass and one invalidation for the whole batch:
+     * <pre>
+     * piano.edit()
+     *         .numberOfKeys(61)
+     *         .blackKeyWidthScale(0.6f)
+     *         .keyStrokeWidth(2)
+     *         .whiteKeyColor(Color.WHITE)
+     *         .apply();
+     * </pre>
      */
-    public Rect getBoundsForKey(int keyIx) {
-        return mPianoKeys.get(keyIx).getBounds();
+    public Editor edit() {
+        return new Editor();
     }
 
     /**
-     * Add listener.
-     *
-     * @param listener See {@link com.convergencelabstfx.pianoview.PianoTouchListener}.
+     * Returns the current render mode.
      */
-    public void addPianoTouchListener(PianoTouchListener listener) {
-        mListeners.add(listener);
+    public int getKeyRenderMode() {
+        return mKeyRenderMode;
     }
 
     /**
-     * Remove listener.
+     * Set how the keys are drawn.
      *
-     * @param listener See {@link com.convergencelabstfx.pianoview.PianoTouchListener}.
+     * @param renderMode Either {@link #RENDER_MODE_DRAWABLES} or {@link #RENDER_MODE_CANVAS}.
      */
-    public void removePianoTouchListener(PianoTouchListener listener) {
-        mListeners.remove(listener);
+    public void setKeyRenderMode(int renderMode) {
+        if (renderMode != RENDER_MODE_DRAWABLES && renderMode != RENDER_MODE_CANVAS) {
+            throw new IllegalArgumentException(
+                    "renderMode must be either RENDER_MODE_DRAWABLES or RENDER_MODE_CANVAS. Actual renderMode: " + renderMode);
+        }
+        if (renderMode == mKeyRenderMode) {
+            return;
+        }
+        mKeyRenderMode = renderMode;
+        if (mHasLayout) {
+            constructPianoKeyLayout();
+            invalidateView();
+        }
     }
 
     /**
-     * Highlights a piano key with the pressed key color.
-     * See {@link #setPressedKeyColor(int)} and {@link #getPressedKeyColor()}.
-     *
-     * @param ix Index of the key to be shown.
+     * Returns if the idle keyboard is cached.
      */
-    public void showKeyPressed(int ix) {
-        if (!mPressedKeys.contains(ix)) {
-            if (!mEnableMultiKeyHighlighting && !mPressedKeys.isEmpty()) {
-                final Set<Integer> setCopy = new HashSet<>(mPressedKeys);
-                for (Integer keyIx : setCopy) {
-                    showKeyNotPressed(keyIx);
-                }
-            }
-            mPressedKeys.add(ix);
-            GradientDrawable pianoKey = mPianoKeys.get(ix);
-            pianoKey.setColor(mPressedKeyColor);
-            invalidate();
-        }
+    public boolean isKeyboardLayerCacheEnabled() {
+        return mCacheKeyboardLayer;
     }
 
     /**
-     * Returns a key to its default color.
-     * See {@link #setWhiteKeyColor(int)}, {@link #getWhiteKeyColor()},
-     * {@link #setBlackKeyColor(int)}, {@link #getBlackKeyColor()}
-     *
-     * @param ix Index of the key to be shown.
+     * Caches a rendering of the idle keyboard, so that each frame only draws the cached layer
+     * plus the pressed keys (and the black keys on top of them).
+     * The cache is rebuilt when the layout or the base key colors change.
+     * <p>
+     * On software rendered canvases the cache is a bitmap the size of this view;
+     * if that would exceed {@link #getKeyboardLayerCacheMaxBytes()}, every key is drawn directly instead.
+     * On hardware accelerated canvases it is a render node as of API 29; before that, nothing is cached
+     * there, since whatever this view draws is recorded again on every draw anyway.
      */
-    public void showKeyNotPressed(int ix) {
-        if (mPressedKeys.contains(ix)) {
-            GradientDrawable pianoKey = mPianoKeys.get(ix);
-            mPressedKeys.remove(ix);
-            if (isWhiteKey(ix)) {
-                pianoKey.setColor(mWhiteKeyColor);
-            }
-            else {
-                pianoKey.setColor(mBlackKeyColor);
-            }
-            invalidate();
+    public void setKeyboardLayerCacheEnabled(boolean enabled) {
+        if (enabled == mCacheKeyboardLayer) {
+            return;
         }
+        mCacheKeyboardLayer = enabled;
+        if (!enabled) {
+            mLayerCache.release();
+        }
+        invalidateView();
     }
 
     /**
-     * Returns if a key is currently in the pressed state.
-     *
-     * @param ix Index of the key to be checked.
+     * Returns the memory cap for the keyboard layer cache bitmap, in bytes.
      */
-    public boolean keyIsPressed(int ix) {
-        return mPressedKeys.contains(ix);
+    public int getKeyboardLayerCacheMaxBytes() {
+        return mLayerCache.getMaxBytes();
     }
 
     /**
-     * Returns the index of the key that the x and y coordinates
-     * are located in.
+     * Sets the memory cap for the keyboard layer cache bitmap, in bytes.
+     * See {@link #setKeyboardLayerCacheEnabled(boolean)}.
      */
-    private int getTouchedKey(int x, int y) {
-        // Check black keys first
-        for (int i = 0; i < mNumberOfBlackKeys; i++) {
-            final int ix = blackKeyIxs[i % blackKeyIxs.length] + (i / blackKeyIxs.length) * NOTES_PER_OCTAVE;
-            final Rect bounds = mPianoKeys.get(ix).getBounds();
-            if (coordsAreInBounds(x, y, bounds.left, bounds.top, bounds.right, bounds.bottom)) {
-                return ix;
-            }
-        }
-
-        // Check white keys
-        if (mNumberOfWhiteKeys == 1) {
-            final Rect bounds = mPianoKeys.get(0).getBounds();
-            // todo: put comment here;
-            if (coordsAreInBounds(x, y, bounds.left, bounds.top, bounds.right, bounds.bottom)) {
-                return 0;
-            }
-        }
-        else {
-            for (int i = 0; i < mNumberOfWhiteKeys - 1; i++) {
-                final int ix = whiteKeyIxs[i % whiteKeyIxs.length] + (i / whiteKeyIxs.length) * NOTES_PER_OCTAVE;
-                final Rect bounds = mPianoKeys.get(ix).getBounds();
-                // todo: put comment here;
-                final int adjustedRight = bounds.right - (mKeyStrokeWidth / 2);
-                if (coordsAreInBounds(x, y, bounds.left, bounds.top, adjustedRight, bounds.bottom)) {
-                    return ix;
-                }
-            }
-            final int ix = whiteKeyIxs[(mNumberOfWhiteKeys - 1) % whiteKeyIxs.length] + ((mNumberOfWhiteKeys - 1) / whiteKeyIxs.length) * NOTES_PER_OCTAVE;
-            final Rect bounds = mPianoKeys.get(ix).getBounds();
-            if (coordsAreInBounds(x, y, bounds.left, bounds.top, bounds.right, bounds.bottom)) {
-                return ix;
-            }
+    public void setKeyboardLayerCacheMaxBytes(int maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException(
+                    "maxBytes must be at least 0. Actual maxBytes: " + maxBytes);
         }
-        return -1;
+        mLayerCache.setMaxBytes(maxBytes);
+        invalidateView();
     }
 
-    // Todo: may be a way of merging both of multi and single touch into this one function
-
     /**
-     * Handles the I/O of a touch event when multi touch is enabled.
-     * This method notifies listeners and takes care af key highlighting if enabled.
+     * Returns the bounds of a key.
+     * With {@link #RENDER_MODE_DRAWABLES} the returned rect is owned by the key; it must not be modified.
+     * See {@link #getBoundsForKey(int, Rect)} for an allocation-free copy.
+     *
+     * @param keyIx Index of the key.
      */
-    private void handleTouchEventMulti(MotionEvent event) {
-        final int maskedAction = event.getActionMasked();
-        int curPointerIndex;
-        int curPointerId;
-        int curTouchedKey;
-
-        switch (maskedAction) {
-
-            case MotionEvent.ACTION_DOWN:
-            case MotionEvent.ACTION_POINTER_DOWN:
-                curPointerIndex = event.getActionIndex();
-                curPointerId = event.getPointerId(curPointerIndex);
-                curTouchedKey = getTouchedKey(
-                        Math.round(event.getX(curPointerIndex)),
-                        Math.round(event.getY(curPointerIndex)));
-                mActivePointerHasMovedOffInitKey.put(curPointerId, false);
-                mActivePointerKeys.put(curPointerId, curTouchedKey);
-                if (curTouchedKey != -1) {
-                    mActivePointerKeyTouchCount[curTouchedKey]++;
-                    if (!keyIsPressed(curTouchedKey)) {
-                        for (PianoTouchListener listener : mListeners) {
-                            listener.onKeyDown(this, curTouchedKey);
-                        }
-                        if (mShowPressMode == HIGHLIGHT_ON_KEY_DOWN) {
-                            showKeyPressed(curTouchedKey);
-                        }
-                    }
-                }
-                break;
-
-            case MotionEvent.ACTION_MOVE:
-                for (int i = 0; i < event.getPointerCount(); i++) {
-                    curPointerId = mActivePointerKeys.keyAt(i);
-                    curPointerIndex = event.findPointerIndex(curPointerId);
-                    curTouchedKey = getTouchedKey(
-                            Math.round(event.getX(curPointerIndex)),
-                            Math.round(event.getY(curPointerIndex)));
-                    if (curTouchedKey != mActivePointerKeys.get(curPointerId)) {
-                        if (mActivePointerKeys.get(curPointerId) != -1) {
-                            mActivePointerKeyTouchCount[mActivePointerKeys.get(curPointerId)]--;
-                            if (mActivePointerKeyTouchCount[mActivePointerKeys.get(curPointerId)] == 0) {
-                                for (PianoTouchListener listener : mListeners) {
-                                    listener.onKeyUp(this, mActivePointerKeys.get(curPointerId));
-                                }
-                                if (mShowPressMode == HIGHLIGHT_ON_KEY_DOWN) {
-                                    showKeyNotPressed(mActivePointerKeys.get(curPointerId));
-                                }
-
-                            }
-                        }
-                        mActivePointerKeys.put(curPointerId, curTouchedKey);
-                        mActivePointerHasMovedOffInitKey.put(curPointerId, true);
-                        if (curTouchedKey != -1) {
-                            mActivePointerKeyTouchCount[curTouchedKey]++;
-                            if (!keyIsPressed(curTouchedKey)) {
-                                for (PianoTouchListener listener : mListeners) {
-                                    listener.onKeyDown(this, curTouchedKey);
-                                }
-                                if (mShowPressMode == HIGHLIGHT_ON_KEY_DOWN) {
-                                    showKeyPressed(curTouchedKey);
-                                }
-                            }
-                        }
-                    }
-                }
-                break;
-
-            case MotionEvent.ACTION_POINTER_UP:
-            case MotionEvent.ACTION_UP:
-                curPointerIndex = event.getActionIndex();
-                curPointerId = event.getPointerId(curPointerIndex);
-                curTouchedKey = getTouchedKey(
-                        Math.round(event.getX(curPointerIndex)),
-                        Math.round(event.getY(curPointerIndex)));
-                if (curTouchedKey != -1) {
-                    mActivePointerKeyTouchCount[curTouchedKey]--;
-                    if (mActivePointerKeyTouchCount[curTouchedKey] == 0) {
-                        for (PianoTouchListener listener : mListeners) {
-                            listener.onKeyUp(this, curTouchedKey);
-                        }
-                        if (mShowPressMode == HIGHLIGHT_ON_KEY_DOWN) {
-                            showKeyNotPressed(curTouchedKey);
-                        }
-                    }
-                    if (!mActivePointerHasMovedOffInitKey.get(curPointerId)) {
-                        for (PianoTouchListener listener : mListeners) {
-                            listener.onKeyClick(this, curTouchedKey);
-                        }
-                        if (mShowPressMode == HIGHLIGHT_ON_KEY_CLICK) {
-                            if (!keyIsPressed(curTouchedKey)) {
-                                showKeyPressed(curTouchedKey);
-                            }
-                            else {
-                                showKeyNotPressed(curTouchedKey);
-                            }
-                        }
-                    }
-                }
-                mActivePointerKeys.delete(curPointerId);
-                break;
+    public Rect getBoundsForKey(int keyIx) {
+        if (mKeyRenderMode == RENDER_MODE_CANVAS) {
+            return getBoundsForKey(keyIx, new Rect());
         }
+        return mPianoKeys.get(keyIx).getBounds();
     }
 
     /**
-     * Handles the I/O of a touch event when multi touch is not enabled.
-     * This method notifies listeners and takes care af key highlighting if enabled.
+     * Copies the bounds of a key into the given rect.
+     *
+     * @param keyIx Index of the key.
+     * @param out   Rect that receives the bounds.
+     * @return The out rect, for chaining.
      */
-    private void handleTouchEventSingle(MotionEvent event) {
-        int curTouchedKey = getTouchedKey(Math.round(event.getX()), Math.round(event.getY()));
-
-        switch (event.getAction()) {
-
-            case MotionEvent.ACTION_DOWN:
-                if (mShowPressMode == HIGHLIGHT_ON_KEY_DOWN) {
-                    showKeyPressed(curTouchedKey);
-                }
-                for (PianoTouchListener listener : mListeners) {
-                    listener.onKeyDown(this, curTouchedKey);
-                }
-                mLastTouchedKey = curTouchedKey;
-                mHasMovedOffInitKey = false;
-                break;
-
-            case MotionEvent.ACTION_MOVE:
-                if (mLastTouchedKey != curTouchedKey) {
-                    if (mLastTouchedKey != -1) {
-                        if (mShowPressMode == HIGHLIGHT_ON_KEY_DOWN) {
-                            showKeyNotPressed(mLastTouchedKey);
-                        }
-                        for (PianoTouchListener listener : mListeners) {
-                            listener.onKeyUp(this, mLastTouchedKey);
-                        }
-                    }
-                    if (curTouchedKey != -1) {
-                        if (mShowPressMode == HIGHLIGHT_ON_KEY_DOWN) {
-                            showKeyPressed(curTouchedKey);
-                        }
-                        for (PianoTouchListener listener : mListeners) {
-                            listener.onKeyDown(this, curTouchedKey);
-                        }
-                    }
-                    mLastTouchedKey = curTouchedKey;
-                    mHasMovedOffInitKey = true;
-                }
-                break;
-
-            case MotionEvent.ACTION_UP:
-                if (mShowPressMode == HIGHLIGHT_ON_KEY_DOWN && curTouchedKey != -1) {
-                    showKeyNotPressed(curTouchedKey);
-                    for (PianoTouchListener listener : mListeners) {
-                        listener.onKeyUp(this, curTouchedKey);
-                    }
-                }
-                if (!mHasMovedOffInitKey) {
-                    if (mShowPressMode == HIGHLIGHT_ON_KEY_CLICK) {
-                        if (!keyIsPressed(curTouchedKey)) {
-                            showKeyPressed(curTouchedKey);
-                        }
-                        else {
-                            showKeyNotPressed(curTouchedKey);
-                        }
-                    }
-                    for (PianoTouchListener listener : mListeners) {
-                        listener.onKeyClick(this, curTouchedKey);
-                    }
-                }
-                break;
+    public Rect getBoundsForKey(int keyIx, Rect out) {
+        if (keyIx < 0 || keyIx >= mNumberOfKeys) {
+            throw new IndexOutOfBoundsException(
+                    "keyIx must be between 0 and " + (mNumberOfKeys - 1) + ". Actual keyIx: " + keyIx);
         }
+        out.set(mGeometry.left[keyIx], mGeometry.top[keyIx], mGeometry.right[keyIx], mGeometry.bottom[keyIx]);
+        return out;
     }
 
     /**
-     * Checks if the x and y coordinates are inside the rectangle made up by
-     * left, top, right, and bottom.
+     * Add listener.
+     *
+     * @param listener See {@link com.convergencelabstfx.pianoview.PianoTouchListener}.
      */
-    private boolean coordsAreInBounds(
-            int x,
-            int y,
-            int left,
-            int top,
-            int right,
-            int bottom) {
-        return x >= left && x <= right && y >= top && y <= bottom;
+    public void addPianoTouchListener(PianoTouchListener listener) {
+        mListeners = appendListener(mListeners, listener);
     }
 
     /**
-     * Draws the background around the piano.
+     * Remove listener.
+     *
+     * @param listener See {@link com.convergencelabstfx.pianoview.PianoTouchListener}.
      */
-    private void drawBackground(Canvas canvas) {
-        mPianoBackground.draw(canvas);
+    public void removePianoTouchListener(PianoTouchListener listener) {
+        mListeners = removeListener(mListeners, listener);
     }
 
     /**
-     * Draws the white keys.
+     * Sets a queue that receives every key down, key up and key click caused by touch,
+     * in addition to the {@link PianoTouchListener}s. Events are offered from the UI thread,
+     * so another thread (e.g. an audio thread) can drain them without locks or allocation.
+     *
+     * @param queue The queue, or null to stop publishing events.
      */
-    private void drawWhiteKeys(Canvas canvas) {
-        for (int i = 0; i < mNumberOfWhiteKeys; i++) {
-            final int keyIx = whiteKeyIxs[i % whiteKeyIxs.length] + (i / whiteKeyIxs.length * NOTES_PER_OCTAVE);
-            mPianoKeys.get(keyIx).draw(canvas);
-        }
+    public void setKeyEventQueue(PianoKeyEventQueue queue) {
+        mKeyEventQueue = queue;
+    }
+
+    public PianoKeyEventQueue getKeyEventQueue() {
+        return mKeyEventQueue;
     }
 
     /**
-     * Draws the black keys.
+     * Sets a MIDI output that receives a note on for every key down and a note off for every key up
+     * caused by touch. The messages of one touch event are sent together, at the end of the event.
+     *
+     * @param output The output, or null to stop sending MIDI.
      */
-    private void drawBlackKeys(Canvas canvas) {
-        for (int i = 0; i < mNumberOfBlackKeys; i++) {
-            final int keyIx = blackKeyIxs[i % blackKeyIxs.length] + (i / blackKeyIxs.length * NOTES_PER_OCTAVE);
-            mPianoKeys.get(keyIx).draw(canvas);
-        }
+    public void setMidiOutput(PianoMidiOutput output) {
+        mMidiOutput = output;
+    }
+
+    public PianoMidiOutput getMidiOutput() {
+        return mMidiOutput;
+    }
+
+    /**
+     * Enables or disables recording of timings and work counters; see {@link PianoViewStats}.
+     * Disabled by default. While disabled nothing is measured, and enabling starts from empty stats.
+     * Recording never allocates.
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        if (enabled && mStats == null) {
+            mStats = new PianoViewStats();
+        }
+        else if (!enabled) {
+            mStats = null;
+        }
+    }
+
+    public boolean isMetricsEnabled() {
+        return mStats != null;
+    }
+
+    /**
+     * Returns a snapshot of the recorded stats, or null if metrics are disabled.
+     */
+    public PianoViewStats getStats() {
+        if (mStats == null) {
+            return null;
+        }
+        final PianoViewStats stats = new PianoViewStats();
+        stats.set(mStats);
+        return stats;
+    }
+
+    /**
+     * Copies the recorded stats into out, without allocating.
+     *
+     * @return false if metrics are disabled, in which case out is left as is.
+     */
+    public boolean getStats(PianoViewStats out) {
+        if (mStats == null) {
+            return false;
+        }
+        out.set(mStats);
+        return true;
+    }
+
+    /**
+     * Clears the recorded stats.
+     */
+    public void resetStats() {
+        if (mStats != null) {
+            mStats.reset();
+        }
+    }
+
+    /**
+     * Adds a batch listener, which gets every key event of a touch event
+     * (or of a bulk update of the pressed keys) in a single call.
+     *
+     * @param listener See {@link com.convergencelabstfx.pianoview.PianoBatchListener}.
+     */
+    public void addPianoBatchListener(PianoBatchListener listener) {
+        mBatchListeners = appendListener(mBatchListeners, listener);
+    }
+
+    /**
+     * Removes a batch listener.
+     *
+     * @param listener See {@link com.convergencelabstfx.pianoview.PianoBatchListener}.
+     */
+    public void removePianoBatchListener(PianoBatchListener listener) {
+        mBatchListeners = removeListener(mBatchListeners, listener);
+    }
+
+    /**
+     * Adds a prediction listener; see {@link #setPredictionHorizon(int)}.
+     *
+     * @param listener See {@link com.convergencelabstfx.pianoview.PianoPredictionListener}.
+     */
+    public void addPianoPredictionListener(PianoPredictionListener listener) {
+        mPredictionListeners = appendListener(mPredictionListeners, listener);
+    }
+
+    /**
+     * Removes a prediction listener.
+     *
+     * @param listener See {@link com.convergencelabstfx.pianoview.PianoPredictionListener}.
+     */
+    public void removePianoPredictionListener(PianoPredictionListener listener) {
+        mPredictionListeners = removeListener(mPredictionListeners, listener);
+    }
+
+    /**
+     * Sets how far ahead the key a sliding finger is about to enter is predicted;
+     * predictions go to the {@link PianoPredictionListener}s. A finger's velocity is estimated from
+     * its recent touch samples, and its path is extrapolated over the horizon.
+     * Disabled (0) by default. Predicting never allocates.
+     * <p>
+     * Predictions still open when prediction gets disabled are dropped without being retracted.
+     *
+     * @param horizonMillis Prediction horizon in milliseconds, or 0 to disable prediction.
+     */
+    public void setPredictionHorizon(int horizonMillis) {
+        if (horizonMillis < 0 || horizonMillis > MAX_PREDICTION_HORIZON) {
+            throw new IllegalArgumentException(
+                    "horizonMillis must be between 0 and " + MAX_PREDICTION_HORIZON +
+                            " (both inclusive). Actual horizonMillis: " + horizonMillis);
+        }
+        if (horizonMillis == 0) {
+            mKeyPredictor = null;
+        }
+        else if (mKeyPredictor == null) {
+            mKeyPredictor = new PianoKeyPredictor(mGeometry, new PianoKeyPredictor.Callback() {
+                @Override
+                public void onKeyPredicted(int key, int pointerId, long time, long predictedTime) {
+                    final long start = beginTouchCallback();
+                    dispatchKeyPredicted(key, pointerId, predictedTime);
+                    endTouchCallback(start);
+                }
+
+                @Override
+                public void onPredictionConfirmed(int key, int pointerId, long time) {
+                    final long start = beginTouchCallback();
+                    dispatchPredictionConfirmed(key, pointerId);
+                    endTouchCallback(start);
+                }
+
+                @Override
+                public void onPredictionRetracted(int key, int pointerId, long time) {
+                    final long start = beginTouchCallback();
+                    dispatchPredictionRetracted(key, pointerId);
+                    endTouchCallback(start);
+                }
+            }, horizonMillis);
+        }
+        else {
+            mKeyPredictor.setHorizonMillis(horizonMillis);
+        }
+        mTouchTracker.setPredictor(mKeyPredictor);
+    }
+
+    /**
+     * Returns the key prediction horizon in milliseconds, or 0 if prediction is disabled.
+     */
+    public int getPredictionHorizon() {
+        return mKeyPredictor != null ? mKeyPredictor.getHorizonMillis() : 0;
+    }
+
+    /**
+     * Enables or disables coalescing of highlight changes. Disabled by default.
+     * <p>
+     * While enabled, changes to the pressed keys (from touch, {@link #showKeyPressed(int)},
+     * {@link #setPressedKeys(long, long)} etc.) are not drawn right away; they are collected,
+     * and the keys whose state differs at the next frame are recolored and invalidated once.
+     * So any number of changes between two frames cost at most one draw.
+     * {@link #keyIsPressed(int)} and the listeners still see every change as it happens.
+     * <p>
+     * Must be called on the UI thread, like every other method of this view.
+     */
+    public void setFrameCoalescingEnabled(boolean enabled) {
+        if (enabled && mHighlightCoalescer == null) {
+            mHighlightCoalescer = new PianoHighlightCoalescer(mPressedKeys.lo, mPressedKeys.hi, mMinHighlightFrames);
+            mShownKeys = mHighlightCoalescer.getShownKeys();
+        }
+        else if (!enabled && mHighlightCoalescer != null) {
+            flushHighlightFrame();
+            mHighlightCoalescer = null;
+            mShownKeys = mPressedKeys;
+        }
+    }
+
+    public boolean isFrameCoalescingEnabled() {
+        return mHighlightCoalescer != null;
+    }
+
+    /**
+     * Sets the minimum number of frames a key is shown pressed for while highlight changes are
+     * coalesced, see {@link #setFrameCoalescingEnabled(boolean)}. With 0 (the default), a key that
+     * is pressed and released between two frames is never shown pressed.
+     *
+     * @param frames Minimum number of frames.
+     */
+    public void setMinimumHighlightFrames(int frames) {
+        if (frames < 0 || frames > MAX_MIN_HIGHLIGHT_FRAMES) {
+            throw new IllegalArgumentException(
+                    "frames must be between 0 and " + MAX_MIN_HIGHLIGHT_FRAMES +
+                            " (both inclusive). Actual frames: " + frames);
+        }
+        mMinHighlightFrames = frames;
+        if (mHighlightCoalescer != null) {
+            mHighlightCoalescer.setMinFrames(frames);
+        }
+    }
+
+    public int getMinimumHighlightFrames() {
+        return mMinHighlightFrames;
+    }
+
+    /**
+     * Returns the time of the touch sample that caused the key event currently being dispatched,
+     * in the {@link android.os.SystemClock#uptimeMillis()} time base.
+     * Keys crossed between two samples of a fast swipe get a time interpolated between the samples.
+     * Only meaningful while a {@link PianoTouchListener} callback is running.
+     */
+    public long getKeyEventTime() {
+        return mKeyEventTime;
+    }
+
+    /**
+     * Highlights a piano key with the pressed key color.
+     * See {@link #setPressedKeyColor(int)} and {@link #getPressedKeyColor()}.
+     *
+     * @param ix Index of the key to be shown.
+     */
+    public void showKeyPressed(int ix) {
+        if (!mPressedKeys.contains(ix)) {
+            if (!mEnableMultiKeyHighlighting && !mPressedKeys.isEmpty()) {
+                for (int keyIx = mPressedKeys.first(); keyIx != -1; keyIx = mPressedKeys.next(keyIx + 1)) {
+                    showKeyNotPressed(keyIx);
+                }
+            }
+            checkKeyIx(ix);
+            mPressedKeys.add(ix);
+            mPressedKeysSnapshot.publish(mPressedKeys.lo, mPressedKeys.hi);
+            if (mHighlightCoalescer != null) {
+                mHighlightCoalescer.keyPressed(ix);
+                scheduleHighlightFrame();
+            }
+            else if (mHasLayout) {
+                updateKeyColor(ix);
+                markKeyDirty(ix);
+                invalidateDirtyRegion();
+            }
+        }
+    }
+
+    /**
+     * Returns a key to its default color.
+     * See {@link #setWhiteKeyColor(int)}, {@link #getWhiteKeyColor()},
+     * {@link #setBlackKeyColor(int)}, {@link #getBlackKeyColor()}
+     *
+     * @param ix Index of the key to be shown.
+     */
+    public void showKeyNotPressed(int ix) {
+        if (mPressedKeys.contains(ix)) {
+            mPressedKeys.remove(ix);
+            mPressedKeysSnapshot.publish(mPressedKeys.lo, mPressedKeys.hi);
+            if (mHighlightCoalescer != null) {
+                scheduleHighlightFrame();
+            }
+            else if (mHasLayout) {
+                updateKeyColor(ix);
+                markKeyDirty(ix);
+                invalidateDirtyRegion();
+            }
+        }
+    }
+
+    /**
+     * Highlights a piano key like {@link #showKeyPressed(int)}, but may be called from any thread.
+     * <p>
+     * The request is merged into a pending state without locking or allocating, and applied on
+     * the UI thread at the next frame; all keys posted before a frame are applied at once, and the
+     * last request for a key wins. Keys outside of the current number of keys are ignored.
+     *
+     * @param ix Index of the key to be shown, between 0 and {@link #MAX_NUMBER_OF_KEYS} - 1.
+     */
+    public void postKeyPressed(int ix) {
+        checkPostedKeyIx(ix);
+        mPostedKeys.post(ix, true);
+        schedulePostedKeys();
+    }
+
+    /**
+     * Returns a key to its default color like {@link #showKeyNotPressed(int)},
+     * but may be called from any thread. See {@link #postKeyPressed(int)}.
+     *
+     * @param ix Index of the key to be shown, between 0 and {@link #MAX_NUMBER_OF_KEYS} - 1.
+     */
+    public void postKeyReleased(int ix) {
+        checkPostedKeyIx(ix);
+        mPostedKeys.post(ix, false);
+        schedulePostedKeys();
+    }
+
+    /**
+     * Highlights exactly the keys in the given 128-bit mask like {@link #setPressedKeys(long, long)},
+     * but may be called from any thread. See {@link #postKeyPressed(int)}.
+     * <p>
+     * The mask replaces every earlier posted request, and is always applied as a whole:
+     * a frame that happens while it is being posted leaves it for the next frame.
+     *
+     * @param lo Mask for keys 0 - 63.
+     * @param hi Mask for keys 64 - 127.
+     */
+    public void postPressedMask(long lo, long hi) {
+        mPostedKeys.postMask(lo, hi);
+        schedulePostedKeys();
+    }
+
+    /**
+     * Posts the new state of the changed keys in bulk, from any thread. See {@link #postKeyPressed(int)}.
+     * Like {@link #postPressedMask(long, long)}, the changes are always applied as a whole.
+     */
+    void postKeyChanges(long changedLo, long changedHi, long pressedLo, long pressedHi) {
+        mPostedKeys.postChanges(changedLo, changedHi, pressedLo, pressedHi);
+        schedulePostedKeys();
+    }
+
+    /**
+     * Returns a sink that posts key changes with {@link #postKeyChanges(long, long, long, long)}.
+     */
+    PianoKeyChangeSink getKeyChangeSink() {
+        return mKeyChangeSink;
+    }
+
+    /**
+     * Returns if a key is currently in the pressed state.
+     * UI thread only; see {@link #getPressedKeysSnapshot()} for other threads.
+     *
+     * @param ix Index of the key to be checked.
+     */
+    public boolean keyIsPressed(int ix) {
+        return mPressedKeys.contains(ix);
+    }
+
+    /**
+     * Returns the number of keys currently in the pressed state.
+     */
+    public int getPressedKeyCount() {
+        return mPressedKeys.size();
+    }
+
+    /**
+     * Returns the pressed keys as a 128-bit mask.
+     * Bit i of element 0 is key i, and bit i of element 1 is key 64 + i.
+     * See {@link #getPressedKeyMask(long[])} for an allocation-free variant.
+     */
+    public long[] getPressedKeyMask() {
+        return getPressedKeyMask(new long[2]);
+    }
+
+    /**
+     * Copies the pressed keys into a 128-bit mask.
+     * Bit i of out[0] is key i, and bit i of out[1] is key 64 + i.
+     *
+     * @param out Array of at least 2 elements that receives the mask.
+     * @return The out array, for chaining.
+     */
+    public long[] getPressedKeyMask(long[] out) {
+        mPressedKeys.copyInto(out);
+        return out;
+    }
+
+    /**
+     * Returns the pressed keys as published for other threads, e.g. an audio thread that needs to
+     * know which keys are down. Unlike {@link #keyIsPressed(int)} and {@link #getPressedKeyMask(long[])},
+     * it may be read from any thread, and always gives a consistent view of every key.
+     * The returned object is updated in place, so it only needs to be fetched once.
+     */
+    public PianoPressedKeys getPressedKeysSnapshot() {
+        return mPressedKeysSnapshot;
+    }
+
+    /**
+     * Highlights exactly the given keys, and returns every other key to its default color.
+     * Only keys whose state changes are updated, and the view is invalidated at most once.
+     * <p>
+     * If multi key highlighting is disabled, only the lowest of the given keys is highlighted.
+     *
+     * @param keys Indices of the keys to be shown pressed.
+     */
+    public void setPressedKeys(int[] keys) {
+        long lo = 0;
+        long hi = 0;
+        for (int key : keys) {
+            checkKeyIx(key);
+            if (key < 64) {
+                lo |= 1L << key;
+            }
+            else {
+                hi |= 1L << (key - 64);
+            }
+        }
+        applyPressedKeys(lo, hi);
+    }
+
+    /**
+     * Highlights exactly the keys in the given 128-bit mask, and returns every other key to its
+     * default color. Bit i of lo is key i, and bit i of hi is key 64 + i.
+     * Only keys whose state changes are updated, and the view is invalidated at most once.
+     * <p>
+     * If multi key highlighting is disabled, only the lowest key in the mask is highlighted.
+     *
+     * @param lo Mask for keys 0 - 63.
+     * @param hi Mask for keys 64 - 127.
+     */
+    public void setPressedKeys(long lo, long hi) {
+        checkKeyMask(lo, hi);
+        applyPressedKeys(lo, hi);
+    }
+
+    /**
+     * Highlights the given keys in addition to the keys that are already highlighted.
+     * See {@link #setPressedKeys(int[])}.
+     *
+     * @param keys Indices of the keys to be shown pressed.
+     */
+    public void pressKeys(int[] keys) {
+        long lo = mPressedKeys.lo;
+        long hi = mPressedKeys.hi;
+        for (int key : keys) {
+            checkKeyIx(key);
+            if (key < 64) {
+                lo |= 1L << key;
+            }
+            else {
+                hi |= 1L << (key - 64);
+            }
+        }
+        applyPressedKeys(lo, hi);
+    }
+
+    /**
+     * Returns the given keys to their default color.
+     * See {@link #setPressedKeys(int[])}.
+     *
+     * @param keys Indices of the keys to be shown not pressed.
+     */
+    public void releaseKeys(int[] keys) {
+        long lo = mPressedKeys.lo;
+        long hi = mPressedKeys.hi;
+        for (int key : keys) {
+            checkKeyIx(key);
+            if (key < 64) {
+                lo &= ~(1L << key);
+            }
+            else {
+                hi &= ~(1L << (key - 64));
+            }
+        }
+        applyPressedKeys(lo, hi);
+    }
+
+    /**
+     * Returns every key to its default color.
+     */
+    public void clearPressedKeys() {
+        applyPressedKeys(0, 0);
+    }
+
+    /**
+     * Moves the pressed keys to the given mask, updating the color of only the keys that changed.
+     * The view is invalidated once if anything changed.
+     */
+    private void applyPressedKeys(long lo, long hi) {
+        if (!mEnableMultiKeyHighlighting) {
+            // A newly pressed key replaces the shown key, like showKeyPressed(int)
+            mSingleKey.set(lo, hi);
+            mSingleKey.retainSingle(mPressedKeys.lo, mPressedKeys.hi);
+            lo = mSingleKey.lo;
+            hi = mSingleKey.hi;
+        }
+        final long changedLo = mPressedKeys.lo ^ lo;
+        final long changedHi = mPressedKeys.hi ^ hi;
+        if (changedLo == 0 && changedHi == 0) {
+            return;
+        }
+        mPressedKeys.set(lo, hi);
+        mPressedKeysSnapshot.publish(mPressedKeys.lo, mPressedKeys.hi);
+        if (mBatchListeners.length != 0) {
+            recordPressedKeysBatch(changedLo, changedHi);
+        }
+        if (mHighlightCoalescer != null) {
+            mHighlightCoalescer.keysPressed(changedLo & lo, changedHi & hi);
+            scheduleHighlightFrame();
+        }
+        // Without a layout, the colors are applied when the layout is constructed
+        else if (mHasLayout) {
+            updatePressedKeyColors(changedLo, changedHi);
+        }
+        if (mBatchListeners.length != 0) {
+            dispatchKeyEventBatch(mPressedKeysBatch);
+        }
+    }
+
+    /**
+     * Records every key that changed as pressed (key down) or not pressed (key up).
+     */
+    private void recordPressedKeysBatch(long changedLo, long changedHi) {
+        final long time = SystemClock.uptimeMillis();
+        mPressedKeysBatch.clear(KeyEventBatch.SOURCE_PRESSED_KEYS_UPDATE);
+        mChangedKeys.set(changedLo, changedHi);
+        for (int keyIx = mChangedKeys.first(); keyIx != -1; keyIx = mChangedKeys.next(keyIx + 1)) {
+            mPressedKeysBatch.add(
+                    mPressedKeys.contains(keyIx) ? KeyEventBatch.TYPE_KEY_DOWN : KeyEventBatch.TYPE_KEY_UP,
+                    keyIx,
+                    KeyEventBatch.NO_POINTER,
+                    time);
+        }
+    }
+
+    /**
+     * Schedules the posted keys to be applied at the next frame, unless that's already scheduled.
+     * Only the first post of a frame reaches the Choreographer.
+     */
+    private void schedulePostedKeys() {
+        if (!mPostedKeysScheduled.get() && mPostedKeysScheduled.compareAndSet(false, true)) {
+            postOnAnimation(mApplyPostedKeys);
+        }
+    }
+
+    /**
+     * Applies every key posted since the last frame. Runs during a frame on the UI thread.
+     */
+    private void applyPostedKeys() {
+        final int drained = mPostedKeys.drain(mDrainedKeys, mDrainedPressedKeys);
+        if (drained == PianoPendingKeys.DRAIN_DEFERRED) {
+            // A mask or bulk change is being posted; it is applied whole at the next frame
+            schedulePostedKeys();
+            return;
+        }
+        if (drained == PianoPendingKeys.DRAIN_EMPTY) {
+            return;
+        }
+        final long validLo = mNumberOfKeys >= 64 ? -1L : (1L << mNumberOfKeys) - 1;
+        final long validHi = mNumberOfKeys <= 64 ? 0 : (1L << (mNumberOfKeys - 64)) - 1;
+        applyPressedKeys(
+                ((mPressedKeys.lo & ~mDrainedKeys.lo) | mDrainedPressedKeys.lo) & validLo,
+                ((mPressedKeys.hi & ~mDrainedKeys.hi) | mDrainedPressedKeys.hi) & validHi);
+        // Already in a frame; no need to wait for the next one
+        if (mHighlightFrameScheduled) {
+            Choreographer.getInstance().removeFrameCallback(mHighlightFrameCallback);
+            mHighlightFrameScheduled = false;
+            applyHighlightFrame();
+        }
+    }
+
+    private void scheduleHighlightFrame() {
+        if (!mHighlightFrameScheduled) {
+            mHighlightFrameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(mHighlightFrameCallback);
+        }
+    }
+
+    /**
+     * Shows the pressed keys as of this frame, redrawing only the keys whose shown state changed.
+     */
+    private void applyHighlightFrame() {
+        if (mStats != null) {
+            mStats.recordHighlightFrame();
+        }
+        final boolean holding = mHighlightCoalescer.onFrame(mPressedKeys.lo, mPressedKeys.hi, mHighlightChangedKeys);
+        if (mHasLayout) {
+            updatePressedKeyColors(mHighlightChangedKeys.lo, mHighlightChangedKeys.hi);
+        }
+        if (holding) {
+            scheduleHighlightFrame();
+        }
+    }
+
+    /**
+     * Shows exactly the pressed keys right away, without waiting for a frame.
+     */
+    private void flushHighlightFrame() {
+        if (mHighlightFrameScheduled) {
+            Choreographer.getInstance().removeFrameCallback(mHighlightFrameCallback);
+            mHighlightFrameScheduled = false;
+        }
+        mHighlightCoalescer.flush(mPressedKeys.lo, mPressedKeys.hi, mHighlightChangedKeys);
+        if (mHasLayout) {
+            updatePressedKeyColors(mHighlightChangedKeys.lo, mHighlightChangedKeys.hi);
+        }
+    }
+
+    /**
+     * Recolors and invalidates every key that changed.
+     */
+    private void updatePressedKeyColors(long changedLo, long changedHi) {
+        long bits = changedLo;
+        while (bits != 0) {
+            final int keyIx = Long.numberOfTrailingZeros(bits);
+            updateKeyColor(keyIx);
+            markKeyDirty(keyIx);
+            bits &= bits - 1;
+        }
+        bits = changedHi;
+        while (bits != 0) {
+            final int keyIx = 64 + Long.numberOfTrailingZeros(bits);
+            updateKeyColor(keyIx);
+            markKeyDirty(keyIx);
+            bits &= bits - 1;
+        }
+        invalidateDirtyRegion();
+    }
+
+    /**
+     * Sets the fill color of a key drawable from its pressed state.
+     */
+    private void updateKeyColor(int keyIx) {
+        if (mStats != null) {
+            mStats.recordKeyColorUpdate();
+        }
+        if (mKeyRenderMode == RENDER_MODE_DRAWABLES) {
+            setKeyDrawableColor(keyIx, getKeyFillColor(keyIx));
+        }
+    }
+
+    /**
+     * Sets the fill color of a key drawable, skipping the call if the drawable already has that color.
+     */
+    private void setKeyDrawableColor(int keyIx, int color) {
+        if (mPianoKeyColors[keyIx] != color) {
+            mPianoKeyColors[keyIx] = color;
+            mPianoKeys.get(keyIx).setColor(color);
+        }
+        else if (mStats != null) {
+            mStats.recordAllocationAvoided();
+        }
+    }
+
+    /**
+     * Returns the color a key should currently be filled with.
+     */
+    private int getKeyFillColor(int keyIx) {
+        if (mShownKeys.contains(keyIx)) {
+            return mPressedKeyColor;
+        }
+        else if (isWhiteKey(keyIx)) {
+            return mWhiteKeyColor;
+        }
+        else {
+            return mBlackKeyColor;
+        }
+    }
+
+    /**
+     * Returns a copy of listeners with listener added to the end.
+     */
+    private static <T> T[] appendListener(T[] listeners, T listener) {
+        final T[] result = Arrays.copyOf(listeners, listeners.length + 1);
+        result[listeners.length] = listener;
+        return result;
+    }
+
+    /**
+     * Returns a copy of listeners without the first occurrence of listener,
+     * or listeners itself if it doesn't contain listener.
+     */
+    private static <T> T[] removeListener(T[] listeners, T listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i].equals(listener)) {
+                final T[] result = Arrays.copyOf(listeners, listeners.length - 1);
+                System.arraycopy(listeners, i + 1, result, i, listeners.length - i - 1);
+                return result;
+            }
+        }
+        return listeners;
+    }
+
+    private void checkNumberOfKeys(int numberOfKeys) {
+        if (numberOfKeys < MIN_NUMBER_OF_KEYS || numberOfKeys > MAX_NUMBER_OF_KEYS) {
+            throw new IllegalArgumentException(
+                    "numberOfKeys must be between "
+                            + (MIN_NUMBER_OF_KEYS) +
+                            " and "
+                            + (MAX_NUMBER_OF_KEYS) +
+                            " (both inclusive). Actual numberOfKeys: " + numberOfKeys);
+        }
+    }
+
+    private void checkBlackKeyScale(String name, float scale) {
+        if (scale > SCALE_MAX || scale < SCALE_MIN) {
+            throw new IllegalArgumentException(
+                    name + " must be between "
+                            + (SCALE_MIN) +
+                            " and "
+                            + (SCALE_MAX) +
+                            " (both inclusive). Actual " + name + ": " + scale);
+        }
+    }
+
+    private void checkKeyIx(int keyIx) {
+        if (keyIx < 0 || keyIx >= mNumberOfKeys) {
+            throw new IllegalArgumentException(
+                    "key must be between 0 and "
+                            + (mNumberOfKeys - 1) +
+                            " (both inclusive). Actual key: " + keyIx);
+        }
+    }
+
+    private void checkPostedKeyIx(int keyIx) {
+        if (keyIx < 0 || keyIx >= MAX_NUMBER_OF_KEYS) {
+            throw new IllegalArgumentException(
+                    "key must be between 0 and "
+                            + (MAX_NUMBER_OF_KEYS - 1) +
+                            " (both inclusive). Actual key: " + keyIx);
+        }
+    }
+
+    private void checkKeyMask(long lo, long hi) {
+        final long validLo = mNumberOfKeys >= 64 ? -1L : (1L << mNumberOfKeys) - 1;
+        final long validHi = mNumberOfKeys <= 64 ? 0 : (1L << (mNumberOfKeys - 64)) - 1;
+        if ((lo & ~validLo) != 0 || (hi & ~validHi) != 0) {
+            throw new IllegalArgumentException(
+                    "key mask contains keys outside of 0 and "
+                            + (mNumberOfKeys - 1) +
+                            " (both inclusive).");
+        }
+    }
+
+    /**
+     * Returns the index of the key that the x and y coordinates
+     * are located in.
+     */
+    private int getTouchedKey(int x, int y) {
+        return mGeometry.getTouchedKey(x, y);
+    }
+
+    private void recordDispatch(long start) {
+        final long end = System.nanoTime();
+        mStats.getEventLatency().record(start - mTouchEventTimeNanos);
+        mStats.getListenerDispatchTime().record(end - start);
+    }
+
+    /**
+     * Starts timing a callback of the touch tracker or the key predictor, so it isn't counted
+     * as hit testing; has to be followed by {@link #endTouchCallback(long)}.
+     */
+    private long beginTouchCallback() {
+        return mStats != null ? System.nanoTime() : 0;
+    }
+
+    private void endTouchCallback(long start) {
+        if (mStats != null) {
+            mTouchCallbackNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Hands a batch of key events to the batch listeners.
+     */
+    private void dispatchKeyEventBatch(KeyEventBatch batch) {
+        final long start = mStats != null ? System.nanoTime() : 0;
+        final PianoBatchListener[] listeners = mBatchListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onKeyEvents(this, batch);
+        }
+        if (mStats != null && batch.getSource() == KeyEventBatch.SOURCE_TOUCH) {
+            recordDispatch(start);
+        }
+    }
+
+    private void dispatchKeyPredicted(int key, int pointerId, long predictedTime) {
+        final PianoPredictionListener[] listeners = mPredictionListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onKeyPredicted(this, key, pointerId, predictedTime);
+        }
+    }
+
+    private void dispatchPredictionConfirmed(int key, int pointerId) {
+        final PianoPredictionListener[] listeners = mPredictionListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onPredictionConfirmed(this, key, pointerId);
+        }
+    }
+
+    private void dispatchPredictionRetracted(int key, int pointerId) {
+        final PianoPredictionListener[] listeners = mPredictionListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onPredictionRetracted(this, key, pointerId);
+        }
+    }
+
+    /**
+     * Returns where a pointer touches a key, from 0 (top of the key) to 1 (bottom of the key).
+     */
+    private float getTouchPosition(int key, int pointerId) {
+        final int height = mGeometry.bottom[key] - mGeometry.top[key];
+        return height > 0 ? (mTouchTracker.getPointerY(pointerId) - mGeometry.top[key]) / height : Float.NaN;
+    }
+
+    /**
+     * Notifies listeners that a key went down, and highlights it if enabled.
+     */
+    private void dispatchKeyDown(int key, int pointerId, long time) {
+        mKeyEventTime = time;
+        if (mKeyEventQueue != null) {
+            mKeyEventQueue.offer(PianoKeyEventQueue.pack(PianoKeyEventQueue.TYPE_KEY_DOWN, key, pointerId, time));
+        }
+        if (mMidiOutput != null) {
+            mMidiOutput.keyDown(key, getTouchPosition(key, pointerId), time);
+        }
+        if (mBatchListeners.length != 0) {
+            mTouchBatch.add(KeyEventBatch.TYPE_KEY_DOWN, key, pointerId, time);
+        }
+        final long start = mStats != null ? System.nanoTime() : 0;
+        final PianoTouchListener[] listeners = mListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onKeyDown(this, key);
+        }
+        if (mStats != null) {
+            recordDispatch(start);
+        }
+        if (mShowPressMode == HIGHLIGHT_ON_KEY_DOWN && key < mNumberOfKeys) {
+            showKeyPressed(key);
+        }
+    }
+
+    /**
+     * Notifies listeners that a key went up, and removes its highlight if enabled.
+     */
+    private void dispatchKeyUp(int key, int pointerId, long time) {
+        mKeyEventTime = time;
+        if (mKeyEventQueue != null) {
+            mKeyEventQueue.offer(PianoKeyEventQueue.pack(PianoKeyEventQueue.TYPE_KEY_UP, key, pointerId, time));
+        }
+        if (mMidiOutput != null) {
+            mMidiOutput.keyUp(key, time);
+        }
+        if (mBatchListeners.length != 0) {
+            mTouchBatch.add(KeyEventBatch.TYPE_KEY_UP, key, pointerId, time);
+        }
+        final long start = mStats != null ? System.nanoTime() : 0;
+        final PianoTouchListener[] listeners = mListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onKeyUp(this, key);
+        }
+        if (mStats != null) {
+            recordDispatch(start);
+        }
+        if (mShowPressMode == HIGHLIGHT_ON_KEY_DOWN) {
+            showKeyNotPressed(key);
+        }
+    }
+
+    /**
+     * Notifies listeners that a key was clicked, and toggles its highlight if enabled.
+     */
+    private void dispatchKeyClick(int key, int pointerId, long time) {
+        mKeyEventTime = time;
+        if (mKeyEventQueue != null) {
+            mKeyEventQueue.offer(PianoKeyEventQueue.pack(PianoKeyEventQueue.TYPE_KEY_CLICK, key, pointerId, time));
+        }
+        if (mBatchListeners.length != 0) {
+            mTouchBatch.add(KeyEventBatch.TYPE_KEY_CLICK, key, pointerId, time);
+        }
+        final long start = mStats != null ? System.nanoTime() : 0;
+        final PianoTouchListener[] listeners = mListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onKeyClick(this, key);
+        }
+        if (mStats != null) {
+            recordDispatch(start);
+        }
+        if (mShowPressMode == HIGHLIGHT_ON_KEY_CLICK && key < mNumberOfKeys) {
+            if (!keyIsPressed(key)) {
+                showKeyPressed(key);
+            }
+            else {
+                showKeyNotPressed(key);
+            }
+        }
+    }
+
+    /**
+     * Draws the background around the piano.
+     */
+    private void drawBackground(Canvas canvas) {
+        mPianoBackground.draw(canvas);
+    }
+
+    /**
+     * Draws the white keys.
+     */
+    private void drawWhiteKeys(Canvas canvas) {
+        for (int i = 0; i < mGeometry.numberOfWhiteKeys; i++) {
+            final int keyIx = mGeometry.whiteKeys[i];
+            if (keyIntersectsClip(keyIx)) {
+                mPianoKeys.get(keyIx).draw(canvas);
+            }
+        }
+    }
+
+    /**
+     * Draws the black keys.
+     */
+    private void drawBlackKeys(Canvas canvas) {
+        for (int i = 0; i < mGeometry.numberOfBlackKeys; i++) {
+            final int keyIx = mGeometry.blackKeys[i];
+            if (keyIntersectsClip(keyIx)) {
+                mPianoKeys.get(keyIx).draw(canvas);
+            }
+        }
+    }
+
+    /**
+     * Draws every key with {@link #mKeyPainter}; white keys first, then black keys.
+     *
+     * @param pressed Keys to draw in the pressed color, or null to draw every key in its idle color.
+     * @param clip    Keys outside of these bounds are skipped; null to draw every key.
+     */
+    private void drawKeysWithPainter(Canvas canvas, PianoKeyBitSet pressed, Rect clip) {
+        mKeyPainter.drawKeys(
+                canvas,
+                mGeometry,
+                mGeometry.whiteKeys,
+                mGeometry.numberOfWhiteKeys,
+                pressed,
+                mWhiteKeyColor,
+                mPressedKeyColor,
+                clip);
+        mKeyPainter.drawKeys(
+                canvas,
+                mGeometry,
+                mGeometry.blackKeys,
+                mGeometry.numberOfBlackKeys,
+                pressed,
+                mBlackKeyColor,
+                mPressedKeyColor,
+                clip);
+    }
+
+    /**
+     * Draws a single key in its current color.
+     */
+    private void drawKey(Canvas canvas, int keyIx) {
+        if (mKeyRenderMode == RENDER_MODE_CANVAS) {
+            mKeyPainter.drawKey(canvas, mGeometry, keyIx, getKeyFillColor(keyIx));
+        }
+        else {
+            mPianoKeys.get(keyIx).draw(canvas);
+        }
+    }
+
+    /**
+     * Makes sure the idle keyboard layer is up to date.
+     *
+     * @return False if the layer can't be cached, and the keys have to be drawn directly.
+     */
+    private boolean prepareLayerCache(Canvas canvas) {
+        if (!mHasLayout || !mLayerCache.canCache(canvas, getWidth(), getHeight())) {
+            mLayerCache.release();
+            return false;
+        }
+        if (!mLayerCache.isValid()) {
+            final Canvas layer = mLayerCache.beginBuild(canvas, getWidth(), getHeight());
+            if (mKeyStrokeWidth > 0) {
+                drawBackground(layer);
+            }
+            // Draw every key in its idle color
+            if (mKeyRenderMode == RENDER_MODE_CANVAS) {
+                drawKeysWithPainter(layer, null, null);
+            }
+            else {
+                for (int i = mShownKeys.first(); i != -1; i = mShownKeys.next(i + 1)) {
+                    setKeyDrawableColor(i, isWhiteKey(i) ? mWhiteKeyColor : mBlackKeyColor);
+                }
+                for (int i = 0; i < mGeometry.numberOfWhiteKeys; i++) {
+                    mPianoKeys.get(mGeometry.whiteKeys[i]).draw(layer);
+                }
+                for (int i = 0; i < mGeometry.numberOfBlackKeys; i++) {
+                    mPianoKeys.get(mGeometry.blackKeys[i]).draw(layer);
+                }
+                for (int i = mShownKeys.first(); i != -1; i = mShownKeys.next(i + 1)) {
+                    setKeyDrawableColor(i, mPressedKeyColor);
+                }
+            }
+            mLayerCache.endBuild();
+        }
+        return true;
+    }
+
+    /**
+     * Draws the pressed keys on top of the idle keyboard layer,
+     * along with any black keys that overlap pressed white keys.
+     */
+    private void drawPressedKeys(Canvas canvas) {
+        mOverlayBlackKeys.clear();
+        for (int keyIx = mShownKeys.first(); keyIx != -1; keyIx = mShownKeys.next(keyIx + 1)) {
+            if (!isWhiteKey(keyIx)) {
+                mOverlayBlackKeys.add(keyIx);
+                continue;
+            }
+            if (keyIntersectsClip(keyIx)) {
+                drawKey(canvas, keyIx);
+            }
+            if (keyIx > 0 && !isWhiteKey(keyIx - 1)) {
+                mOverlayBlackKeys.add(keyIx - 1);
+            }
+            if (keyIx < mNumberOfKeys - 1 && !isWhiteKey(keyIx + 1)) {
+                mOverlayBlackKeys.add(keyIx + 1);
+            }
+        }
+        for (int keyIx = mOverlayBlackKeys.first(); keyIx != -1; keyIx = mOverlayBlackKeys.next(keyIx + 1)) {
+            if (keyIntersectsClip(keyIx)) {
+                drawKey(canvas, keyIx);
+            }
+        }
+    }
+
+    /**
+     * Checks if a key is at least partly inside the clip bounds of the current draw.
+     * Keys are skipped while drawing if they are not, since nothing they draw would be visible.
+     */
+    private boolean keyIntersectsClip(int keyIx) {
+        return mClipBounds.intersects(
+                mGeometry.left[keyIx],
+                mGeometry.top[keyIx],
+                mGeometry.right[keyIx],
+                mGeometry.bottom[keyIx]);
+    }
+
+    /**
+     * Adds the bounds of a key to the dirty region.
+     * Call {@link #invalidateDirtyRegion()} to redraw the region.
+     * <p>
+     * Keys overlap each other (black keys over white keys, and every key over its neighbours'
+     * stroke), so every key that overlaps a dirty key is redrawn along with it in {@link #onDraw(Canvas)}.
+     */
+    private void markKeyDirty(int keyIx) {
+        mDirtyRegion.union(
+                mGeometry.left[keyIx],
+                mGeometry.top[keyIx],
+                mGeometry.right[keyIx],
+                mGeometry.bottom[keyIx]);
+    }
+
+    /**
+     * Invalidates the union of the keys marked by {@link #markKeyDirty(int)} since the last draw.
+     */
+    private void invalidateDirtyRegion() {
+        if (!mDirtyRegion.isEmpty()) {
+            if (mStats != null) {
+                mStats.recordInvalidate();
+            }
+            invalidate(mDirtyRegion);
+        }
+    }
+
+    /**
+     * Invalidates the whole view.
+     */
+    private void invalidateView() {
+        if (mStats != null) {
+            mStats.recordInvalidate();
+        }
+        invalidate();
     }
 
     /**
@@ -975,6 +2084,16 @@ public class PianoView extends View {
                 R.styleable.PianoView_enableMultiKeyHighlighting,
                 true
         );
+        mCacheKeyboardLayer = attrs.getBoolean(
+                R.styleable.PianoView_cacheKeyboardLayer,
+                false
+        );
+        mKeyRenderMode = attrs.getInt(
+                R.styleable.PianoView_keyRenderMode,
+                RENDER_MODE_DRAWABLES
+        );
+        mKeyPainter.setStroke(mKeyStrokeWidth, mKeyStrokeColor);
+        mKeyPainter.setCornerRadius(mKeyCornerRadius);
     }
 
     /**
@@ -983,16 +2102,7 @@ public class PianoView extends View {
      * @param numberOfKeys The total number of keys.
      */
     private void findNumberOfWhiteAndBlackKeys(int numberOfKeys) {
-        mNumberOfWhiteKeys = 0;
-        mNumberOfBlackKeys = 0;
-        for (int i = 0; i < numberOfKeys; i++) {
-            if (isWhiteKey(i)) {
-                mNumberOfWhiteKeys++;
-            }
-            else {
-                mNumberOfBlackKeys++;
-            }
-        }
+        mGeometry.setNumberOfKeys(numberOfKeys);
     }
 
     /**
@@ -1001,7 +2111,7 @@ public class PianoView extends View {
      * @param ix Index of the key to check.
      */
     private boolean isWhiteKey(int ix) {
-        return isWhiteKey[ix % NOTES_PER_OCTAVE];
+        return mGeometry.isWhite[ix];
     }
 
     /**
@@ -1017,104 +2127,332 @@ public class PianoView extends View {
      * Calculates the dimensions of the keys based on the total width and height.
      */
     private void calculatePianoKeyDimensions() {
+        final int numberOfWhiteKeys = mGeometry.numberOfWhiteKeys;
         // The rightmost key is white
         if (rightMostKeyIsWhite()) {
             mWhiteKeyWidth =
-                    (mWidth + (mNumberOfWhiteKeys - 1) * mKeyStrokeWidth) / mNumberOfWhiteKeys;
+                    (mWidth + (numberOfWhiteKeys - 1) * mKeyStrokeWidth) / numberOfWhiteKeys;
             mBlackKeyWidth =
                     Math.round(mWhiteKeyWidth * mBlackKeyWidthScale);
             mViewWidthRemainder =
-                    mWidth - (mWhiteKeyWidth * mNumberOfWhiteKeys - mKeyStrokeWidth * (mNumberOfWhiteKeys - 1));
+                    mWidth - (mWhiteKeyWidth * numberOfWhiteKeys - mKeyStrokeWidth * (numberOfWhiteKeys - 1));
         }
         // The rightmost key is black
         else {
             // todo: explain the math
             // some math, but it works
-            float ans = (((2 * mWidth) + (2 * mNumberOfWhiteKeys * mKeyStrokeWidth) - mKeyStrokeWidth) / (2 * mNumberOfWhiteKeys + mBlackKeyWidthScale));
+            float ans = (((2 * mWidth) + (2 * numberOfWhiteKeys * mKeyStrokeWidth) - mKeyStrokeWidth) / (2 * numberOfWhiteKeys + mBlackKeyWidthScale));
             mWhiteKeyWidth = (int) ans;
             mBlackKeyWidth =
                     Math.round(mWhiteKeyWidth * mBlackKeyWidthScale);
             mViewWidthRemainder =
-                    mWidth - ((mWhiteKeyWidth * mNumberOfWhiteKeys - (mKeyStrokeWidth * (mNumberOfWhiteKeys - 1))) + ((mBlackKeyWidth / 2) - mKeyStrokeWidth / 2));
+                    mWidth - ((mWhiteKeyWidth * numberOfWhiteKeys - (mKeyStrokeWidth * (numberOfWhiteKeys - 1))) + ((mBlackKeyWidth / 2) - mKeyStrokeWidth / 2));
         }
         mWhiteKeyHeight = mHeight;
         mBlackKeyHeight = Math.round(mWhiteKeyHeight * mBlackKeyHeightScale);
     }
 
     /**
-     * Constructs the key drawables based on the calculated key dimensions.
+     * Lays out the keys based on the calculated key dimensions,
+     * and updates the key drawables if they are used.
+     * <p>
+     * Key drawables are reused; new ones are only created when the number of keys
+     * grows past the number of drawables that were created before.
      */
     private void constructPianoKeyLayout() {
-        mPianoKeys.clear();
-        // todo: might be a better way of doing this
-        for (int i = 0; i < mNumberOfKeys; i++) {
-            mPianoKeys.add(null);
-        }
-        for (int i = mNumberOfKeys; i < mPrevNumberOfKeys; i++) {
-            mPressedKeys.remove(i);
-        }
-
-        int left = 0;
-        // todo: update the math in this comment
-        // This view divides it's width by 7. So if the width isn't divisible by 7
-        // there would be unused space in the view.
-        // For this reason, whiteKeyWidth has 1 added to it, and 1 removed from it after the
-        // remainder has been added in.
-
-        mWhiteKeyWidth++;
-        for (int i = 0; i < mNumberOfWhiteKeys; i++) {
-            if (i == mViewWidthRemainder) {
-                mWhiteKeyWidth--;
-            }
-            final int keyIx = whiteKeyIxs[i % whiteKeyIxs.length] + (i / whiteKeyIxs.length) * NOTES_PER_OCTAVE;
-            final int keyFillColor;
-            if (keyIsPressed(keyIx)) {
-                keyFillColor = mPressedKeyColor;
-            }
-            else {
-                keyFillColor = mWhiteKeyColor;
-            }
-            final GradientDrawable pianoKey = makePianoKey(keyFillColor, mKeyStrokeWidth, mKeyStrokeColor, mKeyCornerRadius);
-            pianoKey.setBounds(left, 0, left + mWhiteKeyWidth, mWhiteKeyHeight);
-            mPianoKeys.set(keyIx, pianoKey);
-            left += mWhiteKeyWidth - mKeyStrokeWidth;
-        }
-
-        for (int i = 0; i < mNumberOfBlackKeys; i++) {
-            final int keyIx = blackKeyIxs[i % blackKeyIxs.length] + (i / blackKeyIxs.length) * NOTES_PER_OCTAVE;
-            GradientDrawable whiteKey = mPianoKeys.get(keyIx - 1);
-            left = whiteKey.getBounds().right - (mBlackKeyWidth / 2) - (mKeyStrokeWidth / 2);
-            final int keyFillColor;
-            if (keyIsPressed(keyIx)) {
-                keyFillColor = mPressedKeyColor;
+        mHasLayout = true;
+        if (mStats != null) {
+            mStats.recordRelayout();
+        }
+        mLayerCache.invalidate();
+        mPressedKeys.retainBelow(mNumberOfKeys);
+        mPressedKeysSnapshot.publish(mPressedKeys.lo, mPressedKeys.hi);
+        if (mHighlightCoalescer != null) {
+            mHighlightCoalescer.retainBelow(mNumberOfKeys);
+        }
+
+        mGeometry.layout(
+                mWidth,
+                mWhiteKeyWidth,
+                mWhiteKeyHeight,
+                mBlackKeyWidth,
+                mBlackKeyHeight,
+                mKeyStrokeWidth,
+                mViewWidthRemainder
+        );
+        mTouchTracker.onLayoutChanged();
+        if (mKeyRenderMode == RENDER_MODE_DRAWABLES) {
+            for (int keyIx = 0; keyIx < mNumberOfKeys; keyIx++) {
+                if (keyIx == mPianoKeys.size()) {
+                    final int keyFillColor = getKeyFillColor(keyIx);
+                    mPianoKeys.add(makePianoKey(keyFillColor, mKeyStrokeWidth, mKeyStrokeColor, mKeyCornerRadius));
+                    mPianoKeyColors[keyIx] = keyFillColor;
+                }
+                else {
+                    if (mStats != null) {
+                        mStats.recordAllocationAvoided();
+                    }
+                    updateKeyColor(keyIx);
+                }
+                updateKeyDrawableBounds(keyIx);
             }
-            else {
-                keyFillColor = mBlackKeyColor;
+        }
+        else {
+            mPianoKeys.clear();
+        }
+        updateBackgroundBounds();
+    }
+
+    /**
+     * Updates only the vertical extents of the keys, after the view height or the
+     * black key height scale changed. The horizontal layout is left as is.
+     */
+    private void constructPianoKeyHeights() {
+        if (mStats != null) {
+            mStats.recordRelayout();
+        }
+        mLayerCache.invalidate();
+        mWhiteKeyHeight = mHeight;
+        mBlackKeyHeight = Math.round(mWhiteKeyHeight * mBlackKeyHeightScale);
+        mGeometry.setKeyHeights(mWhiteKeyHeight, mBlackKeyHeight);
+        mTouchTracker.onLayoutChanged();
+        if (mKeyRenderMode == RENDER_MODE_DRAWABLES) {
+            for (int keyIx = 0; keyIx < mNumberOfKeys; keyIx++) {
+                updateKeyDrawableBounds(keyIx);
             }
-            final GradientDrawable pianoKey = makePianoKey(keyFillColor, mKeyStrokeWidth, mKeyStrokeColor, mKeyCornerRadius);
-            pianoKey.setBounds(left, 0, left + mBlackKeyWidth, mBlackKeyHeight);
-            mPianoKeys.set(keyIx, pianoKey);
         }
-        // Sometimes there is 1 extra pixel on the end, and I have no idea why.
-        // This will clip the rightmost keys it doesn't go over the bounds
-        mPianoKeys.get(mNumberOfKeys - 1).getBounds().right =
-                Math.min(mPianoKeys.get(mNumberOfKeys - 1).getBounds().right, mWidth);
+        updateBackgroundBounds();
+    }
 
-        // Piano Background
-        mPianoBackground.setCornerRadius(mKeyCornerRadius);
-        mPianoBackground.setColor(mKeyStrokeColor);
+    private void updateKeyDrawableBounds(int keyIx) {
+        mPianoKeys.get(keyIx).setBounds(
+                mGeometry.left[keyIx],
+                mGeometry.top[keyIx],
+                mGeometry.right[keyIx],
+                mGeometry.bottom[keyIx]);
+    }
+
+    private void updateBackgroundBounds() {
         if (isWhiteKey(mNumberOfKeys - 1)) {
             mPianoBackground.setBounds(0, 0, getWidth(), getHeight());
         }
         else {
-            mPianoBackground.setBounds(0, 0, mPianoKeys.get(mNumberOfKeys - 2).getBounds().right, getHeight());
+            mPianoBackground.setBounds(0, 0, mGeometry.right[mNumberOfKeys - 2], getHeight());
+        }
+    }
+
+    /**
+     * A batch of style changes for PianoView. See {@link #edit()}.
+     * Each method mirrors the PianoView setter with the same name.
+     */
+    public class Editor {
+
+        private boolean mHasNumberOfKeys;
+        private boolean mHasBlackKeyWidthScale;
+        private boolean mHasBlackKeyHeightScale;
+        private boolean mHasWhiteKeyColor;
+        private boolean mHasBlackKeyColor;
+        private boolean mHasPressedKeyColor;
+        private boolean mHasKeyStrokeColor;
+        private boolean mHasKeyStrokeWidth;
+        private boolean mHasKeyCornerRadius;
+
+        private int mNewNumberOfKeys;
+        private float mNewBlackKeyWidthScale;
+        private float mNewBlackKeyHeightScale;
+        private int mNewWhiteKeyColor;
+        private int mNewBlackKeyColor;
+        private int mNewPressedKeyColor;
+        private int mNewKeyStrokeColor;
+        private int mNewKeyStrokeWidth;
+        private int mNewKeyCornerRadius;
+
+        private Editor() {
+        }
+
+        /**
+         * See {@link PianoView#setNumberOfKeys(int)}.
+         */
+        public Editor numberOfKeys(int numberOfKeys) {
+            mHasNumberOfKeys = true;
+            mNewNumberOfKeys = numberOfKeys;
+            return this;
+        }
+
+        /**
+         * See {@link PianoView#setBlackKeyWidthScale(float)}.
+         */
+        public Editor blackKeyWidthScale(float scale) {
+            mHasBlackKeyWidthScale = true;
+            mNewBlackKeyWidthScale = scale;
+            return this;
+        }
+
+        /**
+         * See {@link PianoView#setBlackKeyHeightScale(float)}.
+         */
+        public Editor blackKeyHeightScale(float scale) {
+            mHasBlackKeyHeightScale = true;
+            mNewBlackKeyHeightScale = scale;
+            return this;
+        }
+
+        /**
+         * See {@link PianoView#setWhiteKeyColor(int)}.
+         */
+        public Editor whiteKeyColor(int color) {
+            mHasWhiteKeyColor = true;
+            mNewWhiteKeyColor = color;
+            return this;
+        }
+
+        /**
+         * See {@link PianoView#setBlackKeyColor(int)}.
+         */
+        public Editor blackKeyColor(int color) {
+            mHasBlackKeyColor = true;
+            mNewBlackKeyColor = color;
+            return this;
+        }
+
+        /**
+         * See {@link PianoView#setPressedKeyColor(int)}.
+         */
+        public Editor pressedKeyColor(int color) {
+            mHasPressedKeyColor = true;
+            mNewPressedKeyColor = color;
+            return this;
+        }
+
+        /**
+         * See {@link PianoView#setKeyStrokeColor(int)}.
+         */
+        public Editor keyStrokeColor(int color) {
+            mHasKeyStrokeColor = true;
+            mNewKeyStrokeColor = color;
+            return this;
+        }
+
+        /**
+         * See {@link PianoView#setKeyStrokeWidth(int)}.
+         */
+        public Editor keyStrokeWidth(int width) {
+            mHasKeyStrokeWidth = true;
+            mNewKeyStrokeWidth = width;
+            return this;
+        }
+
+        /**
+         * See {@link PianoView#setKeyCornerRadius(int)}.
+         */
+        public Editor keyCornerRadius(int radius) {
+            mHasKeyCornerRadius = true;
+            mNewKeyCornerRadius = radius;
+            return this;
+        }
+
+        /**
+         * Validates and applies every change in this batch.
+         * If any value is invalid, an IllegalArgumentException is thrown and nothing is changed.
+         */
+        public void apply() {
+            if (mHasNumberOfKeys) {
+                checkNumberOfKeys(mNewNumberOfKeys);
+            }
+            if (mHasBlackKeyWidthScale) {
+                checkBlackKeyScale("blackKeyWidthScale", mNewBlackKeyWidthScale);
+            }
+            if (mHasBlackKeyHeightScale) {
+                checkBlackKeyScale("blackKeyHeightScale", mNewBlackKeyHeightScale);
+            }
+
+            boolean widthsChanged = false;
+            boolean heightsChanged = false;
+            boolean strokeChanged = false;
+            boolean colorsChanged = false;
+
+            if (mHasNumberOfKeys && mNewNumberOfKeys != mNumberOfKeys) {
+                mNumberOfKeys = mNewNumberOfKeys;
+                widthsChanged = true;
+            }
+            if (mHasBlackKeyWidthScale && mNewBlackKeyWidthScale != mBlackKeyWidthScale) {
+                mBlackKeyWidthScale = mNewBlackKeyWidthScale;
+                widthsChanged = true;
+            }
+            if (mHasBlackKeyHeightScale && mNewBlackKeyHeightScale != mBlackKeyHeightScale) {
+                mBlackKeyHeightScale = mNewBlackKeyHeightScale;
+                heightsChanged = true;
+            }
+            if (mHasKeyStrokeWidth && mNewKeyStrokeWidth != mKeyStrokeWidth) {
+                mKeyStrokeWidth = mNewKeyStrokeWidth;
+                // The stroke of the keys overlap, so it requires recalculation
+                widthsChanged = true;
+                strokeChanged = true;
+            }
+            if (mHasKeyStrokeColor && mNewKeyStrokeColor != mKeyStrokeColor) {
+                mKeyStrokeColor = mNewKeyStrokeColor;
+                mPianoBackground.setColor(mKeyStrokeColor);
+                strokeChanged = true;
+            }
+            if (mHasKeyCornerRadius && mNewKeyCornerRadius != mKeyCornerRadius) {
+                mKeyCornerRadius = mNewKeyCornerRadius;
+                mKeyPainter.setCornerRadius(mKeyCornerRadius);
+                mPianoBackground.setCornerRadius(mKeyCornerRadius);
+                for (GradientDrawable pianoKey : mPianoKeys) {
+                    pianoKey.setCornerRadius(mKeyCornerRadius);
+                }
+                colorsChanged = true;
+            }
+            if (mHasWhiteKeyColor && mNewWhiteKeyColor != mWhiteKeyColor) {
+                mWhiteKeyColor = mNewWhiteKeyColor;
+                colorsChanged = true;
+            }
+            if (mHasBlackKeyColor && mNewBlackKeyColor != mBlackKeyColor) {
+                mBlackKeyColor = mNewBlackKeyColor;
+                colorsChanged = true;
+            }
+            if (mHasPressedKeyColor && mNewPressedKeyColor != mPressedKeyColor) {
+                mPressedKeyColor = mNewPressedKeyColor;
+                colorsChanged = true;
+            }
+            if (strokeChanged) {
+                mKeyPainter.setStroke(mKeyStrokeWidth, mKeyStrokeColor);
+                for (GradientDrawable pianoKey : mPianoKeys) {
+                    pianoKey.setStroke(mKeyStrokeWidth, mKeyStrokeColor);
+                }
+            }
+            if (!widthsChanged && !heightsChanged && !strokeChanged && !colorsChanged) {
+                return;
+            }
+            mLayerCache.invalidate();
+            if (!mHasLayout) {
+                return;
+            }
+            if (widthsChanged) {
+                findNumberOfWhiteAndBlackKeys(mNumberOfKeys);
+                calculatePianoKeyDimensions();
+                // Also updates the key colors
+                constructPianoKeyLayout();
+            }
+            else {
+                if (heightsChanged) {
+                    constructPianoKeyHeights();
+                }
+                if (colorsChanged && mKeyRenderMode == RENDER_MODE_DRAWABLES) {
+                    for (int keyIx = 0; keyIx < mNumberOfKeys; keyIx++) {
+                        updateKeyColor(keyIx);
+                    }
+                }
+            }
+            invalidateView();
         }
     }
 
     // todo: add field for enableMultiHighlight
     private static class SavedState extends BaseSavedState {
 
-        int[] mPressedKeys;
+        long mPressedKeysLo;
+        long mPressedKeysHi;
         int mShowPressMode;
         int mEnableMultiKeyHighlighting;
 
@@ -1137,28 +2475,30 @@ public class PianoView extends View {
         private SavedState(Parcel in) {
             super(in);
 
-            in.readIntArray(mPressedKeys);
-            in.readInt();    // mShowPressMode
-            in.readInt();    // mEnabledMultiKeyHighlighting
+            mPressedKeysLo = in.readLong();
+            mPressedKeysHi = in.readLong();
+            mShowPressMode = in.readInt();
+            mEnableMultiKeyHighlighting = in.readInt();
 
-            in.readInt();    // mNumberOfKeys
-            in.readInt();    // mWhiteKeyColor
-            in.readInt();    // mBlackKeyColor
-            in.readInt();    // mKeyPressedColor
-            in.readInt();    // mKeyStrokeColor
+            mNumberOfKeys = in.readInt();
+            mWhiteKeyColor = in.readInt();
+            mBlackKeyColor = in.readInt();
+            mPressedKeyColor = in.readInt();
+            mKeyStrokeColor = in.readInt();
 
-            in.readInt();    // mKeyCornerRadius
-            in.readInt();    // mKeyStrokeWidth
+            mKeyCornerRadius = in.readInt();
+            mKeyStrokeWidth = in.readInt();
 
-            in.readFloat();  // mBlackKeyWidthScale
-            in.readFloat();  // mBlackKeyHeightScale
+            mBlackKeyWidthScale = in.readFloat();
+            mBlackKeyHeightScale = in.readFloat();
         }
 
         @Override
         public void writeToParcel(Parcel out, int flags) {
             super.writeToParcel(out, flags);
 
-            out.writeIntArray(mPressedKeys);
+            out.writeLong(mPressedKeysLo);
+            out.writeLong(mPressedKeysHi);
             out.writeInt(mShowPressMode);
             out.writeInt(mEnableMultiKeyHighlighting);
 
@@ -0,0 +1,133 @@
+package com.convergencelabstfx.pianoview;
+
+/**
+ * Timing and work counters of a {@link PianoView}, see {@link PianoView#setMetricsEnabled(boolean)}.
+ * <p>
+ * The timings are:
+ * <ul>
+ * <li>{@link #getEventLatency()}: from {@link android.view.MotionEvent#getEventTime()} until a key event
+ * is handed to the {@link PianoTouchListener}s. Event times only have millisecond precision.</li>
+ * <li>{@link #getHitTestTime()}: time the touch tracking of a MotionEvent takes to find the keys
+ * touched, not counting what is done with the resulting key events (listeners, recoloring, invalidation).</li>
+ * <li>{@link #getListenerDispatchTime()}: time spent in the listeners for a single key event.</li>
+ * <li>{@link #getDrawTime()}: time spent in onDraw.</li>
+ * </ul>
+ */
+public final class PianoViewStats {
+
+    private final PianoLatencyHistogram mEventLatency = new PianoLatencyHistogram();
+    private final PianoLatencyHistogram mHitTestTime = new PianoLatencyHistogram();
+    private final PianoLatencyHistogram mListenerDispatchTime = new PianoLatencyHistogram();
+    private final PianoLatencyHistogram mDrawTime = new PianoLatencyHistogram();
+
+    private long mRelayoutCount;
+    private long mInvalidateCount;
+    private long mAllocationsAvoidedCount;
+    private long mKeyColorUpdateCount;
+    private long mHighlightFrameCount;
+
+    public PianoViewStats() {
+    }
+
+    /**
+     * Copies another set of stats into this one.
+     */
+    public void set(PianoViewStats other) {
+        mEventLatency.copyFrom(other.mEventLatency);
+        mHitTestTime.copyFrom(other.mHitTestTime);
+        mListenerDispatchTime.copyFrom(other.mListenerDispatchTime);
+        mDrawTime.copyFrom(other.mDrawTime);
+        mRelayoutCount = other.mRelayoutCount;
+        mInvalidateCount = other.mInvalidateCount;
+        mAllocationsAvoidedCount = other.mAllocationsAvoidedCount;
+        mKeyColorUpdateCount = other.mKeyColorUpdateCount;
+        mHighlightFrameCount = other.mHighlightFrameCount;
+    }
+
+    void reset() {
+        mEventLatency.reset();
+        mHitTestTime.reset();
+        mListenerDispatchTime.reset();
+        mDrawTime.reset();
+        mRelayoutCount = 0;
+        mInvalidateCount = 0;
+        mAllocationsAvoidedCount = 0;
+        mKeyColorUpdateCount = 0;
+        mHighlightFrameCount = 0;
+    }
+
+    void recordRelayout() {
+        mRelayoutCount++;
+    }
+
+    void recordInvalidate() {
+        mInvalidateCount++;
+    }
+
+    void recordAllocationAvoided() {
+        mAllocationsAvoidedCount++;
+    }
+
+    void recordKeyColorUpdate() {
+        mKeyColorUpdateCount++;
+    }
+
+    void recordHighlightFrame() {
+        mHighlightFrameCount++;
+    }
+
+    public PianoLatencyHistogram getEventLatency() {
+        return mEventLatency;
+    }
+
+    public PianoLatencyHistogram getHitTestTime() {
+        return mHitTestTime;
+    }
+
+    public PianoLatencyHistogram getListenerDispatchTime() {
+        return mListenerDispatchTime;
+    }
+
+    public PianoLatencyHistogram getDrawTime() {
+        return mDrawTime;
+    }
+
+    /**
+     * Returns the number of times the keys were laid out (fully, or only their heights).
+     */
+    public long getRelayoutCount() {
+        return mRelayoutCount;
+    }
+
+    /**
+     * Returns the number of times the view was invalidated, fully or partially.
+     */
+    public long getInvalidateCount() {
+        return mInvalidateCount;
+    }
+
+    /**
+     * Returns the number of allocations that were skipped;
+     * key drawables reused on relayout, and key color updates that were skipped
+     * because the color didn't change (each of which would allocate a ColorStateList).
+     */
+    public long getAllocationsAvoidedCount() {
+        return mAllocationsAvoidedCount;
+    }
+
+    /**
+     * Returns the number of times a key was recolored, e.g. because its pressed state changed.
+     */
+    public long getKeyColorUpdateCount() {
+        return mKeyColorUpdateCount;
+    }
+
+    /**
+     * Returns the number of frames in which coalesced highlight changes were applied,
+     * see {@link PianoView#setFrameCoalescingEnabled(boolean)}.
+     */
+    public long getHighlightFrameCount() {
+        return mHighlightFrameCount;
+    }
+
+}
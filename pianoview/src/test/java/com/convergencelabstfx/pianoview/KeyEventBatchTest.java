@@ -0,0 +1,39 @@
+package com.convergencelabstfx.pianoview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link KeyEventBatch}.
+ */
+public class KeyEventBatchTest {
+
+    @Test
+    public void growsAndIsReusable() {
+        final KeyEventBatch batch = new KeyEventBatch();
+        batch.clear(KeyEventBatch.SOURCE_TOUCH);
+        for (int i = 0; i < 100; i++) {
+            batch.add(KeyEventBatch.TYPE_KEY_DOWN, i % 88, i % 10, 1000 + i);
+        }
+        assertEquals(100, batch.size());
+        assertEquals(KeyEventBatch.SOURCE_TOUCH, batch.getSource());
+        assertEquals(99 % 88, batch.getKey(99));
+        assertEquals(9, batch.getPointerId(99));
+        assertEquals(1099, batch.getTime(99));
+
+        batch.clear(KeyEventBatch.SOURCE_PRESSED_KEYS_UPDATE);
+        batch.add(KeyEventBatch.TYPE_KEY_UP, 5, KeyEventBatch.NO_POINTER, 7);
+        assertEquals(1, batch.size());
+        assertEquals(KeyEventBatch.SOURCE_PRESSED_KEYS_UPDATE, batch.getSource());
+        assertEquals(KeyEventBatch.TYPE_KEY_UP, batch.getType(0));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsIndexPastSize() {
+        final KeyEventBatch batch = new KeyEventBatch();
+        batch.add(KeyEventBatch.TYPE_KEY_DOWN, 1, 0, 0);
+        batch.getKey(1);
+    }
+
+}
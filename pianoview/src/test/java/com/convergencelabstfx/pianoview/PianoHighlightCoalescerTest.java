@@ -0,0 +1,76 @@
+package com.convergencelabstfx.pianoview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PianoHighlightCoalescer}.
+ */
+public class PianoHighlightCoalescerTest {
+
+    private final PianoKeyBitSet mChanged = new PianoKeyBitSet();
+
+    @Test
+    public void showsOnlyStateAtFrame() {
+        final PianoHighlightCoalescer coalescer = new PianoHighlightCoalescer(0b1, 0, 0);
+        // Key 0 released and pressed again, key 1 pressed, key 2 pressed and released
+        coalescer.keysPressed(0b111, 0);
+        assertFalse(coalescer.onFrame(0b11, 0, mChanged));
+        assertEquals(0b10, mChanged.lo);
+        assertEquals(0b11, coalescer.getShownKeys().lo);
+    }
+
+    @Test
+    public void holdsKeysForMinimumFrames() {
+        final PianoHighlightCoalescer coalescer = new PianoHighlightCoalescer(0, 0, 2);
+        // Key 64 pressed and released before the frame
+        coalescer.keyPressed(64);
+        assertTrue(coalescer.onFrame(0, 0, mChanged));
+        assertEquals(1, mChanged.hi);
+        assertTrue(coalescer.getShownKeys().contains(64));
+
+        // Still shown, so the next frame is needed to release it
+        assertTrue(coalescer.onFrame(0, 0, mChanged));
+        assertTrue(mChanged.isEmpty());
+        assertTrue(coalescer.getShownKeys().contains(64));
+
+        assertFalse(coalescer.onFrame(0, 0, mChanged));
+        assertEquals(1, mChanged.hi);
+        assertTrue(coalescer.getShownKeys().isEmpty());
+    }
+
+    @Test
+    public void requestsFrameToReleaseLastHeldFrame() {
+        final PianoHighlightCoalescer coalescer = new PianoHighlightCoalescer(0, 0, 1);
+        coalescer.keyPressed(5);
+        assertTrue(coalescer.onFrame(0, 0, mChanged));
+        assertTrue(coalescer.getShownKeys().contains(5));
+        assertFalse(coalescer.onFrame(0, 0, mChanged));
+        assertEquals(1 << 5, mChanged.lo);
+        assertTrue(coalescer.getShownKeys().isEmpty());
+    }
+
+    @Test
+    public void pressedKeyOutlastsHold() {
+        final PianoHighlightCoalescer coalescer = new PianoHighlightCoalescer(0, 0, 1);
+        coalescer.keyPressed(3);
+        assertFalse(coalescer.onFrame(0b1000, 0, mChanged));
+        assertFalse(coalescer.onFrame(0b1000, 0, mChanged));
+        assertTrue(mChanged.isEmpty());
+        assertTrue(coalescer.getShownKeys().contains(3));
+    }
+
+    @Test
+    public void flushDropsHeldKeys() {
+        final PianoHighlightCoalescer coalescer = new PianoHighlightCoalescer(0, 0, 5);
+        coalescer.keyPressed(7);
+        assertTrue(coalescer.onFrame(0, 0, mChanged));
+        coalescer.flush(0, 0, mChanged);
+        assertEquals(1 << 7, mChanged.lo);
+        assertTrue(coalescer.getShownKeys().isEmpty());
+        assertFalse(coalescer.onFrame(0, 0, mChanged));
+        assertTrue(mChanged.isEmpty());
+    }
+
+}
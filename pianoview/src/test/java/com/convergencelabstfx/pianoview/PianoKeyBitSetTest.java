@@ -0,0 +1,102 @@
+package com.convergencelabstfx.pianoview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PianoKeyBitSet}.
+ */
+public class PianoKeyBitSetTest {
+
+    @Test
+    public void addRemoveContains() {
+        final PianoKeyBitSet set = new PianoKeyBitSet();
+        set.add(0);
+        set.add(63);
+        set.add(64);
+        set.add(87);
+        assertTrue(set.contains(0));
+        assertTrue(set.contains(63));
+        assertTrue(set.contains(64));
+        assertTrue(set.contains(87));
+        assertFalse(set.contains(1));
+        assertFalse(set.contains(-1));
+        assertEquals(4, set.size());
+        set.remove(63);
+        assertFalse(set.contains(63));
+        assertEquals(3, set.size());
+    }
+
+    @Test
+    public void iteratesInAscendingOrder() {
+        final PianoKeyBitSet set = new PianoKeyBitSet();
+        final int[] keys = new int[]{3, 40, 63, 64, 70, 127};
+        for (int key : keys) {
+            set.add(key);
+        }
+        int i = 0;
+        for (int key = set.first(); key != -1; key = set.next(key + 1)) {
+            assertEquals(keys[i++], key);
+            set.remove(key);
+        }
+        assertEquals(keys.length, i);
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    public void retainBelowDropsHighKeys() {
+        final PianoKeyBitSet set = new PianoKeyBitSet();
+        set.add(5);
+        set.add(30);
+        set.add(80);
+        set.retainBelow(70);
+        assertTrue(set.contains(30));
+        assertFalse(set.contains(80));
+        set.retainBelow(30);
+        assertTrue(set.contains(5));
+        assertFalse(set.contains(30));
+    }
+
+    @Test
+    public void retainSinglePrefersNewerKeys() {
+        final PianoKeyBitSet set = new PianoKeyBitSet();
+        // Key 20 pressed while key 10 is shown
+        set.set(1L << 10 | 1L << 20, 0);
+        set.retainSingle(1L << 10, 0);
+        assertEquals(1L << 20, set.lo);
+        assertEquals(0, set.hi);
+        // A newer key above 63 beats an older lower key
+        set.set(1L << 10, 1L << 5);
+        set.retainSingle(1L << 10, 0);
+        assertEquals(0, set.lo);
+        assertEquals(1L << 5, set.hi);
+        // The lowest of several newer keys
+        set.set(1L << 10 | 1L << 30 | 1L << 40, 1L);
+        set.retainSingle(1L << 10, 0);
+        assertEquals(1L << 30, set.lo);
+        assertEquals(0, set.hi);
+    }
+
+    @Test
+    public void retainSingleKeepsOlderKeyWithoutNewerKeys() {
+        final PianoKeyBitSet set = new PianoKeyBitSet();
+        set.set(1L << 10, 0);
+        set.retainSingle(1L << 10, 0);
+        assertEquals(1L << 10, set.lo);
+        // The shown key was released; the lowest remaining key is kept
+        set.set(0, 1L << 3 | 1L << 9);
+        set.retainSingle(-1L, -1L);
+        assertEquals(0, set.lo);
+        assertEquals(1L << 3, set.hi);
+        set.clear();
+        set.retainSingle(0, 0);
+        assertTrue(set.isEmpty());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void addRejectsNegativeKey() {
+        new PianoKeyBitSet().add(-1);
+    }
+
+}
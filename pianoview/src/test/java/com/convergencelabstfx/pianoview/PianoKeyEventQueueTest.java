@@ -0,0 +1,99 @@
+package com.convergencelabstfx.pianoview;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PianoKeyEventQueue}.
+ */
+public class PianoKeyEventQueueTest {
+
+    @Test
+    public void packsEvents() {
+        final long event = PianoKeyEventQueue.pack(PianoKeyEventQueue.TYPE_KEY_CLICK, 87, 31, 123456789L);
+        assertEquals(PianoKeyEventQueue.TYPE_KEY_CLICK, PianoKeyEventQueue.getType(event));
+        assertEquals(87, PianoKeyEventQueue.getKey(event));
+        assertEquals(31, PianoKeyEventQueue.getPointerId(event));
+        assertEquals(123456789L, PianoKeyEventQueue.getTime(event));
+        assertTrue(event >= 0);
+    }
+
+    @Test
+    public void roundsCapacityUpToPowerOfTwo() {
+        assertEquals(8, new PianoKeyEventQueue(5, PianoKeyEventQueue.OVERFLOW_DROP_NEWEST).getCapacity());
+        assertEquals(16, new PianoKeyEventQueue(16, PianoKeyEventQueue.OVERFLOW_DROP_NEWEST).getCapacity());
+    }
+
+    @Test
+    public void dropsNewestWhenFull() {
+        final PianoKeyEventQueue queue = new PianoKeyEventQueue(4, PianoKeyEventQueue.OVERFLOW_DROP_NEWEST);
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i < 4, queue.offer(i));
+        }
+        assertEquals(2, queue.getDroppedCount());
+        final long[] out = new long[8];
+        assertEquals(4, queue.drain(out));
+        assertArrayEquals(new long[]{0, 1, 2, 3}, Arrays.copyOf(out, 4));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void dropsOldestWhenFull() {
+        final PianoKeyEventQueue queue = new PianoKeyEventQueue(4, PianoKeyEventQueue.OVERFLOW_DROP_OLDEST);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertEquals(2, queue.getDroppedCount());
+        final long[] out = new long[3];
+        assertEquals(3, queue.drain(out));
+        assertArrayEquals(new long[]{2, 3, 4}, out);
+        assertEquals(1, queue.drain(out, 0, 3));
+        assertEquals(5, out[0]);
+    }
+
+    @Test
+    public void drainAwaitTimesOut() throws InterruptedException {
+        final PianoKeyEventQueue queue = new PianoKeyEventQueue(4, PianoKeyEventQueue.OVERFLOW_DROP_NEWEST);
+        assertEquals(0, queue.drainAwait(new long[4], TimeUnit.MILLISECONDS.toNanos(5)));
+    }
+
+    @Test
+    public void deliversInOrderAcrossThreads() throws Exception {
+        deliverAcrossThreads(PianoKeyEventQueue.OVERFLOW_DROP_NEWEST);
+        deliverAcrossThreads(PianoKeyEventQueue.OVERFLOW_DROP_OLDEST);
+    }
+
+    private static void deliverAcrossThreads(int overflowPolicy) throws Exception {
+        final int events = 1000000;
+        final PianoKeyEventQueue queue = new PianoKeyEventQueue(64, overflowPolicy);
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= events; i++) {
+                    queue.offer(PianoKeyEventQueue.pack(PianoKeyEventQueue.TYPE_KEY_DOWN, i % 88, 0, i));
+                }
+            }
+        });
+        producer.start();
+        final long[] out = new long[32];
+        long last = 0;
+        long received = 0;
+        while (producer.isAlive() || !queue.isEmpty()) {
+            final int count = queue.drainAwait(out, TimeUnit.MILLISECONDS.toNanos(10));
+            for (int i = 0; i < count; i++) {
+                final long time = PianoKeyEventQueue.getTime(out[i]);
+                assertTrue(time > last);
+                assertEquals(time % 88, PianoKeyEventQueue.getKey(out[i]));
+                last = time;
+                received++;
+            }
+        }
+        producer.join();
+        assertEquals(events, received + queue.getDroppedCount());
+    }
+
+}
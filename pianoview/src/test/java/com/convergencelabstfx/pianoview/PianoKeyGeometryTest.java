@@ -0,0 +1,191 @@
+package com.convergencelabstfx.pianoview;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PianoKeyGeometry}.
+ */
+public class PianoKeyGeometryTest {
+
+    @Test
+    public void countsWhiteAndBlackKeys() {
+        final PianoKeyGeometry geometry = new PianoKeyGeometry();
+        geometry.setNumberOfKeys(88);
+        assertEquals(51, geometry.numberOfWhiteKeys);
+        assertEquals(37, geometry.numberOfBlackKeys);
+        geometry.setNumberOfKeys(12);
+        assertEquals(7, geometry.numberOfWhiteKeys);
+        assertEquals(5, geometry.numberOfBlackKeys);
+    }
+
+    @Test
+    public void ordinalTablesMapToKeyIndices() {
+        final PianoKeyGeometry geometry = new PianoKeyGeometry();
+        assertEquals(0, geometry.whiteKeys[0]);
+        assertEquals(2, geometry.whiteKeys[1]);
+        assertEquals(12, geometry.whiteKeys[7]);
+        assertEquals(1, geometry.blackKeys[0]);
+        assertEquals(13, geometry.blackKeys[5]);
+        assertTrue(geometry.isWhite[0]);
+        assertFalse(geometry.isWhite[1]);
+    }
+
+    @Test
+    public void touchedKeyMatchesLinearScan() {
+        final Random random = new Random(42);
+        final PianoKeyGeometry geometry = new PianoKeyGeometry();
+        for (int trial = 0; trial < 500; trial++) {
+            final int width = 100 + random.nextInt(2000);
+            final int height = 50 + random.nextInt(400);
+            final int numberOfKeys = 1 + random.nextInt(88);
+            final int strokeWidth = random.nextInt(8);
+            final float blackKeyWidthScale = 0.05f + random.nextFloat() * 0.95f;
+            final float blackKeyHeightScale = 0.05f + random.nextFloat() * 0.95f;
+            layout(geometry, width, height, numberOfKeys, strokeWidth, blackKeyWidthScale, blackKeyHeightScale);
+            for (int i = 0; i < 200; i++) {
+                final int x = random.nextInt(width + 20) - 10;
+                final int y = random.nextInt(height + 10) - 5;
+                assertEquals(linearScan(geometry, strokeWidth, x, y), geometry.getTouchedKey(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void keyPartIsAllOnTheSameKey() {
+        final Random random = new Random(5);
+        final PianoKeyGeometry geometry = new PianoKeyGeometry();
+        final int[] bounds = new int[4];
+        for (int trial = 0; trial < 200; trial++) {
+            final int width = 100 + random.nextInt(2000);
+            final int height = 50 + random.nextInt(400);
+            final int strokeWidth = random.nextInt(8);
+            layout(geometry, width, height, 1 + random.nextInt(88), strokeWidth,
+                    0.05f + random.nextFloat() * 0.95f, 0.05f + random.nextFloat() * 0.95f);
+            for (int i = 0; i < 20; i++) {
+                final int x = random.nextInt(width + 20) - 10;
+                final int y = random.nextInt(height + 10) - 5;
+                final int key = geometry.getKeyPartBounds(x, y, bounds);
+                assertEquals(linearScan(geometry, strokeWidth, x, y), key);
+                if (key == -1) {
+                    continue;
+                }
+                assertTrue(x >= bounds[0] && x <= bounds[2] && y >= bounds[1] && y <= bounds[3]);
+                for (int partY = bounds[1]; partY <= bounds[3]; partY++) {
+                    for (int partX = bounds[0]; partX <= bounds[2]; partX++) {
+                        assertEquals(key, linearScan(geometry, strokeWidth, partX, partY));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void crossedKeysMatchDenseSampling() {
+        assertCrossedKeysMatchDenseSampling(new Random(7), 0);
+    }
+
+    @Test
+    public void crossedKeysBelowBlackKeysMatchDenseSampling() {
+        // Both ends below the black keys take the white key columns shortcut
+        assertCrossedKeysMatchDenseSampling(new Random(11), 0.6f);
+    }
+
+    /**
+     * Checks random lines whose ends are at least minY of the height down the keys.
+     */
+    private static void assertCrossedKeysMatchDenseSampling(Random random, float minY) {
+        final PianoKeyGeometry geometry = new PianoKeyGeometry();
+        final int[] keys = new int[PianoKeyGeometry.MAX_CROSSED_KEYS];
+        final float[] fractions = new float[PianoKeyGeometry.MAX_CROSSED_KEYS];
+        final int[] expected = new int[100000];
+        for (int trial = 0; trial < 200; trial++) {
+            final int width = 100 + random.nextInt(2000);
+            final int height = 50 + random.nextInt(400);
+            layout(geometry, width, height, 1 + random.nextInt(88), random.nextInt(8), 0.6f, 0.6f);
+            final float x0 = random.nextFloat() * width;
+            final float y0 = (minY + random.nextFloat() * (1 - minY)) * height;
+            final float x1 = random.nextFloat() * width;
+            final float y1 = (minY + random.nextFloat() * (1 - minY)) * height;
+
+            int expectedCount = 0;
+            int prevKey = geometry.getTouchedKey(Math.round(x0), Math.round(y0));
+            for (int i = 1; i <= expected.length; i++) {
+                final float t = (float) i / expected.length;
+                final int key = geometry.getTouchedKey(
+                        Math.round(x0 + (x1 - x0) * t),
+                        Math.round(y0 + (y1 - y0) * t));
+                if (key != prevKey) {
+                    expected[expectedCount++] = key;
+                    prevKey = key;
+                }
+            }
+
+            final int count = geometry.findCrossedKeys(x0, y0, x1, y1, keys, fractions);
+            assertEquals(expectedCount, count);
+            for (int i = 0; i < count; i++) {
+                assertEquals(expected[i], keys[i]);
+                if (i > 0) {
+                    assertTrue(fractions[i] >= fractions[i - 1]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Mirrors PianoView.calculatePianoKeyDimensions().
+     */
+    private static void layout(
+            PianoKeyGeometry geometry,
+            int width,
+            int height,
+            int numberOfKeys,
+            int strokeWidth,
+            float blackKeyWidthScale,
+            float blackKeyHeightScale) {
+        geometry.setNumberOfKeys(numberOfKeys);
+        final int whites = geometry.numberOfWhiteKeys;
+        final int whiteKeyWidth;
+        final int blackKeyWidth;
+        final int remainder;
+        if (PianoKeyGeometry.isWhiteKey(numberOfKeys - 1)) {
+            whiteKeyWidth = (width + (whites - 1) * strokeWidth) / whites;
+            blackKeyWidth = Math.round(whiteKeyWidth * blackKeyWidthScale);
+            remainder = width - (whiteKeyWidth * whites - strokeWidth * (whites - 1));
+        }
+        else {
+            whiteKeyWidth = (int) (((2 * width) + (2 * whites * strokeWidth) - strokeWidth) / (2 * whites + blackKeyWidthScale));
+            blackKeyWidth = Math.round(whiteKeyWidth * blackKeyWidthScale);
+            remainder = width - ((whiteKeyWidth * whites - (strokeWidth * (whites - 1))) + ((blackKeyWidth / 2) - strokeWidth / 2));
+        }
+        geometry.layout(width, whiteKeyWidth, height, blackKeyWidth,
+                Math.round(height * blackKeyHeightScale), strokeWidth, remainder);
+    }
+
+    /**
+     * The original PianoView hit-test: every black key, then every white key.
+     */
+    private static int linearScan(PianoKeyGeometry geometry, int strokeWidth, int x, int y) {
+        for (int i = 0; i < geometry.numberOfBlackKeys; i++) {
+            final int ix = geometry.blackKeys[i];
+            if (geometry.keyContains(ix, x, y)) {
+                return ix;
+            }
+        }
+        for (int i = 0; i < geometry.numberOfWhiteKeys; i++) {
+            final int ix = geometry.whiteKeys[i];
+            int right = geometry.right[ix];
+            if (i < geometry.numberOfWhiteKeys - 1) {
+                right -= strokeWidth / 2;
+            }
+            if (x >= geometry.left[ix] && x <= right && y >= geometry.top[ix] && y <= geometry.bottom[ix]) {
+                return ix;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,202 @@
+package com.convergencelabstfx.pianoview;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Locale;
+
+/**
+ * Offline evaluation of {@link PianoKeyPredictor}: replays touch traces through a
+ * {@link PianoTouchTracker} with a predictor attached, and reports how often the predictions
+ * were right, and how far ahead of the actual key down they came.
+ * <p>
+ * A trace is a text file with one entry per line; empty lines and lines starting with # are skipped.
+ * <pre>
+ * keys &lt;numberOfKeys&gt;
+ * layout &lt;viewWidth&gt; &lt;whiteKeyWidth&gt; &lt;whiteKeyHeight&gt; &lt;blackKeyWidth&gt; &lt;blackKeyHeight&gt;
+ * &lt;time&gt; down|move|up|cancel &lt;pointerId&gt; &lt;x&gt; &lt;y&gt;
+ * </pre>
+ * The keys and layout lines come first, with the values of the recorded PianoView.
+ * Every other line is one sample of a MotionEvent (historical samples included), as logged
+ * from {@link PianoView#onTouchEvent(android.view.MotionEvent)}; time is the event time in milliseconds.
+ * <p>
+ * Run with: {@code PianoKeyPredictorEvaluation <horizonMillis> <trace>...}
+ */
+final class PianoKeyPredictorEvaluation {
+
+    /**
+     * Totals of one or more replayed traces.
+     */
+    static final class Result {
+
+        // Keys that went down because a pointer slid onto them
+        int keyEntries;
+        int predictions;
+        int confirmed;
+        int retracted;
+        // Sum over confirmed predictions of the time from prediction to key down
+        long latencySavedMillis;
+
+        double getHitRate() {
+            return predictions == 0 ? 0 : (double) confirmed / predictions;
+        }
+
+        /**
+         * Returns the share of key entries that were predicted ahead of time.
+         */
+        double getCoverage() {
+            return keyEntries == 0 ? 0 : (double) confirmed / keyEntries;
+        }
+
+        double getMeanLatencySavedMillis() {
+            return confirmed == 0 ? 0 : (double) latencySavedMillis / confirmed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "key entries: %d, predictions: %d, confirmed: %d, retracted: %d, "
+                            + "hit rate: %.1f%%, coverage: %.1f%%, mean latency saved: %.1f ms",
+                    keyEntries, predictions, confirmed, retracted,
+                    getHitRate() * 100, getCoverage() * 100, getMeanLatencySavedMillis());
+        }
+
+    }
+
+    private final PianoKeyGeometry mGeometry = new PianoKeyGeometry();
+    private final PianoTouchTracker mTracker;
+    private final Result mResult;
+    private final long[] mPredictionTime = new long[PianoTouchTracker.MAX_POINTER_ID + 1];
+    private boolean mInPointerDown;
+
+    private PianoKeyPredictorEvaluation(int horizonMillis, Result result) {
+        mResult = result;
+        mTracker = new PianoTouchTracker(mGeometry, new PianoTouchTracker.Callback() {
+            @Override
+            public void onTouchKeyDown(int key, int pointerId, long time) {
+                if (!mInPointerDown) {
+                    mResult.keyEntries++;
+                }
+            }
+
+            @Override
+            public void onTouchKeyUp(int key, int pointerId, long time) {
+            }
+
+            @Override
+            public void onTouchKeyClick(int key, int pointerId, long time) {
+            }
+        });
+        mTracker.setPredictor(new PianoKeyPredictor(mGeometry, new PianoKeyPredictor.Callback() {
+            @Override
+            public void onKeyPredicted(int key, int pointerId, long time, long predictedTime) {
+                mResult.predictions++;
+                mPredictionTime[pointerId] = time;
+            }
+
+            @Override
+            public void onPredictionConfirmed(int key, int pointerId, long time) {
+                mResult.confirmed++;
+                mResult.latencySavedMillis += time - mPredictionTime[pointerId];
+            }
+
+            @Override
+            public void onPredictionRetracted(int key, int pointerId, long time) {
+                mResult.retracted++;
+            }
+        }, horizonMillis));
+    }
+
+    /**
+     * Replays a trace, adding its totals to result.
+     */
+    static void evaluate(Reader trace, int horizonMillis, Result result) throws IOException {
+        new PianoKeyPredictorEvaluation(horizonMillis, result).replay(new BufferedReader(trace));
+    }
+
+    private void replay(BufferedReader reader) throws IOException {
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            final String[] fields = line.split("\\s+");
+            try {
+                replayLine(fields);
+            }
+            catch (RuntimeException e) {
+                throw new IOException("Invalid trace line " + lineNumber + ": " + line, e);
+            }
+        }
+    }
+
+    private void replayLine(String[] fields) {
+        if (fields[0].equals("keys")) {
+            mGeometry.setNumberOfKeys(Integer.parseInt(fields[1]));
+            return;
+        }
+        if (fields[0].equals("layout")) {
+            mGeometry.layout(
+                    Integer.parseInt(fields[1]),
+                    Integer.parseInt(fields[2]),
+                    Integer.parseInt(fields[3]),
+                    Integer.parseInt(fields[4]),
+                    Integer.parseInt(fields[5]),
+                    0,
+                    0);
+            return;
+        }
+        final long time = Long.parseLong(fields[0]);
+        final String action = fields[1];
+        final int pointerId = Integer.parseInt(fields[2]);
+        final float x = Float.parseFloat(fields[3]);
+        final float y = Float.parseFloat(fields[4]);
+        switch (action) {
+            case "down":
+                mInPointerDown = true;
+                mTracker.pointerDown(pointerId, x, y, time, false);
+                mInPointerDown = false;
+                break;
+            case "move":
+                mTracker.pointerMove(pointerId, x, y, time);
+                break;
+            case "up":
+                mTracker.pointerUp(pointerId, x, y, time);
+                break;
+            case "cancel":
+                mTracker.cancel(time);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown action: " + action);
+        }
+        // Like PianoView after every touch event
+        mTracker.expirePredictions(time);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: PianoKeyPredictorEvaluation <horizonMillis> <trace>...");
+            System.exit(1);
+        }
+        final int horizonMillis = Integer.parseInt(args[0]);
+        final Result total = new Result();
+        for (int i = 1; i < args.length; i++) {
+            final Result result = new Result();
+            try (Reader reader = new FileReader(args[i])) {
+                evaluate(reader, horizonMillis, result);
+            }
+            System.out.println(args[i] + ": " + result);
+            total.keyEntries += result.keyEntries;
+            total.predictions += result.predictions;
+            total.confirmed += result.confirmed;
+            total.retracted += result.retracted;
+            total.latencySavedMillis += result.latencySavedMillis;
+        }
+        System.out.println("total: " + total);
+    }
+
+}
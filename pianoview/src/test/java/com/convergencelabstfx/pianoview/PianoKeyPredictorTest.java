@@ -0,0 +1,168 @@
+package com.convergencelabstfx.pianoview;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PianoKeyPredictor}, and an evaluation on synthetic traces
+ * with {@link PianoKeyPredictorEvaluation}.
+ */
+public class PianoKeyPredictorTest {
+
+    private final PianoKeyGeometry mGeometry = new PianoKeyGeometry();
+    private final List<String> mEvents = new ArrayList<>();
+    private PianoTouchTracker mTracker;
+    private PianoKeyPredictor mPredictor;
+
+    // 14 keys, 8 white keys 100 pixels wide, black keys 60 pixels wide and 60 pixels tall
+    private static final float WHITE_Y = 150;
+
+    @Before
+    public void setUp() {
+        mGeometry.setNumberOfKeys(14);
+        mGeometry.layout(800, 100, 200, 60, 60, 0, 0);
+        mTracker = new PianoTouchTracker(mGeometry, new PianoTouchTracker.Callback() {
+            @Override
+            public void onTouchKeyDown(int key, int pointerId, long time) {
+                mEvents.add("down " + key + " @" + time);
+            }
+
+            @Override
+            public void onTouchKeyUp(int key, int pointerId, long time) {
+            }
+
+            @Override
+            public void onTouchKeyClick(int key, int pointerId, long time) {
+            }
+        });
+        mPredictor = new PianoKeyPredictor(mGeometry, new PianoKeyPredictor.Callback() {
+            @Override
+            public void onKeyPredicted(int key, int pointerId, long time, long predictedTime) {
+                mEvents.add("predict " + key + " @" + time + " for " + predictedTime);
+            }
+
+            @Override
+            public void onPredictionConfirmed(int key, int pointerId, long time) {
+                mEvents.add("confirm " + key + " @" + time);
+            }
+
+            @Override
+            public void onPredictionRetracted(int key, int pointerId, long time) {
+                mEvents.add("retract " + key + " @" + time);
+            }
+        }, 40);
+        mTracker.setPredictor(mPredictor);
+    }
+
+    @Test
+    public void predictsAndConfirmsNextKey() {
+        mTracker.pointerDown(0, 10, WHITE_Y, 0, false);
+        // 1 pixel per millisecond; the next key is 41 pixels away, so it's predicted once it's within 40
+        mTracker.pointerMove(0, 20, WHITE_Y, 10);
+        mTracker.pointerMove(0, 30, WHITE_Y, 20);
+        assertEquals(-1, mPredictor.getPredictedKey(0));
+        mTracker.pointerMove(0, 61, WHITE_Y, 51);
+        assertEquals(2, mPredictor.getPredictedKey(0));
+        mTracker.pointerMove(0, 111, WHITE_Y, 101);
+        assertEvents("down 0 @0", "predict 2 @51 for 91", "confirm 2 @91", "down 2 @91");
+    }
+
+    @Test
+    public void retractsWhenPointerStops() {
+        mTracker.pointerDown(0, 40, WHITE_Y, 0, false);
+        mTracker.pointerMove(0, 70, WHITE_Y, 30);
+        // Stopped before reaching the key, past the horizon
+        mTracker.pointerMove(0, 70, WHITE_Y, 69);
+        mTracker.pointerMove(0, 70, WHITE_Y, 70);
+        assertEvents("down 0 @0", "predict 2 @30 for 61", "retract 2 @70");
+    }
+
+    @Test
+    public void retractsStoppedPointerOnOtherPointersEvents() {
+        mTracker.pointerDown(0, 40, WHITE_Y, 0, false);
+        mTracker.pointerMove(0, 70, WHITE_Y, 30);
+        mTracker.expirePredictions(30);
+        // Pointer 0 stops and gets no more samples; another pointer keeps the events coming
+        mTracker.pointerDown(1, 750, WHITE_Y, 50, false);
+        mTracker.expirePredictions(50);
+        assertEquals(2, mPredictor.getPredictedKey(0));
+        mTracker.pointerMove(1, 750, WHITE_Y, 69);
+        mTracker.expirePredictions(69);
+        assertEquals(2, mPredictor.getPredictedKey(0));
+        // The horizon of 40 milliseconds has passed
+        mTracker.pointerMove(1, 750, WHITE_Y, 70);
+        mTracker.expirePredictions(70);
+        assertEquals(-1, mPredictor.getPredictedKey(0));
+        assertEvents("down 0 @0", "predict 2 @30 for 61", "down 12 @50", "retract 2 @70");
+    }
+
+    @Test
+    public void retractsWhenPointerTurnsAround() {
+        mTracker.pointerDown(0, 140, WHITE_Y, 0, false);
+        mTracker.pointerMove(0, 170, WHITE_Y, 30);
+        mTracker.pointerMove(0, 150, WHITE_Y, 40);
+        mTracker.pointerMove(0, 120, WHITE_Y, 50);
+        mTracker.pointerMove(0, 110, WHITE_Y, 60);
+        mTracker.pointerUp(0, 110, WHITE_Y, 70);
+        assertEvents("down 2 @0", "predict 4 @30 for 61", "retract 4 @60", "predict 0 @60 for 65", "retract 0 @70");
+    }
+
+    @Test
+    public void doesNotPredictHeldPointer() {
+        mTracker.pointerDown(0, 50, WHITE_Y, 0, false);
+        for (int i = 1; i <= 10; i++) {
+            mTracker.pointerMove(0, 50 + (i % 2), WHITE_Y, i * 10);
+        }
+        assertEvents("down 0 @0");
+    }
+
+    @Test
+    public void predictsMostKeysOfGlissando() throws IOException {
+        final PianoKeyPredictorEvaluation.Result result = new PianoKeyPredictorEvaluation.Result();
+        // 61 keys, 36 white keys 30 pixels wide; a finger sampled every 8 ms, sliding at 0.5 to 2 pixels per ms
+        for (int speed = 1; speed <= 4; speed++) {
+            PianoKeyPredictorEvaluation.evaluate(
+                    new StringReader(createGlissandoTrace(speed * 0.5f, 8)), 50, result);
+        }
+        assertTrue(result.toString(), result.keyEntries > 200);
+        assertTrue(result.toString(), result.getHitRate() > 0.9);
+        assertTrue(result.toString(), result.getCoverage() > 0.9);
+        assertTrue(result.toString(), result.getMeanLatencySavedMillis() > 8);
+    }
+
+    /**
+     * A finger going down at the left end, sliding over the white keys to the right end and back,
+     * then lifting.
+     */
+    private static String createGlissandoTrace(float speed, int sampleMillis) {
+        final StringBuilder trace = new StringBuilder();
+        trace.append("keys 61\n");
+        trace.append("layout 1080 30 300 18 180\n");
+        final float y = 250;
+        long time = 1000;
+        float x = 5;
+        trace.append(time).append(" down 0 ").append(x).append(' ').append(y).append('\n');
+        for (float dir = 1; dir >= -1; dir -= 2) {
+            while (dir > 0 ? x < 1075 : x > 5) {
+                time += sampleMillis;
+                x = Math.max(5, Math.min(1075, x + dir * speed * sampleMillis));
+                trace.append(time).append(" move 0 ").append(x).append(' ').append(y).append('\n');
+            }
+        }
+        trace.append(time + sampleMillis).append(" up 0 ").append(x).append(' ').append(y).append('\n');
+        return trace.toString();
+    }
+
+    private void assertEvents(String... expected) {
+        assertEquals(Arrays.asList(expected), mEvents);
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.convergencelabstfx.pianoview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PianoLatencyHistogram}.
+ */
+public class PianoLatencyHistogramTest {
+
+    @Test
+    public void bucketsArePowersOfTwoMicroseconds() {
+        assertEquals(0, PianoLatencyHistogram.getBucketIndex(999));
+        assertEquals(1, PianoLatencyHistogram.getBucketIndex(1000));
+        assertEquals(2, PianoLatencyHistogram.getBucketIndex(2000));
+        assertEquals(2, PianoLatencyHistogram.getBucketIndex(3999));
+        assertEquals(3, PianoLatencyHistogram.getBucketIndex(4000));
+        assertEquals(PianoLatencyHistogram.NUMBER_OF_BUCKETS - 1, PianoLatencyHistogram.getBucketIndex(Long.MAX_VALUE));
+        assertEquals(4, PianoLatencyHistogram.getBucketUpperBoundMicros(2));
+    }
+
+    @Test
+    public void percentilesUseBucketUpperBounds() {
+        final PianoLatencyHistogram histogram = new PianoLatencyHistogram();
+        assertEquals(0, histogram.getPercentileMicros(50));
+        for (int i = 0; i < 90; i++) {
+            histogram.record(500);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(5000);
+        }
+        histogram.record(-5);
+        assertEquals(101, histogram.getCount());
+        assertEquals(1, histogram.getPercentileMicros(50));
+        assertEquals(8, histogram.getPercentileMicros(99));
+        assertEquals(5000, histogram.getMaxNanos());
+        assertEquals((90 * 500 + 10 * 5000) / 101, histogram.getMeanNanos());
+    }
+
+    @Test
+    public void statsCopyIsIndependent() {
+        final PianoViewStats stats = new PianoViewStats();
+        stats.getDrawTime().record(1500);
+        stats.recordRelayout();
+        stats.recordRelayout();
+        stats.recordRelayout();
+        stats.recordInvalidate();
+        final PianoViewStats copy = new PianoViewStats();
+        copy.set(stats);
+        stats.reset();
+        assertEquals(1, copy.getDrawTime().getCount());
+        assertEquals(1, copy.getDrawTime().getBucketCount(1));
+        assertEquals(3, copy.getRelayoutCount());
+        assertEquals(1, copy.getInvalidateCount());
+        assertEquals(0, stats.getDrawTime().getCount());
+        assertEquals(0, stats.getRelayoutCount());
+    }
+
+}
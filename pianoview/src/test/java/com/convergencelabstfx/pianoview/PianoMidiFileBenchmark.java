@@ -0,0 +1,70 @@
+package com.convergencelabstfx.pianoview;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * Parse benchmark of {@link PianoMidiFileReader} on a plain JVM: writes a large multi-track file,
+ * then reads every note of it, both memory mapped and through a channel, and reports the time
+ * taken and the bytes allocated (on JVMs that count them).
+ * <p>
+ * Run with: {@code PianoMidiFileBenchmark [tracks] [notesPerTrack] [rounds]}
+ */
+final class PianoMidiFileBenchmark {
+
+    private PianoMidiFileBenchmark() {
+    }
+
+    /**
+     * Reads every event and returns how many there were.
+     */
+    static long readAll(PianoMidiFileReader reader) throws IOException {
+        long count = 0;
+        try {
+            while (reader.next()) {
+                count++;
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return count;
+    }
+
+    public static void main(String[] args) throws IOException {
+        final int tracks = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        final int notesPerTrack = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        final int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        final File file = PianoMidiFileReaderTest.createLargeFile(tracks, notesPerTrack);
+        System.out.println(String.format(Locale.US, "%d tracks, %d events, %.1f MB",
+                tracks, 2L * tracks * notesPerTrack, file.length() / 1e6));
+        for (int round = 0; round < rounds; round++) {
+            final long allocatedBefore = getAllocatedBytes();
+            long start = System.nanoTime();
+            final long mappedEvents = readAll(PianoMidiFileReader.open(file));
+            final long mappedNanos = System.nanoTime() - start;
+            final long allocated = getAllocatedBytes() - allocatedBefore;
+
+            start = System.nanoTime();
+            readAll(PianoMidiFileReader.open(new RandomAccessFile(file, "r").getChannel()));
+            final long channelNanos = System.nanoTime() - start;
+            System.out.println(String.format(Locale.US,
+                    "mapped: %.1f ms (%.1fM events/s, %d bytes allocated), channel: %.1f ms (%.1fM events/s)",
+                    mappedNanos / 1e6, mappedEvents * 1e3 / mappedNanos, allocated,
+                    channelNanos / 1e6, mappedEvents * 1e3 / channelNanos));
+        }
+    }
+
+    private static long getAllocatedBytes() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+}
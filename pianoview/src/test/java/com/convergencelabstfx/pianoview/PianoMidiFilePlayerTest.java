@@ -0,0 +1,87 @@
+package com.convergencelabstfx.pianoview;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PianoMidiFilePlayer}.
+ */
+public class PianoMidiFilePlayerTest {
+
+    private final TimedKeyChangeSink mSink = new TimedKeyChangeSink();
+
+    @Test
+    public void highlightsWhileAnyTrackHoldsNote() throws IOException {
+        // At 1000 ticks per second; key 0 is held by both tracks from 10 to 30 ms
+        final PianoMidiFileReaderTest.SmfBuilder smf = new PianoMidiFileReaderTest.SmfBuilder(1, 0xE728);
+        smf.track();
+        smf.event(0, 0x90, 36, 100);
+        smf.event(0, 0x90, 106, 100);
+        smf.event(30, 0x80, 36, 0);
+        smf.endTrack(0);
+        smf.track();
+        smf.event(10, 0x91, 36, 100);
+        smf.event(10, 0x91, 37, 100);
+        smf.event(20, 0x81, 36, 0);
+        smf.endTrack(0);
+        final PianoMidiFilePlayer player = new PianoMidiFilePlayer(mSink);
+        player.setLookahead(0);
+        mSink.startClock();
+        player.play(PianoMidiFileReader.open(smf.write()));
+
+        // The last change releases the keys still held at the end
+        assertEquals(6, mSink.size());
+        assertEquals(5, player.getUpdateCount());
+        mSink.assertChange(0, 0, 1L, 1L << 6, 1L, 1L << 6);
+        mSink.assertChange(1, 10, 1L, 0, 1L, 1L << 6);
+        mSink.assertChange(2, 20, 1L << 1, 0, 1L | 1L << 1, 1L << 6);
+        mSink.assertChange(3, 30, 1L, 0, 1L | 1L << 1, 1L << 6);
+        mSink.assertChange(4, 40, 1L, 0, 1L << 1, 1L << 6);
+        mSink.assertChange(5, 40, 1L << 1, 1L << 6, 0, 0);
+        assertFalse(player.isPlaying());
+    }
+
+    @Test
+    public void lookaheadMergesNearbyNotes() throws IOException {
+        final PianoMidiFileReaderTest.SmfBuilder smf = new PianoMidiFileReaderTest.SmfBuilder(0, 0xE728);
+        smf.track();
+        smf.event(0, 0x90, 40, 100);
+        smf.event(2, 0x90, 41, 100);
+        smf.event(2, 0x90, 42, 100);
+        smf.event(30, 0x80, 40, 0);
+        smf.endTrack(0);
+        final PianoMidiFilePlayer player = new PianoMidiFilePlayer(mSink);
+        player.setChannel(0);
+        player.setLowestNote(40);
+        player.setLookahead(10);
+        mSink.startClock();
+        player.play(PianoMidiFileReader.open(smf.write()));
+
+        // The last change releases the keys still held at the end
+        assertEquals(3, mSink.size());
+        mSink.assertChange(0, 0, 7L, 0, 7L, 0);
+        mSink.assertChange(1, 24, 1L, 0, 6L, 0);
+        mSink.assertChange(2, 24, 6L, 0, 0, 0);
+    }
+
+    @Test
+    public void stopReleasesKeys() throws IOException, InterruptedException {
+        final PianoMidiFileReaderTest.SmfBuilder smf = new PianoMidiFileReaderTest.SmfBuilder(0, 0xE728);
+        smf.track();
+        smf.event(0, 0x90, 50, 100);
+        smf.event(60000, 0x80, 50, 0);
+        smf.endTrack(0);
+        final PianoMidiFilePlayer player = new PianoMidiFilePlayer(mSink);
+        mSink.startClock();
+        player.start(smf.write());
+        mSink.awaitChange();
+        player.stop();
+        assertFalse(player.isPlaying());
+        assertEquals(2, mSink.size());
+        mSink.assertChange(1, -1, 1L << 14, 0, 0, 0);
+    }
+
+}
@@ -0,0 +1,255 @@
+package com.convergencelabstfx.pianoview;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PianoMidiFileReader}.
+ */
+public class PianoMidiFileReaderTest {
+
+    @Test
+    public void readsNotesWithRunningStatus() throws IOException {
+        final SmfBuilder smf = new SmfBuilder(0, 480);
+        smf.track();
+        smf.event(0, 0x90, 60, 100);
+        smf.event(240, 64, 90);
+        smf.event(240, 60, 0);
+        smf.event(0, 0x80, 64, 40);
+        smf.endTrack(0);
+        final PianoMidiFileReader reader = PianoMidiFileReader.open(smf.write());
+        assertEquals(0, reader.getFormat());
+        assertEquals(1, reader.getTrackCount());
+        assertEquals(480, reader.getDivision());
+        // 120 beats per minute until a tempo change: 480 ticks are half a second
+        assertNote(reader, 0, 0, 60, true);
+        assertEquals(100, reader.getVelocity());
+        assertNote(reader, 240, 250000, 64, true);
+        assertNote(reader, 480, 500000, 60, false);
+        assertNote(reader, 480, 500000, 64, false);
+        assertFalse(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void mergesTracksInTimeOrder() throws IOException {
+        final SmfBuilder smf = new SmfBuilder(1, 100);
+        // Conductor track: the tempo doubles at tick 100
+        smf.track();
+        smf.event(100, 0xFF, 0x51, 3, 0x03, 0xD0, 0x90);
+        smf.endTrack(0);
+        smf.track();
+        smf.event(50, 0x90, 10, 1);
+        smf.event(100, 0x80, 10, 0);
+        smf.endTrack(0);
+        smf.track();
+        smf.event(0, 0x91, 20, 1);
+        smf.event(100, 0x91, 21, 1);
+        smf.event(100, 0x81, 20, 0);
+        smf.endTrack(0);
+        final PianoMidiFileReader reader = PianoMidiFileReader.open(smf.write());
+        assertEquals(3, reader.getTrackCount());
+        assertNote(reader, 0, 0, 20, true);
+        assertEquals(2, reader.getTrack());
+        assertEquals(1, reader.getChannel());
+        assertNote(reader, 50, 250000, 10, true);
+        // Ties go to the lower track
+        assertNote(reader, 100, 500000, 21, true);
+        assertEquals(2, reader.getTrack());
+        assertNote(reader, 150, 625000, 10, false);
+        assertNote(reader, 200, 750000, 20, false);
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void skipsOtherEvents() throws IOException {
+        final SmfBuilder smf = new SmfBuilder(0, 96);
+        smf.track();
+        smf.event(0, 0xFF, 0x03, 4, 'P', 'i', 'a', 'n');
+        smf.event(0, 0xF0, 3, 0x7E, 0x09, 0xF7);
+        smf.event(0, 0xC0, 5);
+        smf.event(0, 0xB0, 64, 127);
+        smf.event(0, 0xD0, 50);
+        smf.event(0, 0xE0, 0, 64);
+        smf.event(0, 0x90, 70, 64);
+        smf.event(0, 0xA0, 70, 10);
+        smf.endTrack(10);
+        final PianoMidiFileReader reader = PianoMidiFileReader.open(smf.write());
+        assertNote(reader, 0, 0, 70, true);
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void convertsSmpteTime() throws IOException {
+        // 25 frames per second and 40 ticks per frame are 1000 ticks per second
+        final SmfBuilder smf = new SmfBuilder(0, 0xE728);
+        smf.track();
+        smf.event(1500, 0x90, 60, 1);
+        smf.endTrack(0);
+        final PianoMidiFileReader reader = PianoMidiFileReader.open(smf.write());
+        assertNote(reader, 1500, 1500000, 60, true);
+    }
+
+    @Test
+    public void channelReadsMatchMappedReads() throws IOException {
+        final File file = createLargeFile(4, 3000);
+        final List<long[]> mapped = readAll(PianoMidiFileReader.open(file));
+        final List<long[]> buffered = readAll(PianoMidiFileReader.open(new RandomAccessFile(file, "r").getChannel()));
+        assertEquals(4 * 3000 * 2, mapped.size());
+        assertEquals(mapped.size(), buffered.size());
+        long lastTick = 0;
+        for (int i = 0; i < mapped.size(); i++) {
+            assertArrayEquals(mapped.get(i), buffered.get(i));
+            assertTrue(mapped.get(i)[0] >= lastTick);
+            lastTick = mapped.get(i)[0];
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        PianoMidiFileReader.open(PianoSampleTest.writeWav(8000, 1, 16, new short[8]));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsDataWithoutStatus() throws IOException {
+        final SmfBuilder smf = new SmfBuilder(0, 96);
+        smf.track();
+        smf.event(0, 60, 100);
+        smf.endTrack(0);
+        PianoMidiFileReader.open(smf.write()).next();
+    }
+
+    private static void assertNote(PianoMidiFileReader reader, long tick, long micros, int note, boolean on)
+            throws IOException {
+        assertTrue(reader.next());
+        assertEquals(tick, reader.getTick());
+        assertEquals(micros, reader.getTimeMicros());
+        assertEquals(note, reader.getNote());
+        assertEquals(on, reader.isNoteOn());
+    }
+
+    private static List<long[]> readAll(PianoMidiFileReader reader) throws IOException {
+        final List<long[]> events = new ArrayList<>();
+        while (reader.next()) {
+            events.add(new long[]{reader.getTick(), reader.getTimeMicros(), reader.getTrack(),
+                    reader.getChannel(), reader.getNote(), reader.isNoteOn() ? 1 : 0});
+        }
+        reader.close();
+        return events;
+    }
+
+    /**
+     * Writes a file of tracks playing overlapping notes, with running status.
+     */
+    static File createLargeFile(int tracks, int notesPerTrack) throws IOException {
+        final SmfBuilder smf = new SmfBuilder(1, 480);
+        for (int track = 0; track < tracks; track++) {
+            smf.track();
+            smf.event(0, 0x90 | track % 16, 36 + track % 48, 80);
+            smf.event(30 + track, 36 + track % 48, 0);
+            for (int i = 1; i < notesPerTrack; i++) {
+                final int note = 36 + (i * 7 + track * 5) % 48;
+                smf.event(15 + (i + track) % 45, note, 60 + i % 60);
+                smf.event(30 + (i * track) % 50, note, 0);
+            }
+            smf.endTrack(0);
+        }
+        return smf.write();
+    }
+
+    /**
+     * Builds Standard MIDI Files in memory.
+     */
+    static final class SmfBuilder {
+
+        private final int mFormat;
+        private final int mDivision;
+        private final List<ByteArrayOutputStream> mTracks = new ArrayList<>();
+
+        SmfBuilder(int format, int division) {
+            mFormat = format;
+            mDivision = division;
+        }
+
+        void track() {
+            mTracks.add(new ByteArrayOutputStream());
+        }
+
+        /**
+         * Adds an event to the last track, after a delta time in ticks.
+         */
+        void event(long delta, int... bytes) {
+            final ByteArrayOutputStream track = mTracks.get(mTracks.size() - 1);
+            writeVarLen(track, delta);
+            for (int b : bytes) {
+                track.write(b);
+            }
+        }
+
+        void endTrack(long delta) {
+            event(delta, 0xFF, 0x2F, 0);
+        }
+
+        byte[] build() {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writeChunkHeader(out, "MThd", 6);
+            writeShort(out, mFormat);
+            writeShort(out, mTracks.size());
+            writeShort(out, mDivision);
+            for (ByteArrayOutputStream track : mTracks) {
+                writeChunkHeader(out, "MTrk", track.size());
+                final byte[] data = track.toByteArray();
+                out.write(data, 0, data.length);
+            }
+            return out.toByteArray();
+        }
+
+        File write() throws IOException {
+            final File file = File.createTempFile("piano", ".mid");
+            file.deleteOnExit();
+            final FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(build());
+            }
+            finally {
+                out.close();
+            }
+            return file;
+        }
+
+        private static void writeChunkHeader(ByteArrayOutputStream out, String id, int length) {
+            for (int i = 0; i < 4; i++) {
+                out.write(id.charAt(i));
+            }
+            writeShort(out, length >>> 16);
+            writeShort(out, length);
+        }
+
+        private static void writeShort(ByteArrayOutputStream out, int value) {
+            out.write(value >>> 8 & 0xFF);
+            out.write(value & 0xFF);
+        }
+
+        private static void writeVarLen(ByteArrayOutputStream out, long value) {
+            int shift = 21;
+            while (shift > 0 && (value >>> shift) == 0) {
+                shift -= 7;
+            }
+            for (; shift > 0; shift -= 7) {
+                out.write((int) (value >>> shift & 0x7F) | 0x80);
+            }
+            out.write((int) (value & 0x7F));
+        }
+
+    }
+
+}
@@ -0,0 +1,139 @@
+package com.convergencelabstfx.pianoview;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PianoMidiInput}, parsing in-memory MIDI bytes.
+ */
+public class PianoMidiInputTest {
+
+    // Pressed keys, as a view would apply the changes
+    private long mLo;
+    private long mHi;
+    private int mCalls;
+    private PianoMidiInput mInput;
+
+    @Before
+    public void setUp() {
+        mInput = new PianoMidiInput(new PianoKeyChangeSink() {
+            @Override
+            public void onKeysChanged(long changedLo, long changedHi, long pressedLo, long pressedHi) {
+                mLo = (mLo & ~changedLo) | (pressedLo & changedLo);
+                mHi = (mHi & ~changedHi) | (pressedHi & changedHi);
+                mCalls++;
+            }
+        });
+        mInput.setLowestNote(48);
+    }
+
+    @Test
+    public void mapsNotesToKeys() {
+        parse(0x90, 48, 100, 0x90, 60, 100, 0x90, 120, 1, 0x90, 47, 100);
+        assertEquals(1L | 1L << 12, mLo);
+        assertEquals(1L << (72 - 64), mHi);
+        parse(0x80, 60, 64);
+        assertEquals(1L, mLo);
+    }
+
+    @Test
+    public void handlesRunningStatusAndZeroVelocity() {
+        // One status byte for all four notes; velocity 0 releases
+        parse(0x90, 50, 100, 52, 100, 50, 0, 55, 90);
+        assertEquals(1L << 4 | 1L << 7, mLo);
+        assertEquals(1, mCalls);
+    }
+
+    @Test
+    public void mergesAllChangesOfOneChunk() {
+        parse(0x90, 50, 100, 0x80, 50, 0);
+        assertEquals(0, mLo);
+        assertEquals(1, mCalls);
+        parse(0xFE);
+        assertEquals(1, mCalls);
+    }
+
+    @Test
+    public void filtersChannel() {
+        mInput.setChannel(2);
+        parse(0x90, 50, 100, 0x92, 51, 100, 0x9F, 52, 100);
+        assertEquals(1L << 3, mLo);
+    }
+
+    @Test
+    public void skipsOtherMessages() {
+        parse(
+                // Program change and channel pressure have one data byte
+                0xC0, 5, 0xD0, 40,
+                // System exclusive, interrupted by a timing clock
+                0xF0, 0x7E, 0x90, 0xF8, 0x10, 0xF7,
+                // Data bytes without a status are ignored
+                50, 100,
+                // Song position pointer cancels running status
+                0x90, 50, 100, 0xF2, 0, 0, 51, 100,
+                // Pitch bend has two data bytes
+                0xE0, 0, 64);
+        assertEquals(1L << 2, mLo);
+    }
+
+    @Test
+    public void realTimeBytesDoNotInterruptMessages() {
+        parse(0x90, 0xF8, 50, 0xFE, 100, 0xFA, 52, 0xFC, 100);
+        assertEquals(1L << 2 | 1L << 4, mLo);
+    }
+
+    @Test
+    public void continuesMessagesAcrossChunks() {
+        parse(0x90, 50);
+        assertEquals(0, mCalls);
+        parse(100, 52);
+        parse(100);
+        assertEquals(1L << 2 | 1L << 4, mLo);
+        mInput.reset();
+        parse(53, 100);
+        assertEquals(1L << 2 | 1L << 4, mLo);
+    }
+
+    @Test
+    public void allNotesOffReleasesEveryKey() {
+        parse(0x90, 50, 100, 100, 100, 0x91, 120, 100);
+        assertTrue(mHi != 0);
+        parse(0xB0, 123, 0);
+        assertEquals(0, mLo);
+        assertEquals(0, mHi);
+    }
+
+    @Test
+    public void keepsUpWithDenseStream() {
+        // An hour of a saturated 31.25 kbaud stream is about 11 MB; a tenth of that, with running status
+        final byte[] stream = new byte[1125000];
+        stream[0] = (byte) 0x90;
+        int n = 1;
+        int note = 0;
+        while (n + 1 < stream.length) {
+            stream[n++] = (byte) (48 + note);
+            stream[n++] = (byte) (note % 2 == 0 ? 100 : 0);
+            note = (note + 1) % 80;
+        }
+        final long start = System.nanoTime();
+        for (int offset = 0; offset < n; offset += 256) {
+            mInput.parse(stream, offset, Math.min(256, n - offset));
+        }
+        final long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        // Even keys pressed, odd keys released
+        assertEquals(0x5555555555555555L, mLo);
+        assertEquals(0x5555L, mHi);
+        assertTrue("took " + elapsedMillis + " ms", elapsedMillis < 5000);
+    }
+
+    private void parse(int... bytes) {
+        final byte[] data = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            data[i] = (byte) bytes[i];
+        }
+        mInput.parse(data);
+    }
+
+}
@@ -0,0 +1,168 @@
+package com.convergencelabstfx.pianoview;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PianoMidiOutput}.
+ */
+public class PianoMidiOutputTest {
+
+    @Test
+    public void encodesNoteOnAndNoteOff() {
+        final LoopbackSink sink = new LoopbackSink();
+        final PianoMidiOutput output = new PianoMidiOutput(sink);
+        output.setChannel(3);
+        output.setBaseNote(60);
+        output.setVelocity(90);
+        output.keyDown(0, Float.NaN, 10);
+        output.keyUp(4, 10);
+        assertEquals(0, sink.mSends);
+        output.flush();
+        assertEquals(1, sink.mSends);
+        assertEquals(10000000L, sink.mLastTimestampNanos);
+        assertArrayEquals(bytes(0x93, 60, 90, 0x83, 64, 64), sink.getBytes());
+        output.flush();
+        assertEquals(1, sink.mSends);
+    }
+
+    @Test
+    public void derivesVelocityFromTouchPosition() {
+        final LoopbackSink sink = new LoopbackSink();
+        final PianoMidiOutput output = new PianoMidiOutput(sink);
+        output.setTouchVelocityEnabled(true);
+        output.keyDown(0, 0, 0);
+        output.keyDown(1, 0.5f, 0);
+        output.keyDown(2, 1.5f, 0);
+        output.keyDown(3, Float.NaN, 0);
+        output.flush();
+        final byte[] data = sink.getBytes();
+        assertEquals(1, data[2]);
+        assertEquals(64, data[5]);
+        assertEquals(127, data[8]);
+        assertEquals(PianoMidiOutput.DEFAULT_VELOCITY, data[11]);
+    }
+
+    @Test
+    public void skipsNotesPastRange() {
+        final LoopbackSink sink = new LoopbackSink();
+        final PianoMidiOutput output = new PianoMidiOutput(sink);
+        output.setBaseNote(100);
+        output.keyDown(27, Float.NaN, 0);
+        output.keyDown(28, Float.NaN, 0);
+        output.flush();
+        assertEquals(3, sink.getBytes().length);
+    }
+
+    @Test
+    public void sendsEarlyWhenBufferIsFull() {
+        final LoopbackSink sink = new LoopbackSink();
+        final PianoMidiOutput output = new PianoMidiOutput(sink);
+        for (int i = 0; i < 65; i++) {
+            output.keyDown(i % 88, Float.NaN, 5);
+        }
+        assertEquals(1, sink.mSends);
+        output.flush();
+        assertEquals(2, sink.mSends);
+        assertEquals(5000000L, sink.mLastTimestampNanos);
+        assertEquals(65 * 3, sink.getBytes().length);
+    }
+
+    @Test
+    public void sendsEachTimeWithItsOwnTimestamp() {
+        final LoopbackSink sink = new LoopbackSink();
+        final PianoMidiOutput output = new PianoMidiOutput(sink);
+        // Keys crossed by two samples of one touch event
+        output.keyUp(0, 20);
+        output.keyDown(2, Float.NaN, 20);
+        output.keyUp(2, 24);
+        output.keyDown(4, Float.NaN, 24);
+        output.flush();
+        assertEquals(Arrays.asList(20000000L, 24000000L), sink.mTimestamps);
+        assertArrayEquals(bytes(0x80, 36, 64, 0x90, 38, 100, 0x80, 38, 64, 0x90, 40, 100), sink.getBytes());
+    }
+
+    @Test
+    public void roundTripsThroughMidiInput() {
+        final LoopbackSink sink = new LoopbackSink();
+        final PianoMidiOutput output = new PianoMidiOutput(sink);
+        output.keyDown(0, Float.NaN, 0);
+        output.keyDown(7, Float.NaN, 0);
+        output.keyDown(70, Float.NaN, 0);
+        output.keyUp(7, 1);
+        output.flush();
+
+        final long[] pressed = new long[2];
+        final PianoMidiInput input = new PianoMidiInput(new PianoKeyChangeSink() {
+            @Override
+            public void onKeysChanged(long changedLo, long changedHi, long pressedLo, long pressedHi) {
+                pressed[0] = (pressed[0] & ~changedLo) | (pressedLo & changedLo);
+                pressed[1] = (pressed[1] & ~changedHi) | (pressedHi & changedHi);
+            }
+        });
+        input.parse(sink.getBytes());
+        assertArrayEquals(new long[]{1L, 1L << 6}, pressed);
+    }
+
+    @Test
+    public void writesToStreamAndBuffer() {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        final PianoMidiOutput streamOutput = new PianoMidiOutput(PianoMidiOutput.toOutputStream(stream));
+        streamOutput.keyDown(1, Float.NaN, 0);
+        streamOutput.flush();
+        assertArrayEquals(bytes(0x90, 37, 100), stream.toByteArray());
+
+        final ByteBuffer buffer = ByteBuffer.allocate(4);
+        final PianoMidiOutput bufferOutput = new PianoMidiOutput(PianoMidiOutput.toByteBuffer(buffer));
+        bufferOutput.keyUp(1, 0);
+        bufferOutput.flush();
+        assertEquals(3, buffer.position());
+        bufferOutput.keyUp(2, 0);
+        bufferOutput.flush();
+        assertEquals(3, buffer.position());
+        assertEquals(1, bufferOutput.getSendErrorCount());
+    }
+
+    private static byte[] bytes(int... values) {
+        final byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    /**
+     * Keeps every byte that was sent.
+     */
+    private static class LoopbackSink implements PianoMidiOutput.Sink {
+
+        private byte[] mBytes = new byte[0];
+        final List<Long> mTimestamps = new ArrayList<>();
+        int mSends;
+        long mLastTimestampNanos;
+
+        @Override
+        public void send(byte[] data, int offset, int count, long timestampNanos) throws IOException {
+            final int length = mBytes.length;
+            mBytes = Arrays.copyOf(mBytes, length + count);
+            System.arraycopy(data, offset, mBytes, length, count);
+            mSends++;
+            mLastTimestampNanos = timestampNanos;
+            mTimestamps.add(timestampNanos);
+        }
+
+        byte[] getBytes() {
+            return mBytes;
+        }
+
+    }
+
+}
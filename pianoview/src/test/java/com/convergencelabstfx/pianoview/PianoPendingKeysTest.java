@@ -0,0 +1,156 @@
+package com.convergencelabstfx.pianoview;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PianoPendingKeys}.
+ */
+public class PianoPendingKeysTest {
+
+    private final PianoKeyBitSet mPending = new PianoKeyBitSet();
+    private final PianoKeyBitSet mPressed = new PianoKeyBitSet();
+
+    @Test
+    public void spreadAndCompactAreInverse() {
+        final int[] values = {0, 1, 0x80000000, 0xFFFFFFFF, 0x12345678, 0xA5A5A5A5};
+        for (int value : values) {
+            final long spread = PianoPendingKeys.spread(value);
+            assertEquals(0, spread & 0xAAAAAAAAAAAAAAAAL);
+            assertEquals(Integer.bitCount(value), Long.bitCount(spread));
+            assertEquals(value & 0xFFFFFFFFL, PianoPendingKeys.compact(spread));
+        }
+    }
+
+    @Test
+    public void lastPostOfKeyWins() {
+        final PianoPendingKeys keys = new PianoPendingKeys();
+        assertEquals(PianoPendingKeys.DRAIN_EMPTY, keys.drain(mPending, mPressed));
+        keys.post(3, true);
+        keys.post(3, false);
+        keys.post(100, false);
+        keys.post(100, true);
+        assertEquals(PianoPendingKeys.DRAIN_TAKEN, keys.drain(mPending, mPressed));
+        assertEquals(1L << 3, mPending.lo);
+        assertEquals(1L << 36, mPending.hi);
+        assertEquals(0, mPressed.lo);
+        assertEquals(1L << 36, mPressed.hi);
+        assertEquals(PianoPendingKeys.DRAIN_EMPTY, keys.drain(mPending, mPressed));
+    }
+
+    @Test
+    public void maskReplacesEveryKey() {
+        final PianoPendingKeys keys = new PianoPendingKeys();
+        keys.post(5, true);
+        keys.postMask(0x8000000000000001L, 0x1L);
+        keys.post(70, true);
+        assertEquals(PianoPendingKeys.DRAIN_TAKEN, keys.drain(mPending, mPressed));
+        assertEquals(-1L, mPending.lo);
+        assertEquals(-1L, mPending.hi);
+        assertEquals(0x8000000000000001L, mPressed.lo);
+        assertEquals(0x41L, mPressed.hi);
+    }
+
+    @Test
+    public void changesOnlyTouchChangedKeys() {
+        final PianoPendingKeys keys = new PianoPendingKeys();
+        keys.post(1, true);
+        keys.post(2, true);
+        // Key 2 released, key 40 and key 127 pressed; the pressed bit of key 1 isn't a change
+        keys.postChanges(1L << 2 | 1L << 40, 1L << 63, 1L << 1 | 1L << 40, -1L);
+        assertEquals(PianoPendingKeys.DRAIN_TAKEN, keys.drain(mPending, mPressed));
+        assertEquals(1L << 1 | 1L << 2 | 1L << 40, mPending.lo);
+        assertEquals(1L << 63, mPending.hi);
+        assertEquals(1L << 1 | 1L << 40, mPressed.lo);
+        assertEquals(1L << 63, mPressed.hi);
+    }
+
+    @Test
+    public void masksAreNeverDrainedHalfWritten() throws InterruptedException {
+        final PianoPendingKeys keys = new PianoPendingKeys();
+        final AtomicBoolean done = new AtomicBoolean();
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // Every post presses all keys or none, across all four words
+                for (int i = 0; i < 500000; i++) {
+                    if (i % 2 == 0) {
+                        keys.postMask(i % 4 == 0 ? -1L : 0, i % 4 == 0 ? -1L : 0);
+                    }
+                    else {
+                        keys.postChanges(-1L, -1L, i % 4 == 1 ? -1L : 0, i % 4 == 1 ? -1L : 0);
+                    }
+                }
+                done.set(true);
+            }
+        });
+        producer.start();
+        int taken = 0;
+        boolean running = true;
+        while (running) {
+            running = !done.get();
+            if (keys.drain(mPending, mPressed) == PianoPendingKeys.DRAIN_TAKEN) {
+                taken++;
+                assertEquals(-1L, mPending.lo);
+                assertEquals(-1L, mPending.hi);
+                assertTrue(mPressed.isEmpty() || (mPressed.lo == -1L && mPressed.hi == -1L));
+            }
+        }
+        producer.join();
+        assertTrue(taken > 0);
+        // The last post released every key
+        assertTrue(mPressed.isEmpty());
+    }
+
+    @Test
+    public void concurrentPostsAreNotLost() throws InterruptedException {
+        final PianoPendingKeys keys = new PianoPendingKeys();
+        final int threads = 4;
+        final int rounds = 100000;
+        final Thread[] producers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int first = t * 32;
+            producers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // Every thread toggles its own 32 keys, ending with the odd keys pressed
+                    for (int i = 0; i < rounds; i++) {
+                        final int key = first + i % 32;
+                        keys.post(key, (i / 32) % 2 == 0 ? key % 2 == 0 : key % 2 == 1);
+                    }
+                    for (int key = first; key < first + 32; key++) {
+                        keys.post(key, key % 2 == 1);
+                    }
+                }
+            });
+            producers[t].start();
+        }
+        // Applies the drained keys like PianoView does, while the producers run
+        long lo = 0;
+        long hi = 0;
+        boolean running = true;
+        while (running) {
+            running = false;
+            for (Thread producer : producers) {
+                running |= producer.isAlive();
+            }
+            if (keys.drain(mPending, mPressed) == PianoPendingKeys.DRAIN_TAKEN) {
+                lo = (lo & ~mPending.lo) | mPressed.lo;
+                hi = (hi & ~mPending.hi) | mPressed.hi;
+            }
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        if (keys.drain(mPending, mPressed) == PianoPendingKeys.DRAIN_TAKEN) {
+            lo = (lo & ~mPending.lo) | mPressed.lo;
+            hi = (hi & ~mPending.hi) | mPressed.hi;
+        }
+        assertEquals(0xAAAAAAAAAAAAAAAAL, lo);
+        assertEquals(0xAAAAAAAAAAAAAAAAL, hi);
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.convergencelabstfx.pianoview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PianoPressedKeys}.
+ */
+public class PianoPressedKeysTest {
+
+    @Test
+    public void versionChangesOnlyWithKeys() {
+        final PianoPressedKeys keys = new PianoPressedKeys();
+        final long[] mask = new long[2];
+        final long version = keys.read(mask);
+        assertEquals(0, mask[0]);
+        keys.publish(0, 0);
+        assertFalse(keys.hasChangedSince(version));
+
+        keys.publish(1L << 5, 1L << 20);
+        assertTrue(keys.hasChangedSince(version));
+        assertEquals(version + 1, keys.read(mask));
+        assertArrayEquals(new long[]{1L << 5, 1L << 20}, mask);
+        assertTrue(keys.isPressed(5));
+        assertTrue(keys.isPressed(84));
+        assertFalse(keys.isPressed(6));
+        assertFalse(keys.isPressed(-1));
+    }
+
+    @Test
+    public void readersSeeConsistentMasks() throws InterruptedException {
+        final PianoPressedKeys keys = new PianoPressedKeys();
+        final int publications = 1000000;
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // The high word is always the complement of the low word
+                for (long i = 1; i <= publications; i++) {
+                    keys.publish(i, ~i);
+                }
+            }
+        });
+        writer.start();
+        final long[] mask = new long[2];
+        long lastVersion = 0;
+        while (writer.isAlive()) {
+            final long version = keys.read(mask);
+            if (version != 0) {
+                assertEquals(~mask[0], mask[1]);
+                assertEquals(version, mask[0]);
+            }
+            assertTrue(version >= lastVersion);
+            lastVersion = version;
+        }
+        writer.join();
+        assertEquals(publications, keys.read(mask));
+    }
+
+}
@@ -0,0 +1,151 @@
+package com.convergencelabstfx.pianoview;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PianoRecorder} and {@link PianoRecordingReader}.
+ */
+public class PianoRecorderTest {
+
+    @Test
+    public void roundTripsEvents() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final PianoRecorder recorder = new PianoRecorder(Channels.newChannel(out));
+        recorder.record(5, true, 1000);
+        recorder.record(100, true, 1000);
+        recorder.record(5, false, 1090);
+        recorder.record(100, false, 1000000);
+        recorder.close();
+        assertEquals(4, recorder.getEventCount());
+        assertEquals(out.size(), recorder.getByteCount());
+        // 5 byte header, then 2 + 2 + 2 + 4 bytes of events
+        assertEquals(15, out.size());
+
+        final PianoRecordingReader reader = reader(out.toByteArray());
+        assertEvent(reader, 0, 5, true);
+        assertEvent(reader, 0, 100, true);
+        assertEvent(reader, 90, 5, false);
+        assertEvent(reader, 999000, 100, false);
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void recordsTouchEventsOnly() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final PianoRecorder recorder = new PianoRecorder(Channels.newChannel(out));
+        final KeyEventBatch batch = new KeyEventBatch();
+        batch.clear(KeyEventBatch.SOURCE_TOUCH);
+        batch.add(KeyEventBatch.TYPE_KEY_DOWN, 3, 0, 10);
+        batch.add(KeyEventBatch.TYPE_KEY_CLICK, 3, 0, 12);
+        batch.add(KeyEventBatch.TYPE_KEY_UP, 3, 0, 12);
+        recorder.onKeyEvents(null, batch);
+        batch.clear(KeyEventBatch.SOURCE_PRESSED_KEYS_UPDATE);
+        batch.add(KeyEventBatch.TYPE_KEY_DOWN, 7, KeyEventBatch.NO_POINTER, 20);
+        recorder.onKeyEvents(null, batch);
+        recorder.close();
+        assertEquals(2, recorder.getEventCount());
+
+        final PianoRecordingReader reader = reader(out.toByteArray());
+        assertEvent(reader, 0, 3, true);
+        assertEvent(reader, 2, 3, false);
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void longRecordingTakesConstantMemory() throws IOException {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+        final long thread = Thread.currentThread().getId();
+        final CountingChannel channel = new CountingChannel();
+        final PianoRecorder recorder = new PianoRecorder(channel);
+        // Warms up, so the measured loop runs compiled code
+        recordScales(recorder, 0, 100000);
+        final long before = bean.getThreadAllocatedBytes(thread);
+        // About an hour of fast playing
+        recordScales(recorder, 100000, 100000 + 36000 * 10);
+        final long after = bean.getThreadAllocatedBytes(thread);
+        // Leaves room for the JIT compiler's own bookkeeping; an object per event would take megabytes
+        assertTrue(after - before < 16384);
+        recorder.flush();
+        assertEquals(channel.mCount, recorder.getByteCount());
+        assertTrue(recorder.getByteCount() < 3 * recorder.getEventCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherData() throws IOException {
+        reader("MThd".getBytes("US-ASCII"));
+    }
+
+    @Test(expected = EOFException.class)
+    public void rejectsTruncatedEvent() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final PianoRecorder recorder = new PianoRecorder(Channels.newChannel(out));
+        recorder.record(5, true, 0);
+        recorder.record(5, false, 100000);
+        recorder.close();
+        final byte[] data = out.toByteArray();
+        final PianoRecordingReader reader = reader(Arrays.copyOf(data, data.length - 1));
+        assertTrue(reader.next());
+        reader.next();
+    }
+
+    private static void recordScales(PianoRecorder recorder, int first, int end) {
+        for (int i = first; i < end; i++) {
+            recorder.record(i % 88, i % 2 == 0, i * 10L);
+        }
+    }
+
+    static PianoRecordingReader reader(byte[] data) throws IOException {
+        return new PianoRecordingReader(Channels.newChannel(new ByteArrayInputStream(data)));
+    }
+
+    private static void assertEvent(PianoRecordingReader reader, long time, int key, boolean down) throws IOException {
+        assertTrue(reader.next());
+        assertEquals(time, reader.getTime());
+        assertEquals(key, reader.getKey());
+        assertEquals(down, reader.isDown());
+    }
+
+    /**
+     * Counts and discards the written bytes.
+     */
+    private static class CountingChannel implements WritableByteChannel {
+
+        long mCount;
+
+        @Override
+        public int write(ByteBuffer src) {
+            final int count = src.remaining();
+            src.position(src.limit());
+            mCount += count;
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
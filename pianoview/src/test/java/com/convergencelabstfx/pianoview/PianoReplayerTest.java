@@ -0,0 +1,84 @@
+package com.convergencelabstfx.pianoview;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PianoReplayer}.
+ */
+public class PianoReplayerTest {
+
+    private final TimedKeyChangeSink mSink = new TimedKeyChangeSink();
+
+    @Test
+    public void replaysAtRecordedTimes() throws IOException {
+        // Delta times; the events are at 0, 0, 20 and 65 ms
+        final byte[] recording = record(
+                0, 1, 1,
+                0, 70, 1,
+                20, 1, 0,
+                45, 2, 1
+        );
+        final PianoReplayer replayer = new PianoReplayer(mSink);
+        mSink.startClock();
+        replayer.play(channel(recording));
+
+        // Simultaneous events are applied together, and held keys are released at the end
+        assertEquals(4, mSink.size());
+        mSink.assertChange(0, 0, 1L << 1, 1L << 6, 1L << 1, 1L << 6);
+        mSink.assertChange(1, 20, 1L << 1, 0, 0, 1L << 6);
+        mSink.assertChange(2, 65, 1L << 2, 0, 1L << 2, 1L << 6);
+        mSink.assertChange(3, 65, 1L << 2, 1L << 6, 0, 0);
+        final PianoLatencyHistogram error = replayer.getSchedulingError();
+        assertEquals(4, error.getCount());
+        // Parking, then spinning for the last millisecond, keeps most events within a millisecond;
+        // the bound on the worst one leaves room for a busy test machine preempting the thread
+        assertTrue(error.getPercentileMicros(50) <= 1024);
+        assertTrue(error.getMaxNanos() < 10000000L);
+        assertFalse(replayer.isPlaying());
+    }
+
+    @Test
+    public void stopReleasesKeys() throws IOException, InterruptedException {
+        final byte[] recording = record(
+                0, 10, 1,
+                60000, 10, 0
+        );
+        final PianoReplayer replayer = new PianoReplayer(mSink);
+        mSink.startClock();
+        replayer.start(channel(recording));
+        mSink.awaitChange();
+        replayer.stop();
+        assertFalse(replayer.isPlaying());
+        assertEquals(2, mSink.size());
+        mSink.assertChange(1, -1, 1L << 10, 0, 0, 0);
+        assertTrue(mSink.getTimeNanos(1) < 30000000000L);
+    }
+
+    /**
+     * Records events given as triples of delta time, key, and 1 for down or 0 for up.
+     */
+    private static byte[] record(long... events) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final PianoRecorder recorder = new PianoRecorder(Channels.newChannel(out));
+        long time = 5000;
+        for (int i = 0; i < events.length; i += 3) {
+            time += events[i];
+            recorder.record((int) events[i + 1], events[i + 2] == 1, time);
+        }
+        recorder.close();
+        return out.toByteArray();
+    }
+
+    private static ReadableByteChannel channel(byte[] data) {
+        return Channels.newChannel(new ByteArrayInputStream(data));
+    }
+
+}
@@ -0,0 +1,155 @@
+package com.convergencelabstfx.pianoview;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PianoSamplePlayer} and {@link PianoSampleLibrary}.
+ */
+public class PianoSamplePlayerTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    // Runs well past the attack, through several cached regions
+    private static final int FRAMES = 20000;
+
+    private final float[] mBlock = new float[256];
+
+    @Test
+    public void keysPlayNearestSample() throws IOException {
+        final PianoSampleLibrary library = new PianoSampleLibrary();
+        assertEquals(-1, library.getRootKeyForKey(10));
+        library.addSample(12, ramp(SAMPLE_RATE));
+        library.addSample(24, ramp(SAMPLE_RATE));
+        library.addSample(12, ramp(SAMPLE_RATE));
+        assertEquals(2, library.getSampleCount());
+        assertEquals(12, library.getRootKeyForKey(0));
+        assertEquals(12, library.getRootKeyForKey(18));
+        assertEquals(24, library.getRootKeyForKey(19));
+        assertEquals(24, library.getRootKeyForKey(127));
+    }
+
+    @Test
+    public void playsRootKeyUnchanged() throws IOException {
+        final PianoSamplePlayer player = createPlayer(ramp(SAMPLE_RATE), 4, 8);
+        player.noteOn(30, 127);
+        final float[] out = new float[FRAMES];
+        render(player, out);
+        for (int i = 0; i < FRAMES; i++) {
+            assertEquals(rampValue(i), out[i], 1e-6f);
+        }
+        assertTrue(player.getCacheMissCount() > 0);
+    }
+
+    @Test
+    public void shiftsPitchAndSampleRate() throws IOException {
+        // An octave up at half the sample rate plays the sample at its recorded speed
+        final PianoSampleLibrary library = new PianoSampleLibrary();
+        library.addSample(30, ramp(SAMPLE_RATE / 2));
+        final PianoSamplePlayer player = new PianoSamplePlayer(library, SAMPLE_RATE, 4, 8);
+        player.setGain(1);
+        player.noteOn(42, 127);
+        final float[] out = new float[FRAMES];
+        render(player, out);
+        for (int i = 0; i < FRAMES; i++) {
+            assertEquals(rampValue(i), out[i], 1e-4f);
+        }
+
+        // An octave down interpolates halfway between frames
+        library.addSample(30, ramp(SAMPLE_RATE));
+        player.noteOn(18, 127);
+        render(player, out);
+        for (int i = 0; i < FRAMES; i++) {
+            assertEquals((rampValue(i / 2) + rampValue((i + 1) / 2)) / 2, out[i], 1e-4f);
+        }
+    }
+
+    @Test
+    public void noteEndsWithSampleOrRelease() throws IOException {
+        final PianoSamplePlayer player = createPlayer(ramp(SAMPLE_RATE), 4, 8);
+        player.noteOn(30, 127);
+        render(player, new float[FRAMES - 100]);
+        assertEquals(1, player.getActiveVoiceCount());
+        render(player, new float[200]);
+        assertEquals(0, player.getActiveVoiceCount());
+
+        player.setReleaseTime(0.001f);
+        player.noteOn(30, 127);
+        render(player, new float[1000]);
+        player.noteOff(30);
+        render(player, new float[1000]);
+        assertEquals(0, player.getActiveVoiceCount());
+    }
+
+    @Test
+    public void restrikeKeepsRingingNote() throws IOException {
+        final PianoSamplePlayer player = createPlayer(ramp(SAMPLE_RATE), 2, 4);
+        player.setReleaseTime(10);
+        player.noteOn(30, 127);
+        player.noteOn(30, 127);
+        assertEquals(2, player.getActiveVoiceCount());
+        player.noteOn(31, 127);
+        assertEquals(1, player.getStolenVoiceCount());
+        assertEquals(2, player.getActiveVoiceCount());
+    }
+
+    @Test
+    public void cacheStaysBounded() throws IOException {
+        final PianoSampleLibrary library = new PianoSampleLibrary();
+        for (int root = 0; root < 88; root += 8) {
+            library.addSample(root, ramp(SAMPLE_RATE));
+        }
+        final PianoSamplePlayer player = new PianoSamplePlayer(library, SAMPLE_RATE, 4, 8);
+        final PianoKeyEventQueue queue = new PianoKeyEventQueue(64, PianoKeyEventQueue.OVERFLOW_DROP_NEWEST);
+        player.setEventQueue(queue);
+        // Root keys only, so no two notes share a sample and its regions
+        for (int key = 0; key < 88; key += 8) {
+            queue.offer(PianoKeyEventQueue.pack(PianoKeyEventQueue.TYPE_KEY_DOWN, key, 0, key));
+            render(player, new float[10000]);
+            assertTrue(player.getCachedRegionCount() <= 8);
+        }
+        // Regions were evicted and decoded again, rather than kept
+        assertEquals(8, player.getCachedRegionCount());
+        assertTrue(player.getCacheMissCount() > 2 * 11);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooSmallCache() {
+        new PianoSamplePlayer(new PianoSampleLibrary(), SAMPLE_RATE, 4, 7);
+    }
+
+    private PianoSamplePlayer createPlayer(File file, int maxVoices, int maxCachedRegions) throws IOException {
+        final PianoSampleLibrary library = new PianoSampleLibrary();
+        library.addSample(30, file);
+        final PianoSamplePlayer player = new PianoSamplePlayer(library, SAMPLE_RATE, maxVoices, maxCachedRegions);
+        player.setGain(1);
+        return player;
+    }
+
+    private void render(PianoSamplePlayer player, float[] out) {
+        for (int i = 0; i < out.length; i += mBlock.length) {
+            final int count = Math.min(mBlock.length, out.length - i);
+            player.render(mBlock, 0, count);
+            System.arraycopy(mBlock, 0, out, i, count);
+        }
+    }
+
+    /**
+     * A rising ramp, so interpolated values are exact.
+     */
+    private static float rampValue(int frame) {
+        return frame < FRAMES ? (frame - 16384) / 32768f : 0;
+    }
+
+    private static File ramp(int sampleRate) throws IOException {
+        final short[] samples = new short[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            samples[i] = (short) (i - 16384);
+        }
+        return PianoSampleTest.writeWav(sampleRate, 1, 16, samples);
+    }
+
+}
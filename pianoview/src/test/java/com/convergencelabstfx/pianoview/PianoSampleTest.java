@@ -0,0 +1,103 @@
+package com.convergencelabstfx.pianoview;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PianoSample}.
+ */
+public class PianoSampleTest {
+
+    @Test
+    public void mapsMonoFile() throws IOException {
+        final File file = writeWav(22050, 1, 16, new short[]{0, 16384, -32768, 32767});
+        final PianoSample sample = PianoSample.map(file, 40);
+        assertEquals(4, sample.getFrameCount());
+        assertEquals(1, sample.getChannels());
+        assertEquals(22050, sample.getSampleRate());
+        assertEquals(40, sample.getRootKey());
+        assertEquals(0.5f, sample.getFrame(1), 0);
+        assertEquals(-1f, sample.getFrame(2), 0);
+    }
+
+    @Test
+    public void mixesStereoToMono() throws IOException {
+        final File file = writeWav(44100, 2, 16, new short[]{16384, 0, -16384, -16384});
+        final PianoSample sample = PianoSample.map(file, 0);
+        assertEquals(2, sample.getFrameCount());
+        assertEquals(0.25f, sample.getFrame(0), 0);
+        assertEquals(-0.5f, sample.getFrame(1), 0);
+    }
+
+    @Test
+    public void skipsUnknownChunks() throws IOException {
+        final ByteBuffer buffer = wav(8000, 1, 16, new short[]{100, 200}, 3);
+        final PianoSample sample = PianoSample.parse(buffer, 0, "test");
+        assertEquals(2, sample.getFrameCount());
+        assertEquals(200 / 32768f, sample.getFrame(1), 0);
+    }
+
+    @Test
+    public void decodePadsPastEnd() throws IOException {
+        final PianoSample sample = PianoSample.parse(wav(8000, 1, 16, new short[]{16384, 16384, 16384}, 0), 0, "test");
+        final float[] out = {9, 9, 9, 9};
+        sample.decode(1, out, 4);
+        assertArrayEquals(new float[]{0.5f, 0.5f, 0, 0}, out, 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherBitDepths() throws IOException {
+        PianoSample.parse(wav(8000, 1, 8, new short[]{1, 2}, 0), 0, "test");
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsNonWavData() throws IOException {
+        PianoSample.parse(ByteBuffer.wrap("MThd not a wav file".getBytes("US-ASCII")), 0, "test");
+    }
+
+    /**
+     * Writes a WAV fixture to a temporary file.
+     */
+    static File writeWav(int sampleRate, int channels, int bits, short[] samples) throws IOException {
+        final ByteBuffer buffer = wav(sampleRate, channels, bits, samples, 0);
+        final File file = File.createTempFile("piano", ".wav");
+        file.deleteOnExit();
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(buffer.array());
+        }
+        finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Encodes WAV data, with an odd sized unknown chunk of the given length before the data chunk.
+     */
+    static ByteBuffer wav(int sampleRate, int channels, int bits, short[] samples, int extraChunkLength) {
+        final int padded = extraChunkLength == 0 ? 0 : 8 + extraChunkLength + (extraChunkLength & 1);
+        final ByteBuffer buffer = ByteBuffer.allocate(44 + padded + 2 * samples.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put("RIFF".getBytes()).putInt(buffer.capacity() - 8).put("WAVE".getBytes());
+        buffer.put("fmt ".getBytes()).putInt(16).putShort((short) 1).putShort((short) channels).putInt(sampleRate)
+                .putInt(sampleRate * channels * bits / 8).putShort((short) (channels * bits / 8)).putShort((short) bits);
+        if (extraChunkLength != 0) {
+            buffer.put("LIST".getBytes()).putInt(extraChunkLength);
+            buffer.position(buffer.position() + extraChunkLength + (extraChunkLength & 1));
+        }
+        buffer.put("data".getBytes()).putInt(2 * samples.length);
+        for (short sample : samples) {
+            buffer.putShort(sample);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.convergencelabstfx.pianoview;
+
+import java.util.Locale;
+
+/**
+ * Rough render benchmark of {@link PianoSynth} on a plain JVM: keeps every voice busy and
+ * reports how much faster than real time the blocks render.
+ * <p>
+ * Run with: {@code PianoSynthBenchmark [voices] [framesPerBlock] [seconds]}
+ */
+final class PianoSynthBenchmark {
+
+    private static final int SAMPLE_RATE = 48000;
+
+    private PianoSynthBenchmark() {
+    }
+
+    /**
+     * Renders the given amount of audio and returns the render time in nanoseconds.
+     */
+    static long run(int voices, int framesPerBlock, float seconds) {
+        final PianoSynth synth = new PianoSynth(SAMPLE_RATE, voices);
+        // Held notes never fade, so the voice count stays at its maximum
+        synth.setEnvelope(0.005f, 0.5f, 0.5f, 0.2f);
+        for (int key = 0; key < voices; key++) {
+            synth.noteOn(key % 88, 100);
+        }
+        final float[] block = new float[framesPerBlock];
+        final int blocks = (int) (seconds * SAMPLE_RATE / framesPerBlock);
+        final long start = System.nanoTime();
+        for (int i = 0; i < blocks; i++) {
+            synth.render(block, 0, framesPerBlock);
+        }
+        return System.nanoTime() - start;
+    }
+
+    public static void main(String[] args) {
+        final int voices = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        final int framesPerBlock = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        final float seconds = args.length > 2 ? Float.parseFloat(args[2]) : 30;
+        // Warm up
+        run(voices, framesPerBlock, seconds / 4);
+        final long nanos = run(voices, framesPerBlock, seconds);
+        final double blockNanos = nanos / (double) (int) (seconds * SAMPLE_RATE / framesPerBlock);
+        System.out.println(String.format(Locale.US,
+                "%d voices, %d frames per block: %.1f us per block, %.1fx real time",
+                voices, framesPerBlock, blockNanos / 1000, seconds * 1e9 / nanos));
+    }
+
+}
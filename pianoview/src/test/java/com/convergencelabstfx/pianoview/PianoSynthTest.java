@@ -0,0 +1,211 @@
+package com.convergencelabstfx.pianoview;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PianoSynth}.
+ */
+public class PianoSynthTest {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    private final float[] mBlock = new float[256];
+
+    @Test
+    public void silentWithoutNotes() {
+        final PianoSynth synth = new PianoSynth(SAMPLE_RATE, 4);
+        mBlock[0] = 1;
+        synth.render(mBlock, 0, mBlock.length);
+        assertEquals(0, peak(mBlock), 0);
+        assertEquals(0, synth.getActiveVoiceCount());
+    }
+
+    @Test
+    public void playsPitchOfKey() {
+        final PianoSynth synth = new PianoSynth(SAMPLE_RATE, 4);
+        synth.setEnvelope(0, 1, 1, 0.01f);
+        // Key 33 above the default base note 36 is A 440 Hz, a period of about 100 samples
+        synth.noteOn(33, 127);
+        final float[] samples = new float[4096];
+        synth.render(samples, 0, samples.length);
+        assertTrue(peak(samples) > 0.1f);
+        assertEquals(100, strongestPeriod(samples, 50, 200));
+    }
+
+    @Test
+    public void releasedNoteFreesItsVoice() {
+        final PianoSynth synth = new PianoSynth(SAMPLE_RATE, 4);
+        synth.setEnvelope(0.001f, 1, 1, 0.01f);
+        synth.noteOn(10, 100);
+        render(synth, 0.1f);
+        assertEquals(1, synth.getActiveVoiceCount());
+        synth.noteOff(10);
+        render(synth, 0.2f);
+        assertEquals(0, synth.getActiveVoiceCount());
+        synth.render(mBlock, 0, mBlock.length);
+        assertEquals(0, peak(mBlock), 0);
+    }
+
+    @Test
+    public void heldNoteFadesWithoutSustain() {
+        final PianoSynth synth = new PianoSynth(SAMPLE_RATE, 4);
+        synth.setEnvelope(0.001f, 0.05f, 0, 1);
+        synth.noteOn(10, 100);
+        render(synth, 0.2f);
+        assertEquals(1, synth.getActiveVoiceCount());
+        render(synth, 0.5f);
+        assertEquals(0, synth.getActiveVoiceCount());
+    }
+
+    @Test
+    public void retriggerReusesVoice() {
+        final PianoSynth synth = new PianoSynth(SAMPLE_RATE, 2);
+        synth.noteOn(10, 100);
+        synth.noteOn(10, 100);
+        synth.noteOn(11, 100);
+        assertEquals(2, synth.getActiveVoiceCount());
+        assertEquals(0, synth.getStolenVoiceCount());
+    }
+
+    @Test
+    public void stealsReleasingVoiceFirst() {
+        final PianoSynth synth = new PianoSynth(SAMPLE_RATE, 2);
+        synth.setEnvelope(0.001f, 1, 1, 10);
+        synth.noteOn(0, 100);
+        synth.noteOn(1, 100);
+        synth.noteOff(1);
+        synth.noteOn(2, 100);
+        assertEquals(1, synth.getStolenVoiceCount());
+        // Key 0 kept its voice, so releasing it leaves nothing held
+        synth.noteOff(0);
+        synth.noteOff(2);
+        synth.setEnvelope(0.001f, 1, 1, 0.01f);
+        render(synth, 0.2f);
+        assertEquals(0, synth.getActiveVoiceCount());
+    }
+
+    @Test
+    public void stealsOldestVoiceWhenAllAreHeld() {
+        final PianoSynth synth = new PianoSynth(SAMPLE_RATE, 2);
+        synth.setEnvelope(0.001f, 1, 1, 0.01f);
+        synth.noteOn(0, 100);
+        synth.noteOn(1, 100);
+        synth.noteOn(2, 100);
+        assertEquals(1, synth.getStolenVoiceCount());
+        assertEquals(2, synth.getActiveVoiceCount());
+        // Key 0 lost its voice, so releasing it changes nothing
+        synth.noteOff(0);
+        synth.noteOff(1);
+        render(synth, 0.2f);
+        assertEquals(1, synth.getActiveVoiceCount());
+    }
+
+    @Test
+    public void playsEventsFromQueue() {
+        final PianoSynth synth = new PianoSynth(SAMPLE_RATE, 4);
+        synth.setEnvelope(0.001f, 1, 1, 0.01f);
+        final PianoKeyEventQueue queue = new PianoKeyEventQueue(16, PianoKeyEventQueue.OVERFLOW_DROP_NEWEST);
+        synth.setEventQueue(queue);
+        queue.offer(PianoKeyEventQueue.pack(PianoKeyEventQueue.TYPE_KEY_DOWN, 5, 0, 0));
+        queue.offer(PianoKeyEventQueue.pack(PianoKeyEventQueue.TYPE_KEY_CLICK, 5, 0, 0));
+        synth.render(mBlock, 0, mBlock.length);
+        assertEquals(1, synth.getActiveVoiceCount());
+        assertTrue(queue.isEmpty());
+        queue.offer(PianoKeyEventQueue.pack(PianoKeyEventQueue.TYPE_KEY_UP, 5, 0, 1));
+        render(synth, 0.2f);
+        assertEquals(0, synth.getActiveVoiceCount());
+    }
+
+    @Test
+    public void rendersEveryKeyAtEverySampleRate() {
+        for (int sampleRate : new int[]{8000, 192000}) {
+            for (int baseNote : new int[]{0, PianoMidiInput.DEFAULT_LOWEST_NOTE, 72, 127}) {
+                final PianoSynth synth = new PianoSynth(sampleRate, 8);
+                synth.setBaseNote(baseNote);
+                for (int key = 0; key < PianoKeyBitSet.CAPACITY; key++) {
+                    synth.noteOn(key, 127);
+                    synth.render(mBlock, 0, mBlock.length);
+                    final double frequency = 440 * Math.pow(2, (baseNote + key - 69) / 12.0);
+                    // Keys at or above half the sample rate can't be rendered
+                    assertEquals(frequency < sampleRate / 2.0 ? 1 : 0, synth.getActiveVoiceCount());
+                    assertTrue(peak(mBlock) <= 1);
+                    synth.noteOff(key);
+                    synth.setEnvelope(0, 1, 0, 0);
+                    synth.render(mBlock, 0, mBlock.length);
+                    synth.setEnvelope(0.002f, 1.5f, 0.2f, 0.3f);
+                    assertEquals(0, synth.getActiveVoiceCount());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void renderDoesNotAllocate() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+        final long thread = Thread.currentThread().getId();
+        final PianoSynth synth = new PianoSynth(SAMPLE_RATE, 8);
+        final PianoKeyEventQueue queue = new PianoKeyEventQueue(64, PianoKeyEventQueue.OVERFLOW_DROP_NEWEST);
+        synth.setEventQueue(queue);
+        // Warms up, so the measured loop runs compiled code
+        playChords(synth, queue, 2000);
+        final long before = bean.getThreadAllocatedBytes(thread);
+        playChords(synth, queue, 2000);
+        final long after = bean.getThreadAllocatedBytes(thread);
+        assertEquals(0, after - before);
+        assertTrue(synth.getStolenVoiceCount() > 0);
+    }
+
+    private void playChords(PianoSynth synth, PianoKeyEventQueue queue, int blocks) {
+        for (int i = 0; i < blocks; i++) {
+            final int type = i % 2 == 0 ? PianoKeyEventQueue.TYPE_KEY_DOWN : PianoKeyEventQueue.TYPE_KEY_UP;
+            for (int n = 0; n < 6; n++) {
+                queue.offer(PianoKeyEventQueue.pack(type, (i / 2 * 7 + n * 5) % 88, 0, i));
+            }
+            synth.render(mBlock, 0, mBlock.length);
+        }
+    }
+
+    private void render(PianoSynth synth, float seconds) {
+        final int blocks = (int) (seconds * SAMPLE_RATE / mBlock.length) + 1;
+        for (int i = 0; i < blocks; i++) {
+            synth.render(mBlock, 0, mBlock.length);
+        }
+    }
+
+    private static float peak(float[] samples) {
+        float peak = 0;
+        for (float sample : samples) {
+            peak = Math.max(peak, Math.abs(sample));
+        }
+        return peak;
+    }
+
+    /**
+     * Returns the lag with the highest autocorrelation.
+     */
+    private static int strongestPeriod(float[] samples, int minLag, int maxLag) {
+        int best = minLag;
+        double bestCorrelation = Double.NEGATIVE_INFINITY;
+        for (int lag = minLag; lag <= maxLag; lag++) {
+            double correlation = 0;
+            for (int i = 0; i + lag < samples.length; i++) {
+                correlation += samples[i] * samples[i + lag];
+            }
+            if (correlation > bestCorrelation) {
+                bestCorrelation = correlation;
+                best = lag;
+            }
+        }
+        return best;
+    }
+
+}
@@ -0,0 +1,208 @@
+package com.convergencelabstfx.pianoview;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Replay benchmark of {@link PianoTouchTracker} on a plain JVM: ten pointers on a 61 key piano, some
+ * held with a few pixels of jitter and some gliding across the keys, each move event carrying
+ * {@link #HISTORY_SIZE} historical samples. The same samples are fed to the touch handling
+ * PianoView had before the tracker (hit test the current sample of every pointer, then look its key
+ * up in a sparse map), to the tracker with only the current samples, and to the tracker with every
+ * sample, and the move events handled per second are reported.
+ * <p>
+ * Run with: {@code PianoTouchTrackerBenchmark [glidingPointers] [events] [rounds]}
+ */
+final class PianoTouchTrackerBenchmark {
+
+    private static final int POINTERS = 10;
+    private static final int HISTORY_SIZE = 4;
+    private static final int WIDTH = 2000;
+    private static final int HEIGHT = 300;
+
+    private static long sKeyEvents;
+
+    private PianoTouchTrackerBenchmark() {
+    }
+
+    /**
+     * Stand-in for android.util.SparseIntArray: a binary search over sorted keys.
+     */
+    private static final class SparseIntMap {
+
+        private final int[] mKeys = new int[POINTERS];
+        private final int[] mValues = new int[POINTERS];
+        private int mSize;
+
+        int get(int key) {
+            final int i = Arrays.binarySearch(mKeys, 0, mSize, key);
+            return i < 0 ? 0 : mValues[i];
+        }
+
+        void put(int key, int value) {
+            int i = Arrays.binarySearch(mKeys, 0, mSize, key);
+            if (i >= 0) {
+                mValues[i] = value;
+                return;
+            }
+            i = ~i;
+            System.arraycopy(mKeys, i, mKeys, i + 1, mSize - i);
+            System.arraycopy(mValues, i, mValues, i + 1, mSize - i);
+            mKeys[i] = key;
+            mValues[i] = value;
+            mSize++;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        int keyAt(int i) {
+            return mKeys[i];
+        }
+
+    }
+
+    private static final PianoTouchTracker.Callback COUNTING_CALLBACK = new PianoTouchTracker.Callback() {
+        @Override
+        public void onTouchKeyDown(int key, int pointerId, long time) {
+            sKeyEvents++;
+        }
+
+        @Override
+        public void onTouchKeyUp(int key, int pointerId, long time) {
+            sKeyEvents++;
+        }
+
+        @Override
+        public void onTouchKeyClick(int key, int pointerId, long time) {
+            sKeyEvents++;
+        }
+    };
+
+    public static void main(String[] args) {
+        final int gliders = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        final int events = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        final int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        final PianoKeyGeometry geometry = new PianoKeyGeometry();
+        geometry.setNumberOfKeys(61);
+        geometry.layout(WIDTH, 57, HEIGHT, 34, 180, 2, 18);
+
+        // Samples in event order: every historical sample, then the current one, each for every pointer
+        final int samplesPerEvent = (HISTORY_SIZE + 1) * POINTERS;
+        final float[] xs = new float[events * samplesPerEvent];
+        final float[] ys = new float[events * samplesPerEvent];
+        createSamples(new Random(1), gliders, xs, ys);
+        System.out.println(String.format(Locale.US, "%d held pointers, %d gliding, %d move events",
+                POINTERS - gliders, gliders, events));
+
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            replayMapLookups(geometry, xs, ys, events);
+            final long mapNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            replayTracker(geometry, xs, ys, events, false);
+            final long currentNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            replayTracker(geometry, xs, ys, events, true);
+            final long historyNanos = System.nanoTime() - start;
+            System.out.println(String.format(Locale.US,
+                    "map lookups: %.2fM events/s, tracker: %.2fM events/s, tracker with history: %.2fM events/s",
+                    events * 1e3 / mapNanos, events * 1e3 / currentNanos, events * 1e3 / historyNanos));
+        }
+        System.out.println(String.format(Locale.US, "%d key events", sKeyEvents));
+    }
+
+    /**
+     * Held pointers wander by up to 1.5 pixels per sample; gliding pointers move 12 pixels
+     * sideways per sample, turning around at either end of the piano.
+     */
+    private static void createSamples(Random random, int gliders, float[] xs, float[] ys) {
+        final float[] x = new float[POINTERS];
+        final float[] y = new float[POINTERS];
+        final float[] dx = new float[POINTERS];
+        for (int p = 0; p < POINTERS; p++) {
+            x[p] = random.nextFloat() * WIDTH;
+            y[p] = random.nextFloat() * HEIGHT;
+            dx[p] = 12;
+        }
+        for (int i = 0; i < xs.length; i++) {
+            final int p = i % POINTERS;
+            if (p < gliders) {
+                x[p] = clamp(x[p] + dx[p], WIDTH - 1);
+                if (x[p] == 0 || x[p] == WIDTH - 1) {
+                    dx[p] = -dx[p];
+                }
+            }
+            else {
+                x[p] = clamp(x[p] + (random.nextFloat() - 0.5f) * 3, WIDTH - 1);
+            }
+            y[p] = clamp(y[p] + (random.nextFloat() - 0.5f) * 3, HEIGHT - 1);
+            xs[i] = x[p];
+            ys[i] = y[p];
+        }
+    }
+
+    private static float clamp(float value, float max) {
+        return Math.max(0, Math.min(max, value));
+    }
+
+    /**
+     * The touch handling before {@link PianoTouchTracker}: only the current sample of a move is hit
+     * tested, and the key and touch state of every pointer live in sparse maps.
+     */
+    private static void replayMapLookups(PianoKeyGeometry geometry, float[] xs, float[] ys, int events) {
+        final SparseIntMap pointerKeys = new SparseIntMap();
+        final SparseIntMap movedOffInitKey = new SparseIntMap();
+        final int[] keyTouchCount = new int[PianoKeyGeometry.MAX_NUMBER_OF_KEYS];
+        for (int p = 0; p < POINTERS; p++) {
+            final int key = geometry.getTouchedKey(Math.round(xs[p]), Math.round(ys[p]));
+            pointerKeys.put(p, key);
+            movedOffInitKey.put(p, 0);
+            if (key != -1 && keyTouchCount[key]++ == 0) {
+                sKeyEvents++;
+            }
+        }
+        for (int e = 0; e < events; e++) {
+            final int offset = (e * (HISTORY_SIZE + 1) + HISTORY_SIZE) * POINTERS;
+            for (int i = 0; i < pointerKeys.size(); i++) {
+                final int pointerId = pointerKeys.keyAt(i);
+                final int key = geometry.getTouchedKey(
+                        Math.round(xs[offset + pointerId]),
+                        Math.round(ys[offset + pointerId]));
+                final int oldKey = pointerKeys.get(pointerId);
+                if (key != oldKey) {
+                    if (oldKey != -1 && --keyTouchCount[oldKey] == 0) {
+                        sKeyEvents++;
+                    }
+                    pointerKeys.put(pointerId, key);
+                    movedOffInitKey.put(pointerId, 1);
+                    if (key != -1 && keyTouchCount[key]++ == 0) {
+                        sKeyEvents++;
+                    }
+                }
+            }
+        }
+    }
+
+    private static void replayTracker(
+            PianoKeyGeometry geometry, float[] xs, float[] ys, int events, boolean withHistory) {
+        final PianoTouchTracker tracker = new PianoTouchTracker(geometry, COUNTING_CALLBACK);
+        for (int p = 0; p < POINTERS; p++) {
+            tracker.pointerDown(p, xs[p], ys[p], 0, false);
+        }
+        for (int e = 0; e < events; e++) {
+            for (int h = withHistory ? 0 : HISTORY_SIZE; h <= HISTORY_SIZE; h++) {
+                final int offset = (e * (HISTORY_SIZE + 1) + h) * POINTERS;
+                final long time = e * 16L + h * 3L;
+                for (int p = 0; p < POINTERS; p++) {
+                    tracker.pointerMove(p, xs[offset + p], ys[offset + p], time);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,136 @@
+package com.convergencelabstfx.pianoview;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PianoTouchTracker}.
+ */
+public class PianoTouchTrackerTest {
+
+    private final PianoKeyGeometry mGeometry = new PianoKeyGeometry();
+    private final List<String> mEvents = new ArrayList<>();
+    private PianoTouchTracker mTracker;
+
+    // 14 keys, 8 white keys 100 pixels wide, black keys 60 pixels wide and 60 pixels tall
+    private static final float WHITE_Y = 150;
+
+    @Before
+    public void setUp() {
+        mGeometry.setNumberOfKeys(14);
+        mGeometry.layout(800, 100, 200, 60, 60, 0, 0);
+        mTracker = new PianoTouchTracker(mGeometry, new PianoTouchTracker.Callback() {
+            @Override
+            public void onTouchKeyDown(int key, int pointerId, long time) {
+                mEvents.add("down " + key + " @" + time);
+            }
+
+            @Override
+            public void onTouchKeyUp(int key, int pointerId, long time) {
+                mEvents.add("up " + key + " @" + time);
+            }
+
+            @Override
+            public void onTouchKeyClick(int key, int pointerId, long time) {
+                mEvents.add("click " + key + " @" + time);
+            }
+        });
+    }
+
+    @Test
+    public void tapClicksKey() {
+        mTracker.pointerDown(0, 50, WHITE_Y, 10, false);
+        mTracker.pointerUp(0, 50, WHITE_Y, 20);
+        assertEvents("down 0 @10", "up 0 @20", "click 0 @20");
+    }
+
+    @Test
+    public void keyStaysDownUntilLastPointerLeaves() {
+        mTracker.pointerDown(0, 50, WHITE_Y, 10, false);
+        mTracker.pointerDown(1, 60, WHITE_Y, 11, false);
+        assertEquals(2, mTracker.getKeyTouchCount(0));
+        mTracker.pointerUp(0, 50, WHITE_Y, 12);
+        mTracker.pointerUp(1, 60, WHITE_Y, 13);
+        assertEvents("down 0 @10", "click 0 @12", "up 0 @13", "click 0 @13");
+    }
+
+    @Test
+    public void swipeGoesThroughEveryCrossedKey() {
+        mTracker.pointerDown(0, 50, WHITE_Y, 0, false);
+        // Keys switch half a pixel past the shared edge, since touch coordinates are rounded
+        mTracker.pointerMove(0, 450, WHITE_Y, 400);
+        mTracker.pointerUp(0, 450, WHITE_Y, 400);
+        assertEvents(
+                "down 0 @0",
+                "up 0 @51", "down 2 @51",
+                "up 2 @151", "down 4 @151",
+                "up 4 @251", "down 5 @251",
+                "up 5 @351", "down 7 @351",
+                "up 7 @400");
+    }
+
+    @Test
+    public void heldPointerFollowsRelayout() {
+        mTracker.pointerDown(0, 150, WHITE_Y, 0, false);
+        mTracker.pointerMove(0, 151, WHITE_Y, 1);
+        // Twice as wide; the same sample is now on the first key
+        mGeometry.layout(1600, 200, 200, 120, 60, 0, 0);
+        mTracker.onLayoutChanged();
+        mTracker.pointerMove(0, 152, WHITE_Y, 2);
+        assertEquals(0, mTracker.getPointerKey(0));
+        assertEvents("down 2 @0", "up 2 @2", "down 0 @2");
+    }
+
+    @Test
+    public void singleTouchIgnoresOtherPointers() {
+        mTracker.pointerDown(0, 50, WHITE_Y, 0, true);
+        mTracker.pointerDown(1, 250, WHITE_Y, 1, true);
+        mTracker.pointerMove(1, 350, WHITE_Y, 2);
+        mTracker.pointerUp(1, 350, WHITE_Y, 3);
+        assertEquals(-1, mTracker.getPointerKey(1));
+        mTracker.pointerUp(0, 50, WHITE_Y, 4);
+        assertEvents("down 0 @0", "up 0 @4", "click 0 @4");
+    }
+
+    @Test
+    public void cancelReleasesEveryKeyWithoutClicking() {
+        mTracker.pointerDown(0, 50, WHITE_Y, 0, false);
+        mTracker.pointerDown(3, 100, 30, 1, false);
+        mTracker.cancel(5);
+        assertFalse(mTracker.isActive(0));
+        assertFalse(mTracker.isActive(3));
+        assertEquals(0, mTracker.getKeyTouchCount(0));
+        assertEvents("down 0 @0", "down 1 @1", "up 0 @5", "up 1 @5");
+    }
+
+    @Test
+    public void gestureDownCancelsPointersLeftOver() {
+        mTracker.pointerDown(0, 50, WHITE_Y, 0, true);
+        // A second down without an up or cancel in between
+        mTracker.gestureDown(0, 250, WHITE_Y, 5, false);
+        assertEquals(4, mTracker.getPointerKey(0));
+        assertEquals(0, mTracker.getKeyTouchCount(0));
+        // The new gesture isn't single touch any more
+        mTracker.pointerDown(1, 450, WHITE_Y, 6, false);
+        assertEvents("down 0 @0", "up 0 @5", "down 4 @5", "down 7 @6");
+    }
+
+    @Test
+    public void ignoresPointersThatAreNotDown() {
+        mTracker.pointerMove(2, 50, WHITE_Y, 0);
+        mTracker.pointerUp(2, 50, WHITE_Y, 1);
+        mTracker.pointerDown(40, 50, WHITE_Y, 2, false);
+        assertEvents();
+    }
+
+    private void assertEvents(String... expected) {
+        assertEquals(Arrays.asList(expected), mEvents);
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.convergencelabstfx.pianoview;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test sink that keeps every key change along with when it arrived, for the playback tests.
+ */
+final class TimedKeyChangeSink implements PianoKeyChangeSink {
+
+    // Each change is its time since the clock started, then the arguments of onKeysChanged
+    private final List<long[]> mChanges = new ArrayList<>();
+    private volatile long mStart;
+
+    /**
+     * Starts measuring change times from now.
+     */
+    void startClock() {
+        mStart = System.nanoTime();
+    }
+
+    @Override
+    public void onKeysChanged(long changedLo, long changedHi, long pressedLo, long pressedHi) {
+        synchronized (mChanges) {
+            mChanges.add(new long[]{System.nanoTime() - mStart, changedLo, changedHi, pressedLo, pressedHi});
+        }
+    }
+
+    int size() {
+        synchronized (mChanges) {
+            return mChanges.size();
+        }
+    }
+
+    /**
+     * Returns the time of a change in nanoseconds since the clock started.
+     */
+    long getTimeNanos(int index) {
+        synchronized (mChanges) {
+            return mChanges.get(index)[0];
+        }
+    }
+
+    /**
+     * Waits until at least one change arrived.
+     */
+    void awaitChange() throws InterruptedException {
+        while (size() == 0) {
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Checks a change, and that it didn't come before its time in milliseconds (unless negative).
+     */
+    void assertChange(int index, long timeMillis, long changedLo, long changedHi, long pressedLo, long pressedHi) {
+        final long[] change;
+        synchronized (mChanges) {
+            change = mChanges.get(index);
+        }
+        if (timeMillis >= 0) {
+            assertTrue(change[0] >= timeMillis * 1000000L);
+        }
+        assertEquals(changedLo, change[1]);
+        assertEquals(changedHi, change[2]);
+        assertEquals(pressedLo, change[3]);
+        assertEquals(pressedHi, change[4]);
+    }
+
+}